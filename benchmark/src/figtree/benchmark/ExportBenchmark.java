@@ -0,0 +1,89 @@
+/*
+ * ExportBenchmark.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.benchmark;
+
+import com.itextpdf.text.DocumentException;
+import figtree.application.GraphicFormat;
+import figtree.application.GraphicRenderer;
+import jebl.evolution.trees.RootedTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times exporting a tree as SVG, PDF and PNG through the same code as File > Export
+ * (by way of GraphicRenderer). The graphic is a pixel high per tip (so the largest PNGs
+ * are written in strips) and is thrown away as it is written.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+public class ExportBenchmark {
+
+    @Param({ "1000", "10000", "50000", "200000" })
+    public int tipCount;
+
+    @Param({ "SVG", "PDF", "PNG" })
+    public String formatName;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        tree = new WorkloadGenerator(tipCount, 0.5, 4, 1, 1L).createTree(0);
+        format = GraphicRenderer.getGraphicFormat(formatName);
+        renderer = new GraphicRenderer();
+    }
+
+    @Benchmark
+    public long export() throws IOException, DocumentException {
+        CountingOutputStream stream = new CountingOutputStream();
+        renderer.render(format, WIDTH, Math.max(tipCount, WIDTH), tree, null, stream);
+        return stream.count;
+    }
+
+    /**
+     * Counts the bytes written to it and throws them away.
+     */
+    static class CountingOutputStream extends OutputStream {
+        public void write(int b) {
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        long count = 0;
+    }
+
+    private static final int WIDTH = 1000;
+
+    private RootedTree tree;
+    private GraphicFormat format;
+    private GraphicRenderer renderer;
+}
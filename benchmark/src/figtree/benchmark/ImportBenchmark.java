@@ -0,0 +1,65 @@
+/*
+ * ImportBenchmark.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.benchmark;
+
+import figtree.application.FigTreeNexusImporter;
+import jebl.evolution.io.ImportException;
+import jebl.evolution.trees.Tree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times reading a NEXUS tree file (with the annotations of a typical MCC tree) from
+ * memory so only the parsing is timed.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+public class ImportBenchmark {
+
+    @Param({ "1000", "10000", "50000", "200000" })
+    public int tipCount;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        StringWriter writer = new StringWriter();
+        new WorkloadGenerator(tipCount, 0.5, 4, 1, 1L).write(writer);
+        nexus = writer.toString();
+    }
+
+    @Benchmark
+    public Tree importNexus() throws IOException, ImportException {
+        FigTreeNexusImporter importer = new FigTreeNexusImporter(new StringReader(nexus));
+        return importer.importNextTree();
+    }
+
+    private String nexus;
+}
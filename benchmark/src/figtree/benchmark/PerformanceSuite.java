@@ -0,0 +1,562 @@
+/*
+ * PerformanceSuite.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.benchmark;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import figtree.application.*;
+import figtree.treeviewer.ExtendedTreeViewer;
+import figtree.treeviewer.treelayouts.*;
+import jam.controlpalettes.BasicControlPalette;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.Tree;
+import jebl.util.ProgressListener;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Checks that FigTree hasn't got slower or bigger. Each workload in the budgets file is
+ * made by WorkloadGenerator and then loaded (as FigTree loads a file, see
+ * IndexedTreeFile), laid out, drawn and exported as SVG, PDF and PNG without a window.
+ * The suite fails if any of these phases takes longer than its budget or the heap used
+ * while doing a workload goes over its budget.
+ *
+ * The budgets file holds the measurements made on some machine (the baselines) and
+ * the margins allowed over them. So that the same file can be used on a faster or
+ * slower machine, a calibration task that only uses the JDK is timed first and the time
+ * baselines are scaled by how long it took compared with when the baselines were made.
+ *
+ * Each phase is done a few times and the quickest is compared with the budget so a
+ * slow first run (before the code is compiled) doesn't fail the suite. The peak heap
+ * is the most in use after a garbage collection (see HeapMonitor).
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class PerformanceSuite {
+
+    public enum Phase {
+        LOAD("load"),
+        LAYOUT("layout"),
+        RENDER("render"),
+        SVG("svg"),
+        PDF("pdf"),
+        PNG("png");
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return name;
+        }
+
+        private final String name;
+    }
+
+    /**
+     * @param budgets the workloads and their budgets
+     * @param workloadDirectory where to write the workload files
+     * @param repeatCount the number of times to do each phase
+     */
+    public PerformanceSuite(Properties budgets, File workloadDirectory, int repeatCount) {
+        this.budgets = budgets;
+        this.workloadDirectory = workloadDirectory;
+        this.repeatCount = repeatCount;
+
+        timeMargin = Double.parseDouble(budgets.getProperty("margin.time", "2.0").trim());
+        heapMargin = Double.parseDouble(budgets.getProperty("margin.heap", "1.5").trim());
+    }
+
+    /**
+     * Times the calibration task and works out how much to scale the time baselines by.
+     */
+    public void calibrate(PrintStream out) {
+        long time = Long.MAX_VALUE;
+        for (int i = 0; i < Math.max(repeatCount, 3); i++) {
+            time = Math.min(time, timeCalibrationTask());
+        }
+        final long calibration = Math.max(time / 1000000, 1);
+        measurements.put(CALIBRATION_KEY, calibration);
+
+        final long baseline = Long.parseLong(budgets.getProperty(CALIBRATION_KEY, "0").trim());
+        timeScale = (baseline > 0 ? (double)calibration / baseline : 1.0);
+        out.println(String.format("calibration %d ms (%d ms when the baselines were measured), time budgets scaled by %.2f",
+                calibration, baseline, timeScale));
+        out.println();
+    }
+
+    /**
+     * A fixed amount of sorting and hashing (which doesn't use any FigTree code so it
+     * isn't affected by the changes being checked).
+     * @return the time taken in nanoseconds
+     */
+    private static long timeCalibrationTask() {
+        long start = System.nanoTime();
+        Random random = new Random(CALIBRATION_SEED);
+        double[] values = new double[CALIBRATION_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble();
+        }
+        Arrays.sort(values);
+        Map<Double, Integer> map = new HashMap<Double, Integer>();
+        for (int i = 0; i < values.length; i += 4) {
+            map.put(values[i], i);
+        }
+        long sum = 0;
+        for (int i = 0; i < values.length; i += 2) {
+            Integer index = map.get(values[i]);
+            if (index != null) {
+                sum += index;
+            }
+        }
+        long time = System.nanoTime() - start;
+        // kept so the work isn't optimized away
+        calibrationSum += sum;
+        return time;
+    }
+
+    /**
+     * @return the names of the workloads in the budgets file
+     */
+    public List<String> getWorkloadNames() {
+        List<String> names = new ArrayList<String>();
+        for (String name : budgets.getProperty("workloads", "").split(",")) {
+            if (name.trim().length() > 0) {
+                names.add(name.trim());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Does a workload and compares it to its budgets.
+     * @return true if it was within all its budgets
+     */
+    public boolean run(String name, PrintStream out) throws Exception {
+        WorkloadGenerator generator = createGenerator(name);
+
+        File file = new File(workloadDirectory, name + ".tre");
+        generator.write(file);
+
+        HeapMonitor heapMonitor = new HeapMonitor();
+        System.gc();
+        heapMonitor.reset();
+
+        Map<Phase, Long> times = new EnumMap<Phase, Long>(Phase.class);
+        try {
+            for (int i = 0; i < repeatCount; i++) {
+                Map<Phase, Long> repeatTimes = runWorkload(file, generator.getTipCount());
+                for (Phase phase : repeatTimes.keySet()) {
+                    Long time = times.get(phase);
+                    if (time == null || repeatTimes.get(phase) < time) {
+                        times.put(phase, repeatTimes.get(phase));
+                    }
+                }
+            }
+        } finally {
+            heapMonitor.stop();
+        }
+        final long peakHeap = heapMonitor.getPeak() / (1024 * 1024);
+
+        boolean withinBudget = true;
+        out.println(name + " (" + budgets.getProperty(name + ".workload") + ")");
+        for (Phase phase : Phase.values()) {
+            String key = name + "." + phase + ".ms";
+            long time = times.get(phase) / 1000000;
+            measurements.put(key, time);
+            withinBudget &= report(out, phase.toString(), time, "ms", key, timeScale * timeMargin);
+        }
+        measurements.put(name + ".heap.mb", peakHeap);
+        withinBudget &= report(out, "heap", peakHeap, "Mb", name + ".heap.mb", heapMargin);
+        out.println();
+
+        return withinBudget;
+    }
+
+    /**
+     * @return the measurements made so far by budget name
+     */
+    public Map<String, Long> getMeasurements() {
+        return measurements;
+    }
+
+    private WorkloadGenerator createGenerator(String name) {
+        String workload = budgets.getProperty(name + ".workload");
+        if (workload == null) {
+            throw new IllegalArgumentException("No workload given for " + name);
+        }
+        String[] values = workload.split(",");
+        if (values.length != 4) {
+            throw new IllegalArgumentException("The workload for " + name + " should be: tips, balance, annotations, trees");
+        }
+        return new WorkloadGenerator(
+                Integer.parseInt(values[0].trim()),
+                Double.parseDouble(values[1].trim()),
+                Integer.parseInt(values[2].trim()),
+                Integer.parseInt(values[3].trim()),
+                name.hashCode());
+    }
+
+    /**
+     * Does each phase of a workload once.
+     * @return the time taken by each phase in nanoseconds
+     */
+    private Map<Phase, Long> runWorkload(File file, int tipCount) throws Exception {
+        Map<Phase, Long> times = new EnumMap<Phase, Long>(Phase.class);
+
+        // the file is indexed and all the trees read in parallel (as FigTreeFrame does
+        // for files that aren't large enough to be read on demand)
+        long start = System.nanoTime();
+        IndexedTreeFile treeFile = new IndexedTreeFile(file);
+        treeFile.index(ProgressListener.EMPTY);
+        List<Tree> trees = treeFile.readTrees(0, treeFile.size(), ProgressListener.EMPTY);
+        times.put(Phase.LOAD, System.nanoTime() - start);
+        System.gc();
+
+        RootedTree tree = (RootedTree)trees.get(0);
+        start = System.nanoTime();
+        for (TreeLayout treeLayout : new TreeLayout[] {
+                new RectilinearTreeLayout(), new PolarTreeLayout(), new RadialTreeLayout() }) {
+            treeLayout.layout(tree, new TreeLayoutCache());
+        }
+        times.put(Phase.LAYOUT, System.nanoTime() - start);
+        System.gc();
+
+        start = System.nanoTime();
+        ExtendedTreeViewer treeViewer = new ExtendedTreeViewer();
+        new FigTreePanel(null, treeViewer, new BasicControlPalette(FigTreePanel.CONTROL_PALETTE_WIDTH,
+                BasicControlPalette.DisplayMode.ONLY_ONE_OPEN));
+        treeViewer.setTrees(trees);
+        JComponent treePane = treeViewer.getContentPane();
+        treePane.setSize(RENDER_WIDTH, RENDER_HEIGHT);
+        BufferedImage image = new BufferedImage(RENDER_WIDTH, RENDER_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        treePane.paint(g);
+        g.dispose();
+        times.put(Phase.RENDER, System.nanoTime() - start);
+        System.gc();
+
+        // the exports are a pixel high per tip (as in ExportBenchmark)
+        GraphicRenderer renderer = new GraphicRenderer();
+        final int height = Math.max(tipCount, EXPORT_WIDTH);
+        times.put(Phase.SVG, timeExport(renderer, GraphicFormat.SVG, tree, height));
+        times.put(Phase.PDF, timeExport(renderer, GraphicFormat.PDF, tree, height));
+        times.put(Phase.PNG, timeExport(renderer, GraphicFormat.PNG, tree, height));
+
+        return times;
+    }
+
+    private long timeExport(GraphicRenderer renderer, GraphicFormat format, Tree tree, int height) throws Exception {
+        long start = System.nanoTime();
+        OutputStream stream = new BufferedOutputStream(new NullOutputStream());
+        renderer.render(format, EXPORT_WIDTH, height, tree, null, stream);
+        stream.close();
+        long time = System.nanoTime() - start;
+        System.gc();
+        return time;
+    }
+
+    /**
+     * Compares a measurement with its baseline times a margin.
+     */
+    private boolean report(PrintStream out, String label, long value, String units, String key, double margin) {
+        String baseline = budgets.getProperty(key);
+        String status;
+        boolean withinBudget = true;
+        if (baseline == null) {
+            status = "no baseline";
+        } else {
+            // small budgets would be failed by the noise in the timings
+            long budget = Math.max((long)Math.ceil(Long.parseLong(baseline.trim()) * margin), MINIMUM_BUDGET);
+            if (value > budget) {
+                status = "OVER BUDGET (" + budget + " " + units + ", baseline " + baseline.trim() + ")";
+                withinBudget = false;
+            } else {
+                status = "ok (" + budget + " " + units + ", baseline " + baseline.trim() + ")";
+            }
+        }
+        out.println(String.format("    %-8s %8d %-3s %s", label, value, units, status));
+        return withinBudget;
+    }
+
+    /**
+     * Rewrites the baselines in a budgets file as the measurements (including the
+     * calibration), keeping the rest of the file as it is. Baselines that weren't in
+     * the file are put after their workload.
+     */
+    public static void updateBudgets(File budgetsFile, Map<String, Long> measurements) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(budgetsFile));
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                lines.add(line);
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+
+        Set<String> missing = new LinkedHashSet<String>(measurements.keySet());
+        for (String line : lines) {
+            missing.remove(getKey(line));
+        }
+
+        PrintWriter writer = new PrintWriter(new FileWriter(budgetsFile));
+        try {
+            for (String line : lines) {
+                String key = getKey(line);
+                if (measurements.containsKey(key)) {
+                    writer.println(key + " = " + measurements.get(key));
+                } else {
+                    writer.println(line);
+                }
+                if (key != null && key.endsWith(".workload")) {
+                    String prefix = key.substring(0, key.length() - "workload".length());
+                    for (Iterator<String> keys = missing.iterator(); keys.hasNext(); ) {
+                        String missingKey = keys.next();
+                        if (missingKey.startsWith(prefix)) {
+                            writer.println(missingKey + " = " + measurements.get(missingKey));
+                            keys.remove();
+                        }
+                    }
+                }
+            }
+            for (String key : missing) {
+                writer.println(key + " = " + measurements.get(key));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return the key of a line of a properties file (or null if it is blank or a comment)
+     */
+    private static String getKey(String line) {
+        int equals = line.indexOf('=');
+        if (equals <= 0 || line.trim().startsWith("#")) {
+            return null;
+        }
+        return line.substring(0, equals).trim();
+    }
+
+    /**
+     * Keeps the largest heap in use after a garbage collection (i.e., the most memory
+     * that was actually needed rather than the most that had been allocated). A
+     * collection is forced at the end of each phase so the heap then is also seen.
+     */
+    private static class HeapMonitor implements NotificationListener {
+        HeapMonitor() {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter) {
+                    ((NotificationEmitter)collector).addNotificationListener(this, null, null);
+                    emitters.add((NotificationEmitter)collector);
+                }
+            }
+        }
+
+        public synchronized void handleNotification(Notification notification, Object handback) {
+            if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                        (CompositeData)notification.getUserData());
+                long used = 0;
+                for (String poolName : info.getGcInfo().getMemoryUsageAfterGc().keySet()) {
+                    if (heapPoolNames.contains(poolName)) {
+                        used += info.getGcInfo().getMemoryUsageAfterGc().get(poolName).getUsed();
+                    }
+                }
+                peak = Math.max(peak, used);
+            }
+        }
+
+        synchronized void reset() {
+            peak = 0;
+        }
+
+        synchronized long getPeak() {
+            return peak;
+        }
+
+        void stop() {
+            for (NotificationEmitter emitter : emitters) {
+                try {
+                    emitter.removeNotificationListener(this);
+                } catch (ListenerNotFoundException lnfe) {
+                    // already gone
+                }
+            }
+        }
+
+        private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+        private final Set<String> heapPoolNames = getHeapPoolNames();
+        private long peak = 0;
+    }
+
+    private static Set<String> getHeapPoolNames() {
+        Set<String> names = new HashSet<String>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                names.add(pool.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Throws away what is written to it.
+     */
+    private static class NullOutputStream extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    public static void printUsage(Arguments arguments) {
+        arguments.printUsage("performancesuite", "[<workload-name> ...]");
+        System.out.println();
+        System.out.println("  Example: performancesuite -budgets benchmark/budgets.properties balanced-10k");
+        System.out.println();
+    }
+
+    public static void main(String[] args) {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[] {
+                        new Arguments.StringOption("budgets", "budgets-file", "the file of workloads and budgets [default = benchmark/budgets.properties]"),
+                        new Arguments.StringOption("workdir", "directory", "where to write the workload files [default = a temporary directory]"),
+                        new Arguments.IntegerOption("repeats", 1, Integer.MAX_VALUE, "the number of times to do each phase [default = 3]"),
+                        new Arguments.Option("update", "write the measurements to the budgets file as the baselines instead of checking them"),
+                        new Arguments.Option("help", "option to print this message")
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println();
+            System.out.println(ae.getMessage());
+            System.out.println();
+            printUsage(arguments);
+            System.exit(1);
+        }
+
+        if (arguments.hasOption("help")) {
+            printUsage(arguments);
+            System.exit(0);
+        }
+
+        File budgetsFile = new File(arguments.hasOption("budgets") ?
+                arguments.getStringOption("budgets") : "benchmark/budgets.properties");
+
+        try {
+            Properties budgets = new Properties();
+            Reader reader = new BufferedReader(new FileReader(budgetsFile));
+            try {
+                budgets.load(reader);
+            } finally {
+                reader.close();
+            }
+
+            File workloadDirectory;
+            if (arguments.hasOption("workdir")) {
+                workloadDirectory = new File(arguments.getStringOption("workdir"));
+                workloadDirectory.mkdirs();
+            } else {
+                workloadDirectory = File.createTempFile("figtree", "workloads");
+                workloadDirectory.delete();
+                workloadDirectory.mkdirs();
+                workloadDirectory.deleteOnExit();
+            }
+
+            PerformanceSuite suite = new PerformanceSuite(budgets, workloadDirectory,
+                    (arguments.hasOption("repeats") ? arguments.getIntegerOption("repeats") : 3));
+
+            suite.calibrate(System.out);
+
+            List<String> names = Arrays.asList(arguments.getLeftoverArguments());
+            if (names.isEmpty()) {
+                names = suite.getWorkloadNames();
+            }
+
+            List<String> failed = new ArrayList<String>();
+            for (String name : names) {
+                if (!suite.run(name, System.out)) {
+                    failed.add(name);
+                }
+                if (!arguments.hasOption("workdir")) {
+                    new File(workloadDirectory, name + ".tre").delete();
+                }
+            }
+
+            if (arguments.hasOption("update")) {
+                updateBudgets(budgetsFile, suite.getMeasurements());
+                System.out.println("Budgets written to " + budgetsFile);
+            } else if (!failed.isEmpty()) {
+                System.out.println("Over budget: " + failed);
+                System.exit(1);
+            } else {
+                System.out.println("All workloads within budget");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static final long MINIMUM_BUDGET = 100;
+
+    private static final String CALIBRATION_KEY = "calibration.ms";
+    private static final long CALIBRATION_SEED = 1234;
+    private static final int CALIBRATION_SIZE = 2000000;
+    private static long calibrationSum = 0;
+
+    private static final int RENDER_WIDTH = 1200;
+    private static final int RENDER_HEIGHT = 1600;
+    private static final int EXPORT_WIDTH = 1000;
+
+    private final Properties budgets;
+    private final File workloadDirectory;
+    private final int repeatCount;
+
+    // the allowed margins over the baselines and how much the time baselines are
+    // scaled by for this machine (see calibrate)
+    private final double timeMargin;
+    private final double heapMargin;
+    private double timeScale = 1.0;
+
+    private final Map<String, Long> measurements = new LinkedHashMap<String, Long>();
+}
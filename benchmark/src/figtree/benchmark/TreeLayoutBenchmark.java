@@ -0,0 +1,73 @@
+/*
+ * TreeLayoutBenchmark.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.benchmark;
+
+import figtree.treeviewer.treelayouts.*;
+import jebl.evolution.trees.RootedTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times laying out a whole tree from scratch with each of the tree layouts.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+public class TreeLayoutBenchmark {
+
+    @Param({ "1000", "10000", "50000", "200000" })
+    public int tipCount;
+
+    @Param({ "rectilinear", "polar", "radial" })
+    public String layoutType;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        tree = new WorkloadGenerator(tipCount, 0.5, 4, 1, 1L).createTree(0);
+
+        if (layoutType.equals("rectilinear")) {
+            treeLayout = new RectilinearTreeLayout();
+        } else if (layoutType.equals("polar")) {
+            treeLayout = new PolarTreeLayout();
+        } else if (layoutType.equals("radial")) {
+            treeLayout = new RadialTreeLayout();
+        } else {
+            throw new IllegalArgumentException("Unknown layout type: " + layoutType);
+        }
+    }
+
+    @Benchmark
+    public TreeLayoutCache layout() {
+        TreeLayoutCache cache = new TreeLayoutCache();
+        treeLayout.layout(tree, cache);
+        return cache;
+    }
+
+    private RootedTree tree;
+    private TreeLayout treeLayout;
+}
@@ -0,0 +1,101 @@
+/*
+ * TreePaneBenchmark.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.benchmark;
+
+import figtree.application.FigTreePanel;
+import figtree.treeviewer.ExtendedTreeViewer;
+import figtree.treeviewer.TreePane;
+import jam.controlpalettes.BasicControlPalette;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times calibrating (fitting the tree, labels and scales to the size of the panel) and
+ * drawing a tree into an off-screen image with the default FigTree settings.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+public class TreePaneBenchmark {
+
+    @Param({ "1000", "10000", "50000", "200000" })
+    public int tipCount;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ExtendedTreeViewer treeViewer = new ExtendedTreeViewer();
+        new FigTreePanel(null, treeViewer, new BasicControlPalette(FigTreePanel.CONTROL_PALETTE_WIDTH,
+                BasicControlPalette.DisplayMode.ONLY_ONE_OPEN));
+        treeViewer.setTree(new WorkloadGenerator(tipCount, 0.5, 4, 1, 1L).createTree(0));
+
+        treePane = (TreePane)treeViewer.getContentPane();
+        treePane.setSize(WIDTH, HEIGHT);
+
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+
+        // lay the tree out so only calibration is timed
+        treePane.drawTree(graphics, WIDTH, HEIGHT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    /**
+     * Resizes the panel (as when the window is resized) so the tree is calibrated
+     * again and then draws it.
+     */
+    @Benchmark
+    public BufferedImage calibrateAndDraw() {
+        resized = !resized;
+        treePane.setSize(resized ? WIDTH - 1 : WIDTH, HEIGHT);
+        treePane.drawTree(graphics, treePane.getWidth(), HEIGHT);
+        return image;
+    }
+
+    /**
+     * Draws the already calibrated tree.
+     */
+    @Benchmark
+    public BufferedImage draw() {
+        treePane.drawTree(graphics, WIDTH, HEIGHT);
+        return image;
+    }
+
+    private static final int WIDTH = 1200;
+    private static final int HEIGHT = 1600;
+
+    private TreePane treePane;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private boolean resized = false;
+}
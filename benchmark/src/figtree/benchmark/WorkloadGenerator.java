@@ -0,0 +1,269 @@
+/*
+ * WorkloadGenerator.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.benchmark;
+
+import figtree.application.Arguments;
+import figtree.application.FigTreeNexusExporter;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.SimpleRootedTree;
+import jebl.evolution.trees.Tree;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Makes random trees for benchmarking and performance testing. The shape of the trees
+ * goes from a caterpillar (a balance of 0, each node has a tip as one of its children)
+ * to fully balanced (1, the tips are split evenly at each node). Each node has the
+ * given number of annotations, starting with the ones in a typical BEAST MCC tree
+ * (posterior, rate, height range and a discrete state). A workload can have several
+ * trees (as from a posterior sample) with the same taxa.
+ *
+ * The same settings and seed always give the same trees. The trees are made one at a
+ * time as they are written so large posterior samples can be written.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class WorkloadGenerator {
+
+    /**
+     * @param tipCount the number of tips in each tree
+     * @param balance from 0 (a caterpillar) to 1 (balanced)
+     * @param annotationCount the number of annotations on each node
+     * @param treeCount the number of trees
+     * @param seed the seed for the random numbers
+     */
+    public WorkloadGenerator(int tipCount, double balance, int annotationCount, int treeCount, long seed) {
+        if (tipCount < 2) {
+            throw new IllegalArgumentException("A tree needs at least 2 tips");
+        }
+        if (balance < 0.0 || balance > 1.0) {
+            throw new IllegalArgumentException("The balance must be between 0 and 1");
+        }
+        this.tipCount = tipCount;
+        this.balance = balance;
+        this.annotationCount = annotationCount;
+        this.treeCount = treeCount;
+        this.seed = seed;
+    }
+
+    public int getTipCount() {
+        return tipCount;
+    }
+
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+    /**
+     * @param index the number of the tree (from 0)
+     * @return the tree
+     */
+    public RootedTree createTree(int index) {
+        Random random = new Random(seed * 1000003L + index);
+
+        // The splits are worked out from the root down with a stack (rather than by
+        // recursion, which would overflow for a large caterpillar) giving the nodes in
+        // pre-order, each with the number of tips below it and its first child.
+        final int nodeCount = 2 * tipCount - 1;
+        int[] tips = new int[nodeCount];
+        int[] firstChild = new int[nodeCount];
+        int[] secondChild = new int[nodeCount];
+
+        int[] stack = new int[nodeCount];
+        int stackSize = 0;
+        int count = 1;
+        tips[0] = tipCount;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            final int n = tips[node];
+            if (n == 1) {
+                firstChild[node] = -1;
+                continue;
+            }
+            int left = (int)Math.round(balance * n / 2.0);
+            left = Math.max(1, Math.min(n - 1, left));
+            if (random.nextBoolean()) {
+                // so the caterpillars aren't all ladderized the same way
+                left = n - left;
+            }
+            firstChild[node] = count;
+            tips[count++] = left;
+            secondChild[node] = count;
+            tips[count++] = n - left;
+            stack[stackSize++] = secondChild[node];
+            stack[stackSize++] = firstChild[node];
+        }
+
+        // the taxa in a random order
+        int[] taxa = new int[tipCount];
+        for (int i = 0; i < tipCount; i++) {
+            taxa[i] = i;
+        }
+        for (int i = tipCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int taxon = taxa[i];
+            taxa[i] = taxa[j];
+            taxa[j] = taxon;
+        }
+
+        // The nodes are made from the tips up (the children follow their parents in
+        // pre-order).
+        SimpleRootedTree tree = new SimpleRootedTree();
+        Node[] nodes = new Node[nodeCount];
+        double[] heights = new double[nodeCount];
+        int nextTaxon = tipCount;
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            if (firstChild[node] < 0) {
+                nextTaxon--;
+                nodes[node] = tree.createExternalNode(Taxon.getTaxon("taxon_" + (taxa[nextTaxon] + 1)));
+                heights[node] = 0.0;
+            } else {
+                nodes[node] = tree.createInternalNode(Arrays.asList(nodes[firstChild[node]], nodes[secondChild[node]]));
+                heights[node] = Math.max(heights[firstChild[node]], heights[secondChild[node]]) +
+                        -Math.log(1.0 - random.nextDouble());
+            }
+            tree.setHeight(nodes[node], heights[node]);
+            annotate(nodes[node], heights[node], firstChild[node] < 0, random);
+        }
+
+        return tree;
+    }
+
+    private void annotate(Node node, double height, boolean isExternal, Random random) {
+        for (int i = 0; i < annotationCount; i++) {
+            switch (i) {
+                case 0:
+                    if (!isExternal) {
+                        node.setAttribute("posterior", random.nextDouble());
+                    }
+                    break;
+                case 1:
+                    node.setAttribute("rate", 0.5 + random.nextDouble());
+                    break;
+                case 2:
+                    node.setAttribute("height_95%_HPD", new Object[] {
+                            height * (0.5 + 0.5 * random.nextDouble()),
+                            height * (1.0 + 0.5 * random.nextDouble())
+                    });
+                    break;
+                case 3:
+                    node.setAttribute("state", STATES[random.nextInt(STATES.length)]);
+                    break;
+                default:
+                    node.setAttribute("trait_" + (i - 3), random.nextGaussian());
+            }
+        }
+    }
+
+    /**
+     * Writes the trees as a NEXUS file using FigTree's exporter.
+     */
+    public void write(Writer writer) throws IOException {
+        // the trees are only made as the exporter gets to each one
+        List<Tree> trees = new AbstractList<Tree>() {
+            public Tree get(int index) {
+                return createTree(index);
+            }
+
+            public int size() {
+                return treeCount;
+            }
+        };
+
+        FigTreeNexusExporter exporter = new FigTreeNexusExporter(writer, true);
+        exporter.exportTrees(trees);
+        exporter.close();
+    }
+
+    /**
+     * Writes the trees to a NEXUS file.
+     */
+    public void write(File file) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            write(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public static void printUsage(Arguments arguments) {
+        arguments.printUsage("workloadgenerator", "<output-file-name>");
+        System.out.println();
+        System.out.println("  Example: workloadgenerator -tips 10000 -balance 0.5 -trees 100 workload.tre");
+        System.out.println();
+    }
+
+    public static void main(String[] args) {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[] {
+                        new Arguments.IntegerOption("tips", 2, Integer.MAX_VALUE, "the number of tips in each tree [default = 1000]"),
+                        new Arguments.RealOption("balance", 0.0, 1.0, "from 0 (a caterpillar) to 1 (balanced) [default = 0.5]"),
+                        new Arguments.IntegerOption("annotations", 0, Integer.MAX_VALUE, "the number of annotations on each node [default = 4]"),
+                        new Arguments.IntegerOption("trees", 1, Integer.MAX_VALUE, "the number of trees [default = 1]"),
+                        new Arguments.IntegerOption("seed", "the seed for the random numbers [default = 1]"),
+                        new Arguments.Option("help", "option to print this message")
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println();
+            System.out.println(ae.getMessage());
+            System.out.println();
+            printUsage(arguments);
+            System.exit(1);
+        }
+
+        String[] leftoverArguments = arguments.getLeftoverArguments();
+        if (arguments.hasOption("help") || leftoverArguments.length != 1) {
+            printUsage(arguments);
+            System.exit(0);
+        }
+
+        WorkloadGenerator generator = new WorkloadGenerator(
+                (arguments.hasOption("tips") ? arguments.getIntegerOption("tips") : 1000),
+                (arguments.hasOption("balance") ? arguments.getRealOption("balance") : 0.5),
+                (arguments.hasOption("annotations") ? arguments.getIntegerOption("annotations") : 4),
+                (arguments.hasOption("trees") ? arguments.getIntegerOption("trees") : 1),
+                (arguments.hasOption("seed") ? arguments.getIntegerOption("seed") : 1));
+
+        try {
+            generator.write(new File(leftoverArguments[0]));
+        } catch (IOException ioe) {
+            System.err.println("Error writing file: " + ioe.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static final String[] STATES = { "Asia", "Europe", "Africa", "NorthAmerica", "SouthAmerica", "Oceania" };
+
+    private final int tipCount;
+    private final double balance;
+    private final int annotationCount;
+    private final int treeCount;
+    private final long seed;
+}
@@ -0,0 +1,247 @@
+/*
+ * BatchRenderer.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Draws many tree files into graphics in one run without a window. Each job is a line
+ * of text giving:
+ *
+ *   tree-file graphic-file [format [width height]]
+ *
+ * separated by tabs (or spaces if there are no tabs). If the format is not given it is
+ * taken from the extension of the graphic file. Blank lines and lines starting with '#'
+ * are ignored. The jobs can be read from a file, from standard input or from connections
+ * to a local socket and are drawn in parallel, each thread keeping its own GraphicRenderer.
+ * A line is written back for each job (in the order they were given) saying either
+ * "OK graphic-file" or "ERROR graphic-file: message".
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class BatchRenderer {
+
+    /**
+     * @param threadCount the number of jobs to draw at once
+     * @param defaultFormat the format to use if it isn't given and the graphic file has no extension
+     * @param defaultWidth the width to use if it isn't given
+     * @param defaultHeight the height to use if it isn't given
+     * @param baseSettings settings to give to all the trees (may be null)
+     */
+    public BatchRenderer(int threadCount, GraphicFormat defaultFormat, int defaultWidth, int defaultHeight,
+                         final Map<String, Object> baseSettings) {
+        this.defaultFormat = defaultFormat;
+        this.defaultWidth = defaultWidth;
+        this.defaultHeight = defaultHeight;
+
+        renderers = new ThreadLocal<GraphicRenderer>() {
+            @Override
+            protected GraphicRenderer initialValue() {
+                return new GraphicRenderer(baseSettings);
+            }
+        };
+
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FigTree renderer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Draws the jobs read from a reader, writing a line to the writer for each as it
+     * is finished. Returns when all the jobs have been done.
+     * @return the number of jobs that failed
+     */
+    public int processJobs(Reader reader, final PrintWriter writer) throws IOException {
+        final BlockingQueue<Future<String>> results = new LinkedBlockingQueue<Future<String>>();
+        final int[] failedCount = new int[1];
+
+        // write the results in the order the jobs came in while more are being read
+        Thread resultWriter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        Future<String> result = results.take();
+                        if (result == END_OF_JOBS) {
+                            break;
+                        }
+                        String message;
+                        try {
+                            message = result.get();
+                        } catch (ExecutionException ee) {
+                            message = "ERROR " + ee.getCause();
+                        }
+                        if (message.startsWith("ERROR")) {
+                            failedCount[0]++;
+                        }
+                        writer.println(message);
+                        writer.flush();
+                    }
+                } catch (InterruptedException ie) {
+                    // give up
+                }
+            }
+        }, "FigTree render results");
+        resultWriter.start();
+
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        try {
+            String line = bufferedReader.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    results.add(executor.submit(new Job(line)));
+                }
+                line = bufferedReader.readLine();
+            }
+        } finally {
+            results.add(END_OF_JOBS);
+        }
+
+        try {
+            resultWriter.join();
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException();
+        }
+
+        return failedCount[0];
+    }
+
+    /**
+     * Listens for connections on a port of the local machine and draws the jobs sent
+     * down each. This doesn't return.
+     */
+    public void serve(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        System.out.println("Listening for jobs on port " + serverSocket.getLocalPort());
+
+        while (true) {
+            final Socket socket = serverSocket.accept();
+            Thread connection = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        processJobs(new InputStreamReader(socket.getInputStream(), "UTF-8"),
+                                new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
+                    } catch (IOException ioe) {
+                        System.err.println("Error reading jobs: " + ioe.getMessage());
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ioe) {
+                            // already closed
+                        }
+                    }
+                }
+            }, "FigTree render connection");
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private String render(String line) {
+        String[] fields = line.split(line.contains("\t") ? "\t+" : "\\s+");
+
+        if (fields.length < 2 || fields.length == 4 || fields.length > 5) {
+            return "ERROR " + line + ": expected tree-file graphic-file [format [width height]]";
+        }
+
+        String treeFileName = fields[0];
+        String graphicFileName = fields[1];
+
+        GraphicFormat format = defaultFormat;
+        if (fields.length > 2) {
+            format = GraphicRenderer.getGraphicFormat(fields[2]);
+        } else {
+            int dot = graphicFileName.lastIndexOf('.');
+            if (dot >= 0 && GraphicRenderer.getGraphicFormat(graphicFileName.substring(dot + 1)) != null) {
+                format = GraphicRenderer.getGraphicFormat(graphicFileName.substring(dot + 1));
+            }
+        }
+        if (format == null) {
+            return "ERROR " + graphicFileName + ": unknown graphic format";
+        }
+
+        int width = defaultWidth;
+        int height = defaultHeight;
+        if (fields.length > 3) {
+            try {
+                width = Integer.parseInt(fields[3]);
+                height = Integer.parseInt(fields[4]);
+            } catch (NumberFormatException nfe) {
+                return "ERROR " + graphicFileName + ": bad width or height";
+            }
+        }
+
+        File graphicFile = new File(graphicFileName);
+        try {
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(graphicFile));
+            try {
+                renderers.get().render(format, width, height, treeFileName, stream);
+            } finally {
+                stream.close();
+            }
+        } catch (Exception e) {
+            // don't leave half a graphic behind
+            graphicFile.delete();
+            return "ERROR " + graphicFileName + ": " + (e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+
+        return "OK " + graphicFileName;
+    }
+
+    private class Job implements Callable<String> {
+        Job(String line) {
+            this.line = line;
+        }
+
+        public String call() {
+            return render(line);
+        }
+
+        private final String line;
+    }
+
+    private static final Future<String> END_OF_JOBS = new FutureTask<String>(new Callable<String>() {
+        public String call() {
+            return null;
+        }
+    });
+
+    private final GraphicFormat defaultFormat;
+    private final int defaultWidth;
+    private final int defaultHeight;
+
+    private final ThreadLocal<GraphicRenderer> renderers;
+    private final ExecutorService executor;
+}
@@ -0,0 +1,128 @@
+/*
+ * ExportGraphicsDialog.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.ui.components.WholeNumberField;
+import jam.panels.OptionsPanel;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+
+/**
+ * Dialog presenting options for exporting each of the trees to a graphic file
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class ExportGraphicsDialog {
+
+    private final JDialog dialog;
+    private final JOptionPane optionPane;
+
+    private JComboBox<GraphicFormat> formatCombo = new JComboBox<GraphicFormat>(new GraphicFormat[] {
+            GraphicFormat.PDF, GraphicFormat.SVG, GraphicFormat.PNG, GraphicFormat.JPEG
+    });
+    private WholeNumberField firstTreeText = new WholeNumberField(1, Integer.MAX_VALUE);
+    private WholeNumberField lastTreeText = new WholeNumberField(1, Integer.MAX_VALUE);
+    private WholeNumberField strideText = new WholeNumberField(1, Integer.MAX_VALUE);
+    private WholeNumberField widthText = new WholeNumberField(1, Integer.MAX_VALUE);
+    private WholeNumberField heightText = new WholeNumberField(1, Integer.MAX_VALUE);
+
+    public ExportGraphicsDialog(JFrame frame) {
+
+        OptionsPanel options = new OptionsPanel(12, 12);
+
+        options.addComponentWithLabel("Graphic format: ", formatCombo);
+
+        firstTreeText.setColumns(8);
+        lastTreeText.setColumns(8);
+        strideText.setColumns(8);
+        widthText.setColumns(8);
+        heightText.setColumns(8);
+
+        options.addComponentWithLabel("First tree: ", firstTreeText);
+        options.addComponentWithLabel("Last tree: ", lastTreeText);
+        options.addComponentWithLabel("Export every: ", strideText);
+        options.addSeparator();
+        options.addComponentWithLabel("Width: ", widthText);
+        options.addComponentWithLabel("Height: ", heightText);
+
+        optionPane = new JOptionPane(options,
+                JOptionPane.QUESTION_MESSAGE,
+                JOptionPane.OK_CANCEL_OPTION,
+                null,
+                null,
+                null);
+        optionPane.setBorder(new EmptyBorder(12, 12, 12, 12));
+
+        dialog = optionPane.createDialog(frame, "Export Graphics of All Trees");
+        dialog.pack();
+    }
+
+    public int showDialog(int treeCount, int width, int height) {
+
+        firstTreeText.setValue(1);
+        lastTreeText.setValue(treeCount);
+        strideText.setValue(1);
+        widthText.setValue(width);
+        heightText.setValue(height);
+
+        dialog.setVisible(true);
+
+        int result = JOptionPane.CANCEL_OPTION;
+        Integer value = (Integer)optionPane.getValue();
+        if (value != null && value.intValue() != -1) {
+            result = value.intValue();
+        }
+
+        return result;
+    }
+
+    public GraphicFormat getFormat() {
+        return formatCombo.getItemAt(formatCombo.getSelectedIndex());
+    }
+
+    /**
+     * @return the number of the first tree (counting from 1)
+     */
+    public int getFirstTree() {
+        return firstTreeText.getValue(1);
+    }
+
+    /**
+     * @return the number of the last tree (counting from 1)
+     */
+    public int getLastTree() {
+        return lastTreeText.getValue(Integer.MAX_VALUE);
+    }
+
+    public int getStride() {
+        return Math.max(strideText.getValue(1), 1);
+    }
+
+    public int getWidth() {
+        return widthText.getValue(800);
+    }
+
+    public int getHeight() {
+        return heightText.getValue(600);
+    }
+}
@@ -33,14 +33,10 @@ package figtree.application;
 import com.itextpdf.text.DocumentException;
 import figtree.application.preferences.AppearancePreferencesSection;
 import figtree.application.preferences.FontsPreferencesSection;
-import figtree.treeviewer.ExtendedTreeViewer;
-import jam.controlpalettes.BasicControlPalette;
-import jam.controlpalettes.ControlPalette;
 import jam.framework.*;
 import jam.mac.Utils;
 import jebl.evolution.io.ImportException;
-import jebl.evolution.io.NewickImporter;
-import jebl.evolution.trees.Tree;
+import jebl.util.ProgressListener;
 
 import javax.swing.*;
 import java.awt.*;
@@ -99,96 +95,142 @@ public class FigTreeApplication extends MultiDocApplication {
     static public void createGraphic(String graphicFormat, int width, int height, String treeFileName, String graphicFileName) {
 
         try {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(treeFileName));
-            String line = bufferedReader.readLine();
-            while (line != null && line.length() == 0) {
-                line = bufferedReader.readLine();
+            OutputStream stream;
+            if (graphicFileName != null) {
+                stream = new FileOutputStream(graphicFileName);
+            } else {
+                stream = System.out;
             }
 
-            bufferedReader.close();
-
-            boolean isNexus = (line != null && line.toUpperCase().contains("#NEXUS"));
-
-            Reader reader = new FileReader(treeFileName);
-
-            Map<String, Object> settings = new HashMap<String, Object>();
+            GraphicFormat format = GraphicRenderer.getGraphicFormat(graphicFormat);
+            if (format == null) {
+                throw new RuntimeException("Unknown graphic format");
+            }
 
-            ExtendedTreeViewer treeViewer = new ExtendedTreeViewer();
-            ControlPalette controlPalette = new BasicControlPalette(FigTreePanel.CONTROL_PALETTE_WIDTH, BasicControlPalette.DisplayMode.ONLY_ONE_OPEN);
-            FigTreePanel figTreePanel = new FigTreePanel(null, treeViewer, controlPalette);
+            if (graphicFileName != null) {
+                System.out.println("Creating " + graphicFormat + " graphic: " + graphicFileName);
+            }
 
-            // First of all, fully populate the settings map so that
-            // all the settings have defaults
-            controlPalette.getSettings(settings);
+            new GraphicRenderer().render(format, width, height, treeFileName, stream);
 
-            List<Tree> trees = new ArrayList<Tree>();
+        } catch(ImportException ie) {
+            throw new RuntimeException("Error writing graphic file: " + ie.getMessage());
+        } catch(IOException ioe) {
+            throw new RuntimeException("Error writing graphic file: " + ioe.getMessage());
+        } catch (DocumentException de) {
+            throw new RuntimeException("Error writing graphic file: " + de.getMessage());
+        }
 
-            if (isNexus) {
-                FigTreeNexusImporter importer = new FigTreeNexusImporter(reader);
-                trees.add(importer.importNextTree());
+    }
 
-                // Try to find a figtree block and if found, parse the settings
-                while (true) {
-                    try {
-                        importer.findNextBlock();
-                        if (importer.getNextBlockName().equalsIgnoreCase("FIGTREE")) {
-                            importer.parseFigTreeBlock(settings);
-                        }
-                    } catch (EOFException ex) {
-                        break;
-                    }
-                }
-            } else {
-                NewickImporter importer = new NewickImporter(reader, true);
-                trees.add(importer.importNextTree());
+    /**
+     * Draws each of the trees in a file (or a range of them) into numbered graphic files
+     * with the settings in the file's FigTree block, reporting the progress as it goes.
+     * @param firstTree the number of the first tree (counting from 1)
+     * @param lastTree the number of the last tree (or 0 for the last in the file)
+     * @param stride draw every stride'th tree
+     */
+    static public void createAllGraphics(String graphicFormat, int width, int height, int firstTree, int lastTree, int stride,
+                                         int threadCount, String treeFileName, String graphicFileName) {
+        try {
+            GraphicFormat format = GraphicRenderer.getGraphicFormat(graphicFormat);
+            if (format == null) {
+                throw new RuntimeException("Unknown graphic format");
             }
 
+            IndexedTreeFile trees = new IndexedTreeFile(new File(treeFileName));
+            trees.index(ProgressListener.EMPTY);
             if (trees.size() == 0) {
                 throw new ImportException("This file contained no trees.");
             }
 
-            treeViewer.setTrees(trees);
+            Map<String, Object> settings = new HashMap<String, Object>();
+            trees.readSettings(settings);
 
-            controlPalette.setSettings(settings);
+            int from = Math.max(firstTree, 1) - 1;
+            int to = (lastTree > 0 ? Math.min(lastTree, trees.size()) : trees.size());
+            if (from >= to) {
+                throw new RuntimeException("There are no trees in that range (the file has " + trees.size() + ")");
+            }
 
-            treeViewer.getContentPane().setSize(width, height);
+            System.out.println("Creating " + graphicFormat + " graphics of trees " + (from + 1) + " to " + to + ": " +
+                    TreeGraphicsExporter.getGraphicFile(new File(graphicFileName), from + 1, Integer.toString(to).length()) + "...");
 
-            OutputStream stream;
-            if (graphicFileName != null) {
-                stream = new FileOutputStream(graphicFileName);
-            } else {
-                stream = System.out;
-            }
+            TreeGraphicsExporter exporter = new TreeGraphicsExporter(trees, settings, format, width, height);
+            long startTime = System.currentTimeMillis();
+            int count = exporter.export(from, to, stride, new File(graphicFileName), threadCount, new ProgressListener() {
+                protected void _setProgress(double fractionCompleted) {
+                }
 
-            GraphicFormat format = null;
-            if (graphicFormat.equals("PDF")) {
-                format = GraphicFormat.PDF;
-            } else if (graphicFormat.equals("SVG")) {
-                format = GraphicFormat.SVG;
-            } else if (graphicFormat.equals("GIF")) {
-                format = GraphicFormat.GIF;
-            } else if (graphicFormat.equals("PNG")) {
-                format = GraphicFormat.PNG;
-            } else if (graphicFormat.equals("JPEG")) {
-                format = GraphicFormat.JPEG;
-            } else {
-                throw new RuntimeException("Unknown graphic format");
-            }
+                protected void _setIndeterminateProgress() {
+                }
 
-            if (graphicFileName != null) {
-                System.out.println("Creating " + graphicFormat + " graphic: " + graphicFileName);
-            }
+                protected void _setMessage(String message) {
+                    // report the rate about once a second
+                    long time = System.currentTimeMillis();
+                    if (time - lastTime >= 1000) {
+                        System.out.println(message);
+                        lastTime = time;
+                    }
+                }
+
+                public boolean isCanceled() {
+                    return false;
+                }
 
-            FigTreeFrame.exportGraphics(format, treeViewer.getContentPane(), stream);
+                private long lastTime = System.currentTimeMillis();
+            });
+            System.out.println(TreeGraphicsExporter.getProgressMessage(count, count, System.currentTimeMillis() - startTime));
 
         } catch(ImportException ie) {
-            throw new RuntimeException("Error writing graphic file: " + ie.getMessage());
+            throw new RuntimeException("Error reading tree file: " + ie.getMessage());
         } catch(IOException ioe) {
             throw new RuntimeException("Error writing graphic file: " + ioe.getMessage());
         } catch (DocumentException de) {
             throw new RuntimeException("Error writing graphic file: " + de.getMessage());
         }
+    }
+
+    /**
+     * Draws a batch of trees (see BatchRenderer) read from a file (or standard input if
+     * the file name is '-') or, if the port is greater than 0, sent to a local socket.
+     */
+    static public void createGraphics(String graphicFormat, int width, int height, int threadCount,
+                                      String settingsFileName, String jobsFileName, int port) {
+        try {
+            Map<String, Object> settings = null;
+            if (settingsFileName != null) {
+                settings = GraphicRenderer.readSettings(settingsFileName);
+            }
+
+            GraphicFormat format = GraphicRenderer.getGraphicFormat(graphicFormat);
 
+            BatchRenderer batchRenderer = new BatchRenderer(threadCount, format, width, height, settings);
+
+            if (port > 0) {
+                batchRenderer.serve(port);
+            } else {
+                Reader reader;
+                if (jobsFileName.equals("-")) {
+                    reader = new InputStreamReader(System.in);
+                } else {
+                    reader = new FileReader(jobsFileName);
+                }
+                int failedCount = batchRenderer.processJobs(reader, new PrintWriter(System.out));
+                reader.close();
+                batchRenderer.shutdown();
+
+                if (failedCount > 0) {
+                    System.err.println(failedCount + " graphic" + (failedCount > 1 ? "s" : "") + " could not be created");
+                    System.exit(1);
+                }
+            }
+
+        } catch(ImportException ie) {
+            throw new RuntimeException("Error reading settings file: " + ie.getMessage());
+        } catch(IOException ioe) {
+            throw new RuntimeException("Error creating graphics: " + ioe.getMessage());
+        }
     }
 
     public static void centreLine(String line, int pageWidth) {
@@ -229,6 +271,9 @@ public class FigTreeApplication extends MultiDocApplication {
         System.out.println("  Example: figtree test.tree");
         System.out.println("  Example: figtree -graphic PDF test.tree test.pdf");
         System.out.println("  Example: figtree -graphic PNG -width 320 -height 320 test.tree test.png");
+        System.out.println("  Example: figtree -graphic PDF -alltrees -stride 100 posterior.trees tree.pdf");
+        System.out.println("  Example: figtree -batch jobs.txt -threads 4");
+        System.out.println("  Example: figtree -server 8400 -graphic PDF -settings style.tree");
         System.out.println();
     }
 
@@ -253,6 +298,14 @@ public class FigTreeApplication extends MultiDocApplication {
                         }, false, "produce a graphic with the given format"),
                         new Arguments.IntegerOption("width", "the width of the graphic in pixels"),
                         new Arguments.IntegerOption("height", "the height of the graphic in pixels"),
+                        new Arguments.Option("alltrees", "produce a numbered graphic for each of the trees in the file"),
+                        new Arguments.IntegerOption("first", 1, Integer.MAX_VALUE, "the number of the first tree to produce a graphic of (with -alltrees)"),
+                        new Arguments.IntegerOption("last", 1, Integer.MAX_VALUE, "the number of the last tree to produce a graphic of (with -alltrees)"),
+                        new Arguments.IntegerOption("stride", 1, Integer.MAX_VALUE, "produce a graphic of every stride'th tree (with -alltrees)"),
+                        new Arguments.StringOption("batch", "jobs-file", "produce the graphics listed in a file (or '-' to read them from standard input)"),
+                        new Arguments.IntegerOption("server", 1, 65535, "produce the graphics sent to a local port"),
+                        new Arguments.IntegerOption("threads", 1, Integer.MAX_VALUE, "the number of graphics to produce at once with -alltrees, -batch or -server"),
+                        new Arguments.StringOption("settings", "settings-file", "a file with a FigTree block of settings to use for all the graphics in batch or server mode"),
                         new Arguments.Option("url", "the input file is a URL"),
                         new Arguments.Option("fast", "use fast mode for big tree (disables some features)"),
                         new Arguments.Option("help", "option to print this message")
@@ -275,6 +328,35 @@ public class FigTreeApplication extends MultiDocApplication {
             System.exit(0);
         }
 
+        if (arguments.hasOption("batch") || arguments.hasOption("server")) {
+
+            int width = 800;
+            int height = 600;
+
+            if (arguments.hasOption("width")) {
+                width = arguments.getIntegerOption("width");
+            }
+
+            if (arguments.hasOption("height")) {
+                height = arguments.getIntegerOption("height");
+            }
+
+            int threadCount = Runtime.getRuntime().availableProcessors();
+            if (arguments.hasOption("threads")) {
+                threadCount = arguments.getIntegerOption("threads");
+            }
+
+            // no window is needed for this
+            System.setProperty("java.awt.headless", "true");
+
+            createGraphics(arguments.hasOption("graphic") ? arguments.getStringOption("graphic") : "PDF",
+                    width, height, threadCount,
+                    arguments.getStringOption("settings"),
+                    arguments.getStringOption("batch"),
+                    arguments.hasOption("server") ? arguments.getIntegerOption("server") : 0);
+            System.exit(0);
+        }
+
         if (arguments.hasOption("graphic")) {
 
             int width = 800;
@@ -292,6 +374,28 @@ public class FigTreeApplication extends MultiDocApplication {
             String graphicFormat = arguments.getStringOption("graphic");
             String[] args2 = arguments.getLeftoverArguments();
 
+            if (arguments.hasOption("alltrees")) {
+                if (args2.length < 2) {
+                    // each tree needs a graphic file
+                    printTitle();
+                    printUsage(arguments);
+                    System.exit(0);
+                }
+
+                int threadCount = Runtime.getRuntime().availableProcessors();
+                if (arguments.hasOption("threads")) {
+                    threadCount = arguments.getIntegerOption("threads");
+                }
+
+                printTitle();
+                createAllGraphics(graphicFormat, width, height,
+                        arguments.hasOption("first") ? arguments.getIntegerOption("first") : 1,
+                        arguments.hasOption("last") ? arguments.getIntegerOption("last") : 0,
+                        arguments.hasOption("stride") ? arguments.getIntegerOption("stride") : 1,
+                        threadCount, args2[0], args2[1]);
+                System.exit(0);
+            }
+
             if (args2.length == 0) {
                 // no tree file specified
                 printTitle();
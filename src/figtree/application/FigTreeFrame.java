@@ -24,7 +24,6 @@ import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.pdf.DefaultFontMapper;
 import com.itextpdf.text.pdf.PdfContentByte;
-import com.itextpdf.text.pdf.PdfTemplate;
 import com.itextpdf.text.pdf.PdfWriter;
 import jebl.evolution.alignments.Alignment;
 import jebl.evolution.alignments.BasicAlignment;
@@ -34,6 +33,7 @@ import jebl.evolution.taxa.Taxon;
 import jebl.evolution.trees.RootedTree;
 import jebl.evolution.trees.Tree;
 import jebl.util.Attributable;
+import jebl.util.ProgressListener;
 import jam.controlpalettes.BasicControlPalette;
 import jam.controlpalettes.ControlPalette;
 import jam.framework.DocumentFrame;
@@ -45,10 +45,6 @@ import figtree.application.menus.FigTreeFileMenuHandler;
 import figtree.treeviewer.*;
 import figtree.treeviewer.TreeSelectionListener;
 import figtree.treeviewer.annotations.*;
-import org.apache.batik.dom.GenericDOMImplementation;
-import org.apache.batik.svggen.SVGGraphics2D;
-import org.w3c.dom.DOMImplementation;
-import org.w3c.dom.Element;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -57,11 +53,17 @@ import java.awt.geom.Rectangle2D;
 import java.awt.datatransfer.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.*;
 import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.NumberFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Primary window for FigTree. The window contains a toolbar, a control panel and a panel displaying the
@@ -426,6 +428,10 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
         statusBar.setOpaque(false);
         statusBar.setStatusProvider(treeViewer.getStatusProvider());
 
+        // the estimates of the memory used by the trees and caches (also available by JMX)
+        HeapStatistics.getInstance().addTreeViewer(treeViewer);
+        statusBar.add(new HeapStatusPanel(), BorderLayout.EAST);
+
         JPanel topPanel = new JPanel(new BorderLayout(0,0));
         topPanel.add(toolBar, BorderLayout.NORTH);
 
@@ -663,6 +669,9 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
 
     private static Color lastColor = Color.GRAY;
 
+    // files bigger than this are indexed and the trees read when they are needed
+    private static final long INDEXED_FILE_SIZE = 64 * 1024 * 1024;
+
     private void colourSelected() {
         treeViewer.setToolMode(TreePaneSelector.ToolMode.SELECT);
 
@@ -675,33 +684,21 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
     }
 
     public boolean readFromFile(File file) throws IOException {
-        Reader reader = null;
-        try {
-            reader = new FileReader(file);
-
-            boolean isNexus = isNexus(reader);
-
-            ProgressMonitorInputStream in = new ProgressMonitorInputStream(
-                    this,
-                    "Reading " + file.getName(),
-                    new FileInputStream(file));
-            in.getProgressMonitor().setMillisToDecideToPopup(1000);
-            in.getProgressMonitor().setMillisToPopup(1000);
-
-            reader = new InputStreamReader(in);
-
-            boolean success = readData(reader, isNexus);
+        final Map<String, Object> settings = new HashMap<String, Object>();
+        // First of all, fully populate the settings map so that
+        // all the settings have defaults
+        controlPalette.getSettings(settings);
 
-            reader.close();
+        ProgressMonitor progressMonitor = new ProgressMonitor(this, "Reading " + file.getName(), "Indexing trees", 0, 100);
+        progressMonitor.setMillisToDecideToPopup(1000);
+        progressMonitor.setMillisToPopup(1000);
 
-            return success;
+        // Large files are indexed rather than read so the trees are only read as they
+        // are shown (and only a few are kept in memory).
+        new TreeFileReader(new IndexedTreeFile(file), file.length() > INDEXED_FILE_SIZE,
+                settings, progressMonitor).execute();
 
-        } catch (IOException ioe) {
-            if (reader != null) {
-                reader.close();
-            }
-            throw ioe;
-        }
+        return true;
     }
 
     public boolean readFromURL(URL url) throws IOException {
@@ -733,181 +730,303 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
     }
 
     protected boolean readData(Reader reader, boolean isNexus) throws IOException {
+        return readData(reader, isNexus, null);
+    }
 
-        List<Tree> trees = new ArrayList<Tree>();
+    /**
+     * Starts reading the trees on a background thread. The first tree is shown as
+     * soon as it has been read and the rest are added as they arrive. Any settings
+     * in a FigTree block (which comes after the trees) are applied at the end.
+     * @param reader the reader (this will be closed when finished)
+     * @param isNexus whether the file is NEXUS or Newick
+     * @param progressMonitor the monitor for the input stream (or null). If this is
+     * cancelled the trees read so far are kept.
+     * @return true as any errors are reported when they occur
+     */
+    protected boolean readData(Reader reader, boolean isNexus, ProgressMonitor progressMonitor) throws IOException {
 
-        boolean hasSettings = false;
+        final Map<String, Object> settings = new HashMap<String, Object>();
+        // First of all, fully populate the settings map so that
+        // all the settings have defaults
+        controlPalette.getSettings(settings);
 
-        try {
-            Map<String, Object> settings = new HashMap<String, Object>();
-            // First of all, fully populate the settings map so that
-            // all the settings have defaults
-            controlPalette.getSettings(settings);
+        new TreeStreamReader(reader, isNexus, settings, progressMonitor).execute();
 
-            if (isNexus) {
-                FigTreeNexusImporter importer = new FigTreeNexusImporter(reader);
-                while (importer.hasTree()) {
-                    Tree tree = importer.importNextTree();
-                    trees.add(tree);
-                }
-                // Try to find a figtree block and if found, parse the settings
-                while (true) {
-                    try {
-                        importer.findNextBlock();
-                        if (importer.getNextBlockName().equalsIgnoreCase("FIGTREE")) {
-                            importer.parseFigTreeBlock(settings);
-                            hasSettings = true;
+        return true;
+    }
+
+    /**
+     * Reads trees in the background and passes them back to the event thread in
+     * batches. To avoid updating all the controls (which look at all the trees) for
+     * every tree, the trees read are only given to the viewer when their number has
+     * doubled.
+     */
+    private abstract class TreeReader extends SwingWorker<Boolean, Tree> {
+
+        TreeReader(Map<String, Object> settings, final ProgressMonitor progressMonitor) {
+            this.settings = settings;
+            this.progressMonitor = progressMonitor;
+
+            if (progressMonitor != null) {
+                addPropertyChangeListener(new PropertyChangeListener() {
+                    public void propertyChange(PropertyChangeEvent event) {
+                        if (event.getPropertyName().equals("progress")) {
+                            progressMonitor.setProgress((Integer)event.getNewValue());
                         }
-                    } catch (EOFException ex) {
-                        break;
                     }
-                }
-            } else {
-                NewickImporter importer = new NewickImporter(reader, true);
-                while (importer.hasTree()) {
-                    Tree tree = importer.importNextTree();
-                    trees.add(tree);
+                });
+            }
+        }
+
+        protected void process(List<Tree> trees) {
+            labelName = checkLabelAttribute(trees, labelName);
+
+            pendingTrees.addAll(trees);
+            treeCount += trees.size();
+
+            if (treeCount == pendingTrees.size()) {
+                treeViewer.setTrees(pendingTrees);
+                pendingTrees.clear();
+            } else if (treeCount >= treeViewer.getTreeCount() * 2) {
+                treeViewer.appendTrees(pendingTrees);
+                pendingTrees.clear();
+            }
+
+            if (progressMonitor != null) {
+                progressMonitor.setNote(treeCount + (treeCount == 1 ? " tree" : " trees") + " read");
+            }
+        }
+
+        protected void done() {
+            PhaseStatistics.getInstance().record(PhaseStatistics.Phase.READ, System.nanoTime() - startTime);
+
+            if (progressMonitor != null) {
+                progressMonitor.close();
+            }
+
+            boolean hasSettings = false;
+            boolean failed = false;
+            try {
+                hasSettings = get();
+            } catch (InterruptedException ie) {
+                failed = true;
+            } catch (ExecutionException ee) {
+                failed = true;
+                Throwable cause = ee.getCause();
+                if (cause instanceof InterruptedIOException ||
+                        (progressMonitor != null && progressMonitor.isCanceled())) {
+                    // The cancel button was pressed - keep the trees read so far
+                } else if (cause instanceof ImportException) {
+                    JOptionPane.showMessageDialog(FigTreeFrame.this, "Error reading tree file: \n" + cause.getMessage(),
+                            "Import Error",
+                            JOptionPane.ERROR_MESSAGE);
+                } else if (cause instanceof IOException) {
+                    JOptionPane.showMessageDialog(FigTreeFrame.this, "File I/O Error: " + cause.getMessage(),
+                            "File I/O Error",
+                            JOptionPane.ERROR_MESSAGE);
+                } else {
+                    throw new RuntimeException(cause);
                 }
             }
 
-            if (trees.isEmpty()) {
-                throw new ImportException("This file contained no trees.");
+            if (!pendingTrees.isEmpty()) {
+                treeViewer.appendTrees(pendingTrees);
+                pendingTrees.clear();
             }
 
-            checkLabelAttribute(trees);
+            if (failed) {
+                // Don't allow whatever was read to overwrite the file
+                setDirty();
+                clearFile();
+                return;
+            }
+
+            if (indexedTrees != null && indexedTrees.size() > 0) {
+                // the trees are read as they are needed (and their labels are renamed
+                // as they are read so this isn't lost when they are read again)
+                labelName = checkLabelAttribute(Collections.singletonList(indexedTrees.get(0)), labelName);
+                indexedTrees.setLabelName(labelName);
+                treeViewer.setTrees(indexedTrees);
+                indexedTreeFile = indexedTrees;
+                treeCount = indexedTrees.size();
+            }
+
+            if (treeCount == 0) {
+                JOptionPane.showMessageDialog(FigTreeFrame.this, "Error reading tree file: \nThis file contained no trees.",
+                        "Import Error",
+                        JOptionPane.ERROR_MESSAGE);
+                clearFile();
+                return;
+            }
 
-            treeViewer.setTrees(trees);
             controlPalette.setSettings(settings);
-        } catch (ImportException ie) {
-            JOptionPane.showMessageDialog(this, "Error reading tree file: \n" + ie.getMessage(),
-                    "Import Error",
-                    JOptionPane.ERROR_MESSAGE);
-            return false;
+
+            if (!hasSettings) {
+                // If there weren't settings in the file then this wasn't a TreeDraw
+                // created document so we don't want to be able to overwrite it without
+                // explicit action of the user...
+                setDirty();
+                clearFile();
+            }
         }
 
-        if (!hasSettings) {
-            // If there weren't settings in the file then this wasn't a TreeDraw
-            // created document so we don't want to be able to overwrite it without
-            // explicit action of the user...
-            setDirty();
-            clearFile();
+        protected final Map<String, Object> settings;
+        protected final ProgressMonitor progressMonitor;
+        private final long startTime = System.nanoTime();
+
+        // if set, this is given to the viewer at the end instead of the trees read
+        protected IndexedTreeFile indexedTrees = null;
+
+        private final List<Tree> pendingTrees = new ArrayList<Tree>();
+        private int treeCount = 0;
+        private String labelName = null;
+    }
+
+    /**
+     * Reads the trees one at a time from a reader.
+     */
+    private class TreeStreamReader extends TreeReader {
+
+        TreeStreamReader(Reader reader, boolean isNexus, Map<String, Object> settings, ProgressMonitor progressMonitor) {
+            super(settings, progressMonitor);
+            this.reader = reader;
+            this.isNexus = isNexus;
         }
 
-        return true;
+        protected Boolean doInBackground() throws Exception {
+            boolean hasSettings = false;
+
+            try {
+                if (isNexus) {
+                    FigTreeNexusImporter importer = new FigTreeNexusImporter(reader);
+                    while (importer.hasTree()) {
+                        publish(importer.importNextTree());
+                    }
+                    // Try to find a figtree block and if found, parse the settings
+                    while (true) {
+                        try {
+                            importer.findNextBlock();
+                            if (importer.getNextBlockName().equalsIgnoreCase("FIGTREE")) {
+                                importer.parseFigTreeBlock(settings);
+                                hasSettings = true;
+                            }
+                        } catch (EOFException ex) {
+                            break;
+                        }
+                    }
+                } else {
+                    NewickImporter importer = new NewickImporter(reader, true);
+                    while (importer.hasTree()) {
+                        publish(importer.importNextTree());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+
+            return hasSettings;
+        }
+
+        private final Reader reader;
+        private final boolean isNexus;
     }
 
     /**
-     * This version loads the trees in a thread but this needs more thought in order
-     * to tie in to the JAM framework correctly
+     * Reads the trees from a file by indexing it and then either reading all the
+     * trees in parallel or leaving them to be read as they are needed.
      */
-//    protected boolean readData(final Reader reader, final boolean isNexus) {
-//
-//        final JFrame frame = this;
-//        Thread readThread = new Thread () {
-//            public void run() {
-//                try {
-//
-//                    final List<Tree> trees = new ArrayList<Tree>();
-//
-//                    boolean hasSettings = false;
-//
-//                    final Map<String, Object> settings = new HashMap<String, Object>();
-//                    // First of all, fully populate the settings map so that
-//                    // all the settings have defaults
-//                    controlPalette.getSettings(settings);
-//
-//                    if (isNexus) {
-//                        FigTreeNexusImporter importer = new FigTreeNexusImporter(reader);
-//                        while (importer.hasTree()) {
-//                            Tree tree = importer.importNextTree();
-//                            trees.add(tree);
-//                        }
-//                        // Try to find a figtree block and if found, parse the settings
-//                        while (true) {
-//                            try {
-//                                importer.findNextBlock();
-//                                if (importer.getNextBlockName().equalsIgnoreCase("FIGTREE")) {
-//                                    importer.parseFigTreeBlock(settings);
-//                                    hasSettings = true;
-//                                }
-//                            } catch (EOFException ex) {
-//                                break;
-//                            }
-//                        }
-//                    } else {
-//                        NewickImporter importer = new NewickImporter(reader, true);
-//                        while (importer.hasTree()) {
-//                            Tree tree = importer.importNextTree();
-//                            trees.add(tree);
-//                        }
-//                    }
-//
-//                    if (trees.size() == 0) {
-//                        throw new ImportException("This file contained no trees.");
-//                    }
-//
-//                    final boolean hasSettings2 = hasSettings;
-//
-//                    EventQueue.invokeLater (
-//                            new Runnable () {
-//                                public void run () {
-//                                    treeViewer.setTrees(trees);
-//                                    controlPalette.setSettings(settings);
-//
-//                                    if (!hasSettings2) {
-//                                        // If there weren't settings in the file then this wasn't a TreeDraw
-//                                        // created document so we don't want to be able to overwrite it without
-//                                        // explicit action of the user...
-//                                        setDirty();
-//                                        clearFile();
-//                                    }
-//                                }
-//                            });
-//
-//                } catch (final ImportException ie) {
-//                    EventQueue.invokeLater (
-//                            new Runnable () {
-//                                public void run () {
-//                                    JOptionPane.showMessageDialog(frame, "Error reading tree file: " + ie.getMessage(),
-//                                            "Import Error",
-//                                            JOptionPane.ERROR_MESSAGE);
-//                                }
-//                            });
-//                } catch (final InterruptedIOException iioex) {
-//                    // The cancel dialog button was pressed - do nothing
-//                } catch (final IOException ioex) {
-//                    EventQueue.invokeLater (
-//                            new Runnable () {
-//                                public void run () {
-//                                    JOptionPane.showMessageDialog(frame, "File I/O Error: " + ioex.getMessage(),
-//                                            "File I/O Error",
-//                                            JOptionPane.ERROR_MESSAGE);
-//                                }
-//                            });
-//                }
-//
-//            }
-//        };
-//        readThread.start();
-//
-//        return true;
-//    }
+    private class TreeFileReader extends TreeReader {
 
+        TreeFileReader(IndexedTreeFile trees, boolean readOnDemand, Map<String, Object> settings, ProgressMonitor progressMonitor) {
+            super(settings, progressMonitor);
+            this.trees = trees;
+            if (readOnDemand) {
+                indexedTrees = trees;
+            }
+        }
 
-    private void checkLabelAttribute(List<Tree> trees) {
+        protected Boolean doInBackground() throws Exception {
+            final ProgressListener progressListener = new ProgressListener() {
+                protected void _setProgress(double fractionCompleted) {
+                    setProgress((int)Math.round(fractionCompleted * 100));
+                }
 
-        boolean hasLabel = false;
+                protected void _setIndeterminateProgress() {
+                }
+
+                protected void _setMessage(String message) {
+                }
+
+                public boolean isCanceled() {
+                    return progressMonitor.isCanceled();
+                }
+            };
 
-        for (Tree tree : trees) {
-            for (Node node : tree.getNodes()) {
-                if (node.getAttribute("label") != null) {
-                    hasLabel = true;
+            trees.index(progressListener);
+
+            if (trees.size() > 0) {
+                // the first tree is shown while the rest are read
+                if (indexedTrees == null) {
+                    publish(trees.get(0));
+
+                    // the rest are read (in parallel) in chunks that double in size so
+                    // they are shown as they arrive, as they are from a stream
+                    int from = 1;
+                    while (from < trees.size()) {
+                        final int to = Math.min(from * 2, trees.size());
+                        final int chunkStart = from;
+                        List<Tree> chunk = trees.readTrees(from, to, new ProgressListener() {
+                            protected void _setProgress(double fractionCompleted) {
+                                progressListener.setProgress((chunkStart + (fractionCompleted * (to - chunkStart))) / trees.size());
+                            }
+
+                            protected void _setIndeterminateProgress() {
+                            }
+
+                            protected void _setMessage(String message) {
+                            }
+
+                            public boolean isCanceled() {
+                                return progressListener.isCanceled();
+                            }
+                        });
+                        publish(chunk.toArray(new Tree[chunk.size()]));
+                        from = to;
+                    }
+                } else {
+                    trees.get(0);
                 }
             }
+
+            return trees.readSettings(settings);
         }
 
-        if (hasLabel) {
-            String labelName = null;
+        private final IndexedTreeFile trees;
+    }
+
+    /**
+     * If the trees have node labels then the user is asked (once) what they are
+     * and they are renamed accordingly.
+     * @param trees the trees
+     * @param labelName the name already chosen or null if the user hasn't been asked
+     * @return the name chosen (or null if still not asked)
+     */
+    private String checkLabelAttribute(List<Tree> trees, String labelName) {
+
+        if (labelName == null) {
+            boolean hasLabel = false;
+
+            for (Tree tree : trees) {
+                for (Node node : tree.getNodes()) {
+                    if (node.getAttribute("label") != null) {
+                        hasLabel = true;
+                    }
+                }
+            }
+
+            if (!hasLabel) {
+                return null;
+            }
 
             do {
                 labelName = JOptionPane.showInputDialog(
@@ -923,19 +1042,23 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
                     Toolkit.getDefaultToolkit().beep();
                 }
             } while (labelName == null || labelName.length() == 0);
+        }
 
-            if (!labelName.equals("label")) {
-                for (Tree tree : trees) {
-                    for (Node node : tree.getNodes()) {
-                        Object value = node.getAttribute("label");
-                        if (value != null) {
-                            node.removeAttribute("label");
-                            node.setAttribute(labelName, value);
-                        }
+        if (!labelName.equals("label")) {
+            for (Tree tree : trees) {
+                for (Node node : tree.getNodes()) {
+                    Object value = node.getAttribute("label");
+                    if (value != null) {
+                        node.removeAttribute("label");
+                        node.setAttribute(labelName, value);
                     }
                 }
             }
+            AttributeCatalogue.attributeChanged("label");
+            AttributeCatalogue.attributeChanged(labelName);
         }
+
+        return labelName;
     }
 
 
@@ -944,16 +1067,48 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
         Map<String, Object> settings = new TreeMap<String, Object>();
         controlPalette.getSettings(settings);
 
-        FileWriter writer = new FileWriter(file);
-        FigTreeNexusExporter exporter = new FigTreeNexusExporter(writer, true);
-        exporter.exportTrees(treeViewer.getTrees(), true);
-        exporter.writeFigTreeBlock(settings);
+        // The trees are written to a temporary file which then replaces the file. The
+        // trees may still be being read from the file (see IndexedTreeFile) so it
+        // mustn't be overwritten until they have all been written.
+        File tempFile = File.createTempFile("figtree", ".tmp", file.getAbsoluteFile().getParentFile());
+        boolean isWritten = false;
+        try {
+            FileWriter writer = new FileWriter(tempFile);
+            try {
+                FigTreeNexusExporter exporter = new FigTreeNexusExporter(writer, true);
+                exporter.exportTrees(treeViewer.getTrees(), true);
+                exporter.writeFigTreeBlock(settings);
+            } finally {
+                writer.close();
+            }
 
-        writer.close();
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            isWritten = true;
+        } finally {
+            if (!isWritten) {
+                tempFile.delete();
+            }
+        }
 
         return true;
     }
 
+    /**
+     * Lets go of the file that the trees are being read from (if they are being read
+     * on demand) when the window is closed.
+     */
+    public void dispose() {
+        if (indexedTreeFile != null) {
+            indexedTreeFile.close();
+            indexedTreeFile = null;
+        }
+        super.dispose();
+    }
+
     public final void doImport() {
 
         FileDialog dialog = new FileDialog(this,
@@ -1270,30 +1425,158 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
 
     }
 
-    public final static void exportGraphics(GraphicFormat format, JComponent comp, OutputStream stream) throws IOException, DocumentException {
-        switch (format) {
+    /**
+     * Exports each of the trees (or a range of them) to a numbered graphic file with
+     * the current settings. This is done in the background, drawing several trees
+     * at once.
+     */
+    public final void doExportAllGraphics() {
+        final List<Tree> trees = treeViewer.getTrees();
+        if (trees.size() == 0) {
+            return;
+        }
+
+        if (exportGraphicsDialog == null) {
+            exportGraphicsDialog = new ExportGraphicsDialog(this);
+        }
+
+        Dimension size = treeViewer.getContentPane().getSize();
+        if (exportGraphicsDialog.showDialog(trees.size(), size.width, size.height) != JOptionPane.OK_OPTION) {
+            return;
+        }
 
-            case PNG:
-            case GIF:
-            case BMP:
-            case JPEG:
-                exportGraphicsFile(format, comp, stream);
-                break;
-            case EPS:
-                throw new UnsupportedOperationException("EPS not handled");
-            case SVG:
-                exportSVGFile(comp, stream);
-                break;
-            case PDF:
-                exportPDFFile(comp, stream);
-                break;
-            default:
-                throw new UnsupportedOperationException("Format not handled: " + format);
+        final GraphicFormat format = exportGraphicsDialog.getFormat();
+        final int from = Math.max(exportGraphicsDialog.getFirstTree(), 1) - 1;
+        final int to = Math.min(exportGraphicsDialog.getLastTree(), trees.size());
+        final int stride = exportGraphicsDialog.getStride();
+        if (from >= to) {
+            return;
+        }
 
+        FileDialog dialog = new FileDialog(this,
+                "Export " + format.getName() + " Files...",
+                FileDialog.SAVE);
+
+        String name = (this.getFile() != null ? this.getFile().getName() : "untitled") + "." + format.getName().toLowerCase();
+        dialog.setFile(name);
+
+        dialog.setVisible(true);
+        if (dialog.getFile() == null) {
+            return;
         }
 
+        final File file = new File(dialog.getDirectory(), dialog.getFile());
+
+        final Map<String, Object> settings = new HashMap<String, Object>();
+        controlPalette.getSettings(settings);
+
+        final TreeGraphicsExporter exporter = new TreeGraphicsExporter(trees, settings, format,
+                exportGraphicsDialog.getWidth(), exportGraphicsDialog.getHeight());
+
+        final ProgressMonitor progressMonitor = new ProgressMonitor(this, "Exporting " + format.getName() + " files",
+                "Starting", 0, 100);
+        progressMonitor.setMillisToDecideToPopup(0);
+        progressMonitor.setMillisToPopup(0);
+
+        final SwingWorker<Integer, String> worker = new SwingWorker<Integer, String>() {
+            protected Integer doInBackground() throws Exception {
+                return exporter.export(from, to, stride, file, Runtime.getRuntime().availableProcessors(),
+                        new ProgressListener() {
+                            protected void _setProgress(double fractionCompleted) {
+                                setProgress((int)Math.round(fractionCompleted * 100));
+                            }
+
+                            protected void _setIndeterminateProgress() {
+                            }
+
+                            protected void _setMessage(String message) {
+                                publish(message);
+                            }
+
+                            public boolean isCanceled() {
+                                return progressMonitor.isCanceled();
+                            }
+                        });
+            }
+
+            protected void process(List<String> messages) {
+                progressMonitor.setNote(messages.get(messages.size() - 1));
+            }
+
+            protected void done() {
+                progressMonitor.close();
+                try {
+                    get();
+                } catch (InterruptedException ie) {
+                    // nothing to report
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof InterruptedIOException) {
+                        // The cancel button was pressed
+                    } else if (cause instanceof DocumentException) {
+                        JOptionPane.showMessageDialog(FigTreeFrame.this, "Error writing PDF file: " + cause,
+                                "Export PDF Error",
+                                JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        JOptionPane.showMessageDialog(FigTreeFrame.this, "Error writing graphic file: " + cause.getMessage(),
+                                "Export Error",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }
+        };
+        worker.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent event) {
+                if (event.getPropertyName().equals("progress")) {
+                    progressMonitor.setProgress((Integer)event.getNewValue());
+                }
+            }
+        });
+        worker.execute();
+    }
+
+    public final static void exportGraphics(GraphicFormat format, JComponent comp, OutputStream stream) throws IOException, DocumentException {
+        final long startTime = System.nanoTime();
+        try {
+            switch (format) {
+
+                case PNG:
+                case GIF:
+                case BMP:
+                case JPEG:
+                    exportGraphicsFile(format, comp, stream);
+                    break;
+                case EPS:
+                    throw new UnsupportedOperationException("EPS not handled");
+                case SVG:
+                    exportSVGFile(comp, stream);
+                    break;
+                case PDF:
+                    exportPDFFile(comp, stream);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Format not handled: " + format);
+
+            }
+        } finally {
+            PhaseStatistics.getInstance().record(PhaseStatistics.Phase.EXPORT, System.nanoTime() - startTime);
+        }
     }
+    // PNGs with more pixels than this (a 256Mb image) are painted in strips of about
+    // STRIP_PIXELS each
+    private static final long MAX_IMAGE_PIXELS = 64 * 1024 * 1024;
+    private static final int STRIP_PIXELS = 4 * 1024 * 1024;
+
     private final static void exportGraphicsFile(GraphicFormat format, JComponent component, OutputStream stream) throws IOException {
+        if (format == GraphicFormat.PNG && (long)component.getWidth() * component.getHeight() > MAX_IMAGE_PIXELS) {
+            // too big to make an image of the whole thing so it is written a strip at a time
+            PNGStripWriter writer = new PNGStripWriter(
+                    PNGStripWriter.getStripHeight(component.getWidth(), STRIP_PIXELS),
+                    Runtime.getRuntime().availableProcessors());
+            writer.write(component, stream);
+            return;
+        }
+
         int imageType = BufferedImage.TYPE_INT_RGB;
 
         if (format == GraphicFormat.PNG) {
@@ -1313,24 +1596,16 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
     }
 
     private final static void exportSVGFile(JComponent component, OutputStream stream) throws IOException {
-        // Get a DOMImplementation and create an XML document
-        DOMImplementation domImpl = GenericDOMImplementation.getDOMImplementation();
-        org.w3c.dom.Document document = domImpl.createDocument(null, "svg", null);
-
-        // Create an instance of the SVG Generator
-        SVGGraphics2D svgGenerator = new SVGGraphics2D(document);
-
-        component.paint(svgGenerator);
-        Element svgRoot = svgGenerator.getRoot();
+        // The SVG is written as the component is painted (rather than building a
+        // document in memory first) so large trees can be exported.
         Rectangle2D bounds = component.getBounds();
-        String viewBox = "0 0 " + bounds.getWidth() + " " + bounds.getHeight();
-        svgRoot.setAttributeNS(null, svgGenerator.SVG_VIEW_BOX_ATTRIBUTE, viewBox);
-        svgRoot.setAttributeNS(null, svgGenerator.SVG_WIDTH_ATTRIBUTE, Double.toString(bounds.getWidth()));
-        svgRoot.setAttributeNS(null, svgGenerator.SVG_HEIGHT_ATTRIBUTE, Double.toString(bounds.getHeight()));
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+        StreamingSVGGraphics2D svgGraphics = new StreamingSVGGraphics2D(out, bounds.getWidth(), bounds.getHeight());
+
+        component.paint(svgGraphics);
 
-        // Write svg file
-        Writer out = new OutputStreamWriter(stream, "UTF-8");
-        svgGenerator.stream(svgRoot, out, true /* use css */, false /* escaped */);
+        svgGraphics.finish();
+        out.flush();
     }
 
     public final static void exportPDFFile(JComponent component, OutputStream stream) throws DocumentException {
@@ -1343,12 +1618,11 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
         // step 3
         document.open();
         // step 4
+        // the content is written directly as the component is painted
         PdfContentByte cb = writer.getDirectContent();
-        PdfTemplate tp = cb.createTemplate((float)bounds.getWidth(), (float)bounds.getHeight());
-        Graphics2D g2d = tp.createGraphics((float)bounds.getWidth(), (float)bounds.getHeight(), new DefaultFontMapper());
-        component.print(g2d);
-        g2d.dispose();
-        cb.addTemplate(tp, 0, 0);
+        StreamingPDFGraphics2D pdfGraphics = new StreamingPDFGraphics2D(cb, bounds.getHeight(), new DefaultFontMapper());
+        component.print(pdfGraphics);
+        pdfGraphics.finish();
 
         document.close();
     }
@@ -1602,6 +1876,10 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
         return exportSVGAction;
     }
 
+    public Action getExportAllGraphicsAction() {
+        return exportAllGraphicsAction;
+    }
+
     public Action getNextTreeAction() {
         return nextTreeAction;
     }
@@ -1761,6 +2039,12 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
         }
     };
 
+    private AbstractAction exportAllGraphicsAction = new AbstractAction("Export Graphics of All Trees...") {
+        public void actionPerformed(ActionEvent ae) {
+            doExportAllGraphics();
+        }
+    };
+
     private AbstractAction nextTreeAction =
             new AbstractAction(NEXT_TREE) {
                 public void actionPerformed(ActionEvent e){
@@ -1914,9 +2198,13 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
     };
 
     private ExportTreeDialog exportTreeDialog = null;
+    private ExportGraphicsDialog exportGraphicsDialog = null;
     private FindPanel findPanel = null;
     private AnnotationDefinitionsDialog annotationDefinitionsDialog = null;
     private AnnotationDialog annotationDialog = null;
     private AnnotationDialog copyAnnotationDialog = null;
     private SelectAnnotationDialog selectAnnotationDialog = null;
+
+    // the file the trees are read from on demand (if they are)
+    private IndexedTreeFile indexedTreeFile = null;
 }
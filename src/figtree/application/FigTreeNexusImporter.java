@@ -22,15 +22,18 @@ package figtree.application;
 
 import jebl.evolution.io.ImportException;
 import jebl.evolution.io.NexusImporter;
+import jebl.evolution.taxa.Taxon;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.awt.*;
 
 /**
  * An extension of the NexusImporter from JEBL to parse FigTree settings from
- * a FigTree block.
+ * a FigTree block (and the header of a Trees block on its own).
  *
  * @author Andrew Rambaut
  * @version $Id$
@@ -86,6 +89,69 @@ public class FigTreeNexusImporter extends NexusImporter {
 	}
 
 
+	/**
+	 * Parses the commands at the start of a 'Trees' block, up to the first tree or
+	 * the end of the block (as NexusImporter does before reading the trees).
+	 * @param taxa the taxa from a 'Taxa' block (or null if there wasn't one)
+	 * @return the taxon for each label used in the trees (empty if the labels are
+	 * the taxon names)
+	 */
+	public Map<String, Taxon> parseTreesBlockHeader(List<Taxon> taxa) throws ImportException, IOException
+	{
+		return readTreesBlockHeader(taxa);
+	}
+
+	/**
+	 * Reads the header of a 'Trees' block.
+	 */
+	private Map<String, Taxon> readTreesBlockHeader(List<Taxon> taxa) throws ImportException, IOException
+	{
+		Map<String, Taxon> translationMap = new HashMap<String, Taxon>();
+		boolean hasTranslation = false;
+
+		String command = helper.readToken(";");
+		while (!command.equalsIgnoreCase("TREE") && !command.equalsIgnoreCase("UTREE") &&
+				!command.equalsIgnoreCase("END") && !command.equalsIgnoreCase("ENDBLOCK")) {
+
+			if (command.equalsIgnoreCase("TRANSLATE")) {
+				hasTranslation = true;
+				while (helper.getLastDelimiter() != ';') {
+					String label = helper.readToken(",;");
+					if (helper.getLastDelimiter() == ',' || helper.getLastDelimiter() == ';') {
+						if (label.length() == 0 && helper.getLastDelimiter() == ';') {
+							break;
+						}
+						throw new ImportException.BadFormatException("Missing taxon label in TRANSLATE command of TREES block");
+					}
+
+					String name = helper.readToken(",;");
+					if (helper.getLastDelimiter() != ',' && helper.getLastDelimiter() != ';') {
+						throw new ImportException.BadFormatException("Expecting ',' or ';' after taxon label in TRANSLATE command of TREES block");
+					}
+
+					Taxon taxon = Taxon.getTaxon(name);
+					if (taxa != null && !taxa.contains(taxon)) {
+						throw new ImportException.UnknownTaxonException("Taxon in TRANSLATE command, '" + name + "', is not in the TAXA block");
+					}
+					translationMap.put(label, taxon);
+				}
+			} else if (helper.getLastDelimiter() != ';') {
+				// some other command so skip it
+				helper.skipUntil(";");
+			}
+
+			command = helper.readToken(";");
+		}
+
+		if (!hasTranslation && taxa != null) {
+			for (Taxon taxon : taxa) {
+				translationMap.put(taxon.getName(), taxon);
+			}
+		}
+
+		return translationMap;
+	}
+
 	private Object parseValue(String value) {
 		if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
 			return new Boolean(value);
@@ -0,0 +1,190 @@
+/*
+ * GraphicRenderer.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import com.itextpdf.text.DocumentException;
+import figtree.treeviewer.ExtendedTreeViewer;
+import jam.controlpalettes.BasicControlPalette;
+import jam.controlpalettes.ControlPalette;
+import jebl.evolution.io.ImportException;
+import jebl.evolution.io.NewickImporter;
+import jebl.evolution.trees.Tree;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Draws trees into graphic files without a window. The tree viewer and its control
+ * palette are made once and then reused for each tree (which is much quicker than
+ * making them each time) with the settings put back to their defaults in between.
+ *
+ * A renderer is not thread safe but separate renderers can be used in different
+ * threads (see BatchRenderer and TreeGraphicsExporter).
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class GraphicRenderer {
+
+    public GraphicRenderer() {
+        this(null);
+    }
+
+    /**
+     * @param baseSettings settings to use for every tree instead of the defaults (a tree
+     *                     file's own FigTree block will still take precedence). May be null.
+     */
+    public GraphicRenderer(Map<String, Object> baseSettings) {
+        treeViewer = new ExtendedTreeViewer();
+        controlPalette = new BasicControlPalette(FigTreePanel.CONTROL_PALETTE_WIDTH, BasicControlPalette.DisplayMode.ONLY_ONE_OPEN);
+        figTreePanel = new FigTreePanel(null, treeViewer, controlPalette);
+
+        // fully populate the settings map so that all the settings have defaults
+        controlPalette.getSettings(defaultSettings);
+        if (baseSettings != null) {
+            defaultSettings.putAll(baseSettings);
+        }
+    }
+
+    /**
+     * Draws the first tree in a file.
+     * @param format the graphic format
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param treeFileName the tree file (NEXUS or Newick)
+     * @param stream the stream to write the graphic to
+     */
+    public void render(GraphicFormat format, int width, int height, String treeFileName, OutputStream stream) throws IOException, ImportException, DocumentException {
+
+        BufferedReader bufferedReader = new BufferedReader(new FileReader(treeFileName));
+        String line = bufferedReader.readLine();
+        while (line != null && line.length() == 0) {
+            line = bufferedReader.readLine();
+        }
+
+        bufferedReader.close();
+
+        boolean isNexus = (line != null && line.toUpperCase().contains("#NEXUS"));
+
+        Reader reader = new BufferedReader(new FileReader(treeFileName));
+
+        Map<String, Object> settings = new HashMap<String, Object>(defaultSettings);
+
+        List<Tree> trees = new ArrayList<Tree>();
+
+        try {
+            if (isNexus) {
+                FigTreeNexusImporter importer = new FigTreeNexusImporter(reader);
+                trees.add(importer.importNextTree());
+
+                // Try to find a figtree block and if found, parse the settings
+                readFigTreeBlocks(importer, settings);
+            } else {
+                NewickImporter importer = new NewickImporter(reader, true);
+                trees.add(importer.importNextTree());
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (trees.size() == 0) {
+            throw new ImportException("This file contained no trees.");
+        }
+
+        render(format, width, height, trees, settings, stream);
+    }
+
+    /**
+     * Draws a tree.
+     * @param settings the settings to use instead of the defaults (may be null)
+     */
+    public void render(GraphicFormat format, int width, int height, Tree tree, Map<String, Object> settings, OutputStream stream) throws IOException, DocumentException {
+        Map<String, Object> treeSettings = new HashMap<String, Object>(defaultSettings);
+        if (settings != null) {
+            treeSettings.putAll(settings);
+        }
+        render(format, width, height, Collections.singletonList(tree), treeSettings, stream);
+    }
+
+    private void render(GraphicFormat format, int width, int height, List<Tree> trees, Map<String, Object> settings, OutputStream stream) throws IOException, DocumentException {
+        treeViewer.setTrees(trees);
+
+        controlPalette.setSettings(settings);
+
+        treeViewer.getContentPane().setSize(width, height);
+
+        FigTreeFrame.exportGraphics(format, treeViewer.getContentPane(), stream);
+
+        stream.flush();
+    }
+
+    /**
+     * Reads the settings in the FigTree blocks of a NEXUS file (such as one saved by
+     * FigTree) so they can be given to all the trees in a batch.
+     */
+    public static Map<String, Object> readSettings(String fileName) throws IOException, ImportException {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        Reader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            readFigTreeBlocks(new FigTreeNexusImporter(reader), settings);
+        } finally {
+            reader.close();
+        }
+        return settings;
+    }
+
+    /**
+     * @return the graphic format with the given name (or file extension) or null if
+     * there isn't one
+     */
+    public static GraphicFormat getGraphicFormat(String name) {
+        if (name.equalsIgnoreCase("PDF")) {
+            return GraphicFormat.PDF;
+        } else if (name.equalsIgnoreCase("SVG")) {
+            return GraphicFormat.SVG;
+        } else if (name.equalsIgnoreCase("GIF")) {
+            return GraphicFormat.GIF;
+        } else if (name.equalsIgnoreCase("PNG")) {
+            return GraphicFormat.PNG;
+        } else if (name.equalsIgnoreCase("JPEG") || name.equalsIgnoreCase("JPG")) {
+            return GraphicFormat.JPEG;
+        }
+        return null;
+    }
+
+    private static void readFigTreeBlocks(FigTreeNexusImporter importer, Map<String, Object> settings) throws IOException, ImportException {
+        while (true) {
+            try {
+                importer.findNextBlock();
+                if (importer.getNextBlockName().equalsIgnoreCase("FIGTREE")) {
+                    importer.parseFigTreeBlock(settings);
+                }
+            } catch (EOFException ex) {
+                break;
+            }
+        }
+    }
+
+    private final ExtendedTreeViewer treeViewer;
+    private final ControlPalette controlPalette;
+    private final FigTreePanel figTreePanel;
+    private final Map<String, Object> defaultSettings = new HashMap<String, Object>();
+}
@@ -0,0 +1,133 @@
+/*
+ * HeapStatusPanel.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.treeviewer.HeapAccount;
+import figtree.treeviewer.HeapStatistics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows the estimates of the memory used by the trees, their attributes and the caches
+ * (see HeapStatistics) in the status bar, with the largest of each in the tool tip, and
+ * a button to free the caches of the trees that aren't being shown.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class HeapStatusPanel extends JPanel {
+
+    public HeapStatusPanel() {
+        super(new FlowLayout(FlowLayout.RIGHT, 6, 0));
+        setOpaque(false);
+
+        heapLabel.putClientProperty("JComponent.sizeVariant", "small");
+        add(heapLabel);
+
+        freeButton.putClientProperty("JComponent.sizeVariant", "small");
+        freeButton.putClientProperty("JButton.buttonType", "roundRect");
+        freeButton.setToolTipText("Free the memory kept for the trees that aren't being shown");
+        freeButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                HeapStatistics.getInstance().clearHiddenTreeCaches();
+                update();
+            }
+        });
+        add(freeButton);
+
+        timer = new Timer(UPDATE_INTERVAL, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        });
+    }
+
+    public void addNotify() {
+        super.addNotify();
+        update();
+        timer.start();
+    }
+
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    private void update() {
+        HeapStatistics statistics = HeapStatistics.getInstance();
+        HeapAccount account = statistics.getAccount();
+
+        heapLabel.setText("Trees " + formatBytes(account.getTotalTreeBytes()) +
+                ", attributes " + formatBytes(account.getTotalAttributeBytes()) +
+                ", caches " + formatBytes(account.getTotalCacheBytes()) +
+                " (heap " + formatBytes(statistics.getUsedHeapBytes()) +
+                " of " + formatBytes(statistics.getMaxHeapBytes()) + ")");
+
+        StringBuilder toolTip = new StringBuilder("<html>");
+        addLargest(toolTip, "Trees", account.getTreeBytes());
+        addLargest(toolTip, "Attributes", account.getAttributeBytes());
+        addLargest(toolTip, "Caches", account.getCacheBytes());
+        toolTip.append("</html>");
+        heapLabel.setToolTipText(toolTip.toString());
+    }
+
+    private static void addLargest(StringBuilder toolTip, String title, Map<String, Long> bytes) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(bytes.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> entry1, Map.Entry<String, Long> entry2) {
+                return entry2.getValue().compareTo(entry1.getValue());
+            }
+        });
+
+        toolTip.append("<b>").append(title).append("</b><br>");
+        for (int i = 0; i < Math.min(entries.size(), MAX_TOOL_TIP_ENTRIES); i++) {
+            toolTip.append("&nbsp;&nbsp;").append(entries.get(i).getKey())
+                    .append(": ").append(formatBytes(entries.get(i).getValue())).append("<br>");
+        }
+        if (entries.size() > MAX_TOOL_TIP_ENTRIES) {
+            toolTip.append("&nbsp;&nbsp;and ").append(entries.size() - MAX_TOOL_TIP_ENTRIES).append(" more<br>");
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + "Kb";
+        }
+        return String.format("%.1fMb", bytes / (1024.0 * 1024.0));
+    }
+
+    private static final long serialVersionUID = -2718458034261573907L;
+
+    private static final int UPDATE_INTERVAL = 5000;
+    private static final int MAX_TOOL_TIP_ENTRIES = 8;
+
+    private final JLabel heapLabel = new JLabel();
+    private final JButton freeButton = new JButton("Free");
+    private final Timer timer;
+}
@@ -0,0 +1,586 @@
+/*
+ * IndexedTreeFile.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.treeviewer.TreeSource;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.io.ImportException;
+import jebl.evolution.io.NewickImporter;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.Tree;
+import jebl.util.ProgressListener;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The trees in a NEXUS or Newick file, read as they are needed. The file is memory
+ * mapped and scanned once to find where each tree statement starts and ends and
+ * then each tree is parsed when it is asked for (or all of them in parallel). The
+ * taxa and translation table of each TREES block are only read once and each tree
+ * statement is then parsed on its own. The most recently used trees are kept in
+ * memory along with any that have been retained because they have been edited.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class IndexedTreeFile extends AbstractList<Tree> implements TreeSource {
+
+    public IndexedTreeFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return true if the file is NEXUS (otherwise it is assumed to be Newick)
+     */
+    public boolean isNexus() {
+        return isNexus;
+    }
+
+    /**
+     * Finds the tree statements in the file. The file is memory mapped and read
+     * in a single pass.
+     * @param progressListener told how far through the file the index has got (and
+     * asked whether to carry on)
+     * @throws InterruptedIOException if the progress listener cancels it
+     */
+    public void index(ProgressListener progressListener) throws IOException {
+        treeCount = 0;
+        blockCount = 0;
+        tailOffset = 0;
+        translations = null;
+        clearCache();
+
+        mapFile();
+
+        final long length = file.length();
+        isNexus = checkNexus();
+
+        final StatementScanner scanner = new StatementScanner();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        for (MappedByteBuffer segment : segments) {
+            final ByteBuffer bytes = segment.duplicate();
+            while (bytes.hasRemaining()) {
+                final int count = Math.min(buffer.length, bytes.remaining());
+                bytes.get(buffer, 0, count);
+                scanner.scan(buffer, count);
+
+                if (progressListener.setProgress(scanner.position, length)) {
+                    throw new InterruptedIOException("Indexing cancelled");
+                }
+            }
+        }
+        scanner.finish();
+
+        if (treeCount > 0) {
+            tailOffset = treeOffsets[(treeCount * 2) - 1];
+        }
+    }
+
+    private void mapFile() throws IOException {
+        final long length = file.length();
+        final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            for (long offset = 0; offset < length; offset += SEGMENT_SIZE) {
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE, length - offset)));
+            }
+        } finally {
+            // the mapping remains valid after the file is closed
+            randomAccessFile.close();
+        }
+        this.segments = segments.toArray(new MappedByteBuffer[segments.size()]);
+    }
+
+    /**
+     * Is the first line that isn't blank a #NEXUS line (as FigTreeFrame.isNexus)?
+     */
+    private boolean checkNexus() throws IOException {
+        final String start = readText(0, (int)Math.min(file.length(), 1024));
+        for (String line : start.split("[\\r\\n]")) {
+            if (line.length() > 0) {
+                return line.toUpperCase().contains("#NEXUS");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the start and end of each tree statement, skipping comments and quoted
+     * strings. In NEXUS files these are the TREE commands in TREES blocks (and the
+     * first tree of each block is noted) and in Newick files, everything up to each
+     * semicolon.
+     */
+    private class StatementScanner {
+
+        void scan(byte[] buffer, int count) {
+            for (int i = 0; i < count; i++, position++) {
+                final int c = buffer[i] & 0xFF;
+
+                if (skipLine) {
+                    skipLine = (c != '\n' && c != '\r');
+                    continue;
+                }
+                if (commentDepth > 0) {
+                    if (c == '[') {
+                        commentDepth++;
+                    } else if (c == ']') {
+                        commentDepth--;
+                    }
+                    continue;
+                }
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                    continue;
+                }
+
+                if (readingWord) {
+                    if (Character.isLetterOrDigit(c) || c == '_') {
+                        if (word.length() < MAX_KEYWORD_LENGTH) {
+                            word.append((char)c);
+                        }
+                        continue;
+                    }
+                    readingWord = false;
+
+                    // a NEXUS keyword at the start of a statement
+                    final String keyword = word.toString().toLowerCase();
+                    if (expectBlockName) {
+                        inTreesBlock = keyword.equals("trees");
+                        expectBlockName = false;
+                        newTreesBlock = inTreesBlock;
+                    } else if (keyword.equals("begin")) {
+                        expectBlockName = true;
+                    } else if (keyword.equals("end") || keyword.equals("endblock")) {
+                        inTreesBlock = false;
+                    } else if (inTreesBlock && (keyword.equals("tree") || keyword.equals("utree"))) {
+                        treeStart = wordStart;
+                        if (newTreesBlock) {
+                            addTreesBlock();
+                            newTreesBlock = false;
+                        }
+                    }
+                    atStatementStart = false;
+                }
+
+                if (!isNexus && treeStart == -1 && !Character.isWhitespace(c) && c != ';') {
+                    // any comment before a Newick tree (i.e., [&R]) is part of it
+                    treeStart = position;
+                }
+
+                if (c == '[') {
+                    commentDepth = 1;
+                } else if (c == '\'' || c == '"') {
+                    quote = c;
+                    atStatementStart = false;
+                } else if (c == ';') {
+                    if (treeStart != -1) {
+                        addTree(treeStart, position + 1);
+                        treeStart = -1;
+                    }
+                    atStatementStart = true;
+                    expectBlockName = false;
+                } else if (isNexus && !Character.isWhitespace(c)) {
+                    if (c == '#' && atStatementStart) {
+                        // the #NEXUS line isn't a statement
+                        skipLine = true;
+                    } else if ((atStatementStart || expectBlockName) && Character.isLetter(c)) {
+                        readingWord = true;
+                        wordStart = position;
+                        word.setLength(0);
+                        word.append((char)c);
+                    } else {
+                        atStatementStart = false;
+                    }
+                }
+            }
+        }
+
+        void finish() {
+            if (!isNexus && treeStart != -1) {
+                // allow the last Newick tree to be missing its semicolon
+                addTree(treeStart, position);
+            }
+        }
+
+        private final StringBuilder word = new StringBuilder();
+
+        private long position = 0;
+        private long treeStart = -1;
+        private int commentDepth = 0;
+        private int quote = 0;
+        private boolean skipLine = false;
+        private boolean atStatementStart = true;
+        private boolean expectBlockName = false;
+        private boolean inTreesBlock = false;
+        private boolean newTreesBlock = false;
+        private boolean readingWord = false;
+        private long wordStart = 0;
+    }
+
+    /**
+     * Notes that the next tree is the first of a TREES block.
+     */
+    private void addTreesBlock() {
+        if (blockCount == blockFirstTrees.length) {
+            blockFirstTrees = Arrays.copyOf(blockFirstTrees, blockFirstTrees.length * 2);
+        }
+        blockFirstTrees[blockCount] = treeCount;
+        blockCount++;
+    }
+
+    private void addTree(long start, long end) {
+        if (treeCount * 2 == treeOffsets.length) {
+            treeOffsets = Arrays.copyOf(treeOffsets, treeOffsets.length * 2);
+        }
+        treeOffsets[treeCount * 2] = start;
+        treeOffsets[(treeCount * 2) + 1] = end;
+        treeCount++;
+    }
+
+    /**
+     * Reads any settings in a FigTree block after the trees.
+     * @return true if there was a FigTree block
+     */
+    public boolean readSettings(Map<String, Object> settings) throws ImportException, IOException {
+        if (!isNexus || treeCount == 0) {
+            return false;
+        }
+
+        final long length = file.length() - tailOffset;
+        if (length > MAX_TAIL_LENGTH) {
+            // the trees aren't all in one block so don't bother
+            return false;
+        }
+
+        boolean hasSettings = false;
+        FigTreeNexusImporter importer = new FigTreeNexusImporter(new StringReader(
+                "#NEXUS\n" + readText(tailOffset, (int)length)));
+        while (true) {
+            try {
+                importer.findNextBlock();
+                if (importer.getNextBlockName().equalsIgnoreCase("FIGTREE")) {
+                    importer.parseFigTreeBlock(settings);
+                    hasSettings = true;
+                }
+            } catch (EOFException ex) {
+                break;
+            }
+        }
+        return hasSettings;
+    }
+
+    /**
+     * Sets the name that the 'label' attribute is given as trees are read
+     * (see FigTreeFrame.checkLabelAttribute).
+     */
+    public void setLabelName(String labelName) {
+        this.labelName = labelName;
+    }
+
+    public int size() {
+        return treeCount;
+    }
+
+    public Tree get(int index) {
+        if (index < 0 || index >= treeCount) {
+            throw new IndexOutOfBoundsException("Tree index, " + index + ", out of range");
+        }
+
+        synchronized (this) {
+            Tree tree = retainedTrees.get(index);
+            if (tree == null) {
+                tree = cachedTrees.get(index);
+            }
+            if (tree != null) {
+                return tree;
+            }
+        }
+
+        // the tree is parsed outside the lock so several threads can read trees at once
+        Tree tree;
+        try {
+            tree = readTree(index);
+        } catch (ImportException ie) {
+            throw new IllegalArgumentException("Error reading tree " + (index + 1) + ": " + ie.getMessage(), ie);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Error reading tree " + (index + 1) + ": " + ioe.getMessage(), ioe);
+        }
+
+        synchronized (this) {
+            // another thread may have read it in the meantime
+            Tree cachedTree = cachedTrees.get(index);
+            if (cachedTree != null) {
+                return cachedTree;
+            }
+            cachedTrees.put(index, tree);
+        }
+        return tree;
+    }
+
+    public synchronized void retainTree(int index, Tree tree) {
+        retainedTrees.put(index, tree);
+    }
+
+    public synchronized List<Tree> getLoadedTrees() {
+        return new ArrayList<Tree>(getLoadedTreeMap().values());
+    }
+
+    public synchronized SortedMap<Integer, Tree> getLoadedTreeMap() {
+        SortedMap<Integer, Tree> loadedTrees = new TreeMap<Integer, Tree>(cachedTrees);
+        loadedTrees.putAll(retainedTrees);
+        return loadedTrees;
+    }
+
+    public synchronized void clearLoadedTrees() {
+        cachedTrees.clear();
+    }
+
+    /**
+     * Lets go of the mapping of the file (i.e., when the document is closed). The
+     * trees that have been retained are kept but no more can be read. The mapping
+     * itself is released when the buffers are garbage collected.
+     */
+    public synchronized void close() {
+        segments = new MappedByteBuffer[0];
+        isClosed = true;
+        cachedTrees.clear();
+    }
+
+    /**
+     * Reads a range of trees all at once, in parallel. These are not cached.
+     * @param from the index of the first tree
+     * @param to the index after the last tree
+     * @param progressListener told how many trees have been read (and asked whether
+     * to carry on)
+     * @throws InterruptedIOException if the progress listener cancels it
+     */
+    public List<Tree> readTrees(final int from, final int to, final ProgressListener progressListener) throws ImportException, IOException {
+        final Tree[] trees = new Tree[to - from];
+        final AtomicInteger readCount = new AtomicInteger(0);
+
+        if (isNexus) {
+            getTranslations();
+        }
+
+        // only split the work up if there are threads to share it
+        final int treesPerTask = (ForkJoinPool.getCommonPoolParallelism() > 1 ? TREES_PER_TASK : to - from);
+
+        try {
+            ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+                protected void compute() {
+                    readTrees(from, to);
+                }
+
+                private void readTrees(final int start, final int end) {
+                    if (end - start > treesPerTask) {
+                        final int middle = (start + end) / 2;
+                        invokeAll(new RecursiveAction() {
+                            protected void compute() {
+                                readTrees(start, middle);
+                            }
+                        }, new RecursiveAction() {
+                            protected void compute() {
+                                readTrees(middle, end);
+                            }
+                        });
+                        return;
+                    }
+
+                    for (int i = start; i < end; i++) {
+                        if (progressListener.setProgress(readCount.incrementAndGet(), to - from)) {
+                            throw new CancellationException();
+                        }
+                        try {
+                            trees[i - from] = readTree(i);
+                        } catch (ImportException ie) {
+                            throw new TreeReadException(i, ie);
+                        } catch (IOException ioe) {
+                            throw new TreeReadException(i, ioe);
+                        }
+                    }
+                }
+            });
+        } catch (CancellationException ce) {
+            throw new InterruptedIOException("Reading cancelled");
+        } catch (TreeReadException tre) {
+            if (tre.getCause() instanceof ImportException) {
+                throw (ImportException)tre.getCause();
+            }
+            throw (IOException)tre.getCause();
+        }
+
+        return Arrays.asList(trees);
+    }
+
+    private static class TreeReadException extends RuntimeException {
+        private static final long serialVersionUID = 6314209428465812270L;
+
+        TreeReadException(int index, Exception cause) {
+            super("Error reading tree " + (index + 1), cause);
+        }
+    }
+
+    private void clearCache() {
+        cachedTrees.clear();
+        retainedTrees.clear();
+    }
+
+    private Tree readTree(int index) throws ImportException, IOException {
+        final long start = treeOffsets[index * 2];
+        final String statement = readText(start, (int)(treeOffsets[(index * 2) + 1] - start));
+
+        Tree tree;
+        if (isNexus) {
+            // the statement is parsed on its own using the translation table of its block
+            TreeStatementParser parser = new TreeStatementParser(getTranslations().get(getTreesBlock(index)));
+            tree = parser.parseTree(statement);
+        } else {
+            NewickImporter importer = new NewickImporter(new StringReader(statement), true);
+            tree = importer.importNextTree();
+        }
+
+        if (labelName != null && !labelName.equals("label")) {
+            for (Node node : tree.getNodes()) {
+                Object value = node.getAttribute("label");
+                if (value != null) {
+                    node.removeAttribute("label");
+                    node.setAttribute(labelName, value);
+                }
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * @return the index of the TREES block that a tree is in
+     */
+    private int getTreesBlock(int index) {
+        int block = Arrays.binarySearch(blockFirstTrees, 0, blockCount, index);
+        if (block < 0) {
+            block = -block - 2;
+        }
+        return block;
+    }
+
+    /**
+     * Reads the taxa and translation table of each TREES block. The header of each
+     * block is everything from the end of the previous block's trees up to its first
+     * tree so any TAXA blocks in between are read as well.
+     * @return the taxon for each label, for each TREES block
+     */
+    private synchronized List<Map<String, Taxon>> getTranslations() throws ImportException, IOException {
+        if (translations == null) {
+            final List<Map<String, Taxon>> blockTranslations = new ArrayList<Map<String, Taxon>>(blockCount);
+
+            List<Taxon> taxa = null;
+            long headerStart = 0;
+            for (int block = 0; block < blockCount; block++) {
+                final long headerEnd = treeOffsets[blockFirstTrees[block] * 2];
+                FigTreeNexusImporter importer = new FigTreeNexusImporter(new StringReader(
+                        "#NEXUS\n" + readText(headerStart, (int)(headerEnd - headerStart)) + "\nEND;\n"));
+                Map<String, Taxon> translation = null;
+                while (true) {
+                    try {
+                        importer.findNextBlock();
+                        if (importer.getNextBlockName().equalsIgnoreCase("TAXA")) {
+                            taxa = importer.parseTaxaBlock();
+                        } else if (importer.getNextBlockName().equalsIgnoreCase("TREES")) {
+                            translation = importer.parseTreesBlockHeader(taxa);
+                        }
+                    } catch (EOFException ex) {
+                        break;
+                    }
+                }
+                if (translation == null) {
+                    throw new ImportException("Missing the start of TREES block " + (block + 1));
+                }
+                blockTranslations.add(translation);
+                if (block + 1 < blockCount) {
+                    // the next header starts after the last tree of this block
+                    headerStart = treeOffsets[((blockFirstTrees[block + 1] - 1) * 2) + 1];
+                }
+            }
+            translations = blockTranslations;
+        }
+        return translations;
+    }
+
+    private String readText(long offset, int length) throws IOException {
+        if (isClosed) {
+            throw new IOException("The tree file, " + file.getName() + ", has been closed");
+        }
+        final byte[] bytes = new byte[length];
+        int count = 0;
+        while (count < length) {
+            final long position = offset + count;
+            final ByteBuffer segment = segments[(int)(position / SEGMENT_SIZE)].duplicate();
+            segment.position((int)(position % SEGMENT_SIZE));
+            final int n = Math.min(length - count, segment.remaining());
+            segment.get(bytes, count, n);
+            count += n;
+        }
+        // decoded as a FileReader would
+        return new String(bytes);
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int TREES_PER_TASK = 4;
+    private static final int MAX_KEYWORD_LENGTH = 16;
+    private static final int MAX_TAIL_LENGTH = 1 << 20;
+    private static final int CACHE_SIZE = 8;
+
+    private final File file;
+    private boolean isNexus = false;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile boolean isClosed = false;
+
+    // the start and end of each tree statement
+    private long[] treeOffsets = new long[256];
+    private int treeCount = 0;
+    private long tailOffset = 0;
+
+    // the index of the first tree in each TREES block and the taxon labels in each
+    private int[] blockFirstTrees = new int[4];
+    private int blockCount = 0;
+    private List<Map<String, Taxon>> translations = null;
+
+    private String labelName = null;
+
+    private final Map<Integer, Tree> retainedTrees = new HashMap<Integer, Tree>();
+    private final Map<Integer, Tree> cachedTrees = new LinkedHashMap<Integer, Tree>(16, 0.75F, true) {
+        protected boolean removeEldestEntry(Map.Entry<Integer, Tree> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+}
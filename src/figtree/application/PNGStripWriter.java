@@ -0,0 +1,289 @@
+/*
+ * PNGStripWriter.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a component to a PNG without making an image of the whole thing (which for a
+ * large poster can need several gigabytes). The component is painted a horizontal strip
+ * at a time, clipped so only the part of the tree in the strip is drawn, and the rows of
+ * each strip are filtered and compressed while the next is painted. The strips are
+ * compressed in parallel into separate blocks of the one deflate stream (each ending on
+ * a byte boundary with a sync flush) so the memory needed is bounded by the size and
+ * number of the strips.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class PNGStripWriter {
+
+    /**
+     * @param stripHeight the number of rows to paint at a time
+     * @param threadCount the number of strips to compress at once
+     */
+    public PNGStripWriter(int stripHeight, int threadCount) {
+        this.stripHeight = Math.max(stripHeight, 1);
+        this.threadCount = Math.max(threadCount, 1);
+    }
+
+    /**
+     * @return the height of strip to use for an image of the given width so that each
+     * strip has about the given number of pixels
+     */
+    public static int getStripHeight(int width, int stripPixels) {
+        return Math.max(stripPixels / Math.max(width, 1), 1);
+    }
+
+    /**
+     * Paints the component and writes it to the stream as a PNG (with an alpha channel).
+     */
+    public void write(JComponent component, OutputStream stream) throws IOException {
+        final int width = component.getWidth();
+        final int height = component.getHeight();
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(PNG_SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8); // bit depth
+        headerData.writeByte(6); // colour type: RGB with alpha
+        headerData.writeByte(0); // compression method: deflate
+        headerData.writeByte(0); // filter method: adaptive
+        headerData.writeByte(0); // interlace: none
+        writeChunk(out, "IHDR", header.toByteArray(), 0, header.size());
+
+        // the zlib header for the deflate stream that is split across the strips
+        writeChunk(out, "IDAT", ZLIB_HEADER, 0, ZLIB_HEADER.length);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FigTree PNG compressor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // the strips being compressed (in order) and the images that are free to paint into
+        Deque<Future<Strip>> pending = new ArrayDeque<Future<Strip>>();
+        Deque<BufferedImage> freeImages = new ArrayDeque<BufferedImage>();
+        long adler = 1L;
+
+        try {
+            for (int y = 0; y < height; y += stripHeight) {
+                if (pending.size() > threadCount) {
+                    Strip strip = getStrip(pending.removeFirst());
+                    adler = writeStrip(out, strip, adler);
+                    freeImages.addLast(strip.image);
+                }
+
+                BufferedImage image = freeImages.pollFirst();
+                if (image == null) {
+                    image = new BufferedImage(width, Math.min(stripHeight, height), BufferedImage.TYPE_INT_ARGB);
+                }
+                final int rowCount = Math.min(stripHeight, height - y);
+                paintStrip(component, image, y, rowCount);
+
+                pending.addLast(executor.submit(new Strip(image, rowCount, y + rowCount == height)));
+            }
+
+            while (!pending.isEmpty()) {
+                adler = writeStrip(out, getStrip(pending.removeFirst()), adler);
+            }
+        } finally {
+            for (Future<Strip> future : pending) {
+                future.cancel(true);
+            }
+            executor.shutdown();
+        }
+
+        byte[] trailer = new byte[] {
+                (byte)(adler >>> 24), (byte)(adler >>> 16), (byte)(adler >>> 8), (byte)adler
+        };
+        writeChunk(out, "IDAT", trailer, 0, trailer.length);
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    private void paintStrip(JComponent component, BufferedImage image, int y, int rowCount) {
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setComposite(AlphaComposite.SrcOver);
+
+        g.translate(0, -y);
+        g.clipRect(0, y, image.getWidth(), rowCount);
+        component.paint(g);
+        g.dispose();
+    }
+
+    private static Strip getStrip(Future<Strip> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("PNG export interrupted");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException)ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    /**
+     * Writes the compressed rows of a strip.
+     * @return the checksum of the data so far with the strip's added
+     */
+    private static long writeStrip(DataOutputStream out, Strip strip, long adler) throws IOException {
+        writeChunk(out, "IDAT", strip.data, 0, strip.dataLength);
+        return combineAdler32(adler, strip.adler, strip.rawLength);
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        out.writeInt((int)crc.getValue());
+    }
+
+    /**
+     * @return the Adler-32 checksum of two blocks of data from the checksums of each
+     * (as zlib's adler32_combine does)
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= (ADLER_BASE << 1)) sum2 -= (ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * A painted strip, which compresses itself into a block of the deflate stream.
+     */
+    private static class Strip implements Callable<Strip> {
+        Strip(BufferedImage image, int rowCount, boolean isLast) {
+            this.image = image;
+            this.rowCount = rowCount;
+            this.isLast = isLast;
+        }
+
+        public Strip call() {
+            final int width = image.getWidth();
+            final int[] pixels = new int[width];
+            final byte[] row = new byte[1 + width * 4];
+
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            Adler32 checksum = new Adler32();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            byte[] buffer = new byte[65536];
+
+            for (int y = 0; y < rowCount; y++) {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+
+                // the 'sub' filter (the difference from the pixel to the left) only needs
+                // this row so the strips can be compressed independently
+                row[0] = 1;
+                int left = 0;
+                for (int x = 0, i = 1; x < width; x++, i += 4) {
+                    final int pixel = pixels[x];
+                    row[i] = (byte)((pixel >> 16) - (left >> 16));
+                    row[i + 1] = (byte)((pixel >> 8) - (left >> 8));
+                    row[i + 2] = (byte)(pixel - left);
+                    row[i + 3] = (byte)((pixel >>> 24) - (left >>> 24));
+                    left = pixel;
+                }
+                checksum.update(row, 0, row.length);
+
+                deflater.setInput(row);
+                while (!deflater.needsInput()) {
+                    int count = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, count);
+                }
+            }
+
+            if (isLast) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, count);
+                }
+            } else {
+                // ends the block on a byte boundary so the next strip's can follow it
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            deflater.end();
+
+            data = compressed.toByteArray();
+            dataLength = data.length;
+            adler = checksum.getValue();
+            rawLength = (long)rowCount * row.length;
+            return this;
+        }
+
+        final BufferedImage image;
+        final int rowCount;
+        final boolean isLast;
+
+        byte[] data;
+        int dataLength;
+        long adler;
+        long rawLength;
+    }
+
+    private static final byte[] PNG_SIGNATURE = new byte[] {
+            (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    // deflate with a 32K window and the default compression level
+    private static final byte[] ZLIB_HEADER = new byte[] { 0x78, (byte)0x9C };
+
+    private static final long ADLER_BASE = 65521L;
+
+    private final int stripHeight;
+    private final int threadCount;
+}
@@ -0,0 +1,578 @@
+/*
+ * StreamingPDFGraphics2D.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.*;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Graphics2D that writes PDF operators straight into a page's content as it is drawn
+ * into, rather than going through iText's PdfGraphics2D (which writes every shape with
+ * all its state). Only the state that has changed is written, consecutive shapes that
+ * are stroked (or filled) the same way are joined into a single path and painted with
+ * one operator, and consecutive strings are written as one text object. Fonts are mapped
+ * to PDF fonts once each by a FontMapper (which subsets any font that it embeds).
+ *
+ * Graphics made with create() write to the same page. Call finish() on the original
+ * graphics when drawing is complete.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class StreamingPDFGraphics2D extends VectorGraphics2D {
+
+    /**
+     * @param content the content of the page to draw on
+     * @param height the height of the page (the y axis of PDF points upwards)
+     * @param fontMapper the mapper to find the PDF fonts for the Java ones
+     */
+    public StreamingPDFGraphics2D(PdfContentByte content, double height, FontMapper fontMapper) {
+        page = new Page(content, height, fontMapper);
+    }
+
+    private StreamingPDFGraphics2D(StreamingPDFGraphics2D graphics) {
+        super(graphics);
+        page = graphics.page;
+    }
+
+    /**
+     * Paints anything still pending and restores the graphics state of the page. Any
+     * errors adding to the document (which the Graphics methods can't throw) are thrown here.
+     */
+    public void finish() throws DocumentException {
+        page.finish();
+    }
+
+    public Graphics create() {
+        return new StreamingPDFGraphics2D(this);
+    }
+
+    // Writing
+
+    protected void writeShape(Shape shape, boolean isFill) {
+        page.setClip(clip);
+        if (isFill) {
+            page.writeFill(shape, transform, paint, getAlpha());
+        } else {
+            page.writeStroke(shape, transform, paint, getAlpha(), (BasicStroke)stroke);
+        }
+    }
+
+    protected void writeString(String str, float x, float y) {
+        page.setClip(clip);
+        page.writeString(str, x, y, transform, font, paint, getAlpha());
+    }
+
+    protected boolean writeImage(BufferedImage image, AffineTransform imageTransform) {
+        page.setClip(clip);
+        return page.writeImage(image, imageTransform);
+    }
+
+    private float getAlpha() {
+        if (composite instanceof AlphaComposite) {
+            return ((AlphaComposite)composite).getAlpha();
+        }
+        return 1.0F;
+    }
+
+    /**
+     * The content of the page and the state that has been written into it, which is
+     * shared by all the graphics made from the original one.
+     */
+    private static class Page {
+        Page(PdfContentByte content, double height, FontMapper fontMapper) {
+            this.content = content;
+            this.height = height;
+            this.fontMapper = fontMapper;
+        }
+
+        /**
+         * Sets the clip (in page coordinates) if it isn't the one already in place. As a
+         * PDF clip can only be made smaller, the graphics state is saved before each one
+         * and restored to remove it.
+         */
+        void setClip(Shape clip) {
+            if (clip == currentClip) {
+                return;
+            }
+            endContent();
+
+            if (currentClip != null) {
+                content.restoreState();
+                // everything set since the save has been lost
+                resetState();
+            }
+            if (clip != null) {
+                content.saveState();
+                PathIterator iterator = clip.getPathIterator(null);
+                if (readPath(iterator)) {
+                    writePath();
+                } else {
+                    // an empty clip hides everything
+                    content.rectangle(0, 0, 0, 0);
+                }
+                if (iterator.getWindingRule() == PathIterator.WIND_EVEN_ODD) {
+                    content.eoClip();
+                } else {
+                    content.clip();
+                }
+                content.newPath();
+            }
+            currentClip = clip;
+        }
+
+        void writeFill(Shape shape, AffineTransform transform, Paint paint, float alpha) {
+            PathIterator iterator = shape.getPathIterator(transform);
+            if (!readPath(iterator)) {
+                return;
+            }
+            endText();
+
+            int kind = (iterator.getWindingRule() == PathIterator.WIND_EVEN_ODD ? EVEN_ODD_FILL : FILL);
+            Color colour = getColour(paint);
+            int shapeAlpha = Math.round(colour.getAlpha() * alpha);
+
+            // filled shapes can only be joined into one path if they are opaque and don't
+            // overlap (the winding of one could make a hole in another and the overlapping
+            // parts would be painted once rather than twice)
+            boolean canJoin = !(paint instanceof GradientPaint) && shapeAlpha == 255;
+            if (pendingKind != kind || !canJoin || !isFillColour(colour) || pathBounds.intersects(pendingBounds)) {
+                paintPath();
+            }
+
+            if (paint instanceof GradientPaint) {
+                content.setShadingFill(getShading((GradientPaint)paint, transform));
+                fillRGB = UNKNOWN;
+            } else {
+                setFillColour(colour);
+            }
+            setAlpha(shapeAlpha, strokeAlpha);
+
+            writePath();
+            if (pendingKind == NONE) {
+                pendingBounds.setRect(pathBounds);
+            } else {
+                pendingBounds.add(pathBounds);
+            }
+            pendingKind = kind;
+
+            if (!canJoin) {
+                paintPath();
+            }
+        }
+
+        void writeStroke(Shape shape, AffineTransform transform, Paint paint, float alpha, BasicStroke stroke) {
+            PathIterator iterator = shape.getPathIterator(transform);
+            if (!readPath(iterator)) {
+                return;
+            }
+            endText();
+
+            // the paths are in page coordinates so the width is scaled to match
+            double scale = Math.sqrt(Math.abs(transform.getDeterminant()));
+            Color colour = getColour(paint);
+            int shapeAlpha = Math.round(colour.getAlpha() * alpha);
+
+            // strokes that overlap would also only be painted once if they were joined
+            boolean canJoin = !(paint instanceof GradientPaint) && shapeAlpha == 255;
+            if (pendingKind != STROKE || !canJoin || !isStrokeColour(colour) || !isLine(stroke, scale)) {
+                paintPath();
+            }
+
+            if (paint instanceof GradientPaint) {
+                content.setShadingStroke(getShading((GradientPaint)paint, transform));
+                strokeRGB = UNKNOWN;
+            } else {
+                setStrokeColour(colour);
+            }
+            setAlpha(fillAlpha, shapeAlpha);
+            setLine(stroke, scale);
+
+            writePath();
+            pendingKind = STROKE;
+
+            if (!canJoin) {
+                paintPath();
+            }
+        }
+
+        void writeString(String str, float x, float y, AffineTransform transform, Font font, Paint paint, float alpha) {
+            paintPath();
+
+            Color colour = getColour(paint);
+            if (!isText) {
+                content.beginText();
+                isText = true;
+            }
+            setFillColour(colour);
+            setAlpha(Math.round(colour.getAlpha() * alpha), strokeAlpha);
+
+            BaseFont baseFont = getBaseFont(font);
+            if (baseFont != textFont || font.getSize2D() != textSize) {
+                content.setFontAndSize(baseFont, font.getSize2D());
+                textFont = baseFont;
+                textSize = font.getSize2D();
+            }
+
+            // the text is flipped back up the right way
+            AffineTransform t = getPageTransform(transform);
+            t.translate(x, y);
+            t.scale(1.0, -1.0);
+            content.setTextMatrix((float)t.getScaleX(), (float)t.getShearY(), (float)t.getShearX(),
+                    (float)t.getScaleY(), (float)t.getTranslateX(), (float)t.getTranslateY());
+            content.showText(str);
+        }
+
+        boolean writeImage(BufferedImage image, AffineTransform imageTransform) {
+            endContent();
+
+            // the image is drawn into the unit square, flipped so its top row is at the top
+            AffineTransform t = getPageTransform(imageTransform);
+            t.translate(0.0, image.getHeight());
+            t.scale(image.getWidth(), -image.getHeight());
+            try {
+                com.itextpdf.text.Image pdfImage = com.itextpdf.text.Image.getInstance(image, null);
+                content.addImage(pdfImage, (float)t.getScaleX(), (float)t.getShearY(), (float)t.getShearX(),
+                        (float)t.getScaleY(), (float)t.getTranslateX(), (float)t.getTranslateY());
+            } catch (IOException ioe) {
+                return false;
+            } catch (DocumentException de) {
+                if (exception == null) {
+                    exception = de;
+                }
+                return false;
+            }
+            return true;
+        }
+
+        void finish() throws DocumentException {
+            setClip(null);
+            endContent();
+
+            if (exception != null) {
+                throw exception;
+            }
+        }
+
+        /**
+         * Paints any pending path and ends any text object.
+         */
+        private void endContent() {
+            paintPath();
+            endText();
+        }
+
+        private void endText() {
+            if (isText) {
+                content.endText();
+                isText = false;
+            }
+        }
+
+        private void paintPath() {
+            switch (pendingKind) {
+                case STROKE: content.stroke(); break;
+                case FILL: content.fill(); break;
+                case EVEN_ODD_FILL: content.eoFill(); break;
+            }
+            pendingKind = NONE;
+        }
+
+        /**
+         * Reads a path (in Java page coordinates) into the buffer, flipping it to PDF
+         * page coordinates and finding its bounds.
+         * @return false if the path was empty
+         */
+        private boolean readPath(PathIterator iterator) {
+            segmentCount = 0;
+            int coordCount = 0;
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+            final double[] coords = new double[6];
+            while (!iterator.isDone()) {
+                int type = iterator.currentSegment(coords);
+                int n = POINT_COUNTS[type] * 2;
+
+                if (segmentCount == segmentTypes.length) {
+                    int[] newTypes = new int[segmentCount * 2];
+                    System.arraycopy(segmentTypes, 0, newTypes, 0, segmentCount);
+                    segmentTypes = newTypes;
+                }
+                if (coordCount + n > segmentCoords.length) {
+                    double[] newCoords = new double[segmentCoords.length * 2];
+                    System.arraycopy(segmentCoords, 0, newCoords, 0, coordCount);
+                    segmentCoords = newCoords;
+                }
+
+                segmentTypes[segmentCount] = type;
+                segmentCount++;
+                for (int i = 0; i < n; i += 2) {
+                    double x = coords[i];
+                    double y = height - coords[i + 1];
+                    segmentCoords[coordCount + i] = x;
+                    segmentCoords[coordCount + i + 1] = y;
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+                coordCount += n;
+                iterator.next();
+            }
+
+            if (segmentCount == 0) {
+                return false;
+            }
+            pathBounds.setRect(minX, minY, maxX - minX, maxY - minY);
+            return true;
+        }
+
+        /**
+         * Writes the path in the buffer into the content.
+         */
+        private void writePath() {
+            double x = 0.0, y = 0.0;
+            int c = 0;
+            for (int i = 0; i < segmentCount; i++) {
+                double[] p = segmentCoords;
+                switch (segmentTypes[i]) {
+                    case PathIterator.SEG_MOVETO:
+                        content.moveTo((float)p[c], (float)p[c + 1]);
+                        x = p[c];
+                        y = p[c + 1];
+                        c += 2;
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        content.lineTo((float)p[c], (float)p[c + 1]);
+                        x = p[c];
+                        y = p[c + 1];
+                        c += 2;
+                        break;
+                    case PathIterator.SEG_QUADTO: {
+                        // PDF only has cubic curves
+                        double x1 = x + (p[c] - x) * 2.0 / 3.0;
+                        double y1 = y + (p[c + 1] - y) * 2.0 / 3.0;
+                        double x2 = p[c + 2] + (p[c] - p[c + 2]) * 2.0 / 3.0;
+                        double y2 = p[c + 3] + (p[c + 1] - p[c + 3]) * 2.0 / 3.0;
+                        content.curveTo((float)x1, (float)y1, (float)x2, (float)y2, (float)p[c + 2], (float)p[c + 3]);
+                        x = p[c + 2];
+                        y = p[c + 3];
+                        c += 4;
+                        break;
+                    }
+                    case PathIterator.SEG_CUBICTO:
+                        content.curveTo((float)p[c], (float)p[c + 1], (float)p[c + 2], (float)p[c + 3],
+                                (float)p[c + 4], (float)p[c + 5]);
+                        x = p[c + 4];
+                        y = p[c + 5];
+                        c += 6;
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        content.closePath();
+                        break;
+                }
+            }
+        }
+
+        /**
+         * @return the transform from user space to PDF page coordinates
+         */
+        private AffineTransform getPageTransform(AffineTransform transform) {
+            AffineTransform t = new AffineTransform(1.0, 0.0, 0.0, -1.0, 0.0, height);
+            t.concatenate(transform);
+            return t;
+        }
+
+        private boolean isFillColour(Color colour) {
+            return fillRGB == (colour.getRGB() & 0xFFFFFF);
+        }
+
+        private boolean isStrokeColour(Color colour) {
+            return strokeRGB == (colour.getRGB() & 0xFFFFFF);
+        }
+
+        private void setFillColour(Color colour) {
+            if (!isFillColour(colour)) {
+                content.setRGBColorFill(colour.getRed(), colour.getGreen(), colour.getBlue());
+                fillRGB = colour.getRGB() & 0xFFFFFF;
+            }
+        }
+
+        private void setStrokeColour(Color colour) {
+            if (!isStrokeColour(colour)) {
+                content.setRGBColorStroke(colour.getRed(), colour.getGreen(), colour.getBlue());
+                strokeRGB = colour.getRGB() & 0xFFFFFF;
+            }
+        }
+
+        /**
+         * Sets the opacities (0 to 255) with a graphics state dictionary, one of which is
+         * made for each combination used.
+         */
+        private void setAlpha(int newFillAlpha, int newStrokeAlpha) {
+            if (newFillAlpha == fillAlpha && newStrokeAlpha == strokeAlpha) {
+                return;
+            }
+            Integer key = (newFillAlpha << 8) | newStrokeAlpha;
+            PdfGState state = graphicsStates.get(key);
+            if (state == null) {
+                state = new PdfGState();
+                state.setFillOpacity(newFillAlpha / 255.0F);
+                state.setStrokeOpacity(newStrokeAlpha / 255.0F);
+                graphicsStates.put(key, state);
+            }
+            content.setGState(state);
+            fillAlpha = newFillAlpha;
+            strokeAlpha = newStrokeAlpha;
+        }
+
+        private boolean isLine(BasicStroke stroke, double scale) {
+            return stroke.equals(lineStroke) && scale == lineScale;
+        }
+
+        private void setLine(BasicStroke stroke, double scale) {
+            if (isLine(stroke, scale)) {
+                return;
+            }
+            // the cap and join constants are the same in PDF
+            content.setLineWidth((float)(stroke.getLineWidth() * scale));
+            content.setLineCap(stroke.getEndCap());
+            content.setLineJoin(stroke.getLineJoin());
+            content.setMiterLimit(stroke.getMiterLimit());
+
+            float[] dash = stroke.getDashArray();
+            if (dash != null && dash.length > 0) {
+                float[] pageDash = new float[dash.length];
+                for (int i = 0; i < dash.length; i++) {
+                    pageDash[i] = (float)(dash[i] * scale);
+                }
+                content.setLineDash(pageDash, (float)(stroke.getDashPhase() * scale));
+            } else {
+                content.setLineDash(0.0F);
+            }
+            lineStroke = stroke;
+            lineScale = scale;
+        }
+
+        /**
+         * @return a shading for a gradient (the last one is reused as the same gradient
+         * is often used for several shapes in a row)
+         */
+        private PdfShadingPattern getShading(GradientPaint gradient, AffineTransform transform) {
+            AffineTransform t = getPageTransform(transform);
+            Point2D p1 = t.transform(gradient.getPoint1(), null);
+            Point2D p2 = t.transform(gradient.getPoint2(), null);
+            Color c1 = gradient.getColor1();
+            Color c2 = gradient.getColor2();
+
+            String key = p1 + " " + p2 + " " + c1.getRGB() + " " + c2.getRGB();
+            if (!key.equals(lastShadingKey)) {
+                PdfShading shading = PdfShading.simpleAxial(content.getPdfWriter(),
+                        (float)p1.getX(), (float)p1.getY(), (float)p2.getX(), (float)p2.getY(),
+                        new BaseColor(c1.getRed(), c1.getGreen(), c1.getBlue()),
+                        new BaseColor(c2.getRed(), c2.getGreen(), c2.getBlue()), true, true);
+                lastShading = new PdfShadingPattern(shading);
+                lastShadingKey = key;
+            }
+            return lastShading;
+        }
+
+        private BaseFont getBaseFont(Font font) {
+            BaseFont baseFont = baseFonts.get(font);
+            if (baseFont == null) {
+                baseFont = fontMapper.awtToPdf(font);
+                baseFonts.put(font, baseFont);
+            }
+            return baseFont;
+        }
+
+        private static Color getColour(Paint paint) {
+            if (paint instanceof Color) {
+                return (Color)paint;
+            } else if (paint instanceof GradientPaint) {
+                return ((GradientPaint)paint).getColor1();
+            }
+            return Color.BLACK;
+        }
+
+        private void resetState() {
+            fillRGB = UNKNOWN;
+            strokeRGB = UNKNOWN;
+            fillAlpha = 255;
+            strokeAlpha = 255;
+            lineStroke = null;
+            textFont = null;
+        }
+
+        private static final int UNKNOWN = -1;
+
+        private static final int NONE = 0;
+        private static final int STROKE = 1;
+        private static final int FILL = 2;
+        private static final int EVEN_ODD_FILL = 3;
+
+        // the number of points in each type of segment
+        private static final int[] POINT_COUNTS = { 1, 1, 2, 3, 0 };
+
+        private final PdfContentByte content;
+        private final double height;
+        private final FontMapper fontMapper;
+        private DocumentException exception = null;
+
+        // the state that has been written into the content
+        private Shape currentClip = null;
+        private int fillRGB = UNKNOWN;
+        private int strokeRGB = UNKNOWN;
+        private int fillAlpha = 255;
+        private int strokeAlpha = 255;
+        private BasicStroke lineStroke = null;
+        private double lineScale = 0.0;
+        private BaseFont textFont = null;
+        private float textSize = 0.0F;
+        private boolean isText = false;
+
+        // the path that has been written but not yet painted
+        private int pendingKind = NONE;
+        private final Rectangle2D pendingBounds = new Rectangle2D.Double();
+
+        // the path that has just been read
+        private int[] segmentTypes = new int[64];
+        private double[] segmentCoords = new double[256];
+        private int segmentCount = 0;
+        private final Rectangle2D pathBounds = new Rectangle2D.Double();
+
+        private final Map<Integer, PdfGState> graphicsStates = new HashMap<Integer, PdfGState>();
+        private final Map<Font, BaseFont> baseFonts = new HashMap<Font, BaseFont>();
+        private String lastShadingKey = null;
+        private PdfShadingPattern lastShading = null;
+    }
+
+    private final Page page;
+}
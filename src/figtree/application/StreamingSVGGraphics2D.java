@@ -0,0 +1,531 @@
+/*
+ * StreamingSVGGraphics2D.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+
+/**
+ * A Graphics2D that writes SVG elements to a stream as it is drawn into, so the tree
+ * painters can export SVG without the whole document being built in memory (as
+ * Batik's SVGGraphics2D does). Shapes are written as paths in the coordinates of
+ * the page, using relative and horizontal or vertical moves where they are shorter,
+ * and each distinct combination of fill, stroke and font is given a CSS class (which
+ * are written in a style element at the end).
+ *
+ * Graphics made with create() write to the same stream. Call finish() on the original
+ * graphics when drawing is complete.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class StreamingSVGGraphics2D extends VectorGraphics2D {
+
+    /**
+     * @param writer the writer (this is not closed by finish())
+     * @param width the width of the page
+     * @param height the height of the page
+     */
+    public StreamingSVGGraphics2D(Writer writer, double width, double height) throws IOException {
+        document = new Document(writer);
+
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" version=\"1.1\" xml:space=\"preserve\"");
+        writer.write(" width=\"" + formatNumber(width) + "\" height=\"" + formatNumber(height) + "\"");
+        writer.write(" viewBox=\"0 0 " + formatNumber(width) + " " + formatNumber(height) + "\">\n");
+    }
+
+    private StreamingSVGGraphics2D(StreamingSVGGraphics2D graphics) {
+        super(graphics);
+        document = graphics.document;
+        clipId = graphics.clipId;
+    }
+
+    /**
+     * Writes the styles and closes the svg element. Any errors writing the stream
+     * (which the Graphics methods can't throw) are thrown here.
+     */
+    public void finish() throws IOException {
+        document.finish();
+    }
+
+    public Graphics create() {
+        return new StreamingSVGGraphics2D(this);
+    }
+
+    // Writing
+
+    protected void writeString(String str, float x, float y) {
+        StringBuilder element = new StringBuilder("<text");
+        appendPaint(element, "fill", getFontStyle(font));
+        appendClip(element);
+        if (isTranslation(transform)) {
+            element.append(" x=\"").append(formatNumber(x + transform.getTranslateX()))
+                    .append("\" y=\"").append(formatNumber(y + transform.getTranslateY())).append('"');
+        } else {
+            element.append(" x=\"").append(formatNumber(x))
+                    .append("\" y=\"").append(formatNumber(y)).append('"');
+            appendTransform(element, transform);
+        }
+        element.append('>');
+        appendText(element, str);
+        element.append("</text>\n");
+        document.write(element);
+    }
+
+    protected boolean writeImage(BufferedImage image, AffineTransform imageTransform) {
+        // images are embedded as PNGs
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", bytes);
+        } catch (IOException ioe) {
+            return false;
+        }
+
+        StringBuilder element = new StringBuilder("<image");
+        appendClip(element);
+        element.append(" width=\"").append(image.getWidth())
+                .append("\" height=\"").append(image.getHeight()).append('"');
+        appendTransform(element, imageTransform);
+        element.append(" xlink:href=\"data:image/png;base64,")
+                .append(Base64.getEncoder().encodeToString(bytes.toByteArray()))
+                .append("\"/>\n");
+        document.write(element);
+        return true;
+    }
+
+    protected void clipChanged() {
+        // the clipPath element is written when something is drawn with it
+        clipId = null;
+    }
+
+    protected void writeShape(Shape shape, boolean isFill) {
+        PathIterator iterator = shape.getPathIterator(transform);
+        StringBuilder path = new StringBuilder();
+        if (!appendPath(path, iterator)) {
+            // nothing to draw
+            return;
+        }
+
+        StringBuilder element = new StringBuilder("<path");
+
+        if (isFill) {
+            appendPaint(element, "fill", "stroke:none;");
+        } else {
+            appendPaint(element, "stroke", "fill:none;" + getStrokeStyle((BasicStroke)stroke));
+        }
+        appendClip(element);
+
+        element.append(" d=\"").append(path).append('"');
+        if (isFill && iterator.getWindingRule() == PathIterator.WIND_EVEN_ODD) {
+            // the fill rule is needed for shapes with holes
+            element.append(" fill-rule=\"evenodd\"");
+        }
+        element.append("/>\n");
+
+        document.write(element);
+    }
+
+    /**
+     * Appends the path data for a shape (in page coordinates). After the first move
+     * the points are given relative to the previous one as these are usually shorter.
+     * @return false if the path was empty
+     */
+    private static boolean appendPath(StringBuilder path, PathIterator iterator) {
+        final double[] coords = new double[6];
+
+        // the current point and start of the subpath, rounded as written so rounding
+        // errors don't accumulate in the relative coordinates
+        long x = 0, y = 0;
+        long startX = 0, startY = 0;
+        char lastCommand = 0;
+
+        boolean isEmpty = true;
+        while (!iterator.isDone()) {
+            int type = iterator.currentSegment(coords);
+            switch (type) {
+                case PathIterator.SEG_MOVETO: {
+                    long px = round(coords[0]);
+                    long py = round(coords[1]);
+                    lastCommand = appendCommand(path, 'M', lastCommand);
+                    appendCoordinate(path, px);
+                    appendCoordinate(path, py);
+                    x = startX = px;
+                    y = startY = py;
+                    // a repeated M is a line
+                    lastCommand = 'L';
+                    break;
+                }
+                case PathIterator.SEG_LINETO: {
+                    long px = round(coords[0]);
+                    long py = round(coords[1]);
+                    if (py == y) {
+                        lastCommand = appendCommand(path, 'h', lastCommand);
+                        appendCoordinate(path, px - x);
+                    } else if (px == x) {
+                        lastCommand = appendCommand(path, 'v', lastCommand);
+                        appendCoordinate(path, py - y);
+                    } else {
+                        lastCommand = appendCommand(path, 'l', lastCommand);
+                        appendCoordinate(path, px - x);
+                        appendCoordinate(path, py - y);
+                    }
+                    x = px;
+                    y = py;
+                    break;
+                }
+                case PathIterator.SEG_QUADTO: {
+                    long px = round(coords[2]);
+                    long py = round(coords[3]);
+                    lastCommand = appendCommand(path, 'q', lastCommand);
+                    appendCoordinate(path, round(coords[0]) - x);
+                    appendCoordinate(path, round(coords[1]) - y);
+                    appendCoordinate(path, px - x);
+                    appendCoordinate(path, py - y);
+                    x = px;
+                    y = py;
+                    break;
+                }
+                case PathIterator.SEG_CUBICTO: {
+                    long px = round(coords[4]);
+                    long py = round(coords[5]);
+                    lastCommand = appendCommand(path, 'c', lastCommand);
+                    appendCoordinate(path, round(coords[0]) - x);
+                    appendCoordinate(path, round(coords[1]) - y);
+                    appendCoordinate(path, round(coords[2]) - x);
+                    appendCoordinate(path, round(coords[3]) - y);
+                    appendCoordinate(path, px - x);
+                    appendCoordinate(path, py - y);
+                    x = px;
+                    y = py;
+                    break;
+                }
+                case PathIterator.SEG_CLOSE:
+                    lastCommand = appendCommand(path, 'z', lastCommand);
+                    lastCommand = 0;
+                    x = startX;
+                    y = startY;
+                    break;
+            }
+            isEmpty = false;
+            iterator.next();
+        }
+        return !isEmpty;
+    }
+
+    /**
+     * Appends a command unless it is the same as the last one (in which case it is implied).
+     */
+    private static char appendCommand(StringBuilder path, char command, char lastCommand) {
+        if (command != lastCommand) {
+            path.append(command);
+        }
+        return command;
+    }
+
+    /**
+     * Appends a coordinate (in hundredths) separated from the previous one if needed.
+     */
+    private static void appendCoordinate(StringBuilder path, long value) {
+        // a minus sign or a command also separates the numbers
+        if (value >= 0 && Character.isDigit(path.charAt(path.length() - 1))) {
+            path.append(' ');
+        }
+        appendHundredths(path, value);
+    }
+
+    private static long round(double value) {
+        return Math.round(value * 100.0);
+    }
+
+    private static void appendHundredths(StringBuilder buffer, long value) {
+        if (value < 0) {
+            buffer.append('-');
+            value = -value;
+        }
+        buffer.append(value / 100);
+        long fraction = value % 100;
+        if (fraction != 0) {
+            buffer.append('.');
+            if (fraction < 10) {
+                buffer.append('0').append(fraction);
+            } else if (fraction % 10 == 0) {
+                buffer.append(fraction / 10);
+            } else {
+                buffer.append(fraction);
+            }
+        }
+    }
+
+    private static String formatNumber(double value) {
+        StringBuilder buffer = new StringBuilder();
+        appendHundredths(buffer, round(value));
+        return buffer.toString();
+    }
+
+    /**
+     * Appends the class for a style along with the fill or stroke paint. Colours are
+     * part of the style but gradients are different for each shape so are given as an
+     * attribute (which the class mustn't then override).
+     */
+    private void appendPaint(StringBuilder element, String property, String style) {
+        if (paint instanceof GradientPaint) {
+            String id = document.writeGradient((GradientPaint)paint, transform);
+            element.append(" class=\"").append(document.getStyleClass(style)).append('"');
+            element.append(' ').append(property).append("=\"url(#").append(id).append(")\"");
+        } else {
+            Color colour = (paint instanceof Color ? (Color)paint : Color.BLACK);
+            String colourStyle = property + ":" + getColourValue(colour) + ";";
+            if (colour.getAlpha() < 255) {
+                colourStyle += property + "-opacity:" + formatOpacity(colour) + ";";
+            }
+            element.append(" class=\"").append(document.getStyleClass(colourStyle + style)).append('"');
+        }
+    }
+
+    private void appendClip(StringBuilder element) {
+        if (clip != null) {
+            if (clipId == null) {
+                clipId = document.writeClipPath(clip);
+            }
+            element.append(" clip-path=\"url(#").append(clipId).append(")\"");
+        }
+    }
+
+    private static void appendTransform(StringBuilder element, AffineTransform t) {
+        element.append(" transform=\"matrix(")
+                .append(formatMatrixValue(t.getScaleX())).append(' ')
+                .append(formatMatrixValue(t.getShearY())).append(' ')
+                .append(formatMatrixValue(t.getShearX())).append(' ')
+                .append(formatMatrixValue(t.getScaleY())).append(' ')
+                .append(formatNumber(t.getTranslateX())).append(' ')
+                .append(formatNumber(t.getTranslateY())).append(")\"");
+    }
+
+    private static String formatMatrixValue(double value) {
+        // rotations and scales need more precision than coordinates
+        return Double.toString(Math.round(value * 1000000.0) / 1000000.0);
+    }
+
+    private static boolean isTranslation(AffineTransform t) {
+        return (t.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0;
+    }
+
+    private static void appendText(StringBuilder element, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': element.append("&amp;"); break;
+                case '<': element.append("&lt;"); break;
+                case '>': element.append("&gt;"); break;
+                default:
+                    if (c >= 0x20 || c == '\t') {
+                        element.append(c);
+                    }
+                    // other control characters aren't allowed in XML
+            }
+        }
+    }
+
+    private String getStrokeStyle(BasicStroke stroke) {
+        StringBuilder style = new StringBuilder();
+
+        // the paths are in page coordinates so the width is scaled to match
+        double scale = Math.sqrt(Math.abs(transform.getDeterminant()));
+        style.append("stroke-width:").append(formatNumber(stroke.getLineWidth() * scale)).append(';');
+
+        switch (stroke.getEndCap()) {
+            case BasicStroke.CAP_BUTT: style.append("stroke-linecap:butt;"); break;
+            case BasicStroke.CAP_ROUND: style.append("stroke-linecap:round;"); break;
+            case BasicStroke.CAP_SQUARE: style.append("stroke-linecap:square;"); break;
+        }
+        switch (stroke.getLineJoin()) {
+            case BasicStroke.JOIN_MITER:
+                style.append("stroke-linejoin:miter;stroke-miterlimit:")
+                        .append(formatNumber(stroke.getMiterLimit())).append(';');
+                break;
+            case BasicStroke.JOIN_ROUND: style.append("stroke-linejoin:round;"); break;
+            case BasicStroke.JOIN_BEVEL: style.append("stroke-linejoin:bevel;"); break;
+        }
+
+        float[] dash = stroke.getDashArray();
+        if (dash != null && dash.length > 0) {
+            style.append("stroke-dasharray:");
+            for (int i = 0; i < dash.length; i++) {
+                if (i > 0) {
+                    style.append(',');
+                }
+                style.append(formatNumber(dash[i] * scale));
+            }
+            style.append(';');
+            if (stroke.getDashPhase() != 0.0F) {
+                style.append("stroke-dashoffset:").append(formatNumber(stroke.getDashPhase() * scale)).append(';');
+            }
+        }
+        return style.toString();
+    }
+
+    private static String getColourValue(Color colour) {
+        return String.format("#%06x", colour.getRGB() & 0xFFFFFF);
+    }
+
+    private static String formatOpacity(Color colour) {
+        return Double.toString(Math.round(colour.getAlpha() * 1000.0 / 255.0) / 1000.0);
+    }
+
+    private static String getFontStyle(Font font) {
+        StringBuilder style = new StringBuilder();
+        style.append("font-family:").append(getFontFamily(font)).append(';');
+        style.append("font-size:").append(formatNumber(font.getSize2D())).append("px;");
+        if (font.isBold()) {
+            style.append("font-weight:bold;");
+        }
+        if (font.isItalic()) {
+            style.append("font-style:italic;");
+        }
+        return style.toString();
+    }
+
+    private static String getFontFamily(Font font) {
+        String family = font.getFamily();
+        if (family.equalsIgnoreCase(Font.SANS_SERIF) || family.equalsIgnoreCase(Font.DIALOG) ||
+                family.equalsIgnoreCase(Font.DIALOG_INPUT)) {
+            return "sans-serif";
+        } else if (family.equalsIgnoreCase(Font.SERIF)) {
+            return "serif";
+        } else if (family.equalsIgnoreCase(Font.MONOSPACED)) {
+            return "monospace";
+        }
+        return "'" + family.replace("'", "") + "'";
+    }
+
+    /**
+     * The parts of the output shared by all the graphics made from the original one.
+     */
+    private static class Document {
+        Document(Writer writer) {
+            this.writer = writer;
+        }
+
+        void write(CharSequence text) {
+            if (exception != null) {
+                return;
+            }
+            try {
+                writer.append(text);
+            } catch (IOException ioe) {
+                // Graphics methods can't throw this so it is kept for finish()
+                exception = ioe;
+            }
+        }
+
+        String getStyleClass(String style) {
+            String styleClass = styleClasses.get(style);
+            if (styleClass == null) {
+                styleClass = "s" + styleClasses.size();
+                styleClasses.put(style, styleClass);
+            }
+            return styleClass;
+        }
+
+        String writeClipPath(Shape clip) {
+            String id = "c" + (clipCount++);
+            StringBuilder element = new StringBuilder("<clipPath id=\"").append(id).append("\"><path d=\"");
+            appendPath(element, clip.getPathIterator(null));
+            element.append("\"/></clipPath>\n");
+            write(element);
+            return id;
+        }
+
+        String writeGradient(GradientPaint gradient, AffineTransform transform) {
+            Point2D p1 = transform.transform(gradient.getPoint1(), null);
+            Point2D p2 = transform.transform(gradient.getPoint2(), null);
+            String key = formatNumber(p1.getX()) + "," + formatNumber(p1.getY()) + "," +
+                    formatNumber(p2.getX()) + "," + formatNumber(p2.getY()) + "," +
+                    gradient.getColor1().getRGB() + "," + gradient.getColor2().getRGB() + "," + gradient.isCyclic();
+
+            // the same gradient is often used to fill and then outline a shape
+            if (key.equals(lastGradientKey)) {
+                return lastGradientId;
+            }
+
+            String id = "g" + (gradientCount++);
+            StringBuilder element = new StringBuilder("<linearGradient id=\"").append(id)
+                    .append("\" gradientUnits=\"userSpaceOnUse\"")
+                    .append(" x1=\"").append(formatNumber(p1.getX()))
+                    .append("\" y1=\"").append(formatNumber(p1.getY()))
+                    .append("\" x2=\"").append(formatNumber(p2.getX()))
+                    .append("\" y2=\"").append(formatNumber(p2.getY())).append('"');
+            if (gradient.isCyclic()) {
+                element.append(" spreadMethod=\"reflect\"");
+            }
+            element.append('>');
+            appendStop(element, "0", gradient.getColor1());
+            appendStop(element, "1", gradient.getColor2());
+            element.append("</linearGradient>\n");
+            write(element);
+
+            lastGradientKey = key;
+            lastGradientId = id;
+            return id;
+        }
+
+        private static void appendStop(StringBuilder element, String offset, Color colour) {
+            element.append("<stop offset=\"").append(offset)
+                    .append("\" stop-color=\"").append(getColourValue(colour)).append('"');
+            if (colour.getAlpha() < 255) {
+                element.append(" stop-opacity=\"").append(formatOpacity(colour)).append('"');
+            }
+            element.append("/>");
+        }
+
+        void finish() throws IOException {
+            // CSS in a style element applies to the whole document wherever it is
+            StringBuilder element = new StringBuilder("<style type=\"text/css\"><![CDATA[\n");
+            for (Map.Entry<String, String> entry : styleClasses.entrySet()) {
+                element.append('.').append(entry.getValue()).append('{').append(entry.getKey()).append("}\n");
+            }
+            element.append("]]></style>\n</svg>\n");
+            write(element);
+
+            if (exception != null) {
+                throw exception;
+            }
+            writer.flush();
+        }
+
+        private final Writer writer;
+        private IOException exception = null;
+
+        private final Map<String, String> styleClasses = new LinkedHashMap<String, String>();
+        private int clipCount = 0;
+        private int gradientCount = 0;
+        private String lastGradientKey = null;
+        private String lastGradientId = null;
+    }
+
+    private final Document document;
+    private String clipId = null;
+}
@@ -0,0 +1,181 @@
+/*
+ * TreeGraphicsExporter.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import com.itextpdf.text.DocumentException;
+import jebl.evolution.trees.Tree;
+import jebl.util.ProgressListener;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Exports each of a set of trees (or a range of them) to its own numbered graphic
+ * file, all with the same settings. The trees are drawn in parallel by a pool of
+ * threads, each with its own GraphicRenderer.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class TreeGraphicsExporter {
+
+    /**
+     * @param trees the trees (these are read from the list as they are drawn so it can
+     *              be an IndexedTreeFile)
+     * @param settings the settings to draw them with (may be null for the defaults)
+     * @param format the graphic format
+     * @param width the width in pixels
+     * @param height the height in pixels
+     */
+    public TreeGraphicsExporter(List<Tree> trees, Map<String, Object> settings, GraphicFormat format, int width, int height) {
+        this.trees = trees;
+        this.settings = settings;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Exports the trees. The files are named after the given one with the number of
+     * the tree (counting from 1) added before the extension.
+     * @param from the index of the first tree
+     * @param to the index after the last tree
+     * @param stride export every stride'th tree from the first
+     * @param file the name of the files
+     * @param threadCount the number of trees to draw at once
+     * @param progressListener told how many trees have been exported and how quickly
+     *                         (and asked whether to carry on)
+     * @return the number of files written
+     * @throws InterruptedIOException if the progress listener cancels it
+     */
+    public int export(int from, int to, int stride, final File file, int threadCount, ProgressListener progressListener)
+            throws IOException, DocumentException {
+
+        final int digits = Integer.toString(to).length();
+
+        final ThreadLocal<GraphicRenderer> renderers = new ThreadLocal<GraphicRenderer>() {
+            @Override
+            protected GraphicRenderer initialValue() {
+                return new GraphicRenderer();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FigTree graphics exporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<File> completionService = new ExecutorCompletionService<File>(executor);
+
+        List<Future<File>> futures = new ArrayList<Future<File>>();
+        for (int i = from; i < to; i += stride) {
+            final int index = i;
+            futures.add(completionService.submit(new Callable<File>() {
+                public File call() throws Exception {
+                    File graphicFile = getGraphicFile(file, index + 1, digits);
+                    OutputStream stream = new BufferedOutputStream(new FileOutputStream(graphicFile));
+                    try {
+                        renderers.get().render(format, width, height, trees.get(index), settings, stream);
+                    } finally {
+                        stream.close();
+                    }
+                    return graphicFile;
+                }
+            }));
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final int count = futures.size();
+        try {
+            for (int i = 0; i < count; i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException)cause;
+                    } else if (cause instanceof DocumentException) {
+                        throw (DocumentException)cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+
+                long time = System.currentTimeMillis() - startTime;
+                progressListener.setMessage(getProgressMessage(i + 1, count, time));
+                if (progressListener.setProgress(i + 1, count)) {
+                    throw new InterruptedIOException("Export cancelled");
+                }
+            }
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("Export interrupted");
+        } finally {
+            // stops any still waiting if cancelled or there was an error
+            for (Future<File> future : futures) {
+                future.cancel(false);
+            }
+            executor.shutdown();
+        }
+
+        return count;
+    }
+
+    /**
+     * @return a message saying how many trees have been exported and how many per second
+     */
+    public static String getProgressMessage(int exportedCount, int count, long time) {
+        double rate = (time > 0 ? exportedCount * 1000.0 / time : 0.0);
+        return String.format("%d of %d trees exported (%.1f trees/sec)", exportedCount, count, rate);
+    }
+
+    /**
+     * @return the name of the file for a tree: the given file with the number of the
+     * tree (padded with zeros to the given number of digits) added before the extension
+     */
+    public static File getGraphicFile(File file, int treeNumber, int digits) {
+        String name = file.getName();
+        String extension = "";
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            extension = name.substring(dot);
+            name = name.substring(0, dot);
+        }
+
+        StringBuilder number = new StringBuilder(Integer.toString(treeNumber));
+        while (number.length() < digits) {
+            number.insert(0, '0');
+        }
+
+        return new File(file.getParentFile(), name + "_" + number + extension);
+    }
+
+    private final List<Tree> trees;
+    private final Map<String, Object> settings;
+    private final GraphicFormat format;
+    private final int width;
+    private final int height;
+}
@@ -0,0 +1,443 @@
+/*
+ * TreeStatementParser.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import jebl.evolution.graphs.Node;
+import jebl.evolution.io.ImportException;
+import jebl.evolution.io.NexusExporter;
+import jebl.evolution.io.NexusImporter;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.SimpleRootedTree;
+import jebl.util.Attributable;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses a single TREE command from the TREES block of a NEXUS file. The tree made
+ * is the same as NexusImporter would make (the attributes in comments are parsed
+ * in the same way) but the command is read straight from a string and the taxa
+ * and translation table are those already read from the header of the block (see
+ * FigTreeNexusImporter.parseTreesBlockHeader) so each tree can be parsed on its own.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class TreeStatementParser {
+
+    /**
+     * @param translationMap the taxon for each label used in the trees (empty if the
+     * labels are the taxon names)
+     */
+    public TreeStatementParser(Map<String, Taxon> translationMap) {
+        this.translationMap = translationMap;
+    }
+
+    /**
+     * Parses a TREE (or UTREE) command, up to and including its semicolon.
+     */
+    public RootedTree parseTree(String statement) throws ImportException {
+        this.statement = statement;
+        position = 0;
+        lastDelimiter = 0;
+        metaComments.clear();
+
+        String command = readToken("");
+        boolean isUnrooted = command.equalsIgnoreCase("UTREE");
+        if (!isUnrooted && !command.equalsIgnoreCase("TREE")) {
+            throw new ImportException.BadFormatException("Unknown command '" + command + "' in TREES block");
+        }
+        if (nextCharacter() == '*') {
+            readCharacter();
+        }
+        for (String comment : metaComments) {
+            if (comment.equalsIgnoreCase("U")) {
+                isUnrooted = true;
+            }
+        }
+        metaComments.clear();
+
+        String name = readToken("=;");
+        if (name.length() == 0) {
+            throw new ImportException("At least one tree has no name");
+        }
+        name = NexusImporter.makeIntoAllowableIdentifier(name);
+        if (lastDelimiter != '=') {
+            throw new ImportException.BadFormatException("Missing label for tree '" + name + "' or missing '=' in TREE command of TREES block");
+        }
+        if (nextCharacter() != '(') {
+            throw new ImportException.BadFormatException("Missing tree definition in TREE command of TREES block");
+        }
+
+        // the comments before the tree hold its attributes
+        final List<String> treeComments = new ArrayList<String>(metaComments);
+        metaComments.clear();
+
+        SimpleRootedTree tree = new SimpleRootedTree();
+        readInternalNode(tree);
+        if (!NexusExporter.isGeneratedTreeName(name)) {
+            tree.setAttribute("name", name);
+        }
+
+        if (lastDelimiter == ':') {
+            // a root length is ignored
+            readDouble(";");
+        }
+        if (lastDelimiter != ';') {
+            throw new ImportException.BadFormatException("Expecting ';' after tree, '" + name + "', TREE command of TREES block");
+        }
+
+        for (String comment : treeComments) {
+            String key = comment;
+            if (key.contains("=")) {
+                key = key.substring(0, key.indexOf("="));
+            }
+            if (key.toUpperCase().equals("U")) {
+                isUnrooted = true;
+            } else if (comment.matches("^W\\s+[\\+\\-]?[\\d\\.]+")) {
+                tree.setAttribute("weight", Float.valueOf(comment.substring(2)));
+            } else if (!key.toUpperCase().equals("R")) {
+                try {
+                    parseMetaCommentPairs(comment, tree);
+                } catch (ImportException.BadFormatException bfe) {
+                    tree.setAttribute("comment", comment);
+                }
+            }
+        }
+        tree.setConceptuallyUnrooted(isUnrooted);
+
+        return tree;
+    }
+
+    private Node readBranch(SimpleRootedTree tree) throws ImportException {
+        metaComments.clear();
+
+        final Node node;
+        if (nextCharacter() == '(') {
+            node = readInternalNode(tree);
+        } else {
+            node = readExternalNode(tree);
+        }
+
+        if (lastDelimiter == ':') {
+            tree.setLength(node, readDouble(",():;"));
+        }
+
+        // any comments after the length belong to the branch
+        parseAndClearMetaComments(tree.getParentEdge(node));
+
+        return node;
+    }
+
+    private Node readInternalNode(SimpleRootedTree tree) throws ImportException {
+        final List<Node> children = new ArrayList<Node>();
+
+        // read the opening '('
+        readCharacter();
+
+        children.add(readBranch(tree));
+        while (lastDelimiter == ',') {
+            children.add(readBranch(tree));
+        }
+
+        if (lastDelimiter != ')') {
+            throw new ImportException.BadFormatException("Missing closing ')' in tree");
+        }
+
+        final Node node = tree.createInternalNode(children);
+
+        final String label = readToken(":(),;").trim();
+        if (label.length() > 0) {
+            node.setAttribute("label", parseValue(label));
+        }
+        parseAndClearMetaComments(node);
+
+        return node;
+    }
+
+    private Node readExternalNode(SimpleRootedTree tree) throws ImportException {
+        final String label = readToken(":(),;");
+        if (label.length() == 0) {
+            throw new ImportException.UnknownTaxonException("Empty node names are not allowed.");
+        }
+
+        Taxon taxon;
+        if (translationMap.size() > 0) {
+            taxon = translationMap.get(label);
+            if (taxon == null) {
+                throw new ImportException.UnknownTaxonException("Taxon in tree, '" + label + "' is unknown");
+            }
+        } else {
+            try {
+                taxon = Taxon.getTaxon(label);
+            } catch (IllegalArgumentException iae) {
+                throw new ImportException.UnknownTaxonException(iae.getMessage());
+            }
+        }
+
+        final Node node;
+        try {
+            node = tree.createExternalNode(taxon);
+        } catch (IllegalArgumentException iae) {
+            throw new ImportException.DuplicateTaxaException(iae.getMessage());
+        }
+        parseAndClearMetaComments(node);
+
+        return node;
+    }
+
+    private double readDouble(String delimiters) throws ImportException {
+        final String token = readToken(delimiters);
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException nfe) {
+            throw new ImportException("Number format error: " + nfe.getMessage());
+        }
+    }
+
+    /**
+     * Reads a token (which may be quoted) up to whitespace, a comment or one of the
+     * delimiters. If the next thing after that (ignoring whitespace and comments) is
+     * one of the delimiters then it is read and becomes the last delimiter.
+     */
+    private String readToken(String delimiters) throws ImportException {
+        skipSpace();
+        if (position >= statement.length()) {
+            throw new ImportException.BadFormatException("Unexpected end of TREE command");
+        }
+
+        final String token;
+        final char c = statement.charAt(position);
+        if (c == '\'' || c == '"') {
+            final StringBuilder builder = new StringBuilder();
+            position++;
+            while (position < statement.length()) {
+                final char ch = statement.charAt(position);
+                position++;
+                if (ch == c) {
+                    if (position < statement.length() && statement.charAt(position) == c) {
+                        // a doubled quote stands for the quote itself
+                        position++;
+                    } else {
+                        break;
+                    }
+                }
+                builder.append(ch);
+            }
+            token = builder.toString();
+        } else {
+            final int start = position;
+            while (position < statement.length()) {
+                final char ch = statement.charAt(position);
+                if (Character.isWhitespace(ch) || ch == '[' || delimiters.indexOf(ch) >= 0) {
+                    break;
+                }
+                position++;
+            }
+            token = statement.substring(start, position);
+        }
+
+        skipSpace();
+        lastDelimiter = ' ';
+        if (position < statement.length() && delimiters.indexOf(statement.charAt(position)) >= 0) {
+            lastDelimiter = statement.charAt(position);
+            position++;
+        }
+        return token;
+    }
+
+    /**
+     * @return the next character (after any whitespace and comments) without reading it
+     */
+    private char nextCharacter() throws ImportException {
+        skipSpace();
+        if (position >= statement.length()) {
+            throw new ImportException.BadFormatException("Unexpected end of TREE command");
+        }
+        return statement.charAt(position);
+    }
+
+    private char readCharacter() throws ImportException {
+        final char c = nextCharacter();
+        position++;
+        return c;
+    }
+
+    /**
+     * Skips whitespace and comments. The text of any comments starting with '&'
+     * is kept to be parsed as attributes.
+     */
+    private void skipSpace() {
+        while (position < statement.length()) {
+            final char c = statement.charAt(position);
+            if (c == '[') {
+                skipComment();
+            } else if (Character.isWhitespace(c)) {
+                position++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void skipComment() {
+        position++;
+        final boolean isMetaComment = position < statement.length() && statement.charAt(position) == '&';
+        if (isMetaComment) {
+            position++;
+        }
+
+        final StringBuilder builder = (isMetaComment ? new StringBuilder() : null);
+        int depth = 1;
+        char quote = 0;
+        while (position < statement.length() && depth > 0) {
+            final char c = statement.charAt(position);
+            position++;
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '[') {
+                depth++;
+                continue;
+            } else if (c == ']') {
+                depth--;
+                continue;
+            }
+            if (builder != null) {
+                builder.append(c);
+            }
+        }
+
+        if (builder != null) {
+            metaComments.add(builder.toString());
+        }
+    }
+
+    private void parseAndClearMetaComments(Attributable item) throws ImportException.BadFormatException {
+        for (String comment : metaComments) {
+            parseMetaCommentPairs(comment, item);
+        }
+        metaComments.clear();
+    }
+
+    /**
+     * Parses the attributes in a comment (as NexusImporter does).
+     */
+    private static void parseMetaCommentPairs(String comment, Attributable item) throws ImportException.BadFormatException {
+        Matcher matcher = META_COMMENT_PAIR.matcher(comment);
+
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            if (name.charAt(0) == '"') {
+                name = name.substring(1, name.length() - 1);
+            }
+            if (name.trim().length() == 0) {
+                throw new ImportException.BadFormatException("Badly formatted attribute: '" + matcher.group() + "'");
+            }
+
+            final String value = matcher.group(2);
+            if (value != null && value.trim().length() > 0) {
+                // the value includes the '='
+                item.setAttribute(name, parseValue(value.substring(1)));
+            } else {
+                item.setAttribute(name, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Parses the value of an attribute (as NexusImporter does).
+     */
+    private static Object parseValue(String value) {
+        value = value.trim();
+
+        if (value.startsWith("{")) {
+            // an array (or an array of arrays)
+            value = value.substring(1, value.length() - 1);
+
+            final String[] elements;
+            if (value.startsWith("{")) {
+                elements = value.replaceAll("\\},\\{", "}@,@{").split("@,@");
+            } else {
+                elements = value.split(",");
+            }
+
+            Object[] values = new Object[elements.length];
+            for (int i = 0; i < elements.length; i++) {
+                values[i] = parseValue(elements[i]);
+            }
+            return values;
+        }
+
+        if (value.startsWith("#")) {
+            String colourValue = value.substring(1);
+            try {
+                if (colourValue.startsWith("-")) {
+                    // old style decimal numbers
+                    return Color.decode(colourValue);
+                } else {
+                    return Color.decode("0x" + colourValue);
+                }
+            } catch (NumberFormatException nfe) {
+                // not a colour
+            }
+        }
+
+        if (value.startsWith("\"") && value.endsWith("\"")) {
+            return value.subSequence(1, value.length() - 1);
+        }
+
+        if (value.equalsIgnoreCase("TRUE") || value.equalsIgnoreCase("FALSE")) {
+            return Boolean.valueOf(value);
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+        }
+
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException nfe) {
+        }
+
+        // Simply return it as a string...
+        return value;
+    }
+
+    private static final Pattern META_COMMENT_PAIR = Pattern.compile(
+            "(\"[^\"]*\"+|[^,=\\s]+)\\s*(=\\s*(\\{(\\{[^\\}]+\\},?)+\\}|\\{[^\\}]+\\}|\"[^\"]*\"+|[^,]+))?");
+
+    private final Map<String, Taxon> translationMap;
+    private final List<String> metaComments = new ArrayList<String>();
+
+    private String statement;
+    private int position;
+    private char lastDelimiter;
+}
@@ -0,0 +1,497 @@
+/*
+ * VectorGraphics2D.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.Map;
+
+/**
+ * The state of a Graphics2D (transform, clip, paint, stroke, font and hints) for the
+ * graphics that write a vector format as they are drawn into (see StreamingSVGGraphics2D
+ * and StreamingPDFGraphics2D). Everything drawn is turned into a shape, a string or an
+ * image and given to the subclass to write. The clip is held in page coordinates.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public abstract class VectorGraphics2D extends Graphics2D {
+
+    protected VectorGraphics2D() {
+    }
+
+    /**
+     * Makes a copy of the state of another graphics (for create()).
+     */
+    protected VectorGraphics2D(VectorGraphics2D graphics) {
+        transform = new AffineTransform(graphics.transform);
+        clip = graphics.clip;
+        paint = graphics.paint;
+        background = graphics.background;
+        stroke = graphics.stroke;
+        font = graphics.font;
+        composite = graphics.composite;
+        hints.putAll(graphics.hints);
+        scratchGraphics = graphics.scratchGraphics;
+    }
+
+    /**
+     * Writes a shape (drawn with a BasicStroke or filled) with the current state.
+     */
+    protected abstract void writeShape(Shape shape, boolean isFill);
+
+    /**
+     * Writes a string with the current font and paint.
+     */
+    protected abstract void writeString(String str, float x, float y);
+
+    /**
+     * Writes an image with a transform (including the current one) to the page.
+     * @return false if it couldn't be written
+     */
+    protected abstract boolean writeImage(BufferedImage image, AffineTransform imageTransform);
+
+    /**
+     * Called when the clip has been changed.
+     */
+    protected void clipChanged() {
+    }
+
+    public void dispose() {
+        // nothing to release
+    }
+
+    // Drawing
+
+    public void draw(Shape shape) {
+        if (stroke instanceof BasicStroke) {
+            writeShape(shape, false);
+        } else {
+            // anything more complex is drawn as its outline
+            writeShape(stroke.createStrokedShape(shape), true);
+        }
+    }
+
+    public void fill(Shape shape) {
+        writeShape(shape, true);
+    }
+
+    public void drawString(String str, int x, int y) {
+        drawString(str, (float)x, (float)y);
+    }
+
+    public void drawString(String str, float x, float y) {
+        if (str != null && str.length() > 0) {
+            writeString(str, x, y);
+        }
+    }
+
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        drawString(iterator, (float)x, (float)y);
+    }
+
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        // the attributes can't be represented simply so this is drawn as shapes
+        TextLayout layout = new TextLayout(iterator, getFontRenderContext());
+        fill(layout.getOutline(AffineTransform.getTranslateInstance(x, y)));
+    }
+
+    public void drawGlyphVector(GlyphVector glyphs, float x, float y) {
+        fill(glyphs.getOutline(x, y));
+    }
+
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        draw(new Line2D.Float(x1, y1, x2, y2));
+    }
+
+    public void fillRect(int x, int y, int width, int height) {
+        fill(new Rectangle(x, y, width, height));
+    }
+
+    public void clearRect(int x, int y, int width, int height) {
+        Paint oldPaint = paint;
+        paint = (background != null ? background : Color.WHITE);
+        fill(new Rectangle(x, y, width, height));
+        paint = oldPaint;
+    }
+
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        draw(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        fill(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    public void drawOval(int x, int y, int width, int height) {
+        draw(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    public void fillOval(int x, int y, int width, int height) {
+        fill(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+    }
+
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        fill(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+    }
+
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        if (nPoints > 0) {
+            GeneralPath path = new GeneralPath();
+            path.moveTo(xPoints[0], yPoints[0]);
+            for (int i = 1; i < nPoints; i++) {
+                path.lineTo(xPoints[i], yPoints[i]);
+            }
+            draw(path);
+        }
+    }
+
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        draw(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        fill(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    // Images
+
+    public boolean drawImage(Image image, AffineTransform imageTransform, ImageObserver observer) {
+        BufferedImage bufferedImage = toBufferedImage(image);
+        if (bufferedImage == null) {
+            return false;
+        }
+
+        AffineTransform t = new AffineTransform(transform);
+        if (imageTransform != null) {
+            t.concatenate(imageTransform);
+        }
+        return writeImage(bufferedImage, t);
+    }
+
+    public void drawImage(BufferedImage image, BufferedImageOp op, int x, int y) {
+        drawImage(op != null ? op.filter(image, null) : image, AffineTransform.getTranslateInstance(x, y), null);
+    }
+
+    public void drawRenderedImage(RenderedImage image, AffineTransform imageTransform) {
+        if (image instanceof BufferedImage) {
+            drawImage((BufferedImage)image, imageTransform, null);
+        } else {
+            WritableRaster raster = image.copyData(null);
+            drawImage(new BufferedImage(image.getColorModel(), raster, image.getColorModel().isAlphaPremultiplied(), null),
+                    imageTransform, null);
+        }
+    }
+
+    public void drawRenderableImage(RenderableImage image, AffineTransform imageTransform) {
+        drawRenderedImage(image.createDefaultRendering(), imageTransform);
+    }
+
+    public boolean drawImage(Image image, int x, int y, ImageObserver observer) {
+        return drawImage(image, AffineTransform.getTranslateInstance(x, y), observer);
+    }
+
+    public boolean drawImage(Image image, int x, int y, int width, int height, ImageObserver observer) {
+        int imageWidth = image.getWidth(observer);
+        int imageHeight = image.getHeight(observer);
+        if (imageWidth <= 0 || imageHeight <= 0) {
+            return false;
+        }
+        AffineTransform t = AffineTransform.getTranslateInstance(x, y);
+        t.scale((double)width / imageWidth, (double)height / imageHeight);
+        return drawImage(image, t, observer);
+    }
+
+    public boolean drawImage(Image image, int x, int y, Color bgcolor, ImageObserver observer) {
+        fillBackground(x, y, image.getWidth(observer), image.getHeight(observer), bgcolor);
+        return drawImage(image, x, y, observer);
+    }
+
+    public boolean drawImage(Image image, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+        fillBackground(x, y, width, height, bgcolor);
+        return drawImage(image, x, y, width, height, observer);
+    }
+
+    public boolean drawImage(Image image, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+        BufferedImage bufferedImage = toBufferedImage(image);
+        if (bufferedImage == null || sx2 <= sx1 || sy2 <= sy1) {
+            return false;
+        }
+        BufferedImage part = bufferedImage.getSubimage(sx1, sy1,
+                Math.min(sx2, bufferedImage.getWidth()) - sx1, Math.min(sy2, bufferedImage.getHeight()) - sy1);
+        return drawImage(part, dx1, dy1, dx2 - dx1, dy2 - dy1, observer);
+    }
+
+    public boolean drawImage(Image image, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        fillBackground(dx1, dy1, dx2 - dx1, dy2 - dy1, bgcolor);
+        return drawImage(image, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, observer);
+    }
+
+    private void fillBackground(int x, int y, int width, int height, Color colour) {
+        if (colour != null) {
+            Paint oldPaint = paint;
+            paint = colour;
+            fill(new Rectangle(x, y, width, height));
+            paint = oldPaint;
+        }
+    }
+
+    private static BufferedImage toBufferedImage(Image image) {
+        if (image instanceof BufferedImage) {
+            return (BufferedImage)image;
+        }
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = bufferedImage.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return bufferedImage;
+    }
+
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        // there is nothing to copy from
+    }
+
+    // Transforms
+
+    public void translate(int x, int y) {
+        transform.translate(x, y);
+    }
+
+    public void translate(double tx, double ty) {
+        transform.translate(tx, ty);
+    }
+
+    public void rotate(double theta) {
+        transform.rotate(theta);
+    }
+
+    public void rotate(double theta, double x, double y) {
+        transform.rotate(theta, x, y);
+    }
+
+    public void scale(double sx, double sy) {
+        transform.scale(sx, sy);
+    }
+
+    public void shear(double shx, double shy) {
+        transform.shear(shx, shy);
+    }
+
+    public void transform(AffineTransform t) {
+        transform.concatenate(t);
+    }
+
+    public void setTransform(AffineTransform t) {
+        transform = new AffineTransform(t);
+    }
+
+    public AffineTransform getTransform() {
+        return new AffineTransform(transform);
+    }
+
+    // Clipping (the clip is held in page coordinates)
+
+    public Rectangle getClipBounds() {
+        Shape userClip = getClip();
+        return (userClip != null ? userClip.getBounds() : null);
+    }
+
+    public Shape getClip() {
+        if (clip == null) {
+            return null;
+        }
+        try {
+            return transform.createInverse().createTransformedShape(clip);
+        } catch (NoninvertibleTransformException nte) {
+            return null;
+        }
+    }
+
+    public void clipRect(int x, int y, int width, int height) {
+        clip(new Rectangle(x, y, width, height));
+    }
+
+    public void setClip(int x, int y, int width, int height) {
+        setClip(new Rectangle(x, y, width, height));
+    }
+
+    public void setClip(Shape shape) {
+        setPageClip(shape != null ? transform.createTransformedShape(shape) : null);
+    }
+
+    public void clip(Shape shape) {
+        Shape pageShape = transform.createTransformedShape(shape);
+        if (clip != null) {
+            Area area = new Area(clip);
+            area.intersect(new Area(pageShape));
+            pageShape = area;
+        }
+        setPageClip(pageShape);
+    }
+
+    private void setPageClip(Shape pageClip) {
+        clip = pageClip;
+        clipChanged();
+    }
+
+    public boolean hit(Rectangle rect, Shape shape, boolean onStroke) {
+        if (onStroke) {
+            shape = stroke.createStrokedShape(shape);
+        }
+        return transform.createTransformedShape(shape).intersects(rect);
+    }
+
+    // State
+
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return getScratchGraphics().getDeviceConfiguration();
+    }
+
+    public void setComposite(Composite composite) {
+        this.composite = composite;
+    }
+
+    public Composite getComposite() {
+        return composite;
+    }
+
+    public void setPaint(Paint paint) {
+        if (paint != null) {
+            this.paint = paint;
+        }
+    }
+
+    public Paint getPaint() {
+        return paint;
+    }
+
+    public Color getColor() {
+        return (paint instanceof Color ? (Color)paint : Color.BLACK);
+    }
+
+    public void setColor(Color colour) {
+        setPaint(colour);
+    }
+
+    public void setPaintMode() {
+        // only the normal mode is supported
+    }
+
+    public void setXORMode(Color colour) {
+        // only the normal mode is supported
+    }
+
+    public void setBackground(Color colour) {
+        background = colour;
+    }
+
+    public Color getBackground() {
+        return background;
+    }
+
+    public void setStroke(Stroke stroke) {
+        if (stroke != null) {
+            this.stroke = stroke;
+        }
+    }
+
+    public Stroke getStroke() {
+        return stroke;
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public void setFont(Font font) {
+        if (font != null) {
+            this.font = font;
+        }
+    }
+
+    public FontMetrics getFontMetrics(Font font) {
+        Graphics2D scratch = getScratchGraphics();
+        scratch.setRenderingHints(hints);
+        return scratch.getFontMetrics(font);
+    }
+
+    public FontRenderContext getFontRenderContext() {
+        Graphics2D scratch = getScratchGraphics();
+        scratch.setRenderingHints(hints);
+        return scratch.getFontRenderContext();
+    }
+
+    public void setRenderingHint(RenderingHints.Key key, Object value) {
+        hints.put(key, value);
+    }
+
+    public Object getRenderingHint(RenderingHints.Key key) {
+        return hints.get(key);
+    }
+
+    public void setRenderingHints(Map<?, ?> hints) {
+        this.hints.clear();
+        this.hints.putAll(hints);
+    }
+
+    public void addRenderingHints(Map<?, ?> hints) {
+        this.hints.putAll(hints);
+    }
+
+    public RenderingHints getRenderingHints() {
+        return (RenderingHints)hints.clone();
+    }
+
+    // a graphics to measure fonts with
+    private Graphics2D getScratchGraphics() {
+        if (scratchGraphics == null) {
+            scratchGraphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        }
+        return scratchGraphics;
+    }
+
+    protected AffineTransform transform = new AffineTransform();
+    protected Shape clip = null;
+
+    protected Paint paint = Color.BLACK;
+    protected Color background = Color.WHITE;
+    protected Stroke stroke = new BasicStroke(1.0F);
+    protected Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+    protected Composite composite = AlphaComposite.SrcOver;
+    protected final RenderingHints hints = new RenderingHints(null);
+
+    private Graphics2D scratchGraphics = null;
+}
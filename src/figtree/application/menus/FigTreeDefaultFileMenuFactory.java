@@ -98,6 +98,9 @@ public class FigTreeDefaultFileMenuFactory implements MenuFactory {
             item = new JMenuItem(((FigTreeFileMenuHandler)frame).getExportJPEGGraphicAction());
             menu.add(item);
 
+            item = new JMenuItem(((FigTreeFileMenuHandler)frame).getExportAllGraphicsAction());
+            menu.add(item);
+
             menu.addSeparator();
 
 			item = new JMenuItem(((FigTreeFileMenuHandler)frame).getExtractTreeAction());
@@ -47,4 +47,5 @@ public interface FigTreeFileMenuHandler {
     Action getExportJPEGGraphicAction();
     Action getExportPDFAction();
     Action getExportSVGGraphicAction();
+    Action getExportAllGraphicsAction();
 }
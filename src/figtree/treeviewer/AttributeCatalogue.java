@@ -0,0 +1,527 @@
+/*
+ * AttributeCatalogue.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import figtree.treeviewer.decorators.AttributableIndex;
+import figtree.treeviewer.decorators.AttributeSummary;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.Tree;
+import jebl.util.Attributable;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * The attributes of the nodes and taxa of a tree. The names of the attributes and
+ * a summary of the values of each (see AttributeSummary) are collected the first time
+ * they are asked for and kept until the attribute is changed, so the controllers
+ * don't have to look through all the trees every time one of them is updated. The
+ * text indices used by Find (see TextSearchIndex) are kept in the same way. The nodes
+ * and the taxa are each given a dense index (see AttributableIndex) which is shared
+ * by the columns of all the summaries.
+ *
+ * There is one catalogue for each tree. The catalogues are only weakly held here (their
+ * summaries refer to the nodes, which refer to the tree, so the tree would never be
+ * dropped otherwise) so whatever is showing a tree should keep hold of its catalogue
+ * (as DefaultTreeViewer and TreePane do). Anything that sets or removes an attribute
+ * on a tree's nodes or taxa should call attributeChanged.
+ *
+ * The catalogue also estimates the memory used by the tree and its attributes (see
+ * HeapAccount).
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class AttributeCatalogue {
+
+    /**
+     * @return the catalogue for the tree (this is created the first time it is asked for)
+     */
+    public static AttributeCatalogue getCatalogue(Tree tree) {
+        synchronized (catalogues) {
+            WeakReference<AttributeCatalogue> reference = catalogues.get(tree);
+            AttributeCatalogue catalogue = (reference != null ? reference.get() : null);
+            if (catalogue == null) {
+                catalogue = new AttributeCatalogue(tree);
+                catalogues.put(tree, new WeakReference<AttributeCatalogue>(catalogue));
+            }
+            return catalogue;
+        }
+    }
+
+    /**
+     * Tells the catalogues that the values of an attribute have been changed (on
+     * any tree as taxa may be in several).
+     */
+    public static void attributeChanged(String attributeName) {
+        AttributeSummary.attributeChanged(attributeName);
+        synchronized (catalogues) {
+            for (WeakReference<AttributeCatalogue> reference : catalogues.values()) {
+                AttributeCatalogue catalogue = reference.get();
+                if (catalogue != null) {
+                    catalogue.invalidate(attributeName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Summarizes an attribute over a number of trees.
+     * @param trees the trees
+     * @param attributeName the attribute
+     * @param includeTaxa whether to include the values of the taxa as well as the nodes
+     * @return the summary
+     */
+    public static AttributeSummary getAttributeSummary(Collection<? extends Tree> trees, String attributeName, boolean includeTaxa) {
+        List<AttributeSummary> summaries = new ArrayList<AttributeSummary>();
+        for (Tree tree : trees) {
+            AttributeCatalogue catalogue = getCatalogue(tree);
+            summaries.add(catalogue.getNodeAttributeSummary(attributeName));
+            if (includeTaxa) {
+                summaries.add(catalogue.getTaxonAttributeSummary(attributeName));
+            }
+        }
+
+        if (summaries.size() == 1) {
+            return summaries.get(0);
+        }
+
+        AttributeSummary summary = new AttributeSummary(attributeName);
+        for (AttributeSummary s : summaries) {
+            summary.addAll(s);
+        }
+        return summary;
+    }
+
+    private AttributeCatalogue(Tree tree) {
+        // the catalogues are held against the trees so mustn't hold on to them
+        this.treeReference = new WeakReference<Tree>(tree);
+    }
+
+    /**
+     * @return the names of the attributes of all the nodes in the order they are found
+     */
+    public synchronized Set<String> getNodeAttributeNames() {
+        collectNames();
+        return Collections.unmodifiableSet(nodeAttributeNames);
+    }
+
+    /**
+     * @return the names of the attributes of the external nodes
+     */
+    public synchronized Set<String> getExternalNodeAttributeNames() {
+        collectNames();
+        return Collections.unmodifiableSet(externalNodeAttributeNames);
+    }
+
+    /**
+     * @return the names of the attributes of the internal nodes
+     */
+    public synchronized Set<String> getInternalNodeAttributeNames() {
+        collectNames();
+        return Collections.unmodifiableSet(internalNodeAttributeNames);
+    }
+
+    /**
+     * @return the names of the attributes of the taxa
+     */
+    public synchronized Set<String> getTaxonAttributeNames() {
+        collectNames();
+        return Collections.unmodifiableSet(taxonAttributeNames);
+    }
+
+    /**
+     * @return the names of the attributes of the internal nodes that have ranges
+     * (pairs of numbers) as values
+     */
+    public synchronized Set<String> getRangeAttributeNames() {
+        collectNames();
+        return Collections.unmodifiableSet(rangeAttributeNames);
+    }
+
+    /**
+     * Gets the names of the attributes of the nodes which have single values and, optionally,
+     * the ones that are lineage colourings (given as the name followed by " *").
+     */
+    public synchronized List<String> getValueAttributeNames(boolean includeLineageColourings) {
+        collectNames();
+        List<String> names = new ArrayList<String>();
+        for (Map.Entry<String, Boolean> entry : valueAttributeNames.entrySet()) {
+            if (includeLineageColourings || !entry.getValue()) {
+                names.add(entry.getKey());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return a summary of the values of an attribute on the nodes (this is shared
+     * so shouldn't be added to)
+     */
+    public synchronized AttributeSummary getNodeAttributeSummary(String attributeName) {
+        AttributeSummary summary = nodeAttributeSummaries.get(attributeName);
+        if (summary == null) {
+            summary = new AttributeSummary(attributeName, getNodeIndex());
+            Tree tree = treeReference.get();
+            if (tree != null) {
+                for (Node node : tree.getNodes()) {
+                    summary.add(node);
+                }
+            }
+            nodeAttributeSummaries.put(attributeName, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * @return a summary of the values of an attribute on the taxa
+     */
+    public synchronized AttributeSummary getTaxonAttributeSummary(String attributeName) {
+        AttributeSummary summary = taxonAttributeSummaries.get(attributeName);
+        if (summary == null) {
+            summary = new AttributeSummary(attributeName, getTaxonIndex());
+            Tree tree = treeReference.get();
+            if (tree != null) {
+                for (Taxon taxon : tree.getTaxa()) {
+                    summary.add(taxon);
+                }
+            }
+            taxonAttributeSummaries.put(attributeName, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * @return the index of the nodes of the tree (made the first time it is asked for)
+     */
+    private AttributableIndex getNodeIndex() {
+        if (nodeIndex == null) {
+            Tree tree = treeReference.get();
+            nodeIndex = new AttributableIndex(tree != null ? tree.getNodes() : Collections.<Node>emptySet());
+        }
+        return nodeIndex;
+    }
+
+    /**
+     * @return the index of the taxa of the tree (made the first time it is asked for)
+     */
+    private AttributableIndex getTaxonIndex() {
+        if (taxonIndex == null) {
+            Tree tree = treeReference.get();
+            taxonIndex = new AttributableIndex(tree != null ? tree.getTaxa() : Collections.<Taxon>emptySet());
+        }
+        return taxonIndex;
+    }
+
+    /**
+     * @return an index of the text of the values of an attribute on the nodes for the
+     * Find searches
+     */
+    public synchronized TextSearchIndex getNodeTextIndex(String attributeName, boolean caseSensitive) {
+        String key = getIndexKey(attributeName, caseSensitive);
+        TextSearchIndex index = nodeTextIndices.get(key);
+        if (index == null) {
+            List<Node> nodes = new ArrayList<Node>();
+            List<Object> values = new ArrayList<Object>();
+            Tree tree = treeReference.get();
+            if (tree != null) {
+                for (Node node : tree.getNodes()) {
+                    nodes.add(node);
+                    values.add(node.getAttribute(attributeName));
+                }
+            }
+            index = new TextSearchIndex(nodes, values, caseSensitive);
+            nodeTextIndices.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return an index of the text of the values of an attribute of the taxa (or of the
+     * external node if the taxon doesn't have it) for the Find searches. The attribute
+     * "!name" is the name of the taxon.
+     */
+    public synchronized TextSearchIndex getTaxonTextIndex(String attributeName, boolean caseSensitive) {
+        String key = getIndexKey(attributeName, caseSensitive);
+        TextSearchIndex index = taxonTextIndices.get(key);
+        if (index == null) {
+            List<Node> nodes = new ArrayList<Node>();
+            List<Object> values = new ArrayList<Object>();
+            Tree tree = treeReference.get();
+            if (tree != null) {
+                for (Node node : tree.getExternalNodes()) {
+                    Taxon taxon = tree.getTaxon(node);
+                    Object value;
+                    if (attributeName.equals("!name")) {
+                        value = taxon.getName();
+                    } else {
+                        value = taxon.getAttribute(attributeName);
+                        if (value == null) {
+                            value = node.getAttribute(attributeName);
+                        }
+                    }
+                    nodes.add(node);
+                    values.add(value);
+                }
+            }
+            index = new TextSearchIndex(nodes, values, caseSensitive);
+            taxonTextIndices.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return an estimate of the memory used by the nodes and taxa of the tree (not
+     * including the values of their attributes)
+     */
+    public synchronized long getTopologyBytes() {
+        if (topologyBytes < 0) {
+            Tree tree = treeReference.get();
+            if (tree == null) {
+                return 0;
+            }
+
+            final Set<Node> nodes = tree.getNodes();
+            final Set<Node> externalNodes = tree.getExternalNodes();
+            final Set<Taxon> taxa = tree.getTaxa();
+
+            // the sets of nodes and taxa and the map from taxa to nodes
+            long bytes = HeapAccount.getMapBytes(nodes.size()) + HeapAccount.getMapBytes(taxa.size()) +
+                    HeapAccount.getMapBytes(externalNodes.size());
+
+            for (Node node : nodes) {
+                // the references to its parent, children, taxon, edge, attributes and
+                // tree, its height and length and number of tips
+                bytes += HeapAccount.getObjectBytes(44);
+                if (!externalNodes.contains(node)) {
+                    bytes += HeapAccount.getObjectBytes(8) + HeapAccount.getArrayBytes(tree.getAdjacencies(node).size(), HeapAccount.REFERENCE_BYTES);
+                }
+                bytes += getAttributeMapBytes(node.getAttributeNames().size());
+            }
+            for (Taxon taxon : taxa) {
+                bytes += HeapAccount.getObjectBytes(12) + HeapAccount.getStringBytes(taxon.getName());
+                bytes += getAttributeMapBytes(taxon.getAttributeNames().size());
+            }
+            topologyBytes = bytes;
+        }
+        return topologyBytes;
+    }
+
+    /**
+     * @return an estimate of the memory used by the values of each attribute of the
+     * nodes and taxa
+     */
+    public synchronized Map<String, Long> getAttributeBytes() {
+        if (attributeBytes == null) {
+            attributeBytes = new LinkedHashMap<String, Long>();
+            Tree tree = treeReference.get();
+            if (tree != null) {
+                for (Node node : tree.getNodes()) {
+                    addAttributeBytes(node);
+                }
+                for (Taxon taxon : tree.getTaxa()) {
+                    addAttributeBytes(taxon);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(attributeBytes);
+    }
+
+    private void addAttributeBytes(Attributable item) {
+        for (String name : item.getAttributeNames()) {
+            Long bytes = attributeBytes.get(name);
+            attributeBytes.put(name, (bytes != null ? bytes : 0L) +
+                    HeapAccount.LINKED_ENTRY_BYTES + HeapAccount.getValueBytes(item.getAttribute(name)));
+        }
+    }
+
+    /**
+     * The attributes of the nodes and taxa are held in LinkedHashMaps which are made
+     * when the first is set. The entries are counted with the attributes.
+     */
+    private static long getAttributeMapBytes(int attributeCount) {
+        if (attributeCount == 0) {
+            return 0;
+        }
+        return HeapAccount.getObjectBytes(4) + HeapAccount.getMapBytes(attributeCount) + 16 -
+                ((long)attributeCount * HeapAccount.ENTRY_BYTES);
+    }
+
+    /**
+     * @return an estimate of the memory used by the summaries and indices held
+     */
+    public synchronized long getCacheBytes() {
+        long bytes = 0;
+        if (nodeIndex != null) {
+            bytes += nodeIndex.getByteCount();
+        }
+        if (taxonIndex != null) {
+            bytes += taxonIndex.getByteCount();
+        }
+        for (AttributeSummary summary : nodeAttributeSummaries.values()) {
+            bytes += summary.getByteCount();
+        }
+        for (AttributeSummary summary : taxonAttributeSummaries.values()) {
+            bytes += summary.getByteCount();
+        }
+        for (TextSearchIndex index : nodeTextIndices.values()) {
+            bytes += index.getByteCount();
+        }
+        for (TextSearchIndex index : taxonTextIndices.values()) {
+            bytes += index.getByteCount();
+        }
+        return bytes;
+    }
+
+    /**
+     * Drops the summaries and indices (i.e., when the tree isn't being shown and the
+     * memory is needed). They are made again if they are asked for.
+     */
+    public synchronized void clearCaches() {
+        nodeIndex = null;
+        taxonIndex = null;
+        nodeAttributeSummaries.clear();
+        taxonAttributeSummaries.clear();
+        nodeTextIndices.clear();
+        taxonTextIndices.clear();
+    }
+
+    private static String getIndexKey(String attributeName, boolean caseSensitive) {
+        return (caseSensitive ? "+" : "-") + attributeName;
+    }
+
+    private synchronized void invalidate(String attributeName) {
+        nodeAttributeSummaries.remove(attributeName);
+        taxonAttributeSummaries.remove(attributeName);
+        for (boolean caseSensitive : new boolean[] { false, true }) {
+            nodeTextIndices.remove(getIndexKey(attributeName, caseSensitive));
+            taxonTextIndices.remove(getIndexKey(attributeName, caseSensitive));
+        }
+        namesValid = false;
+        // the maps holding the attributes may have been made or grown
+        topologyBytes = -1;
+        attributeBytes = null;
+    }
+
+    private void collectNames() {
+        if (namesValid) {
+            return;
+        }
+
+        nodeAttributeNames.clear();
+        externalNodeAttributeNames.clear();
+        internalNodeAttributeNames.clear();
+        taxonAttributeNames.clear();
+        rangeAttributeNames.clear();
+        valueAttributeNames.clear();
+
+        Tree tree = treeReference.get();
+        if (tree == null) {
+            return;
+        }
+
+        for (Node node : tree.getNodes()) {
+            for (String name : node.getAttributeNames()) {
+                nodeAttributeNames.add(name);
+
+                Object value = node.getAttribute(name);
+                if (!(value instanceof Object[])) {
+                    if (!valueAttributeNames.containsKey(name)) {
+                        valueAttributeNames.put(name, false);
+                    }
+                } else if (isLineageColouring((Object[])value)) {
+                    if (!valueAttributeNames.containsKey(name + " *")) {
+                        valueAttributeNames.put(name + " *", true);
+                    }
+                }
+            }
+        }
+        for (Node node : tree.getExternalNodes()) {
+            externalNodeAttributeNames.addAll(node.getAttributeNames());
+        }
+        for (Node node : tree.getInternalNodes()) {
+            for (String name : node.getAttributeNames()) {
+                internalNodeAttributeNames.add(name);
+
+                Object value = node.getAttribute(name);
+                if (value instanceof Object[]) {
+                    Object[] array = (Object[])value;
+                    if (array.length == 2 &&
+                            array[0] instanceof Number &&
+                            array[1] instanceof Number) {
+                        rangeAttributeNames.add(name);
+                    }
+                }
+            }
+        }
+        for (Taxon taxon : tree.getTaxa()) {
+            taxonAttributeNames.addAll(taxon.getAttributeNames());
+        }
+
+        namesValid = true;
+    }
+
+    /**
+     * A colouring is a list of alternating colour indices and lengths which
+     * finishes with an index.
+     */
+    private static boolean isLineageColouring(Object[] array) {
+        boolean isIndex = true;
+        for (Object element : array) {
+            if (isIndex && !(element instanceof Integer) ||
+                    !isIndex && !(element instanceof Double)) {
+                return false;
+            }
+            isIndex = !isIndex;
+        }
+
+        // a colouring should finish on an index (which means isIndex should be false)...
+        return !isIndex;
+    }
+
+    private static final Map<Tree, WeakReference<AttributeCatalogue>> catalogues = new WeakHashMap<Tree, WeakReference<AttributeCatalogue>>();
+
+    private final WeakReference<Tree> treeReference;
+
+    // the estimates of the memory used (see HeapAccount)
+    private long topologyBytes = -1;
+    private Map<String, Long> attributeBytes = null;
+
+    private boolean namesValid = false;
+    private final Set<String> nodeAttributeNames = new LinkedHashSet<String>();
+    private final Set<String> externalNodeAttributeNames = new LinkedHashSet<String>();
+    private final Set<String> internalNodeAttributeNames = new LinkedHashSet<String>();
+    private final Set<String> taxonAttributeNames = new LinkedHashSet<String>();
+    private final Set<String> rangeAttributeNames = new LinkedHashSet<String>();
+    private final Map<String, Boolean> valueAttributeNames = new LinkedHashMap<String, Boolean>();
+
+    // the dense indices of the nodes and taxa used by the columns of the summaries
+    private AttributableIndex nodeIndex = null;
+    private AttributableIndex taxonIndex = null;
+
+    private final Map<String, AttributeSummary> nodeAttributeSummaries = new HashMap<String, AttributeSummary>();
+    private final Map<String, AttributeSummary> taxonAttributeSummaries = new HashMap<String, AttributeSummary>();
+
+    // the text indices keyed by the attribute name and whether they are case sensitive
+    private final Map<String, TextSearchIndex> nodeTextIndices = new HashMap<String, TextSearchIndex>();
+    private final Map<String, TextSearchIndex> taxonTextIndices = new HashMap<String, TextSearchIndex>();
+}
@@ -22,9 +22,6 @@ package figtree.treeviewer;
 
 import figtree.treeviewer.decorators.*;
 import jam.controlpalettes.AbstractController;
-import jebl.evolution.graphs.Node;
-import jebl.evolution.trees.Tree;
-import jebl.util.Attributable;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
@@ -148,17 +145,7 @@ public class AttributeColourController extends AbstractController {
     public ColourDecorator getDecoratorForAttribute(String attribute) {
         ColourDecorator colourDecorator = attributeDecoratorMap.get(attribute);
 
-        Set<Attributable> items = new HashSet<Attributable>();
-        for (Tree tree : treeViewer.getTrees()) {
-            for (Node node : tree.getNodes()) {
-                if (node.getAttribute(attribute) != null) {
-                    items.add(node);
-                }
-                if (tree.getTaxon(node) != null) {
-                    items.add(tree.getTaxon(node));
-                }
-            }
-        }
+        AttributeSummary summary = AttributeCatalogue.getAttributeSummary(treeViewer.getLoadedTrees(), attribute, true);
 
         //
 
@@ -167,23 +154,23 @@ public class AttributeColourController extends AbstractController {
             if (attribute.endsWith("*")) {
                 // todo reinstate branch colouring
                 return null;
-            } else if (DiscreteColourDecorator.isDiscrete(attribute, items)) {
-                colourDecorator = new HSBDiscreteColourDecorator(attribute, items);
+            } else if (summary.isDiscrete()) {
+                colourDecorator = new HSBDiscreteColourDecorator(summary);
             } else {
                 ContinuousScale scale = attributeScaleMap.get(attribute);
                 if (scale == null) {
                     scale = new ContinuousScale();
                     attributeScaleMap.put(attribute, scale);
                 }
-                scale.setAttributes(attribute, items);
+                scale.setAttributes(summary);
 
                 colourDecorator = new HSBContinuousColourDecorator(scale);
 
             }
         } else if (colourDecorator instanceof DiscreteColourDecorator) {
-            ((DiscreteColourDecorator)colourDecorator).setAttributes(attribute, items);
+            ((DiscreteColourDecorator)colourDecorator).setAttributes(summary);
         } else if (colourDecorator instanceof ContinuousColourDecorator) {
-            ((ContinuousColourDecorator)colourDecorator).setAttributes(attribute, items);
+            ((ContinuousColourDecorator)colourDecorator).setAttributes(summary);
         }
 
         return colourDecorator;
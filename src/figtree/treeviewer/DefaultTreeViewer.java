@@ -24,9 +24,12 @@ import figtree.treeviewer.painters.*;
 import jebl.evolution.graphs.Node;
 import jebl.evolution.taxa.Taxon;
 import jebl.evolution.trees.*;
+import figtree.treeviewer.decorators.AttributeRangeIndex;
+import figtree.treeviewer.decorators.AttributeSummary;
 import figtree.treeviewer.decorators.Decorator;
 import figtree.treeviewer.treelayouts.TreeLayout;
 import jam.panels.StatusProvider;
+import jebl.util.Attributable;
 
 import javax.swing.*;
 import java.awt.*;
@@ -104,21 +107,31 @@ public class DefaultTreeViewer extends TreeViewer {
     }
 
     public void setTree(Tree tree) {
-        trees.clear();
+        trees = new ArrayList<Tree>();
+        catalogues.clear();
+        currentTree = null;
         addTree(tree);
         showTree(0);
     }
 
     public void setTrees(Collection<? extends Tree> trees) {
-        this.trees.clear();
-        for (Tree tree : trees) {
-            addTree(tree);
+        catalogues.clear();
+        if (trees instanceof TreeSource) {
+            // the trees will be read as they are needed
+            this.trees = (TreeSource)trees;
+        } else {
+            this.trees = new ArrayList<Tree>();
+            for (Tree tree : trees) {
+                addTree(tree);
+            }
         }
+        currentTree = null;
         showTree(0);
     }
 
     public void addTree(Tree tree) {
         this.trees.add(tree);
+        catalogues.add(AttributeCatalogue.getCatalogue(tree));
 
 //        if (treePane.getTipLabelPainter() != null) {
 //            treePane.getTipLabelPainter().setupAttributes(trees);
@@ -149,6 +162,17 @@ public class DefaultTreeViewer extends TreeViewer {
         showTree(count);
     }
 
+    /**
+     * Adds trees to the end of the list without changing the tree that is shown
+     * (i.e., as they are read in).
+     */
+    public void appendTrees(Collection<? extends Tree> trees) {
+        for (Tree tree : trees) {
+            addTree(tree);
+        }
+        fireTreeChanged();
+    }
+
     public List<Tree> getTrees() {
         return trees;
     }
@@ -192,6 +216,11 @@ public class DefaultTreeViewer extends TreeViewer {
             return;
         }
 
+        if (trees instanceof TreeSource && currentTree != null && treePane.isTreeModified()) {
+            // keep the changes to the current tree
+            ((TreeSource)trees).retainTree(currentTreeIndex, currentTree);
+        }
+
         Tree tree = trees.get(index);
         if (tree instanceof RootedTree) {
             treePane.setTree((RootedTree)tree);
@@ -200,6 +229,7 @@ public class DefaultTreeViewer extends TreeViewer {
         }
 
         currentTreeIndex = index;
+        currentTree = tree;
         fireTreeChanged();
     }
 
@@ -215,6 +245,58 @@ public class DefaultTreeViewer extends TreeViewer {
         }
     }
 
+    /**
+     * Adds estimates of the memory used by the trees in memory, their attributes and
+     * the caches kept for them to an account (this should be called on the event thread).
+     */
+    public void accountHeap(HeapAccount account) {
+        for (Map.Entry<Integer, Tree> entry : getTreesInMemory().entrySet()) {
+            AttributeCatalogue catalogue = AttributeCatalogue.getCatalogue(entry.getValue());
+            account.addTree("tree " + (entry.getKey() + 1), catalogue.getTopologyBytes());
+            for (Map.Entry<String, Long> attribute : catalogue.getAttributeBytes().entrySet()) {
+                account.addAttribute(attribute.getKey(), attribute.getValue());
+            }
+            account.addCache("attribute catalogues", catalogue.getCacheBytes());
+        }
+        treePane.accountHeap(account);
+    }
+
+    /**
+     * Frees the memory kept for the trees that aren't being shown: the summaries and
+     * indices of their attributes are dropped and, if the trees are being read as they
+     * are needed, so are the trees themselves (unless they have been edited). These are
+     * made or read again when they are next needed.
+     */
+    public void clearHiddenTreeCaches() {
+        for (Tree tree : getTreesInMemory().values()) {
+            if (tree != currentTree) {
+                AttributeCatalogue.getCatalogue(tree).clearCaches();
+            }
+        }
+        if (trees instanceof TreeSource) {
+            ((TreeSource)trees).clearLoadedTrees();
+        }
+    }
+
+    /**
+     * @return the trees that are in memory by index (the one being shown may have been
+     * dropped by the TreeSource but is still kept here)
+     */
+    private SortedMap<Integer, Tree> getTreesInMemory() {
+        SortedMap<Integer, Tree> treesInMemory = new TreeMap<Integer, Tree>();
+        if (trees instanceof TreeSource) {
+            treesInMemory.putAll(((TreeSource)trees).getLoadedTreeMap());
+        } else if (trees != null) {
+            for (int i = 0; i < trees.size(); i++) {
+                treesInMemory.put(i, trees.get(i));
+            }
+        }
+        if (currentTree != null) {
+            treesInMemory.put(currentTreeIndex, currentTree);
+        }
+        return treesInMemory;
+    }
+
     public void setTreeLayout(TreeLayout treeLayout) {
         treePane.setTreeLayout(treeLayout);
         fireTreeSettingsChanged();
@@ -326,10 +408,10 @@ public class DefaultTreeViewer extends TreeViewer {
 
         Tree tree = treePane.getTree();
 
-        for (Node node : tree.getExternalNodes()) {
-            Taxon taxon = tree.getTaxon(node);
+        if (attributeName == null) {
+            for (Node node : tree.getExternalNodes()) {
+                Taxon taxon = tree.getTaxon(node);
 
-            if (attributeName == null) {
                 Object target = taxon.getName();
                 if (matchesItem(searchType, target, query, caseSensitive)) {
                     treePane.addSelectedTipLabel(node);
@@ -342,20 +424,14 @@ public class DefaultTreeViewer extends TreeViewer {
                         break;
                     }
                 }
-            } else {
-                Object target;
-                if (attributeName.equals("!name")) {
-                    target = taxon.getName();
-                } else {
-                    target = taxon.getAttribute(attributeName);
-                    if (target == null) {
-                        // if we can't find the attribute on the taxon, try the node
-                        target = node.getAttribute(attributeName);
-                    }
-                }
-                if (matchesItem(searchType, target, query, caseSensitive)) {
-                    treePane.addSelectedTipLabel(node);
-                }
+            }
+        } else {
+            // the index finds the values of the attribute (or the taxon name) that match
+            // without looking at every tip each time
+            TextSearchIndex index = AttributeCatalogue.getCatalogue(tree).getTaxonTextIndex(attributeName, caseSensitive);
+            List<Node> nodes = index.find(searchType, query);
+            if (nodes.size() > 0) {
+                treePane.addSelectedTipLabels(nodes);
             }
         }
     }
@@ -371,22 +447,18 @@ public class DefaultTreeViewer extends TreeViewer {
         }
 
         Tree tree = treePane.getTree();
+        AttributeCatalogue catalogue = AttributeCatalogue.getCatalogue(tree);
 
-        for (Node node : tree.getNodes()) {
-            if (attributeName == null) {
-                for (String name : node.getAttributeNames()) {
-                    Object target = node.getAttribute(name);
-                    if (matchesItem(searchType, target, query, caseSensitive)) {
-                        treePane.addSelectedNode(node);
-                        break;
-                    }
-                }
-            } else {
-                Object target = node.getAttribute(attributeName);
-                if (matchesItem(searchType, target, query, caseSensitive)) {
-                    treePane.addSelectedNode(node);
-                }
+        Set<Node> nodes = new LinkedHashSet<Node>();
+        if (attributeName == null) {
+            for (String name : catalogue.getNodeAttributeNames()) {
+                nodes.addAll(catalogue.getNodeTextIndex(name, caseSensitive).find(searchType, query));
             }
+        } else {
+            nodes.addAll(catalogue.getNodeTextIndex(attributeName, caseSensitive).find(searchType, query));
+        }
+        if (nodes.size() > 0) {
+            treePane.addSelectedNodes(nodes, false, false);
         }
     }
 
@@ -434,20 +506,23 @@ public class DefaultTreeViewer extends TreeViewer {
 
         RootedTree tree = treePane.getTree();
 
-        for (Node node : tree.getExternalNodes()) {
-            Object value = null;
-            if (attributeName.equals("!length")) {
-                value = tree.getLength(node);
-            } else if (attributeName.equals("!height")) {
-                value = tree.getHeight(node);
-            } else {
-                Taxon taxon = tree.getTaxon(node);
-                value = taxon.getAttribute(attributeName);
+        List<Node> nodes = new ArrayList<Node>();
+        if (attributeName.equals("!length") || attributeName.equals("!height")) {
+            for (Node node : tree.getExternalNodes()) {
+                Object value = (attributeName.equals("!length") ? tree.getLength(node) : tree.getHeight(node));
+                if (matchesItem(value, searchType, searchValue)) {
+                    nodes.add(node);
+                }
             }
-            if (matchesItem(value, searchType, searchValue)) {
-                treePane.addSelectedTipLabel(node);
+        } else {
+            AttributeSummary summary = AttributeCatalogue.getCatalogue(tree).getTaxonAttributeSummary(attributeName);
+            for (Attributable item : findItems(summary, searchType, searchValue)) {
+                nodes.add(tree.getNode((Taxon)item));
             }
         }
+        if (nodes.size() > 0) {
+            treePane.addSelectedTipLabels(nodes);
+        }
     }
 
     public void selectNodes(String attributeName, NumberSearchType searchType, Number searchValue) {
@@ -455,19 +530,73 @@ public class DefaultTreeViewer extends TreeViewer {
 
         RootedTree tree = treePane.getTree();
 
-        for (Node node : tree.getNodes()) {
-            Object value = null;
-            if (attributeName.equals("!length")) {
-                value = tree.getLength(node);
-            } else if (attributeName.equals("!height")) {
-                value = tree.getHeight(node);
-            } else {
-                value = node.getAttribute(attributeName);
+        Set<Node> nodes = new LinkedHashSet<Node>();
+        if (attributeName.equals("!length") || attributeName.equals("!height")) {
+            for (Node node : tree.getNodes()) {
+                Object value = (attributeName.equals("!length") ? tree.getLength(node) : tree.getHeight(node));
+                if (matchesItem(value, searchType, searchValue)) {
+                    nodes.add(node);
+                }
             }
-            if (matchesItem(value, searchType, searchValue)) {
-                treePane.addSelectedNode(node);
+        } else {
+            AttributeSummary summary = AttributeCatalogue.getCatalogue(tree).getNodeAttributeSummary(attributeName);
+            for (Attributable item : findItems(summary, searchType, searchValue)) {
+                nodes.add((Node)item);
+            }
+        }
+        if (nodes.size() > 0) {
+            treePane.addSelectedNodes(nodes, false, false);
+        }
+    }
+
+    /**
+     * Finds the items with numbers as values that match a search using the range index
+     * of the attribute (as matchesItem would for each).
+     */
+    private List<Attributable> findItems(AttributeSummary summary, NumberSearchType searchType, Number searchValue) {
+        AttributeRangeIndex index = summary.getRangeIndex();
+        double value = searchValue.doubleValue();
+
+        if (Double.isNaN(value) && searchType != NumberSearchType.EQUALS && searchType != NumberSearchType.NOT_EQUALS) {
+            // nothing is greater or less than NaN
+            return Collections.emptyList();
+        }
+
+        switch (searchType) {
+            case GREATER_THAN:
+                return index.getItems(index.getUpperBound(value), index.getNaNStart());
+            case EQUALS_OR_GREATER_THAN:
+                return index.getItems(index.getLowerBound(value), index.getNaNStart());
+            case LESS_THAN:
+                return index.getItems(0, index.getLowerBound(value));
+            case EQUALS_OR_LESS_THAN:
+                return index.getItems(0, index.getUpperBound(value));
+        }
+
+        // equality is of the Number objects (so a Double doesn't equal an Integer)
+        List<Attributable> equalItems;
+        if (Double.isNaN(value)) {
+            equalItems = index.getItems(index.getNaNStart(), index.size());
+        } else {
+            equalItems = index.getItems(index.getLowerBound(value), index.getUpperBound(value));
+        }
+        Set<Attributable> equal = new LinkedHashSet<Attributable>();
+        for (Attributable item : equalItems) {
+            if (searchValue.equals(item.getAttribute(summary.getAttributeName()))) {
+                equal.add(item);
+            }
+        }
+        if (searchType == NumberSearchType.EQUALS) {
+            return new ArrayList<Attributable>(equal);
+        }
+
+        List<Attributable> notEqual = new ArrayList<Attributable>();
+        for (Attributable item : index.getItems(0, index.size())) {
+            if (!equal.contains(item)) {
+                notEqual.add(item);
             }
         }
+        return notEqual;
     }
 
     public void selectTaxa(Collection<String> taxonNames) {
@@ -844,7 +973,10 @@ public class DefaultTreeViewer extends TreeViewer {
     private java.util.List<TreeViewerListener> listeners = new ArrayList<TreeViewerListener>();
 
     private List<Tree> trees = new ArrayList<Tree>();
+    // the catalogues of the trees are kept while the trees are (see AttributeCatalogue)
+    private final List<AttributeCatalogue> catalogues = new ArrayList<AttributeCatalogue>();
     private int currentTreeIndex = 0;
+    private Tree currentTree = null;
 
     protected TreePane treePane;
     protected TreePaneSelector treePaneSelector;
@@ -131,7 +131,9 @@ public class ExtendedTreeViewer extends DefaultTreeViewer implements StatusProvi
             for (Taxon taxon : annotation.keySet()) {
                 taxon.setAttribute(definition.getName(), annotation.get(taxon));
             }
+            AttributeCatalogue.attributeChanged(definition.getName());
         }
+        treePane.setTreeModified();
 
         fireAnnotationsChanged();
     }
@@ -174,6 +176,9 @@ public class ExtendedTreeViewer extends DefaultTreeViewer implements StatusProvi
         List<Object> stateCodes = new ArrayList<Object>();
         Map<Taxon, Integer> stateMap = new HashMap<Taxon, Integer>();
 
+        // the node attributes may be being read by a layout in the background
+        treePane.cancelLayoutTask();
+
         Tree tree = treePane.getTree();
         for (Node node : tree.getExternalNodes()) {
             Taxon taxon = tree.getTaxon(node);
@@ -197,6 +202,8 @@ public class ExtendedTreeViewer extends DefaultTreeViewer implements StatusProvi
             }
             node.setAttribute(annotationName, state);
         }
+        AttributeCatalogue.attributeChanged(annotationName);
+        treePane.setTreeModified();
 
         fireAnnotationsChanged();
     }
@@ -211,6 +218,8 @@ public class ExtendedTreeViewer extends DefaultTreeViewer implements StatusProvi
                 taxon.setAttribute(annotationName, state);
             }
         }
+        AttributeCatalogue.attributeChanged(annotationName);
+        treePane.setTreeModified();
 
         fireAnnotationsChanged();
     }
@@ -0,0 +1,218 @@
+/*
+ * HeapAccount.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An estimate of the memory held by the trees that are loaded (their topology and
+ * each of their attributes) and by the caches kept for them. The estimates are made
+ * by the things that hold the memory (see AttributeCatalogue.getTopologyBytes,
+ * TreeLayoutCache.getByteCount and TreePane.accountHeap) using the sizes of the
+ * objects in a 64 bit JVM with compressed references (the default for heaps under
+ * 32Gb). They are not exact but are good enough to see what is using the memory.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class HeapAccount {
+
+    // the size of a reference and of an object header
+    public static final int REFERENCE_BYTES = 4;
+    public static final int HEADER_BYTES = 12;
+
+    // a boxed number, a HashMap entry, a LinkedHashMap entry and an AffineTransform
+    public static final int BOXED_BYTES = 24;
+    public static final int ENTRY_BYTES = 32;
+    public static final int LINKED_ENTRY_BYTES = 40;
+    public static final int TRANSFORM_BYTES = 72;
+
+    /**
+     * Sets a prefix for the names of the trees (i.e., to tell apart the trees in
+     * different windows).
+     */
+    public void setTreePrefix(String treePrefix) {
+        this.treePrefix = treePrefix;
+    }
+
+    public void addTree(String name, long bytes) {
+        add(treeBytes, treePrefix + name, bytes);
+    }
+
+    /**
+     * Adds the memory held by the values of an attribute (this is added up over the trees)
+     */
+    public void addAttribute(String name, long bytes) {
+        add(attributeBytes, name, bytes);
+    }
+
+    /**
+     * Adds the memory held by a cache (this is added up over the trees and windows)
+     */
+    public void addCache(String name, long bytes) {
+        add(cacheBytes, name, bytes);
+    }
+
+    public Map<String, Long> getTreeBytes() {
+        return Collections.unmodifiableMap(treeBytes);
+    }
+
+    public Map<String, Long> getAttributeBytes() {
+        return Collections.unmodifiableMap(attributeBytes);
+    }
+
+    public Map<String, Long> getCacheBytes() {
+        return Collections.unmodifiableMap(cacheBytes);
+    }
+
+    public long getTotalTreeBytes() {
+        return getTotal(treeBytes);
+    }
+
+    public long getTotalAttributeBytes() {
+        return getTotal(attributeBytes);
+    }
+
+    public long getTotalCacheBytes() {
+        return getTotal(cacheBytes);
+    }
+
+    public long getTotalBytes() {
+        return getTotalTreeBytes() + getTotalAttributeBytes() + getTotalCacheBytes();
+    }
+
+    private static void add(Map<String, Long> map, String name, long bytes) {
+        Long total = map.get(name);
+        map.put(name, (total != null ? total : 0L) + bytes);
+    }
+
+    private static long getTotal(Map<String, Long> map) {
+        long total = 0;
+        for (long bytes : map.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * @return the size of an object with the given size of fields (rounded up to 8 bytes)
+     */
+    public static long getObjectBytes(long fieldBytes) {
+        return align(HEADER_BYTES + fieldBytes);
+    }
+
+    /**
+     * @return the size of an array
+     */
+    public static long getArrayBytes(int length, int elementBytes) {
+        return align(HEADER_BYTES + 4 + ((long)length * elementBytes));
+    }
+
+    /**
+     * @return the size of a HashMap or HashSet (not including the keys and values)
+     */
+    public static long getMapBytes(int size) {
+        int capacity = 16;
+        while (capacity * 0.75 < size) {
+            capacity *= 2;
+        }
+        return getObjectBytes(36) + getArrayBytes(capacity, REFERENCE_BYTES) + ((long)size * ENTRY_BYTES);
+    }
+
+    public static long getStringBytes(String string) {
+        // a string of Latin-1 characters takes a byte for each
+        return getObjectBytes(12) + getArrayBytes(string.length(), 1);
+    }
+
+    /**
+     * @return the size of a value of an attribute (strings, numbers, colours and
+     * arrays of these). Booleans are shared so take nothing.
+     */
+    public static long getValueBytes(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return getStringBytes((String)value);
+        }
+        if (value instanceof Object[]) {
+            Object[] array = (Object[])value;
+            long bytes = getArrayBytes(array.length, REFERENCE_BYTES);
+            for (Object element : array) {
+                bytes += getValueBytes(element);
+            }
+            return bytes;
+        }
+        if (value instanceof Integer || value instanceof Float || value instanceof Short || value instanceof Byte) {
+            return getObjectBytes(4);
+        }
+        if (value instanceof Color) {
+            return getObjectBytes(20);
+        }
+        return BOXED_BYTES;
+    }
+
+    /**
+     * @return the size of a shape (paths are measured from their segments)
+     */
+    public static long getShapeBytes(Shape shape) {
+        if (shape instanceof Line2D.Double || shape instanceof Rectangle2D.Double) {
+            return getObjectBytes(32);
+        }
+        if (shape instanceof Line2D.Float || shape instanceof Rectangle2D.Float || shape instanceof Rectangle) {
+            return getObjectBytes(16);
+        }
+
+        int segmentCount = 0;
+        int coordinateCount = 0;
+        double[] coordinates = new double[6];
+        for (PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+            switch (iterator.currentSegment(coordinates)) {
+                case PathIterator.SEG_MOVETO:
+                case PathIterator.SEG_LINETO:
+                    coordinateCount += 2;
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    coordinateCount += 4;
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    coordinateCount += 6;
+                    break;
+            }
+            segmentCount++;
+        }
+        return getObjectBytes(20) + getArrayBytes(segmentCount, 1) + getArrayBytes(coordinateCount, 8);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private String treePrefix = "";
+
+    private final Map<String, Long> treeBytes = new LinkedHashMap<String, Long>();
+    private final Map<String, Long> attributeBytes = new LinkedHashMap<String, Long>();
+    private final Map<String, Long> cacheBytes = new LinkedHashMap<String, Long>();
+}
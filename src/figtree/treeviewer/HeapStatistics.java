@@ -0,0 +1,162 @@
+/*
+ * HeapStatistics.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import javax.management.ObjectName;
+import javax.swing.*;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates how much memory is being used by the trees in the open windows (their
+ * topology and each of their attributes) and by the caches kept for them (see
+ * HeapAccount), and frees the caches of the trees that aren't being shown when asked.
+ *
+ * There is one instance, registered with the platform MBean server as
+ * figtree:type=HeapStatistics. The windows add their tree viewers to it (which are
+ * only weakly held so closed windows are forgotten).
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class HeapStatistics implements HeapStatisticsMXBean {
+
+    public static final String OBJECT_NAME = "figtree:type=HeapStatistics";
+
+    public static HeapStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    private HeapStatistics() {
+    }
+
+    public synchronized void addTreeViewer(DefaultTreeViewer treeViewer) {
+        treeViewers.add(new WeakReference<DefaultTreeViewer>(treeViewer));
+    }
+
+    /**
+     * @return an account of the memory used by the trees and caches of all the windows
+     */
+    public HeapAccount getAccount() {
+        final List<DefaultTreeViewer> treeViewers = getTreeViewers();
+        final HeapAccount account = new HeapAccount();
+        invokeOnEventThread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < treeViewers.size(); i++) {
+                    if (treeViewers.size() > 1) {
+                        account.setTreePrefix("window " + (i + 1) + ", ");
+                    }
+                    treeViewers.get(i).accountHeap(account);
+                }
+            }
+        });
+        return account;
+    }
+
+    public Map<String, Long> getTreeBytes() {
+        return getAccount().getTreeBytes();
+    }
+
+    public Map<String, Long> getAttributeBytes() {
+        return getAccount().getAttributeBytes();
+    }
+
+    public Map<String, Long> getCacheBytes() {
+        return getAccount().getCacheBytes();
+    }
+
+    public long getEstimatedBytes() {
+        return getAccount().getTotalBytes();
+    }
+
+    public long getUsedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public long getMaxHeapBytes() {
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    public long clearHiddenTreeCaches() {
+        final long before = getEstimatedBytes();
+        final List<DefaultTreeViewer> treeViewers = getTreeViewers();
+        invokeOnEventThread(new Runnable() {
+            public void run() {
+                for (DefaultTreeViewer treeViewer : treeViewers) {
+                    treeViewer.clearHiddenTreeCaches();
+                }
+            }
+        });
+        return Math.max(before - getEstimatedBytes(), 0);
+    }
+
+    private synchronized List<DefaultTreeViewer> getTreeViewers() {
+        List<DefaultTreeViewer> viewers = new ArrayList<DefaultTreeViewer>();
+        Iterator<WeakReference<DefaultTreeViewer>> iterator = treeViewers.iterator();
+        while (iterator.hasNext()) {
+            DefaultTreeViewer treeViewer = iterator.next().get();
+            if (treeViewer != null) {
+                viewers.add(treeViewer);
+            } else {
+                iterator.remove();
+            }
+        }
+        return viewers;
+    }
+
+    /**
+     * The trees and caches are changed on the event thread so are only looked at there
+     * (JMX calls come in on their own threads).
+     */
+    private static void invokeOnEventThread(Runnable runnable) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            runnable.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(runnable);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException ite) {
+            throw new RuntimeException(ite.getCause());
+        }
+    }
+
+    private static HeapStatistics createInstance() {
+        HeapStatistics statistics = new HeapStatistics();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            // the estimates can still be shown in the windows without JMX
+        }
+        return statistics;
+    }
+
+    private static final HeapStatistics INSTANCE = createInstance();
+
+    private final List<WeakReference<DefaultTreeViewer>> treeViewers = new ArrayList<WeakReference<DefaultTreeViewer>>();
+}
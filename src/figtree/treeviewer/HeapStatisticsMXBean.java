@@ -0,0 +1,69 @@
+/*
+ * HeapStatisticsMXBean.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import java.util.Map;
+
+/**
+ * The management interface of HeapStatistics (as seen in JConsole or VisualVM under
+ * figtree:type=HeapStatistics). The sizes are estimates in bytes (see HeapAccount).
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public interface HeapStatisticsMXBean {
+
+    /**
+     * @return the memory used by the nodes and taxa of each tree in memory
+     */
+    Map<String, Long> getTreeBytes();
+
+    /**
+     * @return the memory used by the values of each attribute over all the trees
+     */
+    Map<String, Long> getAttributeBytes();
+
+    /**
+     * @return the memory used by each of the caches over all the trees and windows
+     */
+    Map<String, Long> getCacheBytes();
+
+    /**
+     * @return the total of the estimates
+     */
+    long getEstimatedBytes();
+
+    /**
+     * @return the memory used by the whole heap (as reported by the JVM)
+     */
+    long getUsedHeapBytes();
+
+    /**
+     * @return the most memory the heap can grow to
+     */
+    long getMaxHeapBytes();
+
+    /**
+     * Frees the caches of the trees that aren't being shown in each window.
+     * @return an estimate of the memory freed
+     */
+    long clearHiddenTreeCaches();
+}
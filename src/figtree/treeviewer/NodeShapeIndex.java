@@ -0,0 +1,294 @@
+/*
+ * NodeShapeIndex.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import jebl.evolution.graphs.Node;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A uniform grid over the bounds of a set of node shapes (branch paths, collapsed
+ * shapes, label bounds) so that the shapes under a point or a rectangle can be found
+ * without testing every one of them. The shapes are tested in their own coordinate
+ * space so nothing is allocated when querying.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class NodeShapeIndex {
+
+    public NodeShapeIndex() {
+    }
+
+    public void clear() {
+        Arrays.fill(nodes, 0, count, null);
+        Arrays.fill(shapes, 0, count, null);
+        count = 0;
+        gridValid = false;
+    }
+
+    /**
+     * Adds a shape for a node. Where several shapes intersect a query, the one added
+     * first is returned by getNodeAt.
+     * @param node the node
+     * @param shape the shape (ignored if null)
+     */
+    public void add(Node node, Shape shape) {
+        if (shape == null) {
+            return;
+        }
+
+        if (count == nodes.length) {
+            final int capacity = nodes.length * 2;
+            nodes = Arrays.copyOf(nodes, capacity);
+            shapes = Arrays.copyOf(shapes, capacity);
+            bounds = Arrays.copyOf(bounds, capacity * 4);
+            queryMarks = new int[capacity];
+            queryMark = 0;
+        }
+
+        final Rectangle2D shapeBounds = shape.getBounds2D();
+        nodes[count] = node;
+        shapes[count] = shape;
+        bounds[count * 4] = shapeBounds.getMinX();
+        bounds[count * 4 + 1] = shapeBounds.getMinY();
+        bounds[count * 4 + 2] = shapeBounds.getMaxX();
+        bounds[count * 4 + 3] = shapeBounds.getMaxY();
+        count++;
+
+        gridValid = false;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the node of the first shape added that intersects the rectangle
+     * or null if there isn't one.
+     */
+    public Node getNodeAt(double x, double y, double width, double height) {
+        int first = -1;
+
+        if (startQuery(x, y, width, height)) {
+            for (int index : largeEntries) {
+                if ((first == -1 || index < first) && intersects(index, x, y, width, height)) {
+                    first = index;
+                }
+            }
+            for (int cellY = queryCellY0; cellY <= queryCellY1; cellY++) {
+                for (int cellX = queryCellX0; cellX <= queryCellX1; cellX++) {
+                    final int cell = (cellY * cellCountX) + cellX;
+                    for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                        final int index = cellEntries[i];
+                        if ((first == -1 || index < first) && intersects(index, x, y, width, height)) {
+                            first = index;
+                        }
+                    }
+                }
+            }
+        }
+
+        return (first == -1 ? null : nodes[first]);
+    }
+
+    /**
+     * Adds the nodes of all the shapes that intersect the rectangle to the collection.
+     */
+    public void getNodesAt(double x, double y, double width, double height, Collection<Node> nodesAt) {
+        if (startQuery(x, y, width, height)) {
+            for (int index : largeEntries) {
+                if (intersects(index, x, y, width, height)) {
+                    nodesAt.add(nodes[index]);
+                }
+            }
+            for (int cellY = queryCellY0; cellY <= queryCellY1; cellY++) {
+                for (int cellX = queryCellX0; cellX <= queryCellX1; cellX++) {
+                    final int cell = (cellY * cellCountX) + cellX;
+                    for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                        final int index = cellEntries[i];
+                        if (intersects(index, x, y, width, height)) {
+                            nodesAt.add(nodes[index]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests a shape against the query rectangle, once per query even though a
+     * shape may be in several cells.
+     */
+    private boolean intersects(int index, double x, double y, double width, double height) {
+        if (queryMarks[index] == queryMark) {
+            return false;
+        }
+        queryMarks[index] = queryMark;
+
+        final int b = index * 4;
+        if (bounds[b] > x + width || bounds[b + 2] < x ||
+                bounds[b + 1] > y + height || bounds[b + 3] < y) {
+            return false;
+        }
+
+        return shapes[index].intersects(x, y, width, height);
+    }
+
+    /**
+     * Works out the range of cells covered by the query rectangle.
+     * @return false if the rectangle is outside the grid altogether
+     */
+    private boolean startQuery(double x, double y, double width, double height) {
+        if (count == 0) {
+            return false;
+        }
+
+        if (!gridValid) {
+            constructGrid();
+        }
+
+        if (x > maxX || x + width < minX || y > maxY || y + height < minY) {
+            return false;
+        }
+
+        queryCellX0 = getCellX(x);
+        queryCellX1 = getCellX(x + width);
+        queryCellY0 = getCellY(y);
+        queryCellY1 = getCellY(y + height);
+
+        queryMark++;
+        if (queryMark == Integer.MAX_VALUE) {
+            Arrays.fill(queryMarks, 0);
+            queryMark = 1;
+        }
+
+        return true;
+    }
+
+    private void constructGrid() {
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        maxX = Double.NEGATIVE_INFINITY;
+        maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, bounds[i * 4]);
+            minY = Math.min(minY, bounds[i * 4 + 1]);
+            maxX = Math.max(maxX, bounds[i * 4 + 2]);
+            maxY = Math.max(maxY, bounds[i * 4 + 3]);
+        }
+
+        // aim for about one shape per cell with cells roughly square
+        final double width = maxX - minX;
+        final double height = maxY - minY;
+        if (width > 0.0 && height > 0.0) {
+            final double cellSize = Math.sqrt((width * height) / count);
+            cellCountX = (int)Math.min(MAX_CELLS_PER_SIDE, Math.max(1, Math.ceil(width / cellSize)));
+            cellCountY = (int)Math.min(MAX_CELLS_PER_SIDE, Math.max(1, Math.ceil(height / cellSize)));
+        } else if (width > 0.0) {
+            cellCountX = Math.min(MAX_CELLS_PER_SIDE, count);
+            cellCountY = 1;
+        } else if (height > 0.0) {
+            cellCountX = 1;
+            cellCountY = Math.min(MAX_CELLS_PER_SIDE, count);
+        } else {
+            cellCountX = 1;
+            cellCountY = 1;
+        }
+        cellWidth = (width > 0.0 ? width / cellCountX : 1.0);
+        cellHeight = (height > 0.0 ? height / cellCountY : 1.0);
+
+        // count the entries in each cell and then fill them in. Shapes that cover a lot
+        // of cells are kept to one side and tested in every query instead.
+        cellStarts = new int[(cellCountX * cellCountY) + 1];
+        int largeCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (isLargeEntry(i)) {
+                largeCount++;
+                continue;
+            }
+            for (int cellY = getCellY(bounds[i * 4 + 1]); cellY <= getCellY(bounds[i * 4 + 3]); cellY++) {
+                for (int cellX = getCellX(bounds[i * 4]); cellX <= getCellX(bounds[i * 4 + 2]); cellX++) {
+                    cellStarts[(cellY * cellCountX) + cellX + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < cellCountX * cellCountY; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+
+        cellEntries = new int[cellStarts[cellCountX * cellCountY]];
+        largeEntries = new int[largeCount];
+        largeCount = 0;
+        final int[] cellFill = Arrays.copyOf(cellStarts, cellCountX * cellCountY);
+        for (int i = 0; i < count; i++) {
+            if (isLargeEntry(i)) {
+                largeEntries[largeCount++] = i;
+                continue;
+            }
+            for (int cellY = getCellY(bounds[i * 4 + 1]); cellY <= getCellY(bounds[i * 4 + 3]); cellY++) {
+                for (int cellX = getCellX(bounds[i * 4]); cellX <= getCellX(bounds[i * 4 + 2]); cellX++) {
+                    cellEntries[cellFill[(cellY * cellCountX) + cellX]++] = i;
+                }
+            }
+        }
+
+        gridValid = true;
+    }
+
+    private boolean isLargeEntry(int index) {
+        final int cellsX = getCellX(bounds[index * 4 + 2]) - getCellX(bounds[index * 4]) + 1;
+        final int cellsY = getCellY(bounds[index * 4 + 3]) - getCellY(bounds[index * 4 + 1]) + 1;
+        return cellsX * cellsY > MAX_CELLS_PER_ENTRY;
+    }
+
+    private int getCellX(double x) {
+        return Math.max(0, Math.min(cellCountX - 1, (int)((x - minX) / cellWidth)));
+    }
+
+    private int getCellY(double y) {
+        return Math.max(0, Math.min(cellCountY - 1, (int)((y - minY) / cellHeight)));
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_CELLS_PER_SIDE = 1024;
+    private static final int MAX_CELLS_PER_ENTRY = 64;
+
+    private Node[] nodes = new Node[INITIAL_CAPACITY];
+    private Shape[] shapes = new Shape[INITIAL_CAPACITY];
+    private double[] bounds = new double[INITIAL_CAPACITY * 4];
+    private int count = 0;
+
+    private boolean gridValid = false;
+    private double minX, minY, maxX, maxY;
+    private double cellWidth, cellHeight;
+    private int cellCountX, cellCountY;
+    private int[] cellStarts;
+    private int[] cellEntries;
+    private int[] largeEntries;
+
+    private int[] queryMarks = new int[INITIAL_CAPACITY];
+    private int queryMark = 0;
+    private int queryCellX0, queryCellX1, queryCellY0, queryCellY1;
+}
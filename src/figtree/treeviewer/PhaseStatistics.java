@@ -0,0 +1,187 @@
+/*
+ * PhaseStatistics.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import javax.management.ObjectName;
+import javax.swing.*;
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts and times the phases of getting a tree on the screen or into a file (reading,
+ * laying out, calibrating, resolving the decorators, painting and exporting) so it can
+ * be seen where the time goes when FigTree is slow. The timings are only taken once
+ * for each phase (not for each node) so they cost almost nothing.
+ *
+ * There is one instance, registered with the platform MBean server as
+ * figtree:type=PhaseStatistics. The tree panels will also show the timings of the last
+ * frame they drew if the overlay is turned on (through JMX or by starting FigTree with
+ * -Dfigtree.overlay=true).
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class PhaseStatistics implements PhaseStatisticsMXBean {
+
+    public enum Phase {
+        READ("read"),
+        LAYOUT("layout"),
+        CALIBRATE("calibrate"),
+        DECORATE("decorate"),
+        PAINT("paint"),
+        EXPORT("export");
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return name;
+        }
+
+        private final String name;
+    }
+
+    public static final String OBJECT_NAME = "figtree:type=PhaseStatistics";
+
+    public static PhaseStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    private PhaseStatistics() {
+        overlayShown = Boolean.getBoolean("figtree.overlay");
+    }
+
+    /**
+     * Adds the time taken by a phase.
+     * @param phase the phase
+     * @param time the time in nanoseconds (from System.nanoTime)
+     */
+    public synchronized void record(Phase phase, long time) {
+        final int i = phase.ordinal();
+        counts[i]++;
+        totalTimes[i] += time;
+        lastTimes[i] = time;
+        maxTimes[i] = Math.max(maxTimes[i], time);
+    }
+
+    /**
+     * Sets the number of nodes drawn by a paint.
+     */
+    public synchronized void recordNodesDrawn(int nodeCount) {
+        lastNodesDrawn = nodeCount;
+        totalNodesDrawn += nodeCount;
+    }
+
+    /**
+     * @return the time taken by the last of a phase in nanoseconds
+     */
+    public synchronized long getLastTime(Phase phase) {
+        return lastTimes[phase.ordinal()];
+    }
+
+    public synchronized Map<String, Long> getCounts() {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (Phase phase : Phase.values()) {
+            map.put(phase.toString(), counts[phase.ordinal()]);
+        }
+        return map;
+    }
+
+    public synchronized Map<String, Double> getTotalTimes() {
+        return getMillis(totalTimes);
+    }
+
+    public synchronized Map<String, Double> getLastTimes() {
+        return getMillis(lastTimes);
+    }
+
+    public synchronized Map<String, Double> getMaxTimes() {
+        return getMillis(maxTimes);
+    }
+
+    public synchronized int getLastNodesDrawn() {
+        return lastNodesDrawn;
+    }
+
+    public synchronized long getTotalNodesDrawn() {
+        return totalNodesDrawn;
+    }
+
+    public boolean isOverlayShown() {
+        return overlayShown;
+    }
+
+    public void setOverlayShown(boolean overlayShown) {
+        this.overlayShown = overlayShown;
+
+        // this may be called from JMX so the windows are repainted on the event thread
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                for (Window window : Window.getWindows()) {
+                    window.repaint();
+                }
+            }
+        });
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+            totalTimes[i] = 0;
+            lastTimes[i] = 0;
+            maxTimes[i] = 0;
+        }
+        lastNodesDrawn = 0;
+        totalNodesDrawn = 0;
+    }
+
+    private static Map<String, Double> getMillis(long[] times) {
+        Map<String, Double> map = new LinkedHashMap<String, Double>();
+        for (Phase phase : Phase.values()) {
+            map.put(phase.toString(), times[phase.ordinal()] / 1.0E6);
+        }
+        return map;
+    }
+
+    private static PhaseStatistics createInstance() {
+        PhaseStatistics statistics = new PhaseStatistics();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            // the statistics are still kept (e.g., for the overlay) without JMX
+        }
+        return statistics;
+    }
+
+    private static final PhaseStatistics INSTANCE = createInstance();
+
+    private final long[] counts = new long[Phase.values().length];
+    private final long[] totalTimes = new long[Phase.values().length];
+    private final long[] lastTimes = new long[Phase.values().length];
+    private final long[] maxTimes = new long[Phase.values().length];
+    private int lastNodesDrawn = 0;
+    private long totalNodesDrawn = 0;
+
+    private volatile boolean overlayShown;
+}
@@ -0,0 +1,75 @@
+/*
+ * PhaseStatisticsMXBean.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import java.util.Map;
+
+/**
+ * The management interface of PhaseStatistics (as seen in JConsole or VisualVM under
+ * figtree:type=PhaseStatistics). The maps are keyed by the names of the phases.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public interface PhaseStatisticsMXBean {
+
+    /**
+     * @return the number of times each phase has been done
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * @return the total time spent in each phase in milliseconds
+     */
+    Map<String, Double> getTotalTimes();
+
+    /**
+     * @return the time taken by the last of each phase in milliseconds
+     */
+    Map<String, Double> getLastTimes();
+
+    /**
+     * @return the longest time taken by each phase in milliseconds
+     */
+    Map<String, Double> getMaxTimes();
+
+    /**
+     * @return the number of nodes drawn by the last paint
+     */
+    int getLastNodesDrawn();
+
+    /**
+     * @return the total number of nodes drawn
+     */
+    long getTotalNodesDrawn();
+
+    /**
+     * @return whether the tree panels show the timings of the last frame drawn
+     */
+    boolean isOverlayShown();
+
+    void setOverlayShown(boolean overlayShown);
+
+    /**
+     * Sets all the counts and times back to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,265 @@
+/*
+ * TextSearchIndex.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import jebl.evolution.graphs.Node;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An index of the text of the values of an attribute (or the taxon names) of a set of
+ * nodes for the Find searches. The distinct values are sorted so exact and starts-with
+ * searches are binary searches, and each sequence of three characters (trigram) lists
+ * the values that contain it so contains and ends-with searches only have to check the
+ * values that contain all the trigrams of the query. Regular expressions are compiled
+ * once and matched against each distinct value rather than each node.
+ *
+ * The indices are made by AttributeCatalogue when first needed and kept until the
+ * attribute changes.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class TextSearchIndex {
+
+    /**
+     * @param nodes the nodes in the order they should be found
+     * @param values the value for each node (null if it has none)
+     * @param caseSensitive if false the values are indexed in upper case
+     */
+    public TextSearchIndex(List<Node> nodes, List<Object> values, boolean caseSensitive) {
+        this.nodes = nodes.toArray(new Node[nodes.size()]);
+
+        // the nodes with each distinct value
+        SortedMap<String, List<Integer>> valueNodes = new TreeMap<String, List<Integer>>();
+        for (int i = 0; i < this.nodes.length; i++) {
+            Object value = values.get(i);
+            if (value != null) {
+                String text = (caseSensitive ? value.toString() : value.toString().toUpperCase());
+                List<Integer> indices = valueNodes.get(text);
+                if (indices == null) {
+                    indices = new ArrayList<Integer>();
+                    valueNodes.put(text, indices);
+                }
+                indices.add(i);
+            }
+        }
+
+        this.values = valueNodes.keySet().toArray(new String[valueNodes.size()]);
+        this.valueNodeIndices = new int[this.values.length][];
+        int v = 0;
+        for (List<Integer> indices : valueNodes.values()) {
+            int[] array = new int[indices.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = indices.get(i);
+            }
+            valueNodeIndices[v] = array;
+            v++;
+        }
+
+        // the values containing each trigram (in the order of the values)
+        Map<Long, int[]> lists = new HashMap<Long, int[]>();
+        Map<Long, Integer> sizes = new HashMap<Long, Integer>();
+        for (v = 0; v < this.values.length; v++) {
+            String text = this.values[v];
+            for (int i = 0; i + TRIGRAM_LENGTH <= text.length(); i++) {
+                Long trigram = getTrigram(text, i);
+                int[] list = lists.get(trigram);
+                int size = 0;
+                if (list == null) {
+                    list = new int[4];
+                    lists.put(trigram, list);
+                } else {
+                    size = sizes.get(trigram);
+                    if (list[size - 1] == v) {
+                        // already listed (the trigram occurs more than once in this value)
+                        continue;
+                    }
+                    if (size == list.length) {
+                        list = Arrays.copyOf(list, size * 2);
+                        lists.put(trigram, list);
+                    }
+                }
+                list[size] = v;
+                sizes.put(trigram, size + 1);
+            }
+        }
+        for (Map.Entry<Long, int[]> entry : lists.entrySet()) {
+            trigramValues.put(entry.getKey(), Arrays.copyOf(entry.getValue(), sizes.get(entry.getKey())));
+        }
+    }
+
+    /**
+     * Finds the nodes whose values match a query.
+     * @param searchType the type of search
+     * @param query the query (in upper case if the index isn't case sensitive unless
+     *              it is a regular expression)
+     * @return the nodes in the order they were given
+     */
+    public List<Node> find(TreeViewer.TextSearchType searchType, String query) {
+        BitSet found = new BitSet(nodes.length);
+
+        switch (searchType) {
+            case MATCHES: {
+                int v = Arrays.binarySearch(values, query);
+                if (v >= 0) {
+                    addNodes(found, v);
+                }
+                break;
+            }
+            case STARTS_WITH: {
+                int v = Arrays.binarySearch(values, query);
+                if (v < 0) {
+                    v = -v - 1;
+                }
+                // the values starting with the query follow it in order
+                while (v < values.length && values[v].startsWith(query)) {
+                    addNodes(found, v);
+                    v++;
+                }
+                break;
+            }
+            case CONTAINS:
+            case ENDS_WITH: {
+                int[] candidates = getCandidates(query);
+                for (int i = 0; i < candidates.length; i++) {
+                    int v = candidates[i];
+                    if (searchType == TreeViewer.TextSearchType.CONTAINS ?
+                            values[v].contains(query) : values[v].endsWith(query)) {
+                        addNodes(found, v);
+                    }
+                }
+                break;
+            }
+            case REG_EX: {
+                Pattern pattern;
+                try {
+                    pattern = Pattern.compile(query);
+                } catch (PatternSyntaxException pse) {
+                    // nothing matches an incomplete expression
+                    break;
+                }
+                for (int v = 0; v < values.length; v++) {
+                    if (pattern.matcher(values[v]).matches()) {
+                        addNodes(found, v);
+                    }
+                }
+                break;
+            }
+        }
+
+        List<Node> result = new ArrayList<Node>(found.cardinality());
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+            result.add(nodes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the values that might contain the query: those listed for all its trigrams
+     * (or all of them if it is too short to have any)
+     */
+    private int[] getCandidates(String query) {
+        if (query.length() < TRIGRAM_LENGTH) {
+            int[] all = new int[values.length];
+            for (int v = 0; v < all.length; v++) {
+                all[v] = v;
+            }
+            return all;
+        }
+
+        List<int[]> lists = new ArrayList<int[]>();
+        for (int i = 0; i + TRIGRAM_LENGTH <= query.length(); i++) {
+            int[] list = trigramValues.get(getTrigram(query, i));
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+
+        // intersect the lists, starting with the shortest
+        Collections.sort(lists, new Comparator<int[]>() {
+            public int compare(int[] list1, int[] list2) {
+                return list1.length - list2.length;
+            }
+        });
+        int[] candidates = lists.get(0);
+        for (int j = 1; j < lists.size() && candidates.length > 0; j++) {
+            int[] list = lists.get(j);
+            int[] intersection = new int[candidates.length];
+            int count = 0;
+            int k = 0;
+            for (int candidate : candidates) {
+                while (k < list.length && list[k] < candidate) {
+                    k++;
+                }
+                if (k < list.length && list[k] == candidate) {
+                    intersection[count] = candidate;
+                    count++;
+                }
+            }
+            candidates = Arrays.copyOf(intersection, count);
+        }
+        return candidates;
+    }
+
+    private void addNodes(BitSet found, int v) {
+        for (int i : valueNodeIndices[v]) {
+            found.set(i);
+        }
+    }
+
+    private static Long getTrigram(String text, int start) {
+        return ((long)text.charAt(start) << 32) | ((long)text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    /**
+     * @return an estimate of the memory used by the index (see HeapAccount)
+     */
+    public long getByteCount() {
+        long bytes = HeapAccount.getArrayBytes(nodes.length, HeapAccount.REFERENCE_BYTES);
+        bytes += HeapAccount.getArrayBytes(values.length, HeapAccount.REFERENCE_BYTES);
+        for (String value : values) {
+            bytes += HeapAccount.getStringBytes(value);
+        }
+        bytes += HeapAccount.getArrayBytes(valueNodeIndices.length, HeapAccount.REFERENCE_BYTES);
+        for (int[] indices : valueNodeIndices) {
+            bytes += HeapAccount.getArrayBytes(indices.length, 4);
+        }
+        bytes += HeapAccount.getMapBytes(trigramValues.size()) + ((long)trigramValues.size() * HeapAccount.BOXED_BYTES);
+        for (int[] indices : trigramValues.values()) {
+            bytes += HeapAccount.getArrayBytes(indices.length, 4);
+        }
+        return bytes;
+    }
+
+    private static final int TRIGRAM_LENGTH = 3;
+
+    private final Node[] nodes;
+
+    // the distinct values in order and the indices of the nodes with each
+    private final String[] values;
+    private final int[][] valueNodeIndices;
+
+    private final Map<Long, int[]> trigramValues = new HashMap<Long, int[]>();
+}
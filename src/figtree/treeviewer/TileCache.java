@@ -0,0 +1,170 @@
+/*
+ * TileCache.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of off-screen images of square tiles of a component so that repainting
+ * (i.e., when scrolling or dragging out a selection) only needs to draw the images.
+ * Tiles are rendered on demand and are thrown away when invalidated or when the
+ * cache gets too big (least recently used first).
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class TileCache {
+
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * Draws the content of a tile. The graphics are already translated and clipped
+     * to the tile.
+     */
+    public interface TileRenderer {
+        void renderTile(Graphics2D g2);
+    }
+
+    public TileCache() {
+    }
+
+    /**
+     * Throw away all the tiles
+     */
+    public void invalidate() {
+        tiles.clear();
+    }
+
+    /**
+     * @return the memory used by the images of the tiles (see HeapAccount)
+     */
+    public long getByteCount() {
+        long bytes = 0;
+        for (BufferedImage tile : tiles.values()) {
+            bytes += (long)tile.getWidth() * tile.getHeight() * 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * Throw away the tiles that overlap a region
+     * @param bounds the region in the coordinates of the tiles
+     */
+    public void invalidate(Rectangle2D bounds) {
+        final int col0 = (int)Math.floor(bounds.getMinX() / TILE_SIZE);
+        final int col1 = (int)Math.floor(bounds.getMaxX() / TILE_SIZE);
+        final int row0 = (int)Math.floor(bounds.getMinY() / TILE_SIZE);
+        final int row1 = (int)Math.floor(bounds.getMaxY() / TILE_SIZE);
+
+        if ((long)(col1 - col0 + 1) * (row1 - row0 + 1) > tiles.size()) {
+            Iterator<Long> keys = tiles.keySet().iterator();
+            while (keys.hasNext()) {
+                final long key = keys.next();
+                final int col = (int)(key >> 32);
+                final int row = (int)key;
+                if (col >= col0 && col <= col1 && row >= row0 && row <= row1) {
+                    keys.remove();
+                }
+            }
+        } else {
+            for (int row = row0; row <= row1; row++) {
+                for (int col = col0; col <= col1; col++) {
+                    tiles.remove(getKey(col, row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the tiles that overlap the region, rendering any that aren't cached.
+     * @param g2 the graphics to draw them on
+     * @param bounds the region to draw
+     * @param renderer draws the content of missing tiles
+     */
+    public void paint(Graphics2D g2, Rectangle bounds, TileRenderer renderer) {
+
+        // Tiles are rendered at the resolution of the device (i.e., on 'retina' screens)
+        final AffineTransform deviceTransform = g2.getTransform();
+        final double scale = Math.max(Math.abs(deviceTransform.getScaleX()), Math.abs(deviceTransform.getScaleY()));
+        if (scale != tileScale) {
+            tiles.clear();
+            tileScale = scale;
+        }
+        final int tilePixels = (int)Math.ceil(TILE_SIZE * scale);
+
+        final int col0 = (int)Math.floor(bounds.getMinX() / TILE_SIZE);
+        final int col1 = (int)Math.floor((bounds.getMaxX() - 1) / TILE_SIZE);
+        final int row0 = (int)Math.floor(bounds.getMinY() / TILE_SIZE);
+        final int row1 = (int)Math.floor((bounds.getMaxY() - 1) / TILE_SIZE);
+
+        // make sure all the tiles needed will fit
+        maxTiles = Math.max((col1 - col0 + 1) * (row1 - row0 + 1), MAX_CACHE_PIXELS / (tilePixels * tilePixels));
+
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                final long key = getKey(col, row);
+                BufferedImage tile = tiles.get(key);
+
+                if (tile == null) {
+                    tile = g2.getDeviceConfiguration().createCompatibleImage(tilePixels, tilePixels, Transparency.TRANSLUCENT);
+                    Graphics2D tileGraphics = tile.createGraphics();
+                    tileGraphics.setRenderingHints(g2.getRenderingHints());
+                    tileGraphics.setFont(g2.getFont());
+                    tileGraphics.setColor(g2.getColor());
+                    tileGraphics.setBackground(g2.getBackground());
+                    tileGraphics.scale(scale, scale);
+                    tileGraphics.translate(-col * TILE_SIZE, -row * TILE_SIZE);
+                    tileGraphics.clipRect(col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+                    renderer.renderTile(tileGraphics);
+                    tileGraphics.dispose();
+
+                    tiles.put(key, tile);
+                }
+
+                final int x = col * TILE_SIZE;
+                final int y = row * TILE_SIZE;
+                g2.drawImage(tile, x, y, x + TILE_SIZE, y + TILE_SIZE, 0, 0, tilePixels, tilePixels, null);
+            }
+        }
+    }
+
+    private static long getKey(int col, int row) {
+        return (((long)col) << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    // about 64Mb of ARGB images
+    private static final int MAX_CACHE_PIXELS = 16 * 1024 * 1024;
+
+    private int maxTiles = MAX_CACHE_PIXELS / (TILE_SIZE * TILE_SIZE);
+    private double tileScale = 1.0;
+
+    private final Map<Long, BufferedImage> tiles = new LinkedHashMap<Long, BufferedImage>(16, 0.75F, true) {
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > maxTiles;
+        }
+    };
+}
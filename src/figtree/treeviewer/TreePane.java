@@ -35,6 +35,10 @@ import java.awt.geom.*;
 import java.awt.print.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author Andrew Rambaut
@@ -49,6 +53,10 @@ import java.util.List;
 public class TreePane extends JComponent implements PainterListener, Printable {
     public final static boolean DEBUG_OUTLINE = false;
     private static final double DEFAULT_TIP_SELECTION_SIZE = 4;
+    private static final Font OVERLAY_FONT = new Font("Monospaced", Font.PLAIN, 11);
+
+    // half the widest line weight that can be set plus a bit for anti-aliasing
+    private static final double PAINT_MARGIN = 25;
 
     public enum RootingType {
         USER_ROOTING("User Selection"),
@@ -79,13 +87,16 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     public void setTree(RootedTree tree) {
         if (tree != null) {
             this.originalTree = tree;
+            treeModified = false;
             if (!originalTree.hasLengths()) {
                 transformBranchesOn = true;
             }
             setupTree();
         } else {
+            cancelLayoutTask();
             originalTree = null;
             this.tree = null;
+            treeCatalogues = null;
             invalidate();
             repaint();
         }
@@ -96,7 +107,13 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     private void setupTree() {
+        cancelLayoutTask();
         tree = constructTransformedTree(originalTree);
+        treeNodeCount = tree.getNodes().size();
+        treeCatalogues = new AttributeCatalogue[] {
+                AttributeCatalogue.getCatalogue(originalTree), AttributeCatalogue.getCatalogue(tree)
+        };
+        treeLayoutCache.invalidate();
 
         recalculateCollapsedNodes();
 
@@ -145,8 +162,61 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         return treeLayoutCache;
     }
 
+    /**
+     * @return true while the tree is being drawn for the screen (rather than being
+     * exported or printed) so the painters can draw things in ways that wouldn't
+     * survive in a vector graphic (i.e., text as glyphs)
+     */
+    public boolean isDrawingOnScreen() {
+        return drawingOnScreen;
+    }
+
+    /**
+     * Adds estimates of the memory used by the layout and the other caches kept for
+     * drawing the tree to an account (this should be called on the event thread).
+     */
+    public void accountHeap(HeapAccount account) {
+        account.addCache("layout", treeLayoutCache.getByteCount());
+        account.addCache("tip label transforms", getMapBytes(tipLabelTransforms));
+        account.addCache("tip label bounds", getMapBytes(tipLabelBounds) + getMapBytes(tipLabelWidths) +
+                getMapBytes(tipLabelJustifications));
+        account.addCache("node and branch labels", getMapBytes(nodeLabelTransforms) + getMapBytes(nodeLabelBounds) +
+                getMapBytes(nodeLabelJustifications) + getMapBytes(branchLabelTransforms) +
+                getMapBytes(branchLabelBounds) + getMapBytes(branchLabelJustifications));
+        account.addCache("node points and shapes", getMapBytes(tipPoints) + getMapBytes(nodePoints) +
+                getMapBytes(nodeShapeTransforms) + getMapBytes(nodeBars) + getMapBytes(nodePaintBounds) +
+                getMapBytes(calloutPaths));
+        account.addCache("tiles", tileCache.getByteCount());
+        for (LabelPainter<Node> labelPainter : Arrays.asList(tipLabelPainter, nodeLabelPainter, branchLabelPainter)) {
+            if (labelPainter instanceof BasicLabelPainter) {
+                account.addCache("label text", ((BasicLabelPainter)labelPainter).getByteCount());
+            }
+        }
+        if (tree != null && tree != originalTree) {
+            // the transformed tree shares its nodes with the original but has its own catalogue
+            account.addCache("attribute catalogues", AttributeCatalogue.getCatalogue(tree).getCacheBytes());
+        }
+    }
+
+    private static long getMapBytes(Map<Node, ?> map) {
+        long bytes = HeapAccount.getMapBytes(map.size());
+        for (Object value : map.values()) {
+            if (value instanceof AffineTransform) {
+                bytes += HeapAccount.TRANSFORM_BYTES;
+            } else if (value instanceof Shape) {
+                bytes += HeapAccount.getShapeBytes((Shape)value);
+            } else if (value instanceof Point2D) {
+                bytes += HeapAccount.getObjectBytes(16);
+            } else if (value instanceof Double) {
+                bytes += HeapAccount.BOXED_BYTES;
+            }
+        }
+        return bytes;
+    }
+
     public void setTreeLayout(TreeLayout treeLayout) {
 
+        cancelLayoutTask();
         this.treeLayout = treeLayout;
 
         treeLayout.setCartoonAttributeName(CARTOON_ATTRIBUTE_NAME);
@@ -156,6 +226,8 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         treeLayout.addTreeLayoutListener(new TreeLayoutListener() {
             public void treeLayoutChanged() {
+                cancelLayoutTask();
+                treeLayoutCache.invalidate();
                 recalibrate();
                 repaint();
             }
@@ -229,6 +301,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
 
     public void rotateNode(Node node) {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged("!rotate");
+        cancelLayoutTask();
         if (node != null) {
             Boolean rotate = (Boolean)node.getAttribute("!rotate");
             if (rotate != null) {
@@ -238,6 +313,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             }
             node.setAttribute("!rotate", rotate);
 
+            treeLayoutCache.invalidateSubtree(node);
             recalibrate();
             invalidate();
             repaint();
@@ -246,10 +322,14 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public void clearRotation(Node node) {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged("!rotate");
+        cancelLayoutTask();
         if (node != null) {
             Boolean rotate = (Boolean)node.getAttribute("!rotate");
             if (rotate != null) {
                 node.removeAttribute("!rotate");
+                treeLayoutCache.invalidateSubtree(node);
             }
 
             recalibrate();
@@ -377,7 +457,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public double getRootAge() {
-        double treeHeight = tree.getHeight(tree.getRootNode()) + treeLayout.getRootLength();
+        double treeHeight = tree.getHeight(tree.getRootNode()) + treeLayoutCache.getRootLength();
         return timeScale.getAge(treeHeight, tree);
     }
 
@@ -412,6 +492,8 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public void attributesChanged() {
+        cancelLayoutTask();
+        treeLayoutCache.invalidate();
         recalibrate();
         repaint();
     }
@@ -433,6 +515,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
     public void setCalloutStroke(BasicStroke calloutStroke) {
         this.calloutStroke = calloutStroke;
+        tileCache.invalidate();
     }
 
     public Paint getSelectionPaint() {
@@ -505,6 +588,22 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         return originalTree;
     }
 
+    /**
+     * @return true if the nodes of the tree have been annotated, rotated, collapsed
+     * etc. since it was set.
+     */
+    public boolean isTreeModified() {
+        return treeModified;
+    }
+
+    /**
+     * Notes that the attributes of the nodes or taxa of the tree have been changed by
+     * something other than the TreePane so the changes are kept (see isTreeModified).
+     */
+    public void setTreeModified() {
+        treeModified = true;
+    }
+
     public boolean isShowingTipCallouts() {
         return showingTipCallouts;
     }
@@ -555,7 +654,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         amendNodeSelection(selectedNode, toggle, extend);
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void addSelectedTip(Node selectedTip) {
@@ -567,7 +666,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectTipsFromSelectedNodes();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void addSelectedTipLabel(Node selectedTip) {
@@ -580,7 +679,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectTipLabelsFromSelectedTips();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void addSelectedClade(Node selectedNode) {
@@ -593,7 +692,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void addSelectedNodes(Set<Node> selectedNodes, boolean toggle, boolean extend) {
@@ -602,7 +701,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     private void amendTipSelection(Node selectedTip, boolean toggle, boolean extend) {
@@ -676,7 +775,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     private void addSelectedChildTips(Node selectedNode, boolean toggle, boolean selectClade) {
@@ -693,6 +792,20 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
     }
 
+    /**
+     * Adds a number of tips to the selected tip labels (as addSelectedTipLabel does for one)
+     */
+    public void addSelectedTipLabels(Collection<Node> selectedTips) {
+        for (Node node : selectedTips) {
+            amendNodeSelection(node, false, false);
+        }
+        selectTipsFromSelectedNodes();
+        selectTipLabelsFromSelectedTips();
+        fireSelectionChanged();
+        clearSelectionPaths();
+        repaintOverlay();
+    }
+
     public void addSelectedTipLabels(Node selectedNode) {
         addSelectedTipLabels(selectedNode, false);
     }
@@ -703,7 +816,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     private void addSelectedChildTipLabels(Node selectedNode, boolean toggle) {
@@ -728,7 +841,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void selectTipsFromSelectedNodes() {
@@ -747,7 +860,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectedNodes.clear();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void selectNodesFromSelectedTips(boolean selectClade) {
@@ -780,7 +893,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectedTips.clear();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void selectTipsFromSelectedTipLabels() {
@@ -790,7 +903,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectedTipLabels.clear();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void selectTipLabelsFromSelectedTips() {
@@ -800,28 +913,28 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectedTips.clear();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void selectAllTaxa() {
         selectedTipLabels.addAll(tree.getExternalNodes());
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void selectAllNodes() {
         selectedNodes.addAll(tree.getNodes());
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void selectAllTips() {
         selectedTips.addAll(tree.getExternalNodes());
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public void clearSelection() {
@@ -830,7 +943,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectedTipLabels.clear();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintOverlay();
     }
 
     public boolean hasSelection() {
@@ -838,6 +951,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public void cartoonSelectedNodes() {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged(CARTOON_ATTRIBUTE_NAME);
+        cancelLayoutTask();
         cartoonSelectedNodes(tree.getRootNode());
     }
 
@@ -853,6 +969,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                     Object[] values = new Object[] { tipCount, height };
                     node.setAttribute(CARTOON_ATTRIBUTE_NAME, values);
                 }
+                treeLayoutCache.invalidateSubtree(node);
                 recalibrate();
                 repaint();
             } else {
@@ -864,6 +981,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public void collapseSelectedNodes() {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged(COLLAPSE_ATTRIBUTE_NAME);
+        cancelLayoutTask();
         collapseSelectedNodes(tree.getRootNode());
     }
 
@@ -879,6 +999,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                     Object[] values = new Object[] { tipName, height };
                     node.setAttribute(COLLAPSE_ATTRIBUTE_NAME, values);
                 }
+                treeLayoutCache.invalidateSubtree(node);
                 recalibrate();
                 repaint();
             } else {
@@ -890,6 +1011,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public void hilightSelectedNodes(Color color) {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged(HILIGHT_ATTRIBUTE_NAME);
+        cancelLayoutTask();
         hilightSelectedNodes(tree.getRootNode(), color);
     }
 
@@ -902,6 +1026,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 Object[] values = new Object[] { tipCount, height, color };
                 node.setAttribute(HILIGHT_ATTRIBUTE_NAME, values);
 
+                treeLayoutCache.invalidateSubtree(node);
                 recalibrate();
                 repaint();
             } else {
@@ -939,6 +1064,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                     Object[] values = new Object[] { tipCount, height, oldValues[2] };
                     node.setAttribute(HILIGHT_ATTRIBUTE_NAME, values);
                 }
+                treeLayoutCache.invalidateSubtree(node);
                 recalibrate();
                 repaint();
             } else {
@@ -950,15 +1076,21 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public void clearCollapsedNodes() {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged(COLLAPSE_ATTRIBUTE_NAME);
+        AttributeCatalogue.attributeChanged(CARTOON_ATTRIBUTE_NAME);
+        cancelLayoutTask();
         if (selectedNodes.size() > 0) {
             clearSelectedCollapsedNodes(tree.getRootNode());
         } else {
             for (Node node : tree.getInternalNodes()){
                 if (node.getAttribute(COLLAPSE_ATTRIBUTE_NAME) != null) {
                     node.removeAttribute(COLLAPSE_ATTRIBUTE_NAME);
+                    treeLayoutCache.invalidateSubtree(node);
                 }
                 if (node.getAttribute(CARTOON_ATTRIBUTE_NAME) != null) {
                     node.removeAttribute(CARTOON_ATTRIBUTE_NAME);
+                    treeLayoutCache.invalidateSubtree(node);
                 }
             }
             recalibrate();
@@ -979,6 +1111,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 if (node.getAttribute(CARTOON_ATTRIBUTE_NAME) != null) {
                     node.removeAttribute(CARTOON_ATTRIBUTE_NAME);
                 }
+                treeLayoutCache.invalidateSubtree(node);
                 recalibrate();
                 repaint();
             } else {
@@ -990,12 +1123,16 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public void clearHilightedNodes() {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged(HILIGHT_ATTRIBUTE_NAME);
+        cancelLayoutTask();
         if (selectedNodes.size() > 0) {
             clearSelectedHilightedNodes(tree.getRootNode());
         } else {
             for (Node node : tree.getInternalNodes()){
                 if (node.getAttribute(HILIGHT_ATTRIBUTE_NAME) != null) {
                     node.removeAttribute(HILIGHT_ATTRIBUTE_NAME);
+                    treeLayoutCache.invalidateSubtree(node);
                 }
             }
             recalibrate();
@@ -1009,6 +1146,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             if (selectedNodes.size() == 0 || selectedNodes.contains(node)) {
                 if (node.getAttribute(HILIGHT_ATTRIBUTE_NAME) != null) {
                     node.removeAttribute(HILIGHT_ATTRIBUTE_NAME);
+                    treeLayoutCache.invalidateSubtree(node);
                     recalibrate();
                     repaint();
                 }
@@ -1059,13 +1197,19 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public void annotateSelectedNodes(String name, Object value) {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged(name);
+        cancelLayoutTask();
         for (Node selectedNode : selectedNodes) {
             selectedNode.setAttribute(name, value);
         }
-        repaint();
+        repaintNodes(selectedNodes);
     }
 
     public void annotateSelectedTips(String name, Object value) {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged(name);
+        cancelLayoutTask();
         for (Node selectedTipLabel : selectedTipLabels) {
             Taxon selectedTaxon = tree.getTaxon(selectedTipLabel);
 //            if (selectedTaxon == null) {
@@ -1073,22 +1217,28 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 //            }
             selectedTaxon.setAttribute(name, value);
         }
-        repaint();
+        repaintNodes(selectedTipLabels);
     }
 
     public void clearSelectedNodeAnnotation(String name) {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged(name);
+        cancelLayoutTask();
         for (Node selectedNode : selectedNodes) {
             selectedNode.removeAttribute(name);
         }
-        repaint();
+        repaintNodes(selectedNodes);
     }
 
     public void clearSelectedTipAnnotation(String name) {
+        treeModified = true;
+        AttributeCatalogue.attributeChanged(name);
+        cancelLayoutTask();
         for (Node selectedTipLabel : selectedTipLabels) {
             Taxon selectedTaxon = tree.getTaxon(selectedTipLabel);
             selectedTaxon.removeAttribute(name);
         }
-        repaint();
+        repaintNodes(selectedTipLabels);
     }
 
     /**
@@ -1286,50 +1436,36 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         Rectangle rect = new Rectangle(point.x - 1, point.y - 1, 3, 3);
         rect.translate(-insets.left, -insets.top);
 
-        for (Node node : tree.getExternalNodes()) {
-            Shape taxonLabelBound = tipLabelBounds.get(node);
-
-            if (taxonLabelBound != null && taxonLabelBound.intersects(rect.x, rect.y, rect.height, rect.width)) {
-                return node;
-            }
+        Node node = tipLabelIndex.getNodeAt(rect.x, rect.y, rect.width, rect.height);
+        if (node != null) {
+            return node;
         }
 
         if (transform == null) return null;
 
-        for (Node node : tree.getNodes()) {
-            Shape branchPath = transform.createTransformedShape(treeLayoutCache.getBranchPath(node));
-            if (branchPath != null && branchPath.intersects(rect.x, rect.y, rect.height, rect.width)) {
-                return node;
-            }
-            Shape collapsedShape = transform.createTransformedShape(treeLayoutCache.getCollapsedShape(node));
-            if (collapsedShape != null && collapsedShape.intersects(rect.x, rect.y, rect.height, rect.width)) {
-                return node;
-            }
-        }
+        // the branches are indexed in layout space so transform the rectangle back
+        // into that (the transform is only ever a scale and a translation).
+        final double x0 = (rect.x - transform.getTranslateX()) / transform.getScaleX();
+        final double x1 = (rect.x + rect.width - transform.getTranslateX()) / transform.getScaleX();
+        final double y0 = (rect.y - transform.getTranslateY()) / transform.getScaleY();
+        final double y1 = (rect.y + rect.height - transform.getTranslateY()) / transform.getScaleY();
 
-        return null;
+        return branchShapeIndex.getNodeAt(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0), Math.abs(y1 - y0));
     }
 
     public Set<Node> getNodesAt(Graphics2D g2, Rectangle rect) {
 
         Set<Node> nodes = new HashSet<Node>();
-        for (Node node : tree.getExternalNodes()) {
-            Shape taxonLabelBound = tipLabelBounds.get(node);
-            if (taxonLabelBound != null && taxonLabelBound.intersects(rect.x, rect.y, rect.height, rect.width)) {
-                nodes.add(node);
-            }
-        }
+        tipLabelIndex.getNodesAt(rect.x, rect.y, rect.width, rect.height, nodes);
 
-        for (Node node : tree.getNodes()) {
-            Shape branchPath = transform.createTransformedShape(treeLayoutCache.getBranchPath(node));
-            if (branchPath != null && branchPath.intersects(rect.x, rect.y, rect.height, rect.width)) {
-                nodes.add(node);
-            }
-            Shape collapsedShape = transform.createTransformedShape(treeLayoutCache.getCollapsedShape(node));
-            if (collapsedShape != null && collapsedShape.intersects(rect.x, rect.y, rect.height, rect.width)) {
-                nodes.add(node);
-            }
-        }
+        if (transform == null) return nodes;
+
+        final double x0 = (rect.x - transform.getTranslateX()) / transform.getScaleX();
+        final double x1 = (rect.x + rect.width - transform.getTranslateX()) / transform.getScaleX();
+        final double y0 = (rect.y - transform.getTranslateY()) / transform.getScaleY();
+        final double y1 = (rect.y + rect.height - transform.getTranslateY()) / transform.getScaleY();
+
+        branchShapeIndex.getNodesAt(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0), Math.abs(y1 - y0), nodes);
 
         return nodes;
     }
@@ -1433,7 +1569,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
     public void setDragRectangle(Rectangle2D dragRectangle) {
         this.dragRectangle = dragRectangle;
-        repaint();
+        repaintOverlay();
     }
 
     public void setRuler(double rulerHeight) {
@@ -1491,6 +1627,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     public void paint(Graphics graphics) {
         if (tree == null) return;
 
+        Arrays.fill(frameTimes, 0L);
+        frameNodesDrawn = 0;
+
 //        graphics.setColor(Color.white);
 //        Rectangle r = graphics.getClipBounds();
 //        if (r != null) {
@@ -1500,11 +1639,46 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         final Graphics2D g2 = (Graphics2D) graphics;
         g2.translate(insets.left, insets.top);
 
+        // some graphics (e.g., Batik's SVG generator) don't have a device
+        final GraphicsConfiguration deviceConfiguration = g2.getDeviceConfiguration();
+        final boolean onScreen = !isPaintingForPrint() && deviceConfiguration != null &&
+                deviceConfiguration.getDevice().getType() == GraphicsDevice.TYPE_RASTER_SCREEN;
+
         if (!calibrated) {
-            calibrate(g2, getWidth(), getHeight());
+            if (onScreen && !isLayoutReady()) {
+                // The tree is being laid out in the background. Until it is done the
+                // last calibrated layout of this tree continues to be shown.
+                if (calibratedTree != tree) {
+                    paintLayoutProgress(g2);
+                    return;
+                }
+            } else {
+                setAntialiasing(g2);
+                calibrate(g2, getWidth(), getHeight());
+            }
         }
 
-        drawTree(g2, getWidth(), getHeight());
+        if (onScreen) {
+            // On screen the tree is drawn from cached tiles with the selection on top.
+            // Anything else (i.e., exporting graphics) gets the tree drawn directly.
+            Rectangle clipBounds = g2.getClipBounds();
+            if (clipBounds == null) {
+                clipBounds = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            drawingOnScreen = true;
+            try {
+                tileCache.paint(g2, clipBounds, new TileCache.TileRenderer() {
+                    public void renderTile(Graphics2D tileGraphics) {
+                        setAntialiasing(tileGraphics);
+                        drawCalibratedTree(tileGraphics);
+                    }
+                });
+            } finally {
+                drawingOnScreen = false;
+            }
+        } else {
+            drawTree(g2, getWidth(), getHeight());
+        }
 
         Paint oldPaint = g2.getPaint();
         Stroke oldStroke = g2.getStroke();
@@ -1545,7 +1719,14 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 Shape tipShape;
 
                 if (tipShapePainter.isVisible()) {
-                    tipShape = tipShapePainter.getNodeShape(selectedTip);
+                    // the shape may not have been drawn yet if it is outside the clip
+                    Point2D p = tipPoints.get(selectedTip);
+                    AffineTransform shapeTransform = nodeShapeTransforms.get(selectedTip);
+                    if (p != null && shapeTransform != null) {
+                        tipShape = tipShapePainter.getNodeShape(selectedTip, transform.transform(p, null), shapeTransform);
+                    } else {
+                        tipShape = tipShapePainter.getNodeShape(selectedTip);
+                    }
                 } else {
                     Point2D p = tipPoints.get(selectedTip);
                     p = transform.transform(p, null);
@@ -1583,6 +1764,126 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             g2.setPaint(new Color(128, 128, 128, 128));
             g2.fill(dragRectangle);
         }
+
+        if (onScreen && PhaseStatistics.getInstance().isOverlayShown()) {
+            paintPhaseOverlay(g2);
+        }
+    }
+
+    /**
+     * Draws the times taken by the phases of the last frame that did any work (a
+     * frame drawn entirely from the cached tiles takes no time worth showing) in the
+     * top left corner of the visible part of the panel.
+     */
+    private void paintPhaseOverlay(Graphics2D g2) {
+        long frameTime = 0;
+        for (long time : frameTimes) {
+            frameTime += time;
+        }
+        if (frameTime > 0) {
+            System.arraycopy(frameTimes, 0, overlayTimes, 0, frameTimes.length);
+            overlayNodesDrawn = frameNodesDrawn;
+            overlayFrameTime = frameTime;
+        }
+
+        final PhaseStatistics.Phase[] phases = {
+                PhaseStatistics.Phase.LAYOUT,
+                PhaseStatistics.Phase.CALIBRATE,
+                PhaseStatistics.Phase.DECORATE,
+                PhaseStatistics.Phase.PAINT
+        };
+        List<String> lines = new ArrayList<String>();
+        for (PhaseStatistics.Phase phase : phases) {
+            lines.add(String.format("%-12s %8.1f ms", phase, overlayTimes[phase.ordinal()] / 1.0E6));
+        }
+        lines.add(String.format("%-12s %8d", "nodes", overlayNodesDrawn));
+        lines.add(String.format("%-12s %8.1f ms", "frame", overlayFrameTime / 1.0E6));
+        lines.add(String.format("%-12s %8.1f ms", "last layout",
+                PhaseStatistics.getInstance().getLastTime(PhaseStatistics.Phase.LAYOUT) / 1.0E6));
+
+        Font oldFont = g2.getFont();
+        Paint oldPaint = g2.getPaint();
+
+        g2.setFont(OVERLAY_FONT);
+        FontMetrics fm = g2.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        Rectangle visibleRect = getVisibleRect();
+        Rectangle bounds = new Rectangle(visibleRect.x - insets.left + 4, visibleRect.y - insets.top + 4,
+                width + 8, (fm.getHeight() * lines.size()) + 8);
+
+        g2.setPaint(new Color(0, 0, 0, 160));
+        g2.fill(bounds);
+        g2.setPaint(Color.WHITE);
+        int y = bounds.y + 4 + fm.getAscent();
+        for (String line : lines) {
+            g2.drawString(line, bounds.x + 4, y);
+            y += fm.getHeight();
+        }
+
+        g2.setFont(oldFont);
+        g2.setPaint(oldPaint);
+
+        // if only part of the panel was drawn (i.e., when scrolling) the rest of the
+        // overlay is out of date.
+        Rectangle clipBounds = g2.getClipBounds();
+        if (clipBounds != null && !clipBounds.contains(bounds)) {
+            repaintingOverlay = true;
+            try {
+                repaint(bounds.x + insets.left, bounds.y + insets.top, bounds.width, bounds.height);
+            } finally {
+                repaintingOverlay = false;
+            }
+        }
+    }
+
+    /**
+     * Repaint just the things drawn over the tree (the selection and drag rectangle)
+     * so the cached tiles of the tree remain valid.
+     */
+    private void repaintOverlay() {
+        repaintingOverlay = true;
+        try {
+            repaint();
+        } finally {
+            repaintingOverlay = false;
+        }
+    }
+
+    /**
+     * Repaint the region drawn for some nodes (and their child branches which
+     * may be coloured by gradients from them).
+     */
+    private void repaintNodes(Collection<Node> nodes) {
+        Rectangle2D bounds = null;
+        for (Node node : nodes) {
+            bounds = addBounds(bounds, nodePaintBounds.get(node));
+            if (tree != null && !tree.isExternal(node)) {
+                for (Node child : tree.getChildren(node)) {
+                    bounds = addBounds(bounds, nodePaintBounds.get(child));
+                }
+            }
+        }
+        if (bounds != null) {
+            final double margin = PAINT_MARGIN + maxNodeShapeSize;
+            repaint((int)Math.floor(bounds.getX() - margin) + insets.left,
+                    (int)Math.floor(bounds.getY() - margin) + insets.top,
+                    (int)Math.ceil(bounds.getWidth() + (margin * 2)) + 1,
+                    (int)Math.ceil(bounds.getHeight() + (margin * 2)) + 1);
+        }
+    }
+
+    /**
+     * Any repaint other than of the overlay is assumed to be because something
+     * has changed in the tree so the tiles in that region are thrown away.
+     */
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (tileCache != null && !repaintingOverlay) {
+            tileCache.invalidate(new Rectangle(x - insets.left, y - insets.top, width, height));
+        }
+        super.repaint(tm, x, y, width, height);
     }
 
     private void clearSelectionPaths() {
@@ -1591,10 +1892,150 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         labelSelection = null;
     }
 
+    /**
+     * Large trees are laid out on a background thread when the whole layout needs
+     * doing (changes to subtrees are quick enough to do here). If a layout is already
+     * under way for an earlier state of the tree it is cancelled.
+     * @return true if the layout can be done now as part of calibration
+     */
+    private boolean isLayoutReady() {
+        if (treeNodeCount < BACKGROUND_LAYOUT_NODE_COUNT ||
+                treeLayoutCache.isLayoutValid(treeLayout, tree, treeLayout.getLayoutGeneration())) {
+            return true;
+        }
+
+        if (layoutTask == null || !layoutTask.isCurrent()) {
+            cancelLayoutTask();
+            layoutTask = new LayoutTask();
+            LAYOUT_EXECUTOR.execute(layoutTask);
+        }
+        return false;
+    }
+
+    /**
+     * Cancels any layout being made in the background and waits for it to stop. This
+     * is called before the tree, its attributes or the layout settings are changed and
+     * before laying out a tree here, so the layout thread is never reading them while
+     * they change (and a stale layout never holds up the event dispatch thread).
+     */
+    void cancelLayoutTask() {
+        if (layoutTask != null) {
+            layoutTask.cancel();
+            layoutTask = null;
+        }
+    }
+
+    /**
+     * Called when a background layout has finished. If it is still wanted the new
+     * geometry replaces the old and the tree is calibrated and drawn.
+     */
+    private void layoutCompleted(LayoutTask task) {
+        if (task != layoutTask) {
+            return;
+        }
+        layoutTask = null;
+
+        if (task.isCurrent()) {
+            treeLayoutCache = task.cache;
+            recalibrate();
+        }
+        repaint();
+    }
+
+    private void paintLayoutProgress(Graphics2D g2) {
+        final String message = "Laying out tree...";
+        final Rectangle visibleRect = getVisibleRect();
+        final FontMetrics fontMetrics = g2.getFontMetrics();
+
+        final Paint oldPaint = g2.getPaint();
+        g2.setPaint(Color.GRAY);
+        g2.drawString(message,
+                (float)(visibleRect.getCenterX() - insets.left - (fontMetrics.stringWidth(message) / 2.0)),
+                (float)(visibleRect.getCenterY() - insets.top + (fontMetrics.getAscent() / 2.0)));
+        g2.setPaint(oldPaint);
+    }
+
+    /**
+     * Lays out a tree into a new cache on the layout thread. The cache is only
+     * swapped in (on the event dispatch thread) once it is complete. The state of the
+     * tree pane and the generation of the layout's settings are copied when the task
+     * is made so the layout thread never reads the tree pane's fields.
+     */
+    private class LayoutTask implements Runnable {
+        LayoutTask() {
+            this.tree = TreePane.this.tree;
+            this.treeLayout = TreePane.this.treeLayout;
+            this.layoutGeneration = treeLayout.getLayoutGeneration();
+            this.invalidationCount = treeLayoutCache.getInvalidationCount();
+        }
+
+        /**
+         * Called on the event dispatch thread.
+         * @return true if the tree, layout, settings and geometry haven't changed since this was requested
+         */
+        boolean isCurrent() {
+            return !cache.isCancelled() &&
+                    tree == TreePane.this.tree &&
+                    treeLayout == TreePane.this.treeLayout &&
+                    layoutGeneration == treeLayout.getLayoutGeneration() &&
+                    invalidationCount == treeLayoutCache.getInvalidationCount();
+        }
+
+        /**
+         * Called on the event dispatch thread. The layout checks for cancellation as
+         * each node is constructed so this only waits for it to finish the current one.
+         */
+        void cancel() {
+            cache.cancel();
+            synchronized (treeLayout) {
+                // the layout has stopped (or never started)
+            }
+        }
+
+        public void run() {
+            try {
+                // the layout may be shared with other tree panes
+                synchronized (treeLayout) {
+                    treeLayout.layout(tree, cache);
+                }
+            } catch (CancellationException ce) {
+                return;
+            }
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    layoutCompleted(LayoutTask.this);
+                }
+            });
+        }
+
+        private final RootedTree tree;
+        private final TreeLayout treeLayout;
+        private final int layoutGeneration;
+        private final int invalidationCount;
+        private final TreeLayoutCache cache = new TreeLayoutCache();
+    }
+
+    private static final int BACKGROUND_LAYOUT_NODE_COUNT = 10000;
+
+    private static final Executor LAYOUT_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FigTree tree layout");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private LayoutTask layoutTask = null;
+    private RootedTree calibratedTree = null;
+    private int treeNodeCount = 0;
+
     private GeneralPath branchSelection = null;
     private GeneralPath labelSelection = null;
     private GeneralPath tipSelection = null;
 
+    private final TileCache tileCache = new TileCache();
+    private boolean repaintingOverlay = false;
+
     public int print(Graphics graphics, PageFormat pageFormat, int pageIndex) throws PrinterException {
 
         if (tree == null || pageIndex > 0) return NO_SUCH_PAGE;
@@ -1615,15 +2056,29 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
     public void drawTree(Graphics2D g2, double width, double height) {
 
+        setAntialiasing(g2);
+
+        if (!calibrated) {
+            calibrate(g2, width, height);
+        }
+
+        drawCalibratedTree(g2);
+    }
+
+    private void setAntialiasing(Graphics2D g2) {
         final RenderingHints rhints = g2.getRenderingHints();
         final boolean antialiasOn = rhints.containsValue(RenderingHints.VALUE_ANTIALIAS_ON);
         if( ! antialiasOn ) {
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         }
+    }
 
-        if (!calibrated) {
-            calibrate(g2, width, height);
-        }
+    private void drawCalibratedTree(Graphics2D g2) {
+        final long startTime = System.nanoTime();
+        // the time spent getting the paints and strokes from the decorators and the
+        // number of nodes drawn
+        long decorateTime = 0;
+        int nodesDrawn = 0;
 
         // save graphics state which draw changes so that upon exit it can be restored
 
@@ -1632,6 +2087,21 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         final Stroke oldStroke = g2.getStroke();
         final Font oldFont = g2.getFont();
 
+        // Only the nodes that are within the clip need painting (when scrolling this is
+        // usually a thin strip). The clip is expanded to allow for line widths and node
+        // shapes which aren't included in the indexed bounds.
+        final Rectangle clipBounds = g2.getClipBounds();
+        Set<Node> visibleNodes = null;
+        Rectangle2D paintBounds = null;
+        if (clipBounds != null) {
+            final double margin = PAINT_MARGIN + maxNodeShapeSize;
+            paintBounds = new Rectangle2D.Double(clipBounds.getX() - margin, clipBounds.getY() - margin,
+                    clipBounds.getWidth() + (margin * 2), clipBounds.getHeight() + (margin * 2));
+            visibleNodes = new HashSet<Node>();
+            paintIndex.getNodesAt(paintBounds.getX(), paintBounds.getY(),
+                    paintBounds.getWidth(), paintBounds.getHeight(), visibleNodes);
+        }
+
         if (legendPainter != null && legendPainter.isVisible()) {
             legendPainter.paint(g2, this, Painter.Justification.CENTER, legendBounds);
         }
@@ -1656,13 +2126,25 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Paint backgrounds
         if (nodeBackgroundDecorator != null) {
-            for (Node node : treeLayoutCache.getNodeAreaMap().keySet() ) {
+            Set<Node> visibleAreas = null;
+            if (paintBounds != null) {
+                if (!nodeAreaIndexValid) {
+                    constructNodeAreaIndex();
+                }
+                visibleAreas = new HashSet<Node>();
+                nodeAreaIndex.getNodesAt(paintBounds.getX(), paintBounds.getY(),
+                        paintBounds.getWidth(), paintBounds.getHeight(), visibleAreas);
+            }
+            for (Node node : getNodesToPaint(treeLayoutCache.getNodeAreaMap().keySet(), visibleAreas)) {
                 Shape nodeArea = treeLayoutCache.getNodeArea(node);
                 if (nodeArea != null) {
+                    long decorateStart = System.nanoTime();
                     nodeBackgroundDecorator.setItem(node);
-                    Shape transNodePath = transform.createTransformedShape(nodeArea);
                     Paint background = new Color(0,0,0,0);
                     background = nodeBackgroundDecorator.getPaint(background);
+                    decorateTime += System.nanoTime() - decorateStart;
+
+                    Shape transNodePath = transform.createTransformedShape(nodeArea);
                     g2.setPaint(background);
                     g2.fill(transNodePath);
 
@@ -1680,6 +2162,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             Shape hilightShape = treeLayoutCache.getHilightShape(node);
 
             Shape transShape = transform.createTransformedShape(hilightShape);
+            if (paintBounds != null && !transShape.intersects(paintBounds)) {
+                continue;
+            }
             Paint paint = ((Color)values[2]).darker();
             Paint fillPaint = (Color)values[2];
             Stroke stroke = new BasicStroke(0.5F);
@@ -1711,7 +2196,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
 
         // Paint collapsed nodes
-        for (Node node : treeLayoutCache.getCollapsedShapeMap().keySet() ) {
+        for (Node node : getNodesToPaint(treeLayoutCache.getCollapsedShapeMap().keySet(), visibleNodes)) {
             Shape collapsedShape = treeLayoutCache.getCollapsedShape(node);
 
             Shape transShape = transform.createTransformedShape(collapsedShape);
@@ -1720,11 +2205,14 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             Stroke stroke = branchLineStroke;
 
             if (branchDecorator != null) {
+                long decorateStart = System.nanoTime();
                 branchDecorator.setItem(node);
                 paint = branchDecorator.getPaint(paint);
                 fillPaint = branchDecorator.getFillPaint(fillPaint);
                 stroke = branchDecorator.getStroke(stroke);
+                decorateTime += System.nanoTime() - decorateStart;
             }
+            nodesDrawn++;
 
             if (fillPaint != null) {
                 g2.setPaint(fillPaint);
@@ -1737,13 +2225,16 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
 
         // Paint branches
-        for (Node node : treeLayoutCache.getBranchPathMap().keySet() ) {
+        for (Node node : getNodesToPaint(treeLayoutCache.getBranchPathMap().keySet(), visibleNodes)) {
             Stroke stroke = branchLineStroke;
             if (branchDecorator != null) {
+                long decorateStart = System.nanoTime();
                 branchDecorator.setItem(node);
                 stroke = branchDecorator.getStroke(stroke);
+                decorateTime += System.nanoTime() - decorateStart;
             }
             g2.setStroke(stroke);
+            nodesDrawn++;
 
             Object[] branchColouring = null;
             if (treeLayout.isShowingColouring() && branchColouringAttribute != null) {
@@ -1788,6 +2279,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 Shape transPath = transform.createTransformedShape(branchPath);
                 Paint paint = Color.BLACK;
                 if (branchDecorator != null) {
+                    long decorateStart = System.nanoTime();
                     if (branchDecoratorGradient && branchDecorator.allowsGradient()) {
                         branchDecorator.setItems(node, tree.getParent(node));
                         PathIterator iter = transPath.getPathIterator(null);
@@ -1805,6 +2297,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                         branchDecorator.setItem(node);
                         paint = branchDecorator.getPaint(paint);
                     }
+                    decorateTime += System.nanoTime() - decorateStart;
                 }
                 g2.setPaint(paint);
                 g2.draw(transPath);
@@ -1813,7 +2306,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Paint node bars
         if (!isTransformBranchesOn() && nodeBarPainter != null && nodeBarPainter.isVisible()) {
-            for (Node node : nodeBars.keySet() ) {
+            for (Node node : getNodesToPaint(nodeBars.keySet(), visibleNodes)) {
                 Shape nodeBar = nodeBars.get(node);
                 nodeBar = transform.createTransformedShape(nodeBar);
                 nodeBarPainter.paint(g2, node, NodePainter.Justification.CENTER, nodeBar);
@@ -1822,7 +2315,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Paint node shape backgrounds
         if (nodeShapePainter != null && nodeShapePainter.isVisible() && tipShapePainter.hasBackground()) {
-            for (Node node : nodePoints.keySet()) {
+            for (Node node : getNodesToPaint(nodePoints.keySet(), visibleNodes)) {
                 Point2D point = nodePoints.get(node);
                 point = transform.transform(point, null);
                 nodeShapePainter.paintBackground(g2, node, point, nodeShapeTransforms.get(node));
@@ -1831,7 +2324,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Paint tip shape backgrounds
         if (tipShapePainter != null && tipShapePainter.isVisible() && tipShapePainter.hasBackground()) {
-            for (Node node : tipPoints.keySet()) {
+            for (Node node : getNodesToPaint(tipPoints.keySet(), visibleNodes)) {
                 Point2D point = tipPoints.get(node);
                 point = transform.transform(point, null);
                 tipShapePainter.paintBackground(g2, node, point, nodeShapeTransforms.get(node));
@@ -1839,7 +2332,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
 
         if (nodeShapePainter != null && nodeShapePainter.isVisible()) {
-            for (Node node : nodePoints.keySet()) {
+            for (Node node : getNodesToPaint(nodePoints.keySet(), visibleNodes)) {
                 Point2D point = nodePoints.get(node);
                 point = transform.transform(point, null);
                 nodeShapePainter.paint(g2, node, point, nodeShapeTransforms.get(node));
@@ -1847,7 +2340,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
 
         if (tipShapePainter != null && tipShapePainter.isVisible()) {
-            for (Node node : tipPoints.keySet()) {
+            for (Node node : getNodesToPaint(tipPoints.keySet(), visibleNodes)) {
                 Point2D point = tipPoints.get(node);
                 point = transform.transform(point, null);
                 tipShapePainter.paint(g2, node, point, nodeShapeTransforms.get(node));
@@ -1857,7 +2350,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         // Paint tip labels
         if (tipLabelPainter != null && tipLabelPainter.isVisible()) {
 
-            for (Node node : tipLabelTransforms.keySet()) {
+            for (Node node : getNodesToPaint(tipLabelTransforms.keySet(), visibleNodes)) {
 
                 AffineTransform tipLabelTransform = tipLabelTransforms.get(node);
 
@@ -1883,7 +2376,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Paint node labels
         if (nodeLabelPainter != null && nodeLabelPainter.isVisible()) {
-            for (Node node : nodeLabelTransforms.keySet() ) {
+            for (Node node : getNodesToPaint(nodeLabelTransforms.keySet(), visibleNodes)) {
 
                 AffineTransform nodeTransform = nodeLabelTransforms.get(node);
 
@@ -1900,7 +2393,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         // Paint branch labels
         if (branchLabelPainter != null && branchLabelPainter.isVisible()) {
 
-            for (Node node : branchLabelTransforms.keySet() ) {
+            for (Node node : getNodesToPaint(branchLabelTransforms.keySet(), visibleNodes)) {
 
                 AffineTransform branchTransform = branchLabelTransforms.get(node);
 
@@ -1920,14 +2413,37 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         g2.setStroke(oldStroke);
         g2.setPaint(oldPaint);
         g2.setFont(oldFont);
+
+        recordPhase(PhaseStatistics.Phase.DECORATE, decorateTime);
+        recordPhase(PhaseStatistics.Phase.PAINT, System.nanoTime() - startTime - decorateTime);
+        PhaseStatistics.getInstance().recordNodesDrawn(nodesDrawn);
+        frameNodesDrawn += nodesDrawn;
     }
 
     private void calibrate(Graphics2D g2, double width, double height) {
+        final long startTime = System.nanoTime();
+
+        tileCache.invalidate();
+
+        // First layout the tree (unless this has been done in the background). Any
+        // layout still being made in the background is out of date by now.
+        cancelLayoutTask();
+        synchronized (treeLayout) {
+            treeLayout.layout(tree, treeLayoutCache);
+        }
+        calibratedTree = tree;
+        final long layoutTime = System.nanoTime() - startTime;
+        frameTimes[PhaseStatistics.Phase.LAYOUT.ordinal()] += layoutTime;
 
-        // First layout the tree
-        treeLayout.layout(tree, treeLayoutCache);
+        // and index the branches and collapsed shapes for selecting nodes. These are
+        // added in the order that they used to be searched so the same node is picked.
+        branchShapeIndex.clear();
+        for (Node node : tree.getNodes()) {
+            branchShapeIndex.add(node, treeLayoutCache.getBranchPath(node));
+            branchShapeIndex.add(node, treeLayoutCache.getCollapsedShape(node));
+        }
 
-        maxTreeHeight = tree.getHeight(tree.getRootNode()) + treeLayout.getRootLength();
+        maxTreeHeight = tree.getHeight(tree.getRootNode()) + treeLayoutCache.getRootLength();
         rootHeightOffset = 0.0;
 
 
@@ -2058,6 +2574,8 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
 
         // bounds on nodeShapes
+        maxNodeShapeSize = 0.0;
+
         if (tipShapePainter != null /*&& tipShapePainter.isVisible()*/) {
             tipPoints.clear();
             // Iterate though the external nodes
@@ -2067,6 +2585,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 if (shapeBounds != null) {
                     if (tipShapePainter.isVisible()) {
                         totalTreeBounds.add(shapeBounds);
+                        maxNodeShapeSize = Math.max(maxNodeShapeSize, Math.max(shapeBounds.getWidth(), shapeBounds.getHeight()));
                     }
 
                     // just at the centroid in here as the actual shape will be reconstructed when drawing
@@ -2084,6 +2603,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 if (shapeBounds != null) {
                     if (nodeShapePainter.isVisible()) {
                         totalTreeBounds.add(shapeBounds);
+                        maxNodeShapeSize = Math.max(maxNodeShapeSize, Math.max(shapeBounds.getWidth(), shapeBounds.getHeight()));
                     }
 
                     // just at the centroid in here as the actual shape will be reconstructed when drawing
@@ -2245,6 +2765,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Clear the map of individual taxon label bounds and transforms
         tipLabelBounds.clear();
+        tipLabelIndex.clear();
         tipLabelTransforms.clear();
         tipLabelJustifications.clear();
 
@@ -2273,6 +2794,11 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                         Painter.Justification.LEFT : Painter.Justification.RIGHT;
                 tipLabelJustifications.put(node, just);
             }
+
+            // index the label bounds in the order they used to be searched
+            for (Node node : tree.getExternalNodes()) {
+                tipLabelIndex.add(node, tipLabelBounds.get(node));
+            }
         }
 
         // Clear the map of individual node label bounds and transforms
@@ -2368,6 +2894,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             }
         }
 
+        constructPaintIndex();
 
         y = availableH;
         for (ScalePainter scalePainter : scalePainters) {
@@ -2402,6 +2929,17 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         clearSelectionPaths();
 
         calibrated = true;
+
+        // the layout is timed by the layout itself
+        recordPhase(PhaseStatistics.Phase.CALIBRATE, System.nanoTime() - startTime - layoutTime);
+    }
+
+    /**
+     * Adds the time taken by a phase to the statistics and to the frame being drawn.
+     */
+    private void recordPhase(PhaseStatistics.Phase phase, long time) {
+        PhaseStatistics.getInstance().record(phase, time);
+        frameTimes[phase.ordinal()] += time;
     }
 
 //    private void calculateMaxTipLabelWidth(final Graphics2D g2, final Node node) {
@@ -2445,6 +2983,92 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
     }
 
+    /**
+     * Index the screen bounds of everything drawn for each node so that drawTree only
+     * needs to paint the nodes within the clip. The node backgrounds are indexed
+     * separately as they are large and are only drawn if there is a decorator for them.
+     */
+    private void constructPaintIndex() {
+        paintIndex.clear();
+        nodePaintBounds.clear();
+        nodeAreaIndexValid = false;
+
+        for (Node node : tree.getNodes()) {
+            Rectangle2D bounds = null;
+
+            bounds = addTransformedBounds(bounds, treeLayoutCache.getBranchPath(node));
+            bounds = addTransformedBounds(bounds, treeLayoutCache.getCollapsedShape(node));
+            bounds = addTransformedBounds(bounds, nodeBars.get(node));
+            if (showingTipCallouts) {
+                bounds = addTransformedBounds(bounds, treeLayoutCache.getCalloutPath(node));
+            }
+
+            Point2D point = (tree.isExternal(node) ? tipPoints.get(node) : nodePoints.get(node));
+            if (point != null) {
+                point = transform.transform(point, null);
+                final double size = maxNodeShapeSize;
+                bounds = addBounds(bounds, new Rectangle2D.Double(point.getX() - size, point.getY() - size, size * 2, size * 2));
+            }
+
+            bounds = addBounds(bounds, tipLabelBounds.get(node));
+            bounds = addBounds(bounds, nodeLabelBounds.get(node));
+            bounds = addBounds(bounds, branchLabelBounds.get(node));
+
+            if (bounds != null) {
+                paintIndex.add(node, bounds);
+                nodePaintBounds.put(node, bounds);
+            }
+        }
+    }
+
+    private void constructNodeAreaIndex() {
+        nodeAreaIndex.clear();
+        for (Node node : treeLayoutCache.getNodeAreaMap().keySet()) {
+            Rectangle2D bounds = addTransformedBounds(null, treeLayoutCache.getNodeArea(node));
+            if (bounds != null) {
+                nodeAreaIndex.add(node, bounds);
+            }
+        }
+        nodeAreaIndexValid = true;
+    }
+
+    private Rectangle2D addTransformedBounds(Rectangle2D bounds, Shape shape) {
+        if (shape == null) {
+            return bounds;
+        }
+        return addBounds(bounds, transform.createTransformedShape(shape.getBounds2D()));
+    }
+
+    private Rectangle2D addBounds(Rectangle2D bounds, Shape shape) {
+        if (shape == null) {
+            return bounds;
+        }
+        if (bounds == null) {
+            return shape.getBounds2D();
+        }
+        bounds.add(shape.getBounds2D());
+        return bounds;
+    }
+
+    /**
+     * Returns the nodes in the set that are within the clip (or all of them if the
+     * whole tree is being drawn). The nodes are kept in the order of the set (i.e.,
+     * the order of the layout) so overlapping items are drawn in the same order
+     * however the tree is clipped.
+     */
+    private Collection<Node> getNodesToPaint(Set<Node> nodes, Set<Node> visibleNodes) {
+        if (visibleNodes == null) {
+            return nodes;
+        }
+        List<Node> nodesToPaint = new ArrayList<Node>(Math.min(nodes.size(), visibleNodes.size()));
+        for (Node node : nodes) {
+            if (visibleNodes.contains(node)) {
+                nodesToPaint.add(node);
+            }
+        }
+        return nodesToPaint;
+    }
+
     private AffineTransform calculateTransform(AffineTransform globalTransform, Line2D line,
                                                double width, double height, boolean justify) {
         final Point2D origin = line.getP1();
@@ -2499,28 +3123,40 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
 
-    // Overridden methods to recalibrate tree when bounds change
+    // Overridden methods to recalibrate tree when the size changes (but not when
+    // it is just moved, i.e., by scrolling)
     public void setBounds(int x, int y, int width, int height) {
-        recalibrate();
+        if (width != getWidth() || height != getHeight()) {
+            recalibrate();
+        }
         super.setBounds(x, y, width, height);
     }
 
     public void setBounds(Rectangle rectangle) {
-        recalibrate();
+        if (rectangle.width != getWidth() || rectangle.height != getHeight()) {
+            recalibrate();
+        }
         super.setBounds(rectangle);
     }
 
     public void setSize(Dimension dimension) {
-        recalibrate();
+        if (dimension.width != getWidth() || dimension.height != getHeight()) {
+            recalibrate();
+        }
         super.setSize(dimension);
     }
 
     public void setSize(int width, int height) {
-        recalibrate();
+        if (width != getWidth() || height != getHeight()) {
+            recalibrate();
+        }
         super.setSize(width, height);
     }
 
     private RootedTree originalTree = null;
+    // the catalogues of the tree and the transformed tree (see AttributeCatalogue)
+    private AttributeCatalogue[] treeCatalogues = null;
+    private boolean treeModified = false;
     private RootedTree tree = null;
     private TreeLayout treeLayout = null;
     private TreeLayoutCache treeLayoutCache = new TreeLayoutCache();
@@ -2601,12 +3237,28 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     private Paint cursorPaint = Color.DARK_GRAY;
 
     private boolean calibrated = false;
+    private boolean drawingOnScreen = false;
     private AffineTransform transform = null;
 
+    // the times taken by the phases of the frame being drawn and of the last frame
+    // shown in the overlay
+    private final long[] frameTimes = new long[PhaseStatistics.Phase.values().length];
+    private int frameNodesDrawn = 0;
+    private final long[] overlayTimes = new long[PhaseStatistics.Phase.values().length];
+    private int overlayNodesDrawn = 0;
+    private long overlayFrameTime = 0;
+
     private boolean showingTipCallouts = true;
 
     private Map<Node, AffineTransform> tipLabelTransforms = new HashMap<Node, AffineTransform>();
     private Map<Node, Shape> tipLabelBounds = new HashMap<Node, Shape>();
+    private final NodeShapeIndex tipLabelIndex = new NodeShapeIndex();
+    private final NodeShapeIndex branchShapeIndex = new NodeShapeIndex();
+    private final NodeShapeIndex paintIndex = new NodeShapeIndex();
+    private final NodeShapeIndex nodeAreaIndex = new NodeShapeIndex();
+    private boolean nodeAreaIndexValid = false;
+    private final Map<Node, Rectangle2D> nodePaintBounds = new HashMap<Node, Rectangle2D>();
+    private double maxNodeShapeSize = 0.0;
     private Map<Node, Double> tipLabelWidths = new HashMap<Node, Double>();
     private Map<Node, Painter.Justification> tipLabelJustifications = new HashMap<Node, Painter.Justification>();
 
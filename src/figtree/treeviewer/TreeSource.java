@@ -0,0 +1,60 @@
+/*
+ * TreeSource.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import jebl.evolution.trees.Tree;
+
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * A list of trees that are read on demand (i.e., from an indexed file) so that only
+ * a few of them are in memory at any one time. Calling get() may return a new copy
+ * of a tree each time so any that are edited need to be retained.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public interface TreeSource extends List<Tree> {
+
+    /**
+     * Keep a tree that was returned by get() in memory (i.e., because it has been edited).
+     * @param index the index of the tree
+     * @param tree the tree
+     */
+    void retainTree(int index, Tree tree);
+
+    /**
+     * @return the trees that are currently in memory
+     */
+    List<Tree> getLoadedTrees();
+
+    /**
+     * @return the trees that are currently in memory by their index
+     */
+    SortedMap<Integer, Tree> getLoadedTreeMap();
+
+    /**
+     * Drop the trees that have been read (but not those that have been retained) so
+     * they are read again when they are next needed.
+     */
+    void clearLoadedTrees();
+}
@@ -50,6 +50,18 @@ public abstract class TreeViewer extends JPanel implements Printable {
 
     public abstract java.util.List<Tree> getTrees();
 
+    /**
+     * @return the trees to look through for attributes. If the trees are being read
+     * on demand then this is only the ones that have been read.
+     */
+    public java.util.List<Tree> getLoadedTrees() {
+        java.util.List<Tree> trees = getTrees();
+        if (trees instanceof TreeSource) {
+            return ((TreeSource)trees).getLoadedTrees();
+        }
+        return trees;
+    }
+
     public abstract Tree getCurrentTree();
 
     public abstract int getCurrentTreeIndex();
@@ -0,0 +1,77 @@
+/*
+ * AttributableIndex.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer.decorators;
+
+import figtree.treeviewer.HeapAccount;
+import jebl.util.Attributable;
+
+import java.util.*;
+
+/**
+ * A dense index (0 to size - 1) of a set of items, i.e., the nodes or the taxa of a
+ * tree. The columns of all the attributes of a tree (see AttributeColumn) share the
+ * same index (held by AttributeCatalogue) so an item only has to be looked up once.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class AttributableIndex {
+
+    public AttributableIndex(Collection<? extends Attributable> items) {
+        indices = new IdentityHashMap<Attributable, Integer>(items.size());
+        for (Attributable item : items) {
+            if (!indices.containsKey(item)) {
+                indices.put(item, indices.size());
+            }
+        }
+    }
+
+    /**
+     * @return the index of the item or -1 if it isn't in the index
+     */
+    public int getIndex(Attributable item) {
+        final Integer index = indices.get(item);
+        return (index == null ? -1 : index);
+    }
+
+    /**
+     * @return the number of items
+     */
+    public int size() {
+        return indices.size();
+    }
+
+    /**
+     * @return an estimate of the memory used by the index (see HeapAccount)
+     */
+    public long getByteCount() {
+        // an IdentityHashMap keeps the keys and values in one table
+        int capacity = 4;
+        while (capacity < indices.size() * 3 / 2) {
+            capacity *= 2;
+        }
+        long bytes = HeapAccount.getObjectBytes(24) + HeapAccount.getArrayBytes(capacity * 2, HeapAccount.REFERENCE_BYTES);
+        bytes += (long)indices.size() * HeapAccount.getObjectBytes(4);
+        return bytes;
+    }
+
+    private final Map<Attributable, Integer> indices;
+}
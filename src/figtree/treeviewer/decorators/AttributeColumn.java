@@ -0,0 +1,192 @@
+/*
+ * AttributeColumn.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer.decorators;
+
+import figtree.treeviewer.HeapAccount;
+import jebl.util.Attributable;
+
+import java.util.*;
+
+/**
+ * The values of an attribute held in a column indexed by item (see AttributeSummary)
+ * so they can be read while painting without looking in the attribute map of each
+ * item. Real numbers are held as an array of doubles and everything else as codes
+ * into an array of the distinct values. The items are indexed by the summary's
+ * AttributableIndex (which is shared by all the columns of a tree) or, if it doesn't
+ * have one, by an index of its own items.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class AttributeColumn {
+
+    AttributeColumn(AttributeSummary attribute) {
+        final String attributeName = attribute.getAttributeName();
+        final Set<Attributable> items = attribute.getItems();
+
+        if (attribute.getItemIndex() != null) {
+            itemIndex = attribute.getItemIndex();
+            isSharedIndex = true;
+        } else {
+            itemIndex = new AttributableIndex(items);
+            isSharedIndex = false;
+        }
+        isNumeric = attribute.isDouble() && !attribute.isDiscrete();
+
+        final int size = itemIndex.size();
+        hasValue = new boolean[size];
+        if (isNumeric) {
+            numbers = new double[size];
+            codes = null;
+        } else {
+            numbers = null;
+            codes = new int[size];
+        }
+
+        final Map<Object, Integer> codeMap = new HashMap<Object, Integer>();
+        final List<Object> codeValues = new ArrayList<Object>();
+
+        for (Attributable item : items) {
+            Object value = item.getAttribute(attributeName);
+            final int index = itemIndex.getIndex(item);
+            if (value == null || (isNumeric && !(value instanceof Number)) || index == -1) {
+                // changed since it was summarized
+                continue;
+            }
+
+            if (isNumeric) {
+                numbers[index] = ((Number)value).doubleValue();
+            } else {
+                Integer code = codeMap.get(value);
+                if (code == null) {
+                    code = codeValues.size();
+                    codeMap.put(value, code);
+                    codeValues.add(value);
+                }
+                codes[index] = code;
+            }
+            hasValue[index] = true;
+        }
+
+        values = codeValues.toArray();
+        valueNumbers = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof Number) {
+                valueNumbers[i] = ((Number)values[i]).doubleValue();
+            } else {
+                try {
+                    valueNumbers[i] = Double.parseDouble(values[i].toString());
+                } catch (NumberFormatException nfe) {
+                    valueNumbers[i] = Double.NaN;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the index of the item in the column or -1 if it doesn't have a value
+     */
+    public int getIndex(Attributable item) {
+        final int index = itemIndex.getIndex(item);
+        return (index != -1 && hasValue[index] ? index : -1);
+    }
+
+    /**
+     * @return the number of items in the index (i.e., the indices are all less than this)
+     */
+    public int size() {
+        return hasValue.length;
+    }
+
+    /**
+     * @return true if the values are held as doubles (rather than codes)
+     */
+    public boolean isNumeric() {
+        return isNumeric;
+    }
+
+    /**
+     * @return the value as a number (or NaN if it isn't one)
+     */
+    public double getNumber(int index) {
+        return (isNumeric ? numbers[index] : valueNumbers[codes[index]]);
+    }
+
+    /**
+     * @return the code of the value (if not isNumeric)
+     */
+    public int getCode(int index) {
+        return codes[index];
+    }
+
+    /**
+     * @return the number of different values (if not isNumeric)
+     */
+    public int getCodeCount() {
+        return values.length;
+    }
+
+    /**
+     * @return the value with a given code
+     */
+    public Object getCodeValue(int code) {
+        return values[code];
+    }
+
+    /**
+     * @return the value (boxing it if isNumeric)
+     */
+    public Object getValue(int index) {
+        return (isNumeric ? (Object)numbers[index] : values[codes[index]]);
+    }
+
+    /**
+     * @return an estimate of the memory used by the column (see HeapAccount), not
+     * including the index if it is shared
+     */
+    public long getByteCount() {
+        long bytes = HeapAccount.getObjectBytes(36) + HeapAccount.getArrayBytes(hasValue.length, 1);
+        if (!isSharedIndex) {
+            bytes += itemIndex.getByteCount();
+        }
+
+        if (numbers != null) {
+            bytes += HeapAccount.getArrayBytes(numbers.length, 8);
+        }
+        if (codes != null) {
+            bytes += HeapAccount.getArrayBytes(codes.length, 4);
+        }
+        bytes += HeapAccount.getArrayBytes(values.length, HeapAccount.REFERENCE_BYTES);
+        bytes += HeapAccount.getArrayBytes(valueNumbers.length, 8);
+        return bytes;
+    }
+
+    private final AttributableIndex itemIndex;
+    private final boolean isSharedIndex;
+    private final boolean[] hasValue;
+    private final boolean isNumeric;
+
+    private final double[] numbers;
+
+    private final int[] codes;
+    private final Object[] values;
+    private final double[] valueNumbers;
+}
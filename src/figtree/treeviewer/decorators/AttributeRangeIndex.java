@@ -0,0 +1,183 @@
+/*
+ * AttributeRangeIndex.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer.decorators;
+
+import figtree.treeviewer.HeapAccount;
+import jebl.util.Attributable;
+
+import java.util.*;
+
+/**
+ * The items of an attribute (see AttributeSummary) that have numbers as values, sorted
+ * by value so the items above or below a value can be found by binary search. Items
+ * with values that aren't numbers are left out and NaNs are sorted to the end.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class AttributeRangeIndex {
+
+    AttributeRangeIndex(AttributeSummary attribute) {
+        final String attributeName = attribute.getAttributeName();
+
+        final List<Attributable> numberItems = new ArrayList<Attributable>();
+        double[] numberValues = new double[attribute.getItems().size()];
+        for (Attributable item : attribute.getItems()) {
+            Object value = item.getAttribute(attributeName);
+            if (value instanceof Number) {
+                numberValues[numberItems.size()] = ((Number)value).doubleValue();
+                numberItems.add(item);
+            }
+        }
+
+        final int count = numberItems.size();
+        values = Arrays.copyOf(numberValues, count);
+        Arrays.sort(values);
+
+        // each item goes into the next free place for its value in the sorted values
+        items = new Attributable[count];
+        int[] used = new int[count];
+        for (int i = 0; i < count; i++) {
+            int position = getFirstPosition(numberValues[i]);
+            items[position + used[position]] = numberItems.get(i);
+            used[position]++;
+        }
+
+        int nanStart = count;
+        while (nanStart > 0 && Double.isNaN(values[nanStart - 1])) {
+            nanStart--;
+        }
+        this.nanStart = nanStart;
+    }
+
+    /**
+     * @return the position of the first of the sorted values that is the same as the
+     * given one (in the order used by Arrays.sort)
+     */
+    private int getFirstPosition(double value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Double.compare(values[mid], value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of items with numbers as values
+     */
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * @return the item at a position in the order of the values
+     */
+    public Attributable getItem(int index) {
+        return items[index];
+    }
+
+    /**
+     * @return the value at a position (in increasing order)
+     */
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the position of the first value that isn't less than the given one
+     */
+    public int getLowerBound(double value) {
+        int low = 0;
+        int high = nanStart;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of the first value that is greater than the given one
+     */
+    public int getUpperBound(double value) {
+        int low = 0;
+        int high = nanStart;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of the first NaN (or the size if there are none)
+     */
+    public int getNaNStart() {
+        return nanStart;
+    }
+
+    /**
+     * @return the items between two positions (in the order of their values)
+     */
+    public List<Attributable> getItems(int from, int to) {
+        return Collections.unmodifiableList(Arrays.asList(items).subList(from, to));
+    }
+
+    /**
+     * @return the lowest number (or NaN if there are none)
+     */
+    public double getMinValue() {
+        return (nanStart > 0 ? values[0] : Double.NaN);
+    }
+
+    /**
+     * @return the highest number (or NaN if there are none)
+     */
+    public double getMaxValue() {
+        return (nanStart > 0 ? values[nanStart - 1] : Double.NaN);
+    }
+
+    /**
+     * @return an estimate of the memory used by the index (see HeapAccount)
+     */
+    public long getByteCount() {
+        return HeapAccount.getArrayBytes(items.length, HeapAccount.REFERENCE_BYTES) +
+                HeapAccount.getArrayBytes(values.length, 8);
+    }
+
+    private final Attributable[] items;
+    private final double[] values;
+    private final int nanStart;
+}
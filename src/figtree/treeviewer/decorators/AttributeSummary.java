@@ -0,0 +1,295 @@
+/*
+ * AttributeSummary.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer.decorators;
+
+import figtree.treeviewer.HeapAccount;
+import jebl.util.Attributable;
+
+import java.util.*;
+
+/**
+ * The values of an attribute over a set of attributable items: which items carry
+ * it, the distinct values, what type they are and (if they are numbers) their range.
+ * This is collected once so the decorators and scales don't need to look at every
+ * item each time they are set up.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+public class AttributeSummary {
+
+    public AttributeSummary(String attributeName) {
+        this(attributeName, (AttributableIndex)null);
+    }
+
+    /**
+     * @param itemIndex the index of all the items that may be added (i.e., the nodes
+     * of a tree) which the column will use (see getColumn)
+     */
+    public AttributeSummary(String attributeName, AttributableIndex itemIndex) {
+        this.attributeName = attributeName;
+        this.itemIndex = itemIndex;
+        this.version = getVersion(attributeName);
+        this.summaryVersion = version[0];
+    }
+
+    public AttributeSummary(String attributeName, Collection<? extends Attributable> items) {
+        this(attributeName);
+        for (Attributable item : items) {
+            add(item);
+        }
+    }
+
+    /**
+     * Marks all the summaries of an attribute as out of date.
+     */
+    public static void attributeChanged(String attributeName) {
+        synchronized (versions) {
+            getVersion(attributeName)[0]++;
+        }
+    }
+
+    /**
+     * @return a number that changes each time the attribute is changed (i.e., for
+     * anything that keeps values of the attribute to see if they are out of date)
+     */
+    public static int getAttributeVersion(String attributeName) {
+        synchronized (versions) {
+            return getVersion(attributeName)[0];
+        }
+    }
+
+    private static int[] getVersion(String attributeName) {
+        synchronized (versions) {
+            int[] version = versions.get(attributeName);
+            if (version == null) {
+                version = new int[1];
+                versions.put(attributeName, version);
+            }
+            return version;
+        }
+    }
+
+    /**
+     * Adds an item if it has a value for the attribute.
+     */
+    public void add(Attributable item) {
+        Object value = item.getAttribute(attributeName);
+        if (value == null) {
+            return;
+        }
+
+        items.add(item);
+
+        if (!values.add(value)) {
+            // already seen this value
+            return;
+        }
+
+        if (value instanceof Number) {
+            if (((Number)value).doubleValue() != ((Number)value).intValue()) {
+                isInteger = false;
+            }
+        } else {
+            isNumber = false;
+        }
+        if (!(value instanceof Double)) {
+            isDouble = false;
+        }
+
+        // Booleans and strings can still code for numbers
+        double realValue = 0.0;
+        if (value instanceof Boolean) {
+            realValue = ((Boolean)value ? 1 : 0);
+        } else if (value instanceof Number) {
+            realValue = ((Number)value).doubleValue();
+        } else if (value.toString().equalsIgnoreCase("true")) {
+            realValue = 1;
+        } else if (value.toString().equalsIgnoreCase("false")) {
+            realValue = 0;
+        } else {
+            try {
+                realValue = Double.parseDouble(value.toString());
+            } catch(NumberFormatException nfe) {
+                isNumerical = false;
+                return;
+            }
+        }
+
+        if (realValue < minValue) {
+            minValue = realValue;
+        }
+        if (realValue > maxValue) {
+            maxValue = realValue;
+        }
+    }
+
+    /**
+     * Adds all the items of another summary of the same attribute.
+     */
+    public void addAll(AttributeSummary summary) {
+        items.addAll(summary.items);
+        values.addAll(summary.values);
+        isNumber &= summary.isNumber;
+        isDouble &= summary.isDouble;
+        isInteger &= summary.isInteger;
+        isNumerical &= summary.isNumerical;
+        minValue = Math.min(minValue, summary.minValue);
+        maxValue = Math.max(maxValue, summary.maxValue);
+    }
+
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    /**
+     * @return the items that have a value for the attribute
+     */
+    public Set<Attributable> getItems() {
+        return Collections.unmodifiableSet(items);
+    }
+
+    /**
+     * @return the index of the items (or null if it wasn't given one)
+     */
+    public AttributableIndex getItemIndex() {
+        return itemIndex;
+    }
+
+    /**
+     * @return the distinct values in the order they were found
+     */
+    public Set<Object> getValues() {
+        return Collections.unmodifiableSet(values);
+    }
+
+    /**
+     * @return true if all the values are Number objects
+     */
+    public boolean isNumber() {
+        return isNumber;
+    }
+
+    /**
+     * @return true if all the values are Double objects
+     */
+    public boolean isDouble() {
+        return isDouble;
+    }
+
+    /**
+     * @return true if the values are numbers which should be coloured as categories
+     * (i.e., integers) or aren't numbers at all (as ColourDecorator.isDiscrete).
+     */
+    public boolean isDiscrete() {
+        return !isNumber || isInteger;
+    }
+
+    /**
+     * @return true if all the values can be read as numbers (including booleans
+     * and strings of numbers)
+     */
+    public boolean isNumerical() {
+        return isNumerical;
+    }
+
+    /**
+     * @return the lowest value (if isNumerical) or positive infinity if there are none
+     */
+    public double getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * @return the highest value (if isNumerical) or negative infinity if there are none
+     */
+    public double getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * @return false if the attribute has been changed since this was made (see
+     * attributeChanged)
+     */
+    public boolean isValid() {
+        return version[0] == summaryVersion;
+    }
+
+    /**
+     * @return the values in a column (this is made the first time it is asked for)
+     */
+    public synchronized AttributeColumn getColumn() {
+        if (column == null) {
+            column = new AttributeColumn(this);
+        }
+        return column;
+    }
+
+    /**
+     * @return the items with numbers as values sorted by value (this is made the first
+     * time it is asked for)
+     */
+    public synchronized AttributeRangeIndex getRangeIndex() {
+        if (rangeIndex == null) {
+            rangeIndex = new AttributeRangeIndex(this);
+        }
+        return rangeIndex;
+    }
+
+    /**
+     * @return an estimate of the memory used by the summary and its column and index
+     * if they have been made (not including the values themselves which are shared
+     * with the items, see HeapAccount)
+     */
+    public synchronized long getByteCount() {
+        long bytes = HeapAccount.getMapBytes(items.size());
+        // a LinkedHashSet's entries have two more references
+        bytes += HeapAccount.getMapBytes(values.size()) + ((long)values.size() * HeapAccount.REFERENCE_BYTES * 2);
+        if (column != null) {
+            bytes += column.getByteCount();
+        }
+        if (rangeIndex != null) {
+            bytes += rangeIndex.getByteCount();
+        }
+        return bytes;
+    }
+
+    private static final Map<String, int[]> versions = new HashMap<String, int[]>();
+
+    private final String attributeName;
+    private final AttributableIndex itemIndex;
+    private final int[] version;
+    private final int summaryVersion;
+
+    private final Set<Attributable> items = new HashSet<Attributable>();
+    private final Set<Object> values = new LinkedHashSet<Object>();
+
+    private boolean isNumber = true;
+    private boolean isDouble = true;
+    private boolean isInteger = true;
+    private boolean isNumerical = true;
+
+    private double minValue = Double.POSITIVE_INFINITY;
+    private double maxValue = Double.NEGATIVE_INFINITY;
+
+    private AttributeColumn column = null;
+    private AttributeRangeIndex rangeIndex = null;
+}
@@ -54,6 +54,10 @@ public abstract class ColourDecorator implements Decorator {
         setAttributes(attributeName, items);
     }
 
+    public ColourDecorator(AttributeSummary attribute) {
+        setAttributes(attribute);
+    }
+
     public abstract void setup(String settings);
 
     @Override
@@ -62,7 +66,19 @@ public abstract class ColourDecorator implements Decorator {
     }
 
     public void setAttributes(String attributeName, Set<? extends Attributable> items) {
-        this.attributeName = attributeName;
+        setAttributes(new AttributeSummary(attributeName, items));
+    }
+
+    public void setAttributes(AttributeSummary attribute) {
+        this.attributeName = attribute.getAttributeName();
+        this.attributeSummary = attribute;
+    }
+
+    /**
+     * @return the summary of the values being coloured (or null if there isn't one)
+     */
+    protected AttributeSummary getAttributeSummary() {
+        return attributeSummary;
     }
 
     // Decorator INTERFACE
@@ -163,64 +179,43 @@ public abstract class ColourDecorator implements Decorator {
     }
 
     public static boolean isDiscrete(String attributeName, Set<? extends Attributable> items) {
-        // First collect the set of all attribute values
-        Set<Object> values = new HashSet<Object>();
-        for (Attributable item : items) {
-            Object value = item.getAttribute(attributeName);
-            if (value != null) {
-                values.add(value);
-            }
-        }
-
-        boolean isNumber = true;
-        boolean isInteger = true;
-
-        for (Object value : values) {
-            if (value instanceof Number) {
-                if (((Number)value).doubleValue() != ((Number)value).intValue()) {
-                    isInteger = false;
-                }
-            } else {
-                isNumber = false;
-            }
-        }
-
-        if (isNumber && !isInteger) return false;
-
-        return true;
+        return new AttributeSummary(attributeName, items).isDiscrete();
     }
 
     public static boolean isNumerical(String attributeName, Set<? extends Attributable> items) {
-        // First collect the set of all attribute values
-        Set<Object> values = new HashSet<Object>();
-        for (Attributable item : items) {
-            Object value = item.getAttribute(attributeName);
-            if (value != null) {
-                values.add(value);
-            }
-        }
-
-        boolean isNumber = true;
-
-        for (Object value : values) {
-            if (!(value instanceof Number)) {
-                isNumber = false;
-            }
-        }
-
-        return isNumber;
+        return new AttributeSummary(attributeName, items).isNumber();
     }
 
     // Private methods
     private void setAttributableItem(Attributable item, Attributable fallbackItem) {
-        Object value = item.getAttribute(attributeName);
+        // if possible the value is read from the column of the summary, otherwise
+        // (i.e., if it isn't in the column) from the item itself.
+        AttributeColumn column = null;
+        AttributeSummary summary = getAttributeSummary();
+        if (summary != null && summary.isValid()) {
+            column = summary.getColumn();
+        }
+
+        Object value = null;
+        int index = (column != null ? column.getIndex(item) : -1);
+        if (index == -1) {
+            value = item.getAttribute(attributeName);
 
-        if (value == null && fallbackItem != null) {
-            value = fallbackItem.getAttribute(attributeName);
+            if (value == null && fallbackItem != null) {
+                index = (column != null ? column.getIndex(fallbackItem) : -1);
+                if (index == -1) {
+                    value = fallbackItem.getAttribute(attributeName);
+                }
+            }
         }
 
         paint = null;
 
+        if (index != -1) {
+            setTableColours(column, index);
+            return;
+        }
+
         Color colour = getColourForValue(value);
         if (colour != null) {
             paint = colour;
@@ -231,13 +226,102 @@ public abstract class ColourDecorator implements Decorator {
         }
     }
 
+    /**
+     * Sets the paints from a table of the colours of the items in the column (as
+     * packed ARGB values). Each item's colours are worked out the first time it is
+     * painted and the table is thrown away when the column or the colours change.
+     */
+    private void setTableColours(AttributeColumn column, int index) {
+        final int version = getColoursVersion();
+        if (column != tableColumn || version != tableVersion) {
+            tableColours = new int[column.size()];
+            tableFillColours = new int[column.size()];
+            tableStates = new byte[column.size()];
+            tableColumn = column;
+            tableVersion = version;
+        }
+
+        if (tableStates[index] == UNRESOLVED) {
+            Color colour = getColourForIndex(column, index);
+            if (colour != null) {
+                tableColours[index] = colour.getRGB();
+                tableFillColours[index] = getLighterColour(colour).getRGB();
+                tableStates[index] = COLOURED;
+            } else {
+                tableStates[index] = UNCOLOURED;
+            }
+        }
+
+        if (tableStates[index] == COLOURED) {
+            paint = getTableColour(tableColours[index], false);
+            fillPaint = getTableColour(tableFillColours[index], true);
+        } else {
+            paint = null;
+            fillPaint = null;
+        }
+    }
+
+    /**
+     * Neighbouring items often have the same colour so the last colours made
+     * are kept.
+     */
+    private Color getTableColour(int argb, boolean isFill) {
+        if (isFill) {
+            if (lastFillColour == null || lastFillColour.getRGB() != argb) {
+                lastFillColour = new Color(argb, true);
+            }
+            return lastFillColour;
+        }
+        if (lastColour == null || lastColour.getRGB() != argb) {
+            lastColour = new Color(argb, true);
+        }
+        return lastColour;
+    }
+
+    /**
+     * This should be called by the subclasses when anything that changes the colours
+     * of the values is changed.
+     */
+    protected void coloursChanged() {
+        coloursVersion++;
+    }
+
+    /**
+     * @return a number that changes whenever the colours of the values change
+     */
+    protected int getColoursVersion() {
+        return coloursVersion;
+    }
+
     protected abstract Color getColourForValue(Object value);
 
+    /**
+     * Get the colour for a value in a column. The subclasses can override this to
+     * avoid boxing the value.
+     */
+    protected Color getColourForIndex(AttributeColumn column, int index) {
+        return getColourForValue(column.getValue(index));
+    }
+
     protected Color getLighterColour(Color color) {
         return new Color(color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha() / 2);
     }
 
     private String attributeName = null;
+    private AttributeSummary attributeSummary = null;
+
+    private int coloursVersion = 0;
+    private AttributeColumn tableColumn = null;
+    private int tableVersion = 0;
+    private int[] tableColours = null;
+    private int[] tableFillColours = null;
+    private byte[] tableStates = null;
+    private Color lastColour = null;
+    private Color lastFillColour = null;
+
+    private static final byte UNRESOLVED = 0;
+    private static final byte COLOURED = 1;
+    private static final byte UNCOLOURED = 2;
 
     protected Paint paint = null;
     protected Paint fillPaint = null;
@@ -20,11 +20,9 @@
 
 package figtree.treeviewer.decorators;
 
-import jebl.util.Attributable;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
-import java.util.Set;
 
 /**
  * This decorator takes an attribute name and a set of attibutable Objects. It
@@ -51,9 +49,9 @@ public abstract class ContinuousColourDecorator extends ColourDecorator {
         this.continuousScale = continuousScale;
     }
 
-    public void setAttributes(String attributeName, Set<? extends Attributable> items) {
-        super.setAttributes(attributeName, items);
-        continuousScale.setAttributes(attributeName, items);
+    public void setAttributes(AttributeSummary attribute) {
+        super.setAttributes(attribute);
+        continuousScale.setAttributes(attribute);
     }
 
     public ContinuousScale getContinuousScale() {
@@ -62,6 +60,12 @@ public abstract class ContinuousColourDecorator extends ColourDecorator {
 
     public void setContinuousScale(ContinuousScale continuousScale) {
         this.continuousScale = continuousScale;
+        coloursChanged();
+    }
+
+    @Override
+    protected AttributeSummary getAttributeSummary() {
+        return continuousScale.getAttributeSummary();
     }
 
     @Override
@@ -69,8 +73,29 @@ public abstract class ContinuousColourDecorator extends ColourDecorator {
         return getColourForScaledValue(continuousScale.getValue(value));
     }
 
+    @Override
+    protected int getColoursVersion() {
+        // the colours change if the scale is changed (or replaced by another scale,
+        // which may have any version)
+        if (continuousScale != lastScale || continuousScale.getVersion() != lastScaleVersion) {
+            lastScale = continuousScale;
+            lastScaleVersion = continuousScale.getVersion();
+            coloursChanged();
+        }
+        return super.getColoursVersion();
+    }
+
+    @Override
+    protected Color getColourForIndex(AttributeColumn column, int index) {
+        return getColourForScaledValue(continuousScale.scaleValue(column.getNumber(index)));
+    }
+
     // Private methods
     protected abstract Color getColourForScaledValue(double value);
 
     private ContinuousScale continuousScale;
+
+    // the scale (and its version) when the colours were last asked for
+    private ContinuousScale lastScale = null;
+    private int lastScaleVersion = 0;
 }
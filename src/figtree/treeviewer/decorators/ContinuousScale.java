@@ -23,7 +23,6 @@ package figtree.treeviewer.decorators;
 import jebl.util.Attributable;
 
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * @author Andrew Rambaut
@@ -83,56 +82,30 @@ public class ContinuousScale {
         setAttributes(attributeName, items);
     }
 
+    public ContinuousScale(AttributeSummary attribute) {
+        this();
+        setAttributes(attribute);
+    }
+
     public void setAttributes(String attributeName, Set<? extends Attributable> items) {
-        this.attributeName = attributeName;
+        setAttributes(new AttributeSummary(attributeName, items));
+    }
 
-        // First collect the set of all attribute values
-        Set<Object> values = new TreeSet<Object>();
+    public void setAttributes(AttributeSummary attribute) {
+        this.attributeName = attribute.getAttributeName();
+        this.attributeSummary = attribute;
+        version++;
 
-        boolean isNumber = true;
+        if (!attribute.isNumerical()) {
+            throw new NumberFormatException("One or more values for this attribute are not numbers");
+        }
 
         // Find the range of numbers
-        for (Attributable item : items) {
-            Object value = item.getAttribute(attributeName);
-            if (value != null) {
-
-                double realValue = -1.0;
-
-                if (value instanceof Boolean) {
-                    realValue = ((Boolean)value ? 1 : 0);
-                } else if (value instanceof Number) {
-                    realValue = ((Number)value).doubleValue();
-                } else if (value instanceof String) {
-                    // it is a string but it could still code for
-                    // a boolean, integer or real
-                    if (value.toString().equalsIgnoreCase("true")) {
-                        realValue = 1;
-                    } else if (value.toString().equalsIgnoreCase("false")) {
-                        realValue = 0;
-                    } else {
-                        try {
-                            realValue = Double.parseDouble(value.toString());
-                        } catch(NumberFormatException nfe) {
-                            isNumber = false;
-                        }
-                    }
-                }
-
-                if (isNumber) {
-                    if (realValue < minValue) {
-                        minValue = realValue;
-                    }
-                    if (realValue > maxValue) {
-                        maxValue = realValue;
-                    }
-
-                }
-                values.add(realValue);
-            }
+        if (attribute.getMinValue() < minValue) {
+            minValue = attribute.getMinValue();
         }
-
-        if (!isNumber) {
-            throw new NumberFormatException("One or more values for this attribute are not numbers");
+        if (attribute.getMaxValue() > maxValue) {
+            maxValue = attribute.getMaxValue();
         }
 
         if (normalize && minValue < 0 && maxValue > 0) {
@@ -150,6 +123,13 @@ public class ContinuousScale {
     }
 
     public double getValue(Attributable item) {
+        if (attributeSummary != null && attributeSummary.isValid()) {
+            AttributeColumn column = attributeSummary.getColumn();
+            int index = column.getIndex(item);
+            if (index != -1) {
+                return scaleValue(column.getNumber(index));
+            }
+        }
         return getValue(item.getAttribute(attributeName));
     }
 
@@ -189,12 +169,27 @@ public class ContinuousScale {
         return attributeName;
     }
 
+    /**
+     * @return a number that changes whenever the scale is changed
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the summary of the values being scaled (or null if it was set up from settings)
+     */
+    public AttributeSummary getAttributeSummary() {
+        return attributeSummary;
+    }
+
     public boolean isNormalize() {
         return normalize;
     }
 
     public void setNormalize(boolean normalize) {
         this.normalize = normalize;
+        version++;
     }
 
     public boolean isLogarithm() {
@@ -203,6 +198,7 @@ public class ContinuousScale {
 
     public void setLogarithm(boolean logarithm) {
         this.logarithm = logarithm;
+        version++;
     }
 
     public double getLowerRange() {
@@ -211,6 +207,7 @@ public class ContinuousScale {
 
     public void setLowerRange(double lowerRange) {
         this.lowerRange = lowerRange;
+        version++;
     }
 
     public double getUpperRange() {
@@ -219,6 +216,7 @@ public class ContinuousScale {
 
     public void setUpperRange(double upperRange) {
         this.upperRange = upperRange;
+        version++;
     }
 
     public double getMinValue() {
@@ -259,7 +257,10 @@ public class ContinuousScale {
     private double upperRange;
 
     private String attributeName = null;
+    private AttributeSummary attributeSummary = null;
     private double minValue = Double.MAX_VALUE;
     private double maxValue = Double.MIN_VALUE;
 
+    private int version = 0;
+
 }
@@ -76,7 +76,7 @@ public class DiscreteColourDecorator extends ColourDecorator {
     };
 
     public DiscreteColourDecorator() {
-        super(null);
+        super((String)null);
         colours = DEFAULT_PAINTS;
     }
 
@@ -88,26 +88,27 @@ public class DiscreteColourDecorator extends ColourDecorator {
         super(attributeName, items);
     }
 
+    public DiscreteColourDecorator(AttributeSummary attribute) {
+        super(attribute);
+    }
+
     @Override
     public void setup(String settings) {
         throw new UnsupportedOperationException("setup from string not implemented");
     }
 
-    public void setAttributes(String attributeName, Set<? extends Attributable> items) {
-        super.setAttributes(attributeName, items);
+    public void setAttributes(AttributeSummary attribute) {
+        super.setAttributes(attribute);
 
-        // First collect the set of all attribute values
+        // First sort the set of all attribute values
         Set<Object> sortedValues = new TreeSet<Object>();
         Set<Object> unsortedValues = new HashSet<Object>();
 
-        for (Attributable item : items) {
-            Object value = item.getAttribute(attributeName);
-            if (value != null) {
-                if (value instanceof Comparable) {
-                    sortedValues.add(value);
-                } else {
-                    unsortedValues.add(value);
-                }
+        for (Object value : attribute.getValues()) {
+            if (value instanceof Comparable) {
+                sortedValues.add(value);
+            } else {
+                unsortedValues.add(value);
             }
         }
 
@@ -156,6 +157,8 @@ public class DiscreteColourDecorator extends ColourDecorator {
         }
 
         orderMap = new TreeMap<Object, Integer>();
+        codeColoursColumn = null;
+        coloursChanged();
 
         this.colours = colours;
 
@@ -170,6 +173,26 @@ public class DiscreteColourDecorator extends ColourDecorator {
 
     }
 
+    @Override
+    protected Color getColourForIndex(AttributeColumn column, int index) {
+        if (column.isNumeric()) {
+            return super.getColourForIndex(column, index);
+        }
+
+        // the colour of each value in the column is only looked up once
+        if (column != codeColoursColumn) {
+            codeColours = new Color[column.getCodeCount()];
+            codeColoured = new boolean[column.getCodeCount()];
+            codeColoursColumn = column;
+        }
+        final int code = column.getCode(index);
+        if (!codeColoured[code]) {
+            codeColours[code] = getColourForValue(column.getCodeValue(code));
+            codeColoured[code] = true;
+        }
+        return codeColours[code];
+    }
+
     protected Color getColourForValue(Object value) {
         int index = -1;
 
@@ -213,6 +236,10 @@ public class DiscreteColourDecorator extends ColourDecorator {
     private Map<Object, Integer> orderMap;
     private Color[] colours;
 
+    private AttributeColumn codeColoursColumn = null;
+    private Color[] codeColours = null;
+    private boolean[] codeColoured = null;
+
     private boolean hasReorderedValues = false;
 
 }
@@ -42,7 +42,7 @@ import java.awt.*;
 public class DiversityContinuousColourDecorator extends ColourDecorator {
 
     public DiversityContinuousColourDecorator() throws NumberFormatException {
-        super(null);
+        super((String)null);
     }
 
     public DiversityContinuousColourDecorator(String attribute, String settings) {
@@ -74,6 +74,7 @@ public class HSBContinuousColourDecorator extends ContinuousColourDecorator {
             brightnessLower = Float.parseFloat(parts2[4]);
             brightnessUpper = Float.parseFloat(parts2[5]);
             reverseHue = Boolean.parseBoolean(parts2[6]);
+            coloursChanged();
         } catch (NumberFormatException nfe) {
             throw new IllegalArgumentException("HSBContinuousColourDecorator settings string not in correct format");
         } catch (IllegalArgumentException iae) {
@@ -92,6 +93,7 @@ public class HSBContinuousColourDecorator extends ContinuousColourDecorator {
         this.brightnessUpper = brightnessUpper;
         this.brightnessLower = brightnessLower;
         this.reverseHue = reverseHue;
+        coloursChanged();
     }
 
     protected Color getColourForScaledValue(double value) {
@@ -124,6 +126,7 @@ public class HSBContinuousColourDecorator extends ContinuousColourDecorator {
 
     public void setHueUpper(float hueUpper) {
         this.hueUpper = hueUpper;
+        coloursChanged();
     }
 
     public float getHueLower() {
@@ -132,6 +135,7 @@ public class HSBContinuousColourDecorator extends ContinuousColourDecorator {
 
     public void setHueLower(float hueLower) {
         this.hueLower = hueLower;
+        coloursChanged();
     }
 
     public float getSaturationUpper() {
@@ -140,6 +144,7 @@ public class HSBContinuousColourDecorator extends ContinuousColourDecorator {
 
     public void setSaturationUpper(float saturationUpper) {
         this.saturationUpper = saturationUpper;
+        coloursChanged();
     }
 
     public float getSaturationLower() {
@@ -148,6 +153,7 @@ public class HSBContinuousColourDecorator extends ContinuousColourDecorator {
 
     public void setSaturationLower(float saturationLower) {
         this.saturationLower = saturationLower;
+        coloursChanged();
     }
 
     public float getBrightnessUpper() {
@@ -156,6 +162,7 @@ public class HSBContinuousColourDecorator extends ContinuousColourDecorator {
 
     public void setBrightnessUpper(float brightnessUpper) {
         this.brightnessUpper = brightnessUpper;
+        coloursChanged();
     }
 
     public float getBrightnessLower() {
@@ -164,6 +171,7 @@ public class HSBContinuousColourDecorator extends ContinuousColourDecorator {
 
     public void setBrightnessLower(float brightnessLower) {
         this.brightnessLower = brightnessLower;
+        coloursChanged();
     }
 
     public boolean isReverseHue() {
@@ -172,6 +180,7 @@ public class HSBContinuousColourDecorator extends ContinuousColourDecorator {
 
     public void setReverseHue(boolean reverseHue) {
         this.reverseHue = reverseHue;
+        coloursChanged();
     }
 
     /**
@@ -62,6 +62,11 @@ public class HSBDiscreteColourDecorator extends DiscreteColourDecorator {
         setupColours();
     }
 
+    public HSBDiscreteColourDecorator(AttributeSummary attribute) {
+        super(attribute);
+        setupColours();
+    }
+
     /**
      * Set up from a settings string
      * @param settings
@@ -73,6 +73,7 @@ public class InterpolatingColourDecorator extends ContinuousColourDecorator {
         this.color2 = new float[4];
         color2.getRGBComponents(this.color2);
         this.color3 = null;
+        coloursChanged();
     }
 
     public void setColours(Color color1, Color color2, Color color3) {
@@ -82,6 +83,7 @@ public class InterpolatingColourDecorator extends ContinuousColourDecorator {
         color2.getRGBComponents(this.color2);
         this.color3 = new float[4];
         color3.getRGBComponents(this.color3);
+        coloursChanged();
     }
 
     public Color getColor1() {
@@ -20,13 +20,10 @@
 
 package figtree.treeviewer.painters;
 
+import figtree.treeviewer.AttributeCatalogue;
 import figtree.treeviewer.TreeViewer;
 import figtree.treeviewer.TreeViewerListener;
-import figtree.treeviewer.decorators.ColourDecorator;
-import jebl.evolution.graphs.Node;
-import jebl.evolution.taxa.Taxon;
 import jebl.evolution.trees.Tree;
-import jebl.util.Attributable;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
@@ -96,7 +93,7 @@ public class AttributeComboHelper {
 
         treeViewer.addTreeViewerListener(new TreeViewerListener() {
             public void treeChanged() {
-                List<Tree> trees = treeViewer.getTrees();
+                List<Tree> trees = treeViewer.getLoadedTrees();
 
                 Object selected = attributeComboBox.getSelectedItem();
 
@@ -152,37 +149,16 @@ public class AttributeComboHelper {
         Set<String> nodeAttributes = new LinkedHashSet<>();
         if (trees != null) {
             for (Tree tree : trees) {
+                AttributeCatalogue catalogue = AttributeCatalogue.getCatalogue(tree);
                 if (intent == LabelPainter.PainterIntent.TIP) {
-                    for (Node node : tree.getExternalNodes()) {
-                        nodeAttributes.addAll(node.getAttributeNames());
-                    }
-                    for (Taxon taxon : tree.getTaxa()) {
-                        nodeAttributes.addAll(taxon.getAttributeNames());
-                    }
+                    nodeAttributes.addAll(catalogue.getExternalNodeAttributeNames());
+                    nodeAttributes.addAll(catalogue.getTaxonAttributeNames());
                 } else if (intent == LabelPainter.PainterIntent.NODE) {
-                    for (Node node : tree.getInternalNodes()) {
-                        nodeAttributes.addAll(node.getAttributeNames());
-                    }
+                    nodeAttributes.addAll(catalogue.getInternalNodeAttributeNames());
                 } else if (intent == LabelPainter.PainterIntent.RANGE) {
-                    for (Node node : tree.getInternalNodes()) {
-                        for (String name : node.getAttributeNames()) {
-                            Object attr = node.getAttribute(name);
-                            if (attr instanceof Object[]) {
-                                Object[] array = (Object[])attr;
-                                if (array.length == 2 &&
-                                        array[0] instanceof Number &&
-                                        array[1] instanceof Number) {
-                                    nodeAttributes.add(name);
-                                }
-                            }
-                        }
-                    }
+                    nodeAttributes.addAll(catalogue.getRangeAttributeNames());
                 } else {
-                    for (Node node : tree.getNodes()) {
-                        for (String key : node.getAttributeMap().keySet()) {
-                            nodeAttributes.add(key);
-                        }
-                    }
+                    nodeAttributes.addAll(catalogue.getNodeAttributeNames());
                 }
             }
         }
@@ -192,7 +168,7 @@ public class AttributeComboHelper {
             for (String nodeAttributeName : nodeAttributes) {
                 boolean isNumerical = true;
                 for (Tree tree : trees) {
-                    if (!ColourDecorator.isNumerical(nodeAttributeName, tree.getNodes())) {
+                    if (!AttributeCatalogue.getCatalogue(tree).getNodeAttributeSummary(nodeAttributeName).isNumber()) {
                         isNumerical = false;
                     }
                 }
@@ -246,43 +222,11 @@ public class AttributeComboHelper {
 
     private static void getAttributeNames(List<String> attributeNames, Collection<? extends Tree> trees, final boolean includeLineageColourings) {
         for (Tree tree : trees) {
-            Set<String> attributes = new LinkedHashSet<>();
-
-            for (Attributable item : tree.getNodes()) {
-                for (String name : item.getAttributeNames()) {
-                    if (!name.startsWith("!")) {
-                        Object attr = item.getAttribute(name);
-                        if (!(attr instanceof Object[])) {
-                            attributes.add(name);
-                        } else {
-                            boolean isColouring = true;
-
-                            Object[] array = (Object[])attr;
-                            boolean isIndex = true;
-                            for (Object element : array) {
-                                if (isIndex && !(element instanceof Integer) ||
-                                        !isIndex && !(element instanceof Double)) {
-                                    isColouring = false;
-                                    break;
-                                }
-                                isIndex = !isIndex;
-                            }
-
-                            if (isIndex) {
-                                // a colouring should finish on an index (which means isIndex should be false)...
-                                isColouring = false;
-                            }
-
-                            if (isColouring && includeLineageColourings) {
-                                attributes.add(name + " *");
-                            }
-
-                        }
-                    }
+            for (String name : AttributeCatalogue.getCatalogue(tree).getValueAttributeNames(includeLineageColourings)) {
+                if (!name.startsWith("!")) {
+                    attributeNames.add(name);
                 }
             }
-
-            attributeNames.addAll(attributes);
         }
     }
 
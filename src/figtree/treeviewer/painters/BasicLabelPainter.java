@@ -20,6 +20,8 @@
 
 package figtree.treeviewer.painters;
 
+import figtree.treeviewer.AttributeCatalogue;
+import figtree.treeviewer.HeapAccount;
 import figtree.treeviewer.TimeScale;
 import figtree.treeviewer.TreePane;
 import figtree.treeviewer.decorators.*;
@@ -30,7 +32,10 @@ import jebl.evolution.trees.Tree;
 import jebl.util.Attributable;
 
 import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
 import java.awt.geom.Rectangle2D;
+import java.text.NumberFormat;
 import java.util.*;
 import java.util.List;
 
@@ -39,6 +44,11 @@ import java.util.List;
  * tip, node or branch labels. It can display, taxon names, branch lengths,
  * node heights or other attributeNames of nodes.
  *
+ * The text of each label is kept, with its size and glyphs, so that it isn't
+ * formatted and measured again each time the tree is calibrated and painted. These
+ * are thrown away when the tree, the attribute displayed, its values or the number
+ * format are changed (the sizes and glyphs are remade if the font changes).
+ *
  * @author Andrew Rambaut
  * @version $Id$
  *
@@ -138,22 +148,45 @@ public class BasicLabelPainter extends LabelPainter<Node> {
             }
         }
 
-        Object value = null;
+        // the values are read from the columns of the tree's attributes if they are there
+        if (tree != columnTree || !displayAttribute.equals(columnAttribute) ||
+                !nodeAttributeSummary.isValid() || !taxonAttributeSummary.isValid()) {
+            AttributeCatalogue catalogue = AttributeCatalogue.getCatalogue(tree);
+            nodeAttributeSummary = catalogue.getNodeAttributeSummary(displayAttribute);
+            taxonAttributeSummary = catalogue.getTaxonAttributeSummary(displayAttribute);
+            columnTree = tree;
+            columnAttribute = displayAttribute;
+        }
 
         if (getIntent() == PainterIntent.TIP) {
             Taxon taxon = tree.getTaxon(node);
             if (taxon != null) {
-                value = taxon.getAttribute(displayAttribute);
-            } else {
-                value = node.getAttribute(displayAttribute);
+                AttributeColumn column = taxonAttributeSummary.getColumn();
+                int index = column.getIndex(taxon);
+                if (index != -1) {
+                    return formatValue(column, index);
+                }
+                Object value = taxon.getAttribute(displayAttribute);
+                if (value != null) {
+                    return formatValue(value);
+                }
             }
         }
 
-        if (value == null) {
-            value = node.getAttribute(displayAttribute);
+        AttributeColumn column = nodeAttributeSummary.getColumn();
+        int index = column.getIndex(node);
+        if (index != -1) {
+            return formatValue(column, index);
         }
 
-        return formatValue(value);
+        return formatValue(node.getAttribute(displayAttribute));
+    }
+
+    private String formatValue(AttributeColumn column, int index) {
+        if (column.isNumeric()) {
+            return getNumberFormat().format(column.getNumber(index));
+        }
+        return formatValue(column.getValue(index));
     }
 
     private String formatValue(Object value) {
@@ -183,7 +216,7 @@ public class BasicLabelPainter extends LabelPainter<Node> {
     public Rectangle2D calibrate(Graphics2D g2, Node item) {
         Tree tree = treePane.getTree();
 
-        String label = getLabel(tree, item);
+        CachedLabel label = getCachedLabel(tree, item);
 
         final Font oldFont = g2.getFont();
         if (textDecorator != null) {
@@ -192,27 +225,82 @@ public class BasicLabelPainter extends LabelPainter<Node> {
             g2.setFont(getFont());
         }
 
-        FontMetrics fm = g2.getFontMetrics();
-        preferredHeight = fm.getHeight();
-        preferredWidth = 0;
+        measureLabel(g2, label);
+        preferredHeight = label.height;
+        preferredWidth = label.width;
+        yOffset = label.ascent;
 
-        if (label != null) {
+        g2.setFont(oldFont);
 
-            if (label.startsWith(SOLID_BOX_ENCODED)) {
-                int boxLength = Integer.parseInt(
-                        label.substring(SOLID_BOX_ENCODED.length()));
-                preferredWidth = boxLength;
-            } else {
-                Rectangle2D rect = fm.getStringBounds(label, g2);
-                preferredWidth = rect.getWidth();
+        return new Rectangle2D.Double(0.0, 0.0, preferredWidth, preferredHeight);
+    }
+
+    /**
+     * Gets the label of a node from the cache or makes it.
+     */
+    private CachedLabel getCachedLabel(Tree tree, Node node) {
+        final String versionAttribute = (displayAttribute.equalsIgnoreCase(NAMES) ? "!name" : displayAttribute);
+        final int version = AttributeSummary.getAttributeVersion(versionAttribute);
+        final TimeScale timeScale = treePane.getTimeScale();
+        if (tree != labelTree || !displayAttribute.equals(labelAttribute) || version != labelVersion ||
+                getNumberFormat() != labelNumberFormat || timeScale != labelTimeScale) {
+            labels.clear();
+            labelTree = tree;
+            labelAttribute = displayAttribute;
+            labelVersion = version;
+            labelNumberFormat = getNumberFormat();
+            labelTimeScale = timeScale;
+        }
+
+        CachedLabel label = labels.get(node);
+        if (label == null) {
+            label = new CachedLabel(getLabel(tree, node));
+            labels.put(node, label);
+        } else if (textDecorator != null) {
+            // the font may depend on the item (as getLabel would have set it)
+            if (displayAttribute.equalsIgnoreCase(NAMES)) {
+                if (getIntent() == PainterIntent.TIP && tree.getTaxon(node) != null) {
+                    textDecorator.setItem(tree.getTaxon(node));
+                }
+            } else if (!displayAttribute.equalsIgnoreCase(SOLID_BOX) && tree instanceof RootedTree) {
+                textDecorator.setItem(node);
             }
         }
+        return label;
+    }
 
-        yOffset = (float)fm.getAscent();
+    /**
+     * Measures a label in the current font of the graphics (unless it was measured in
+     * it last time).
+     */
+    private void measureLabel(Graphics2D g2, CachedLabel label) {
+        final Font font = g2.getFont();
+        final FontRenderContext frc = g2.getFontRenderContext();
+        if (font.equals(label.font) &&
+                frc.isAntiAliased() == label.antiAliased &&
+                frc.usesFractionalMetrics() == label.fractionalMetrics) {
+            return;
+        }
 
-        g2.setFont(oldFont);
+        FontMetrics fm = g2.getFontMetrics();
+        label.height = fm.getHeight();
+        label.ascent = (float)fm.getAscent();
+        label.width = 0;
+        label.bounds = null;
+
+        if (label.text != null) {
+            label.bounds = fm.getStringBounds(label.text, g2);
+            if (label.text.startsWith(SOLID_BOX_ENCODED)) {
+                label.width = Integer.parseInt(label.text.substring(SOLID_BOX_ENCODED.length()));
+            } else {
+                label.width = label.bounds.getWidth();
+            }
+        }
 
-        return new Rectangle2D.Double(0.0, 0.0, preferredWidth, preferredHeight);
+        label.font = font;
+        label.antiAliased = frc.isAntiAliased();
+        label.fractionalMetrics = frc.usesFractionalMetrics();
+        label.glyphs = null;
     }
 
     public double getPreferredWidth() {
@@ -235,7 +323,7 @@ public class BasicLabelPainter extends LabelPainter<Node> {
             g2.draw(bounds);
         }
 
-        String label = getLabel(tree, item);
+        CachedLabel label = getCachedLabel(tree, item);
 
         Font oldFont = g2.getFont();
 
@@ -277,9 +365,10 @@ public class BasicLabelPainter extends LabelPainter<Node> {
             g2.setFont(getFont());
         }
 
-        if (label != null) {
+        if (label.text != null) {
 
-            Rectangle2D rect = g2.getFontMetrics().getStringBounds(label, g2);
+            measureLabel(g2, label);
+            Rectangle2D rect = label.bounds;
 
             float xOffset;
             float y = yOffset + (float) bounds.getY();
@@ -300,10 +389,18 @@ public class BasicLabelPainter extends LabelPainter<Node> {
                     throw new IllegalArgumentException("Unrecognized alignment enum option");
             }
 
-            if (label.startsWith(SOLID_BOX_ENCODED)) {
+            if (label.text.startsWith(SOLID_BOX_ENCODED)) {
                 g2.fill(bounds);
+            } else if (treePane.isDrawingOnScreen()) {
+                // the glyphs are kept for the screen but exported graphics get text
+                final FontRenderContext frc = g2.getFontRenderContext();
+                if (label.glyphs == null || !frc.equals(label.glyphContext)) {
+                    label.glyphs = g2.getFont().createGlyphVector(frc, label.text);
+                    label.glyphContext = frc;
+                }
+                g2.drawGlyphVector(label.glyphs, xOffset, y);
             } else {
-                g2.drawString(label, xOffset, y);
+                g2.drawString(label.text, xOffset, y);
             }
         }
 
@@ -324,14 +421,67 @@ public class BasicLabelPainter extends LabelPainter<Node> {
 
     public void setDisplayAttribute(String displayAttribute) {
         this.displayAttribute = displayAttribute;
+        labels.clear();
         firePainterChanged();
     }
 
     public void setBoxSize(int size) {
         boxSize = size;
+        labels.clear();
         firePainterChanged();
     }
 
+    public void setNumberFormat(NumberFormat numberFormat) {
+        // the format may have been changed rather than replaced
+        labels.clear();
+        super.setNumberFormat(numberFormat);
+    }
+
+    /**
+     * @return an estimate of the memory used by the labels kept (see HeapAccount)
+     */
+    public long getByteCount() {
+        long bytes = HeapAccount.getMapBytes(labels.size());
+        for (CachedLabel label : labels.values()) {
+            bytes += HeapAccount.getObjectBytes(48);
+            if (label.text != null) {
+                bytes += HeapAccount.getStringBytes(label.text);
+            }
+            if (label.bounds != null) {
+                bytes += HeapAccount.getObjectBytes(32);
+            }
+            if (label.glyphs != null) {
+                // the glyph codes and positions
+                final int glyphCount = label.glyphs.getNumGlyphs();
+                bytes += HeapAccount.getObjectBytes(64) + HeapAccount.getArrayBytes(glyphCount, 4) +
+                        HeapAccount.getArrayBytes((glyphCount + 1) * 2, 4);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * The text of a label with its size and glyphs in the font it was last drawn in
+     */
+    private static class CachedLabel {
+        CachedLabel(String text) {
+            this.text = text;
+        }
+
+        final String text;
+
+        Font font = null;
+        boolean antiAliased;
+        boolean fractionalMetrics;
+        Rectangle2D bounds;
+        double width;
+        double height;
+        float ascent;
+
+        GlyphVector glyphs = null;
+        FontRenderContext glyphContext = null;
+    }
+
     private double preferredWidth;
     private double preferredHeight;
     private int boxSize = 10;
@@ -344,5 +494,18 @@ public class BasicLabelPainter extends LabelPainter<Node> {
     private Decorator textDecorator = null;
     private Decorator borderDecorator = null;
 
+    private Tree columnTree = null;
+    private String columnAttribute = null;
+    private AttributeSummary nodeAttributeSummary = null;
+    private AttributeSummary taxonAttributeSummary = null;
+
+    // the labels and what they were made for
+    private final Map<Node, CachedLabel> labels = new HashMap<Node, CachedLabel>();
+    private Tree labelTree = null;
+    private String labelAttribute = null;
+    private int labelVersion = 0;
+    private NumberFormat labelNumberFormat = null;
+    private TimeScale labelTimeScale = null;
+
 
 }
@@ -20,8 +20,13 @@
 
 package figtree.treeviewer.treelayouts;
 
+import figtree.treeviewer.PhaseStatistics;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.trees.RootedTree;
+
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 /**
  * @author Andrew Rambaut
@@ -34,17 +39,83 @@ import java.util.Set;
  * $LastChangedRevision$
  */
 public abstract class AbstractTreeLayout implements TreeLayout {
-	private double rootLength = 0.0;
+	private volatile double rootLength = 0.0;
+
+    /**
+     * Brings the cache up to date. If the cache holds a layout of this tree by this
+     * layout, and no settings have changed since, then only the subtrees that have
+     * been invalidated are reconstructed. Otherwise the whole tree is laid out again.
+     * The settings may be changed (on the event dispatch thread) while a layout is
+     * being made on another thread so the generation is read once at the start and
+     * the layout is only marked valid for that.
+     */
+    public void layout(RootedTree tree, TreeLayoutCache cache) {
+        final long startTime = System.nanoTime();
+        final int generation = layoutGeneration;
+        checkCancelled(cache);
+        if (!cache.isLayoutValid(this, tree, generation)) {
+            cache.clear(tree);
+            cache.setRootLength(rootLength);
+            constructLayout(tree, cache);
+        } else if (cache.hasInvalidSubtrees()) {
+            for (Node node : cache.getInvalidSubtrees(tree)) {
+                if (!constructSubtreeLayout(tree, node, cache)) {
+                    // the change has consequences beyond the subtree so start again
+                    cache.clear(tree);
+                    cache.setRootLength(rootLength);
+                    constructLayout(tree, cache);
+                    break;
+                }
+            }
+        } else {
+            // already up to date so there is nothing to time
+            return;
+        }
+        cache.setLayoutValid(this, tree, generation);
+        PhaseStatistics.getInstance().record(PhaseStatistics.Phase.LAYOUT, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Called as each node is constructed so a layout being made on another thread
+     * can be abandoned when it is no longer wanted.
+     * @throws CancellationException if the cache has been cancelled
+     */
+    protected static void checkCancelled(TreeLayoutCache cache) {
+        if (cache.isCancelled()) {
+            throw new CancellationException("tree layout cancelled");
+        }
+    }
+
+    /**
+     * Lay out the entire tree into an empty cache.
+     */
+    protected abstract void constructLayout(RootedTree tree, TreeLayoutCache cache);
+
+    /**
+     * Reconstruct the geometry of the subtree below node (and anything else that
+     * depends on it), reusing the rest of the cache.
+     *
+     * @return false if this can't be done in isolation and a full layout is required
+     */
+    protected boolean constructSubtreeLayout(RootedTree tree, Node node, TreeLayoutCache cache) {
+        return false;
+    }
 
     public double getRootLength() {
 		return rootLength;
 	}
 
 	public void setRootLength(double rootLength) {
-		this.rootLength = rootLength;
-		fireTreeLayoutChanged();
+        if (this.rootLength != rootLength) {
+            this.rootLength = rootLength;
+            fireTreeLayoutChanged();
+        }
 	}
 
+    public int getLayoutGeneration() {
+        return layoutGeneration;
+    }
+
 	public void addTreeLayoutListener(TreeLayoutListener listener) {
         listeners.add(listener);
     }
@@ -54,6 +125,8 @@ public abstract class AbstractTreeLayout implements TreeLayout {
     }
 
 	protected void fireTreeLayoutChanged() {
+        // any change to the settings invalidates every cache laid out before it
+        layoutGeneration++;
         for (TreeLayoutListener listener : listeners) {
             listener.treeLayoutChanged();
         }
@@ -105,6 +178,7 @@ public abstract class AbstractTreeLayout implements TreeLayout {
 	}
 
     private Set<TreeLayoutListener> listeners = new HashSet<TreeLayoutListener>();
+    private volatile int layoutGeneration = 0;
     protected String branchColouringAttribute = null;
     protected String cartoonAttributeName = null;
     protected boolean showingCartoonTipLabels = true;
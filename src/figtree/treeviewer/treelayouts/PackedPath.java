@@ -0,0 +1,174 @@
+/*
+ * PackedPath.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer.treelayouts;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only view of a path held in shared buffers of segment types and coordinates
+ * (see TreeLayoutCache). This behaves as a Path2D with the same segments would.
+ *
+ * @author Andrew Rambaut
+ * @version $Id$
+ */
+final class PackedPath implements Shape {
+
+    PackedPath(byte[] types, int typeOffset, int typeCount,
+               double[] coordinates, int coordinateOffset, int coordinateCount, int windingRule) {
+        this.types = types;
+        this.typeOffset = typeOffset;
+        this.typeCount = typeCount;
+        this.coordinates = coordinates;
+        this.coordinateOffset = coordinateOffset;
+        this.coordinateCount = coordinateCount;
+        this.windingRule = windingRule;
+    }
+
+    static int getCoordinateCount(int segmentType) {
+        switch (segmentType) {
+            case PathIterator.SEG_MOVETO:
+            case PathIterator.SEG_LINETO:
+                return 2;
+            case PathIterator.SEG_QUADTO:
+                return 4;
+            case PathIterator.SEG_CUBICTO:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    public Rectangle getBounds() {
+        return getBounds2D().getBounds();
+    }
+
+    /**
+     * The bounds of all the points and control points of the path (as
+     * Path2D does).
+     */
+    public Rectangle2D getBounds2D() {
+        if (coordinateCount == 0) {
+            return new Rectangle2D.Double();
+        }
+
+        double minX = coordinates[coordinateOffset];
+        double minY = coordinates[coordinateOffset + 1];
+        double maxX = minX;
+        double maxY = minY;
+        for (int i = coordinateOffset + 2; i < coordinateOffset + coordinateCount; i += 2) {
+            final double x = coordinates[i];
+            final double y = coordinates[i + 1];
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    public boolean contains(double x, double y) {
+        return Path2D.contains(getPathIterator(null), x, y);
+    }
+
+    public boolean contains(Point2D p) {
+        return Path2D.contains(getPathIterator(null), p);
+    }
+
+    public boolean intersects(double x, double y, double w, double h) {
+        return Path2D.intersects(getPathIterator(null), x, y, w, h);
+    }
+
+    public boolean intersects(Rectangle2D r) {
+        return Path2D.intersects(getPathIterator(null), r);
+    }
+
+    public boolean contains(double x, double y, double w, double h) {
+        return Path2D.contains(getPathIterator(null), x, y, w, h);
+    }
+
+    public boolean contains(Rectangle2D r) {
+        return Path2D.contains(getPathIterator(null), r);
+    }
+
+    public PathIterator getPathIterator(final AffineTransform at) {
+        return new PathIterator() {
+            public int getWindingRule() {
+                return windingRule;
+            }
+
+            public boolean isDone() {
+                return segment >= typeCount;
+            }
+
+            public void next() {
+                coordinate += getCoordinateCount(types[typeOffset + segment]);
+                segment++;
+            }
+
+            public int currentSegment(float[] coords) {
+                if (isDone()) {
+                    throw new NoSuchElementException("path iterator out of bounds");
+                }
+                final int type = types[typeOffset + segment];
+                final int count = getCoordinateCount(type);
+                if (at != null) {
+                    at.transform(coordinates, coordinateOffset + coordinate, coords, 0, count / 2);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        coords[i] = (float)coordinates[coordinateOffset + coordinate + i];
+                    }
+                }
+                return type;
+            }
+
+            public int currentSegment(double[] coords) {
+                if (isDone()) {
+                    throw new NoSuchElementException("path iterator out of bounds");
+                }
+                final int type = types[typeOffset + segment];
+                final int count = getCoordinateCount(type);
+                if (at != null) {
+                    at.transform(coordinates, coordinateOffset + coordinate, coords, 0, count / 2);
+                } else {
+                    System.arraycopy(coordinates, coordinateOffset + coordinate, coords, 0, count);
+                }
+                return type;
+            }
+
+            private int segment = 0;
+            private int coordinate = 0;
+        };
+    }
+
+    public PathIterator getPathIterator(AffineTransform at, double flatness) {
+        return new FlatteningPathIterator(getPathIterator(at), flatness);
+    }
+
+    private final byte[] types;
+    private final int typeOffset;
+    private final int typeCount;
+    private final double[] coordinates;
+    private final int coordinateOffset;
+    private final int coordinateCount;
+    private final int windingRule;
+}
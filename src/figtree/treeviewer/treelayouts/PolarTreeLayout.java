@@ -59,6 +59,12 @@ public class PolarTreeLayout extends AbstractTreeLayout {
 
     private double maxXPosition;
 
+    // indices into the per-node layout state kept in the cache
+    private static final int STATE_X_PARENT = 0;
+    private static final int STATE_X_POSITION = 1;
+    private static final int STATE_Y_START = 2;
+    private static final int STATE_Y_SPAN = 3;
+    private static final int STATE_Y_NODE = 4;
     public enum TipLabelPosition {
         FLUSH,
         RADIAL,
@@ -159,10 +165,7 @@ public class PolarTreeLayout extends AbstractTreeLayout {
         return (branchColouringAttribute != null);
     }
 
-    public void layout(RootedTree tree, TreeLayoutCache cache) {
-
-        cache.clear();
-
+    protected void constructLayout(RootedTree tree, TreeLayoutCache cache) {
 
         Node root = tree.getRootNode();
         double totalRootLength = (rootLengthProportion * tree.getHeight(root)) * 10.0;
@@ -175,24 +178,90 @@ public class PolarTreeLayout extends AbstractTreeLayout {
         tipCount = tree.getExternalNodes().size();
         yIncrement = 1.0 / tipCount;
 
+        cache.setLayoutState(new double[] { tipCount, yIncrement, maxXPosition });
+
         final Point2D rootPoint = constructNode(tree, root, 0.0, totalRootLength, /*new Area(),*/ cache);
 
 //        constructNodeAreas(tree, root, new Area(), cache);
 
+        constructRootBranch(tree, rootPoint, cache);
+    }
+
+    protected boolean constructSubtreeLayout(RootedTree tree, Node node, TreeLayoutCache cache) {
+
+        // collapsed and cartoon clades are constructed as a whole so start from the
+        // outermost one containing this node
+        for (Node parent = tree.getParent(node); parent != null; parent = tree.getParent(parent)) {
+            if (isCollapsedOrCartoon(tree, parent)) {
+                node = parent;
+            }
+        }
+
+        final double[] layoutState = cache.getLayoutState();
+        final double[] state = cache.getNodeLayoutState(node);
+        if (layoutState == null || state == null) {
+            return false;
+        }
+
+        tipCount = (int)layoutState[0];
+        yIncrement = layoutState[1];
+        maxXPosition = layoutState[2];
+
+        cache.removeSubtree(tree, node);
+
+        yPosition = state[STATE_Y_START];
+        constructNode(tree, node, state[STATE_X_PARENT], state[STATE_X_POSITION], cache);
+
+        if (Math.abs((yPosition - state[STATE_Y_START]) - state[STATE_Y_SPAN]) > yIncrement * 0.5) {
+            // the subtree now occupies a different number of tip positions (i.e., a
+            // clade has been collapsed or expanded) so everything after it moves.
+            return false;
+        }
+
+        // the angle of each ancestor may have moved so reconstruct their branches
+        Point2D nodePoint = null;
+        Node parent = tree.getParent(node);
+        while (parent != null) {
+            final double[] parentState = cache.getNodeLayoutState(parent);
+            nodePoint = constructInternalNode(tree, parent, parentState[STATE_X_POSITION], cache);
+            parentState[STATE_Y_NODE] = nodePoint.getY();
+            parent = tree.getParent(parent);
+        }
+
+        if (nodePoint == null) {
+            // the root itself was reconstructed
+            nodePoint = new Point2D.Double(state[STATE_X_POSITION], cache.getNodeLayoutState(node)[STATE_Y_NODE]);
+        }
+        constructRootBranch(tree, nodePoint, cache);
+
+        return true;
+    }
+
+    private void constructRootBranch(RootedTree tree, Point2D rootPoint, TreeLayoutCache cache) {
         if (showingRootBranch) {
             // construct a root branch line
             final double y = rootPoint.getY();
             Line2D line = new Line2D.Double(transform(0.0, y), transform(rootPoint.getX(), y));
 
             // add the line to the map of branch paths
-            cache.branchPaths.put(root, line);
+            cache.branchPaths.put(tree.getRootNode(), line);
         }
     }
 
+    private boolean isCollapsedOrCartoon(RootedTree tree, Node node) {
+        return !tree.isExternal(node) &&
+                ((collapsedAttributeName != null && node.getAttribute(collapsedAttributeName) != null) ||
+                        (cartoonAttributeName != null && node.getAttribute(cartoonAttributeName) != null));
+    }
+
     private Point2D constructNode(RootedTree tree, Node node, double xParent, double xPosition, /*final Area parentNodeArea,*/ TreeLayoutCache cache) {
 
+        checkCancelled(cache);
+
         Point2D nodePoint;
 
+        final double yStart = yPosition;
+
         if (hilightAttributeName != null && node.getAttribute(hilightAttributeName) != null) {
             constructHilight(tree, node, xParent, xPosition, cache);
         }
@@ -204,11 +273,7 @@ public class PolarTreeLayout extends AbstractTreeLayout {
             } else if (cartoonAttributeName != null && node.getAttribute(cartoonAttributeName) != null) {
                 nodePoint = constructCartoonNode(tree, node, xPosition, cache);
             } else {
-                double yPos = 0.0;
-
                 List<Node> childList = tree.getChildren(node);
-                Node[] children = new Node[childList.size()];
-                Point2D[] childPoints = new Point2D[childList.size()];
 
                 boolean rotate = false;
                 if (node.getAttribute("!rotate") != null &&
@@ -223,40 +288,118 @@ public class PolarTreeLayout extends AbstractTreeLayout {
                     if (rotate) {
                         index = childList.size() - i - 1;
                     }
-                    children[i] = childList.get(index);
+                    Node child = childList.get(index);
 
-                    final double length = tree.getLength(children[i]);
+                    final double length = tree.getLength(child);
 //                    childAreas[i] = new Area();
-                    childPoints[i] = constructNode(tree, children[i], xPosition, xPosition + length, cache);
+                    constructNode(tree, child, xPosition, xPosition + length, cache);
 
 //                    parentNodeArea.add(childAreas[i]);
-
-                    yPos += childPoints[i].getY();
                 }
 
-                // the y-position of the node is the average of the child nodes
-                yPos /= childList.size();
+                nodePoint = constructInternalNode(tree, node, xPosition, cache);
+            }
+        } else {
+
+            nodePoint = new Point2D.Double(xPosition, yPosition);
+            Point2D transformedNodePoint = transform(nodePoint);
+
+            Line2D tipLabelPath;
+
+            if (tipLabelPosition == TipLabelPosition.FLUSH) {
+
+                tipLabelPath = new Line2D.Double(transformedNodePoint, transform(xPosition + 1.0, yPosition));
+
+            } else if (tipLabelPosition == TipLabelPosition.RADIAL) {
+
+                tipLabelPath = new Line2D.Double(transform(maxXPosition, yPosition),
+                        transform(maxXPosition + 1.0, yPosition));
+
+                Line2D calloutPath = new Line2D.Double(transformedNodePoint, transform(maxXPosition, yPosition));
+
+                cache.calloutPaths.put(node, calloutPath);
+
+            } else if (tipLabelPosition == TipLabelPosition.HORIZONTAL) {
+                // this option disabled in getControls (JH)
+                throw new UnsupportedOperationException("Not implemented yet");
+            } else {
+                // this is a bug
+                throw new IllegalArgumentException("Unrecognized enum value");
+            }
+
+            cache.tipLabelPaths.put(node, tipLabelPath);
+
+            Line2D nodeShapePath = new Line2D.Double(
+                    transform(nodePoint.getX(), yPosition),
+                    transform(nodePoint.getX() - 1.0, yPosition));
+            cache.nodeShapePaths.put(node, nodeShapePath);
+
+            yPosition += yIncrement;
+
+            // add the node point to the map of node points
+            cache.nodePoints.put(node, transformedNodePoint);
+        }
+
+        cache.setNodeLayoutState(node, new double[] { xParent, xPosition, yStart, yPosition - yStart, nodePoint.getY() });
+
+        return nodePoint;
+    }
+
+    /**
+     * Construct the point of an internal node and the branches to its children from
+     * the children's layout states which must already be in the cache.
+     *
+     * @return the (untransformed) node point
+     */
+    private Point2D constructInternalNode(RootedTree tree, Node node, double xPosition, TreeLayoutCache cache) {
+        double yPos = 0.0;
+
+        List<Node> childList = tree.getChildren(node);
+        Node[] children = new Node[childList.size()];
+        Point2D[] childPoints = new Point2D[childList.size()];
+
+        boolean rotate = false;
+        if (node.getAttribute("!rotate") != null &&
+                ((Boolean)node.getAttribute("!rotate"))) {
+            rotate = true;
+        }
+
+        for (int i = 0; i < childList.size(); i++) {
+            int index = i;
+            if (rotate) {
+                index = childList.size() - i - 1;
+            }
+            children[i] = childList.get(index);
 
-                nodePoint = new Point2D.Double(xPosition, yPos);
-                Point2D transformedNodePoint = transform(nodePoint);
+            final double[] childState = cache.getNodeLayoutState(children[i]);
+            childPoints[i] = new Point2D.Double(childState[STATE_X_POSITION], childState[STATE_Y_NODE]);
 
-                final double start = getAngle(yPos);
+            yPos += childPoints[i].getY();
+        }
+
+        // the y-position of the node is the average of the child nodes
+        yPos /= childList.size();
+
+        Point2D nodePoint = new Point2D.Double(xPosition, yPos);
+        Point2D transformedNodePoint = transform(nodePoint);
+
+        final double start = getAngle(yPos);
 
 //                GeneralPath nodeAreaPath = new GeneralPath();
 
-                double firstChildAngle = 0;
+        double firstChildAngle = 0;
 
-                for (int i = 0; i < childList.size(); i++) {
-                    int index = i;
-                    if (rotate) {
-                        index = childList.size() - i - 1;
-                    }
+        for (int i = 0; i < childList.size(); i++) {
+            int index = i;
+            if (rotate) {
+                index = childList.size() - i - 1;
+            }
 
-                    GeneralPath branchPath = new GeneralPath();
-                    final Point2D transformedChildPoint = transform(childPoints[i]);
+            GeneralPath branchPath = new GeneralPath();
+            final Point2D transformedChildPoint = transform(childPoints[i]);
 
-                    final Point2D transformedShoulderPoint = transform(
-                            nodePoint.getX(), childPoints[i].getY());
+            final Point2D transformedShoulderPoint = transform(
+                    nodePoint.getX(), childPoints[i].getY());
 
 //                    if (i == 0) {
 //                        nodeAreaPath.moveTo(
@@ -270,56 +413,56 @@ public class PolarTreeLayout extends AbstractTreeLayout {
 //                        firstChildAngle = getAngle(childPoints[i].getY());
 //                    }
 
-                    Object[] colouring = null;
-                    if (branchColouringAttribute != null) {
-                        colouring = (Object[])children[i].getAttribute(branchColouringAttribute);
-                    }
-                    if (colouring != null) {
-                        // If there is a colouring, then we break the path up into
-                        // segments. This should allow use to iterate along the segments
-                        // and colour them as we draw them.
+            Object[] colouring = null;
+            if (branchColouringAttribute != null) {
+                colouring = (Object[])children[i].getAttribute(branchColouringAttribute);
+            }
+            if (colouring != null) {
+                // If there is a colouring, then we break the path up into
+                // segments. This should allow use to iterate along the segments
+                // and colour them as we draw them.
 
-                        float nodeHeight = (float) tree.getHeight(node);
-                        float childHeight = (float) tree.getHeight(children[i]);
+                float nodeHeight = (float) tree.getHeight(node);
+                float childHeight = (float) tree.getHeight(children[i]);
 
-                        double x1 = childPoints[i].getX();
-                        double x0 = nodePoint.getX();
+                double x1 = childPoints[i].getX();
+                double x0 = nodePoint.getX();
 
-                        branchPath.moveTo(
-                                (float) transformedChildPoint.getX(),
-                                (float) transformedChildPoint.getY());
+                branchPath.moveTo(
+                        (float) transformedChildPoint.getX(),
+                        (float) transformedChildPoint.getY());
 
-                        float x = (float)x1;
-                        for (int j = 0; j < colouring.length - 1; j+=2) {
+                float x = (float)x1;
+                for (int j = 0; j < colouring.length - 1; j+=2) {
 //                            double height = ((Number)colouring[j+1]).doubleValue();
 //                            double p = (height - childHeight) / (nodeHeight - childHeight);
-                            float interval = ((Number)colouring[j+1]).floatValue();
-                            float p = interval / (nodeHeight - childHeight);
-                            x -= ((x1 - x0) * p);
-                            final Point2D transformedPoint = transform(x, childPoints[index].getY());
-                            branchPath.lineTo(
-                                    (float) transformedPoint.getX(),
-                                    (float) transformedPoint.getY());
-                        }
-                        branchPath.lineTo(
-                                (float) transformedShoulderPoint.getX(),
-                                (float) transformedShoulderPoint.getY());
-
-                    } else {
-                        branchPath.moveTo(
-                                (float) transformedChildPoint.getX(),
-                                (float) transformedChildPoint.getY());
-
-                        branchPath.lineTo(
-                                (float) transformedShoulderPoint.getX(),
-                                (float) transformedShoulderPoint.getY());
-                    }
+                    float interval = ((Number)colouring[j+1]).floatValue();
+                    float p = interval / (nodeHeight - childHeight);
+                    x -= ((x1 - x0) * p);
+                    final Point2D transformedPoint = transform(x, childPoints[index].getY());
+                    branchPath.lineTo(
+                            (float) transformedPoint.getX(),
+                            (float) transformedPoint.getY());
+                }
+                branchPath.lineTo(
+                        (float) transformedShoulderPoint.getX(),
+                        (float) transformedShoulderPoint.getY());
+
+            } else {
+                branchPath.moveTo(
+                        (float) transformedChildPoint.getX(),
+                        (float) transformedChildPoint.getY());
 
-                    final double finish = getAngle(childPoints[index].getY());
+                branchPath.lineTo(
+                        (float) transformedShoulderPoint.getX(),
+                        (float) transformedShoulderPoint.getY());
+            }
+
+            final double finish = getAngle(childPoints[index].getY());
 
-                    Arc2D arc = new Arc2D.Double();
-                    arc.setArcByCenter(0.0, 0.0, nodePoint.getX(), finish, start - finish, Arc2D.OPEN);
-                    branchPath.append(arc, true);
+            Arc2D arc = new Arc2D.Double();
+            arc.setArcByCenter(0.0, 0.0, nodePoint.getX(), finish, start - finish, Arc2D.OPEN);
+            branchPath.append(arc, true);
 
 //                    if (i == childList.size() - 1) {
 //                        Arc2D arc2 = new Arc2D.Double();
@@ -335,17 +478,17 @@ public class PolarTreeLayout extends AbstractTreeLayout {
 //                        nodeAreaPath.append(arc3, true);
 //                    }
 
-                    // add the branchPath to the map of branch paths
-                    cache.branchPaths.put(children[i], branchPath);
+            // add the branchPath to the map of branch paths
+            cache.branchPaths.put(children[i], branchPath);
 
-                    final double x3 = (nodePoint.getX() + childPoints[index].getX()) / 2;
+            final double x3 = (nodePoint.getX() + childPoints[index].getX()) / 2;
 
-                    Line2D branchLabelPath = new Line2D.Double(
-                            transform(x3 - 1.0, childPoints[index].getY()),
-                            transform(x3 + 1.0, childPoints[index].getY()));
+            Line2D branchLabelPath = new Line2D.Double(
+                    transform(x3 - 1.0, childPoints[index].getY()),
+                    transform(x3 + 1.0, childPoints[index].getY()));
 
-                    cache.branchLabelPaths.put(children[i], branchLabelPath);
-                }
+            cache.branchLabelPaths.put(children[i], branchLabelPath);
+        }
 
 //                nodeAreaPath.closePath();
 //
@@ -358,59 +501,18 @@ public class PolarTreeLayout extends AbstractTreeLayout {
 //
 //                cache.nodeAreas.put(node, nodeArea);
 
-                Line2D nodeLabelPath = new Line2D.Double(
-                        transform(nodePoint.getX(), yPos),
-                        transform(nodePoint.getX() + 1.0, yPos));
-                cache.nodeLabelPaths.put(node, nodeLabelPath);
-
-                Line2D nodeShapePath = new Line2D.Double(
-                        transform(nodePoint.getX(), yPos),
-                        transform(nodePoint.getX() - 1.0, yPos));
-                cache.nodeShapePaths.put(node, nodeShapePath);
-
-                // add the node point to the map of node points
-                cache.nodePoints.put(node, transformedNodePoint);
-            }
-        } else {
-
-            nodePoint = new Point2D.Double(xPosition, yPosition);
-            Point2D transformedNodePoint = transform(nodePoint);
-
-            Line2D tipLabelPath;
-
-            if (tipLabelPosition == TipLabelPosition.FLUSH) {
-
-                tipLabelPath = new Line2D.Double(transformedNodePoint, transform(xPosition + 1.0, yPosition));
-
-            } else if (tipLabelPosition == TipLabelPosition.RADIAL) {
-
-                tipLabelPath = new Line2D.Double(transform(maxXPosition, yPosition),
-                        transform(maxXPosition + 1.0, yPosition));
-
-                Line2D calloutPath = new Line2D.Double(transformedNodePoint, transform(maxXPosition, yPosition));
-
-                cache.calloutPaths.put(node, calloutPath);
-
-            } else if (tipLabelPosition == TipLabelPosition.HORIZONTAL) {
-                // this option disabled in getControls (JH)
-                throw new UnsupportedOperationException("Not implemented yet");
-            } else {
-                // this is a bug
-                throw new IllegalArgumentException("Unrecognized enum value");
-            }
-
-            cache.tipLabelPaths.put(node, tipLabelPath);
-
-            Line2D nodeShapePath = new Line2D.Double(
-                    transform(nodePoint.getX(), yPosition),
-                    transform(nodePoint.getX() - 1.0, yPosition));
-            cache.nodeShapePaths.put(node, nodeShapePath);
+        Line2D nodeLabelPath = new Line2D.Double(
+                transform(nodePoint.getX(), yPos),
+                transform(nodePoint.getX() + 1.0, yPos));
+        cache.nodeLabelPaths.put(node, nodeLabelPath);
 
-            yPosition += yIncrement;
+        Line2D nodeShapePath = new Line2D.Double(
+                transform(nodePoint.getX(), yPos),
+                transform(nodePoint.getX() - 1.0, yPos));
+        cache.nodeShapePaths.put(node, nodeShapePath);
 
-            // add the node point to the map of node points
-            cache.nodePoints.put(node, transformedNodePoint);
-        }
+        // add the node point to the map of node points
+        cache.nodePoints.put(node, transformedNodePoint);
 
         return nodePoint;
     }
@@ -95,9 +95,7 @@ public class RadialTreeLayout extends AbstractTreeLayout {
         fireTreeLayoutChanged();
     }
 
-	public void layout(RootedTree tree, TreeLayoutCache cache) {
-        cache.clear();
-
+	protected void constructLayout(RootedTree tree, TreeLayoutCache cache) {
         try {
             final Node root = tree.getRootNode();
 
@@ -111,11 +109,33 @@ public class RadialTreeLayout extends AbstractTreeLayout {
         }
     }
 
+    protected boolean constructSubtreeLayout(RootedTree tree, Node node, TreeLayoutCache cache) {
+        // The position of a node only depends on its ancestors so the subtree can be
+        // reconstructed from the arguments it was originally laid out with.
+        final double[] state = cache.getNodeLayoutState(node);
+        if (state == null) {
+            return false;
+        }
+
+        cache.removeSubtree(tree, node);
+
+        try {
+            constructNode(tree, node, state[0], state[1], state[2], state[3], state[4], cache);
+        } catch (Graph.NoEdgeException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
     private Point2D constructNode(RootedTree tree, Node node,
                                   double angleStart, double angleFinish, double xPosition,
                                   double yPosition, double length,
                                   TreeLayoutCache cache) throws Graph.NoEdgeException {
 
+        checkCancelled(cache);
+
+        cache.setNodeLayoutState(node, new double[] { angleStart, angleFinish, xPosition, yPosition, length });
+
         final double branchAngle = (angleStart + angleFinish) / 2.0;
 
         final double directionX = Math.cos(branchAngle);
@@ -272,8 +292,9 @@ public class RadialTreeLayout extends AbstractTreeLayout {
             constructNodeAreas(tree, child2, childArea2, cache);
 
             GeneralPath nodePath = new GeneralPath();
-            Line2D line1 = (Line2D)cache.getBranchPath(child1);
-            Line2D line2 = (Line2D)cache.getBranchPath(child2);
+            // the branch label paths are the straight lines of the branches
+            Line2D line1 = cache.getBranchLabelPath(child1);
+            Line2D line2 = cache.getBranchLabelPath(child2);
 
             nodePath.moveTo(line2.getX1(), line2.getY1());
             nodePath.lineTo(line2.getX2(), line2.getY2());
@@ -25,6 +25,8 @@ import jebl.evolution.trees.RootedTree;
 
 import java.awt.*;
 import java.awt.geom.*;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -53,6 +55,11 @@ public class RectilinearTreeLayout extends AbstractTreeLayout {
 
     private double maxXPosition;
 
+    // indices into the per-node layout state kept in the cache
+    private static final int STATE_X_PARENT = 0;
+    private static final int STATE_X_POSITION = 1;
+    private static final int STATE_Y_START = 2;
+    private static final int STATE_Y_SPAN = 3;
 
     public AxisType getXAxisType() {
         return AxisType.CONTINUOUS;
@@ -138,9 +145,7 @@ public class RectilinearTreeLayout extends AbstractTreeLayout {
         return (branchColouringAttribute != null && curvature == 0.0);
     }
 
-    public void layout(RootedTree tree, TreeLayoutCache cache) {
-
-        cache.clear();
+    protected void constructLayout(RootedTree tree, TreeLayoutCache cache) {
 
         maxXPosition = 0.0;
 
@@ -149,28 +154,93 @@ public class RectilinearTreeLayout extends AbstractTreeLayout {
         yIncrement = 1.0 / (tipCount - 1);
 
         Node root = tree.getRootNode();
-        setRootLength(rootLengthProportion * tree.getHeight(root));
+        // the root length is kept with the layout in the cache (not set on this
+        // layout as it may be being laid out on another thread)
+        final double rootLength = rootLengthProportion * tree.getHeight(root);
+        cache.setRootLength(rootLength);
 
         maxXPosition = 0.0;
-        getMaxXPosition(tree, root, getRootLength());
+        getMaxXPosition(tree, root, rootLength);
+
+        cache.setLayoutState(new double[] { tipCount, yIncrement, maxXPosition });
+
+        Point2D rootPoint = constructNode(tree, root, 0.0, rootLength, cache);
+
+        constructNodeAreas(tree, root, cache);
+
+        constructRootBranch(tree, rootPoint, cache);
+    }
+
+    protected boolean constructSubtreeLayout(RootedTree tree, Node node, TreeLayoutCache cache) {
+
+        // collapsed and cartoon clades are constructed as a whole so start from the
+        // outermost one containing this node
+        for (Node parent = tree.getParent(node); parent != null; parent = tree.getParent(parent)) {
+            if (isCollapsedOrCartoon(tree, parent)) {
+                node = parent;
+            }
+        }
+
+        final double[] layoutState = cache.getLayoutState();
+        final double[] state = cache.getNodeLayoutState(node);
+        if (layoutState == null || state == null) {
+            return false;
+        }
+
+        tipCount = (int)layoutState[0];
+        yIncrement = layoutState[1];
+        maxXPosition = layoutState[2];
+
+        cache.removeSubtree(tree, node);
+
+        yPosition = state[STATE_Y_START];
+        constructNode(tree, node, state[STATE_X_PARENT], state[STATE_X_POSITION], cache);
+
+        if (Math.abs((yPosition - state[STATE_Y_START]) - state[STATE_Y_SPAN]) > yIncrement * 0.5) {
+            // the subtree now occupies a different number of tip positions (i.e., a
+            // clade has been collapsed or expanded) so everything below it moves.
+            return false;
+        }
+
+        // the y-position of each ancestor may have moved so reconstruct their branches
+        Node parent = tree.getParent(node);
+        while (parent != null) {
+            constructInternalNode(tree, parent, cache.getNodeLayoutState(parent)[STATE_X_POSITION], cache);
+            parent = tree.getParent(parent);
+        }
+
+        final Node root = tree.getRootNode();
+        cache.nodeAreas.clear();
+        constructNodeAreas(tree, root, cache);
 
-        Point2D rootPoint = constructNode(tree, root, 0.0, getRootLength(), cache);
+        constructRootBranch(tree, cache.getNodePoint(root), cache);
 
-        constructNodeAreas(tree, root, new Area(), cache);
+        return true;
+    }
 
+    private void constructRootBranch(RootedTree tree, Point2D rootPoint, TreeLayoutCache cache) {
         // construct a root branch line
         double ty = transformY(rootPoint.getY());
         Line2D line = new Line2D.Double(0.0, ty, rootPoint.getX(), ty);
 
         // add the line to the map of branch paths
-        cache.branchPaths.put(root, line);
+        cache.branchPaths.put(tree.getRootNode(), line);
+    }
 
+    private boolean isCollapsedOrCartoon(RootedTree tree, Node node) {
+        return !tree.isExternal(node) &&
+                ((collapsedAttributeName != null && node.getAttribute(collapsedAttributeName) != null) ||
+                        (cartoonAttributeName != null && node.getAttribute(cartoonAttributeName) != null));
     }
 
     private Point2D constructNode(final RootedTree tree, final Node node, final double xParent, final double xPosition, TreeLayoutCache cache) {
 
+        checkCancelled(cache);
+
         Point2D nodePoint;
 
+        final double yStart = yPosition;
+
         if (hilightAttributeName != null && node.getAttribute(hilightAttributeName) != null) {
             constructHilight(tree, node, xParent, xPosition, cache);
         }
@@ -183,8 +253,6 @@ public class RectilinearTreeLayout extends AbstractTreeLayout {
                 nodePoint = constructCartoonNode(tree, node, xPosition, cache);
             } else {
 
-                double yPos = 0.0;
-
                 List<Node> children = tree.getChildren(node);
 
                 boolean rotate = false;
@@ -200,99 +268,10 @@ public class RectilinearTreeLayout extends AbstractTreeLayout {
                     }
                     Node child = children.get(index);
                     double length = tree.getLength(child);
-                    Point2D childPoint = constructNode(tree, child, xPosition, xPosition + length, cache);
-                    yPos += childPoint.getY();
+                    constructNode(tree, child, xPosition, xPosition + length, cache);
                 }
 
-                // the y-position of the node is the average of the child nodes
-                yPos /= children.size();
-
-                nodePoint = new Point2D.Double(xPosition, yPos);
-                final double ty = transformY(yPos);
-
-                // start point
-                final float x0 = (float) nodePoint.getX();
-                final float y0 = (float) ty;
-
-                for (Node child : children) {
-
-                    Point2D childPoint = cache.nodePoints.get(child);
-
-                    GeneralPath branchPath = new GeneralPath();
-
-                    // end point
-                    final float x1 = (float) childPoint.getX();
-                    final float y1 = (float) transformY(childPoint.getY());
-
-                    if (curvature == 0.0) {
-                        Object[] colouring = null;
-                        if (branchColouringAttribute != null) {
-                            colouring = (Object[])child.getAttribute(branchColouringAttribute);
-                        }
-                        if (colouring != null) {
-                            // If there is a colouring, then we break the path up into
-                            // segments. This should allow us to iterate along the segments
-                            // and colour them as we draw them.
-
-                            float nodeHeight = (float) tree.getHeight(node);
-                            float childHeight = (float) tree.getHeight(child);
-
-                            // to help this, we are going to draw the branch backwards
-                            branchPath.moveTo(x1, y1);
-                            float x = x1;
-                            for (int i = 0; i < colouring.length - 1; i+=2) {
-//								float height = ((Number)colouring[i+1]).floatValue();
-//								float p = (height - childHeight) / (nodeHeight - childHeight);
-                                float interval = ((Number)colouring[i+1]).floatValue();
-                                float p = interval / (nodeHeight - childHeight);
-                                x -= ((x1 - x0) * p);
-                                branchPath.lineTo(x, y1);
-                            }
-                            branchPath.lineTo(x0, y1);
-                            branchPath.lineTo(x0, y0);
-                        } else {
-                            branchPath.moveTo(x1, y1);
-                            branchPath.lineTo(x0, y1);
-                            branchPath.lineTo(x0, y0);
-                        }
-                    } else if (curvature == 1.0) {
-                        // The extreme is to use a triangular look
-                        branchPath.moveTo(x0, y0);
-                        branchPath.lineTo(x1, y1);
-                    } else {
-                        // if the curvature is on then we simply don't
-                        // do tree colouring - I just can't be bothered to
-                        // implement it (and it would probably be confusing anyway).
-                        float x2 = x1 - ((x1 - x0) * (float) (1.0 - curvature));
-                        float y2 = y0 + ((y1 - y0) * (float) (1.0 - curvature));
-
-                        branchPath.moveTo(x1, y1);
-                        branchPath.lineTo(x2, y1);
-                        branchPath.quadTo(x0, y1, x0, y2);
-                        branchPath.lineTo(x0, y0);
-                    }
-
-                    // add the branchPath to the map of branch paths
-                    cache.branchPaths.put(child, branchPath);
-
-                    double x3 = (nodePoint.getX() + childPoint.getX()) / 2;
-                    Line2D branchLabelPath = new Line2D.Double(
-                            x3 - 1.0, y1,
-                            x3 + 1.0, y1);
-
-                    cache.branchLabelPaths.put(child, branchLabelPath);
-                }
-
-                Line2D nodeLabelPath = new Line2D.Double(
-                        nodePoint.getX(), ty,
-                        nodePoint.getX() + 1.0, ty);
-
-                cache.nodeLabelPaths.put(node, nodeLabelPath);
-
-                Line2D nodeShapePath = new Line2D.Double(
-                        nodePoint.getX(), ty,
-                        nodePoint.getX() - 1.0, ty);
-                cache.nodeShapePaths.put(node, nodeShapePath);
+                nodePoint = constructInternalNode(tree, node, xPosition, cache);
             }
         } else {
 
@@ -334,108 +313,320 @@ public class RectilinearTreeLayout extends AbstractTreeLayout {
         // add the node point to the map of node points
         cache.nodePoints.put(node, nodePoint);
 
+        cache.setNodeLayoutState(node, new double[] { xParent, xPosition, yStart, yPosition - yStart });
+
         return nodePoint;
     }
 
-    private void constructNodeAreas(final RootedTree tree, final Node node, final Area parentNodeArea, TreeLayoutCache cache) {
+    /**
+     * Construct the point of an internal node and the branches to its children from
+     * the children's points which must already be in the cache.
+     */
+    private Point2D constructInternalNode(final RootedTree tree, final Node node, final double xPosition, TreeLayoutCache cache) {
 
-        if (!tree.isExternal(node) &&
-                (collapsedAttributeName == null || node.getAttribute(collapsedAttributeName) == null) &&
-                (cartoonAttributeName == null || node.getAttribute(cartoonAttributeName) == null)) {
+        List<Node> children = tree.getChildren(node);
 
-            List<Node> children = tree.getChildren(node);
+        double yPos = 0.0;
+        for (Node child : children) {
+            yPos += cache.getNodeY(child);
+        }
 
-            boolean rotate = false;
-            if (node.getAttribute("!rotate") != null &&
-                    ((Boolean)node.getAttribute("!rotate"))) {
-                rotate = true;
-            }
+        // the y-position of the node is the average of the child nodes
+        yPos /= children.size();
 
-            int index = (rotate ? children.size() - 1 : 0);
-            Node child1 = children.get(index);
-            Area childArea1 = new Area();
+        Point2D nodePoint = new Point2D.Double(xPosition, yPos);
+        final double ty = transformY(yPos);
 
-            constructNodeAreas(tree, child1, childArea1, cache);
+        // start point
+        final float x0 = (float) nodePoint.getX();
+        final float y0 = (float) ty;
 
-            Rectangle2D branchBounds1 = cache.getBranchPath(child1).getBounds2D();
+        for (Node child : children) {
 
-            index = (rotate ? 0 : children.size() - 1);
-            Node child2 = children.get(index);
-            Area childArea2 = new Area();
-            constructNodeAreas(tree, child2, childArea2, cache);
+            Point2D childPoint = cache.nodePoints.get(child);
 
-            Rectangle2D branchBounds2 = cache.getBranchPath(child2).getBounds2D();
+            GeneralPath branchPath = new GeneralPath();
 
-            GeneralPath nodePath = new GeneralPath();
-
-            // start point
-            final float x0 = (float) branchBounds1.getX();
-            final float y0 = (float) (branchBounds1.getY() + branchBounds1.getHeight());
-            nodePath.moveTo(x0, y0);
+            // end point
+            final float x1 = (float) childPoint.getX();
+            final float y1 = (float) transformY(childPoint.getY());
 
             if (curvature == 0.0) {
+                Object[] colouring = null;
+                if (branchColouringAttribute != null) {
+                    colouring = (Object[])child.getAttribute(branchColouringAttribute);
+                }
+                if (colouring != null) {
+                    // If there is a colouring, then we break the path up into
+                    // segments. This should allow us to iterate along the segments
+                    // and colour them as we draw them.
+
+                    float nodeHeight = (float) tree.getHeight(node);
+                    float childHeight = (float) tree.getHeight(child);
+
+                    // to help this, we are going to draw the branch backwards
+                    branchPath.moveTo(x1, y1);
+                    float x = x1;
+                    for (int i = 0; i < colouring.length - 1; i+=2) {
+//								float height = ((Number)colouring[i+1]).floatValue();
+//								float p = (height - childHeight) / (nodeHeight - childHeight);
+                        float interval = ((Number)colouring[i+1]).floatValue();
+                        float p = interval / (nodeHeight - childHeight);
+                        x -= ((x1 - x0) * p);
+                        branchPath.lineTo(x, y1);
+                    }
+                    branchPath.lineTo(x0, y1);
+                    branchPath.lineTo(x0, y0);
+                } else {
+                    branchPath.moveTo(x1, y1);
+                    branchPath.lineTo(x0, y1);
+                    branchPath.lineTo(x0, y0);
+                }
+            } else if (curvature == 1.0) {
+                // The extreme is to use a triangular look
+                branchPath.moveTo(x0, y0);
+                branchPath.lineTo(x1, y1);
+            } else {
+                // if the curvature is on then we simply don't
+                // do tree colouring - I just can't be bothered to
+                // implement it (and it would probably be confusing anyway).
+                float x2 = x1 - ((x1 - x0) * (float) (1.0 - curvature));
+                float y2 = y0 + ((y1 - y0) * (float) (1.0 - curvature));
 
-                final float y1 = (float) branchBounds1.getY();
-                nodePath.lineTo(x0, y1);
+                branchPath.moveTo(x1, y1);
+                branchPath.lineTo(x2, y1);
+                branchPath.quadTo(x0, y1, x0, y2);
+                branchPath.lineTo(x0, y0);
+            }
 
-                nodePath.lineTo((float)maxXPosition, y1);
+            // add the branchPath to the map of branch paths
+            cache.branchPaths.put(child, branchPath);
 
-                final float y2 = (float) (branchBounds2.getY() + branchBounds2.getHeight());
-                nodePath.lineTo((float)maxXPosition, y2);
+            double x3 = (nodePoint.getX() + childPoint.getX()) / 2;
+            Line2D branchLabelPath = new Line2D.Double(
+                    x3 - 1.0, y1,
+                    x3 + 1.0, y1);
 
-                nodePath.lineTo(x0, y2);
+            cache.branchLabelPaths.put(child, branchLabelPath);
+        }
 
-            } else if (curvature == 1.0) {
-                // The extreme is to use a triangular look
+        Line2D nodeLabelPath = new Line2D.Double(
+                nodePoint.getX(), ty,
+                nodePoint.getX() + 1.0, ty);
 
-                final float x1 = (float) (branchBounds1.getX() + branchBounds1.getWidth());
-                final float y1 = (float) branchBounds1.getY();
-                nodePath.lineTo(x1, y1);
+        cache.nodeLabelPaths.put(node, nodeLabelPath);
 
-                nodePath.lineTo((float)maxXPosition, y1);
+        Line2D nodeShapePath = new Line2D.Double(
+                nodePoint.getX(), ty,
+                nodePoint.getX() - 1.0, ty);
+        cache.nodeShapePaths.put(node, nodeShapePath);
 
-                final float y2 = (float) (branchBounds2.getY() + branchBounds2.getHeight());
-                nodePath.lineTo((float)maxXPosition, y2);
+        // add the node point to the map of node points
+        cache.nodePoints.put(node, nodePoint);
 
-                final float x2 = (float) (branchBounds2.getX() + branchBounds2.getWidth());
-                nodePath.lineTo(x2, y2);
-            } else {
-                final float x1 = (float) (branchBounds1.getX() + branchBounds1.getWidth());
-                final float y1 = (float) branchBounds1.getY();
+        return nodePoint;
+    }
 
-                float x2 = x1 - ((x1 - x0) * (float) (1.0 - curvature));
-                float y2 = y0 - ((y0 - y1) * (float) (1.0 - curvature));
+    /**
+     * Construct the background area of each internal node. This is the region between the
+     * node's own outline (the shape of the branches to its first and last children) and the
+     * outlines of its descendants, out to the tips. Rather than building each one by
+     * subtracting the descendants' areas, the boundary is traced directly: the only parts
+     * of a child clade's outline that can bound its parent's area are the chains of first
+     * (or last) children below it, so each outline is visited a bounded number of times
+     * and the whole tree takes linear time.
+     */
+    private void constructNodeAreas(final RootedTree tree, final Node node, TreeLayoutCache cache) {
 
-                nodePath.lineTo(x0, y2);
-                nodePath.quadTo(x0, y1, x2, y1);
+        if (hasNodeArea(tree, node)) {
+            final List<Node> children = getOrderedChildren(tree, node);
 
-                nodePath.lineTo((float)maxXPosition, y1);
+            for (Node child : children) {
+                constructNodeAreas(tree, child, cache);
+            }
+
+            final float maxX = (float)maxXPosition;
+            final Outline outline = new Outline(tree, node, cache);
+
+            GeneralPath nodePath = new GeneralPath();
 
-                final float y3 = (float) (branchBounds2.getY() + branchBounds2.getHeight());
-                nodePath.lineTo((float)maxXPosition, y3);
+            // down the left hand side of the area along the node's own outline
+            nodePath.moveTo(outline.x1, outline.y1);
+            outline.upper(nodePath);
+            outline.lower(nodePath);
 
-                final float x3 = (float) (branchBounds2.getX() + branchBounds2.getWidth());
-                final float x4 = x3 - ((x3 - x0) * (float) (1.0 - curvature));
-                final float y4 = y0 + ((y3 - y0) * (float) (1.0 - curvature));
+            // and back up the right hand side, tracing around the child clades from the last
+            for (int i = children.size() - 1; i >= 0; i--) {
+                final Node child = children.get(i);
+                final boolean isFirst = (i == 0);
+                final boolean isLast = (i == children.size() - 1);
+
+                if (!hasNodeArea(tree, child)) {
+                    if (isLast) {
+                        nodePath.lineTo(maxX, outline.y3);
+                    }
+                    if (isFirst) {
+                        nodePath.lineTo(maxX, outline.y1);
+                    }
+                    continue;
+                }
 
-                nodePath.lineTo(x4, y3);
-                nodePath.quadTo(x0, y3, x0, y4);
+                final Outline childOutline = new Outline(tree, child, cache);
+
+                if (!isLast) {
+                    // the part of the child clade below its own node point
+                    List<Outline> lastChain = getOutlineChain(tree, child, cache, false);
+                    Outline bottom = lastChain.isEmpty() ? childOutline : lastChain.get(lastChain.size() - 1);
+                    nodePath.lineTo(maxX, bottom.y3);
+                    nodePath.lineTo(bottom.x3, bottom.y3);
+                    for (int j = lastChain.size() - 1; j >= 0; j--) {
+                        lastChain.get(j).reverseLower(nodePath);
+                        Outline parent = (j > 0 ? lastChain.get(j - 1) : childOutline);
+                        nodePath.lineTo(parent.x3, parent.y3);
+                    }
+                    childOutline.reverseLower(nodePath);
+                } else {
+                    nodePath.lineTo(childOutline.x0, childOutline.y0);
+                }
+
+                if (!isFirst) {
+                    // the part of the child clade above its own node point
+                    childOutline.reverseUpper(nodePath);
+                    for (Outline firstOutline : getOutlineChain(tree, child, cache, true)) {
+                        nodePath.lineTo(firstOutline.x0, firstOutline.y0);
+                        firstOutline.reverseUpper(nodePath);
+                    }
+                    nodePath.lineTo(maxX, (float)nodePath.getCurrentPoint().getY());
+                }
             }
 
-            nodePath.lineTo(x0, y0);
             nodePath.closePath();
 
-            Area nodeArea = new Area(nodePath);
+            cache.nodeAreas.put(node, nodePath);
+        }
+    }
+
+    /**
+     * Returns the outlines of the chain of first (or last) children below this node for
+     * as long as they have areas of their own.
+     */
+    private List<Outline> getOutlineChain(final RootedTree tree, final Node node, TreeLayoutCache cache, boolean first) {
+        List<Outline> chain = new ArrayList<Outline>();
+        Node child = node;
+        while (true) {
+            List<Node> children = getOrderedChildren(tree, child);
+            child = children.get(first ? 0 : children.size() - 1);
+            if (!hasNodeArea(tree, child)) {
+                return chain;
+            }
+            chain.add(new Outline(tree, child, cache));
+        }
+    }
+
+    private boolean hasNodeArea(final RootedTree tree, final Node node) {
+        return !tree.isExternal(node) &&
+                (collapsedAttributeName == null || node.getAttribute(collapsedAttributeName) == null) &&
+                (cartoonAttributeName == null || node.getAttribute(cartoonAttributeName) == null);
+    }
 
-            parentNodeArea.add(nodeArea);
-            parentNodeArea.add(childArea1);
-            parentNodeArea.add(childArea2);
+    private List<Node> getOrderedChildren(final RootedTree tree, final Node node) {
+        List<Node> children = tree.getChildren(node);
+        if (node.getAttribute("!rotate") != null &&
+                ((Boolean)node.getAttribute("!rotate"))) {
+            children = new ArrayList<Node>(children);
+            Collections.reverse(children);
+        }
+        return children;
+    }
 
-            nodeArea.subtract(childArea1);
-            nodeArea.subtract(childArea2);
+    /**
+     * The outline of an internal node - the shape of the branches from the node to its
+     * first and last children, running from the top (x1, y1) through the node (x0, y0)
+     * to the bottom (x3, y3). This follows the branch shapes for the current curvature.
+     */
+    private final class Outline {
+
+        Outline(final RootedTree tree, final Node node, TreeLayoutCache cache) {
+            final List<Node> children = getOrderedChildren(tree, node);
+            final Node first = children.get(0);
+            final Node last = children.get(children.size() - 1);
+            final double xNode = cache.getNodeX(node);
+
+            // these follow the bounds of the branches so negative branch lengths
+            // are handled as they are when drawing them
+            final float xFirst = (float)Math.max(xNode, cache.getNodeX(first));
+            final float xLast = (float)Math.max(xNode, cache.getNodeX(last));
+
+            x0 = (float)Math.min(xNode, cache.getNodeX(first));
+            y0 = (float)transformY(cache.getNodeY(node));
+            y1 = (float)transformY(cache.getNodeY(first));
+            y3 = (float)transformY(cache.getNodeY(last));
 
-            cache.nodeAreas.put(node, nodeArea);
+            if (curvature == 0.0) {
+                x1 = x0;
+                x3 = x0;
+            } else if (curvature == 1.0) {
+                // The extreme is to use a triangular look
+                x1 = xFirst;
+                x3 = xLast;
+            } else {
+                x1 = xFirst - ((xFirst - x0) * (float) (1.0 - curvature));
+                x3 = xLast - ((xLast - x0) * (float) (1.0 - curvature));
+            }
+            y2 = y0 - ((y0 - y1) * (float) (1.0 - curvature));
+            y4 = y0 + ((y3 - y0) * (float) (1.0 - curvature));
         }
+
+        /**
+         * From the top to the node
+         */
+        void upper(GeneralPath path) {
+            if (isCurved()) {
+                path.quadTo(x0, y1, x0, y2);
+            }
+            path.lineTo(x0, y0);
+        }
+
+        /**
+         * From the node to the bottom
+         */
+        void lower(GeneralPath path) {
+            if (isCurved()) {
+                path.lineTo(x0, y4);
+                path.quadTo(x0, y3, x3, y3);
+            } else {
+                path.lineTo(x3, y3);
+            }
+        }
+
+        /**
+         * From the node back up to the top
+         */
+        void reverseUpper(GeneralPath path) {
+            if (isCurved()) {
+                path.lineTo(x0, y2);
+                path.quadTo(x0, y1, x1, y1);
+            } else {
+                path.lineTo(x1, y1);
+            }
+        }
+
+        /**
+         * From the bottom back up to the node
+         */
+        void reverseLower(GeneralPath path) {
+            if (isCurved()) {
+                path.quadTo(x0, y3, x0, y4);
+            }
+            path.lineTo(x0, y0);
+        }
+
+        private boolean isCurved() {
+            return curvature != 0.0 && curvature != 1.0;
+        }
+
+        final float x0, y0, x1, y1, x3, y3;
+        final float y2, y4;
     }
 
     private Point2D constructCartoonNode(RootedTree tree, Node node, double xPosition, TreeLayoutCache cache) {
@@ -42,6 +42,14 @@ public interface TreeLayout {
         DISCRETE
     }
 
+    /**
+     * Lay out the tree into the cache. If the cache already holds a layout of this
+     * tree then only the subtrees marked with TreeLayoutCache.invalidateSubtree()
+     * need be reconstructed.
+     *
+     * @param tree
+     * @param cache
+     */
     void layout(RootedTree tree, TreeLayoutCache cache);
 
     /**
@@ -82,6 +90,12 @@ public interface TreeLayout {
 
     void setRootLength(double rootLength);
 
+    /**
+     * @return a count of the changes to the settings of this layout. A layout made
+     * before the count last changed is out of date.
+     */
+    int getLayoutGeneration();
+
     /**
      * Return whether this layout is showing a branch colouring
      * @return showing colouring?
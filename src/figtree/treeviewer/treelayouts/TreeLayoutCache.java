@@ -20,15 +20,22 @@
 
 package figtree.treeviewer.treelayouts;
 
+import figtree.treeviewer.HeapAccount;
 import jebl.evolution.graphs.Node;
+import jebl.evolution.trees.RootedTree;
 
 import java.awt.*;
 import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.util.*;
 import java.util.List;
 
 /**
+ * The geometry of a laid out tree. To keep this compact for large trees each node is
+ * given a dense index and the points, label paths and branch paths are held in flat
+ * arrays indexed by it. The maps and shapes returned are views over these arrays.
+ *
  * @author Andrew Rambaut
  * @version $Id$
  *
@@ -43,6 +50,20 @@ public class TreeLayoutCache {
         return nodePoints.get(node);
     }
 
+    /**
+     * @return the x coordinate of the node's point (or NaN if it has none)
+     */
+    public double getNodeX(Node node) {
+        return nodePointMap.getX(node);
+    }
+
+    /**
+     * @return the y coordinate of the node's point (or NaN if it has none)
+     */
+    public double getNodeY(Node node) {
+        return nodePointMap.getY(node);
+    }
+
     public Map<Node, Point2D> getNodePointMap() {
         return nodePoints;
     }
@@ -123,6 +144,20 @@ public class TreeLayoutCache {
         return calloutPaths;
     }
 
+    /**
+     * Clear all the geometry ready for a new layout of the given tree. The node
+     * indices are kept if it is the same tree as last time.
+     */
+    public void clear(RootedTree tree) {
+        clear();
+        if (tree != indexedTree) {
+            nodeIndices.clear();
+            Arrays.fill(indexedNodes, 0, nodeCount, null);
+            nodeCount = 0;
+            indexedTree = tree;
+        }
+    }
+
 	public void clear() {
 		nodePoints.clear();
         branchPaths.clear();
@@ -135,17 +170,599 @@ public class TreeLayoutCache {
         nodeLabelPaths.clear();
         nodeShapePaths.clear();
         calloutPaths.clear();
-}
+        nodeLayoutStates.clear();
+        invalidSubtrees.clear();
+        layoutValid = false;
+    }
+
+    /**
+     * @return an estimate of the memory used by the geometry (see HeapAccount)
+     */
+    public long getByteCount() {
+        long bytes = getMapByteCount(nodePoints) + getMapByteCount(branchPaths) + getMapByteCount(nodeAreas) +
+                getMapByteCount(collapsedShapes) + getMapByteCount(hilightShapes) +
+                getMapByteCount(tipLabelPaths) + getMapByteCount(branchLabelPaths) +
+                getMapByteCount(nodeLabelPaths) + getMapByteCount(nodeShapePaths) + getMapByteCount(calloutPaths);
+
+        bytes += HeapAccount.getMapBytes(nodeLayoutStates.size());
+        for (double[] state : nodeLayoutStates.values()) {
+            bytes += HeapAccount.getArrayBytes(state.length, 8);
+        }
+
+        // the node indices
+        bytes += HeapAccount.getMapBytes(nodeIndices.size()) + ((long)nodeIndices.size() * HeapAccount.BOXED_BYTES);
+        bytes += HeapAccount.getArrayBytes(indexedNodes.length, HeapAccount.REFERENCE_BYTES);
+
+        return bytes;
+    }
+
+    private static long getMapByteCount(Map<Node, ?> map) {
+        if (map instanceof NodeValueMap) {
+            return ((NodeValueMap)map).getByteCount();
+        }
+        long bytes = HeapAccount.getMapBytes(map.size());
+        for (Object value : map.values()) {
+            bytes += (value instanceof Shape ? HeapAccount.getShapeBytes((Shape)value) : HeapAccount.getObjectBytes(16));
+        }
+        return bytes;
+    }
+
+    /**
+     * Discard all the geometry so the next call to TreeLayout.layout() rebuilds
+     * the whole tree.
+     */
+    public void invalidate() {
+        layoutValid = false;
+        invalidSubtrees.clear();
+        invalidationCount++;
+    }
+
+    /**
+     * Mark the geometry of the subtree below (and including) this node as stale.
+     * The next call to TreeLayout.layout() will reconstruct this subtree (and
+     * anything that depends on it) but reuse everything else.
+     *
+     * @param node the root of the subtree that has changed
+     */
+    public void invalidateSubtree(Node node) {
+        if (layoutValid) {
+            invalidSubtrees.add(node);
+        }
+        invalidationCount++;
+    }
+
+    /**
+     * @return the number of times this cache has been invalidated (in whole or in
+     * part). This can be used to tell whether a layout made elsewhere is still current.
+     */
+    public int getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * Ask a layout being constructed in this cache (on another thread) to stop. The
+     * layout will throw a CancellationException and the geometry should be discarded.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if some subtrees have been invalidated since the last layout
+     */
+    public boolean hasInvalidSubtrees() {
+        return !invalidSubtrees.isEmpty();
+    }
+
+    /**
+     * Returns the invalidated subtrees, excluding any that are contained within
+     * another invalidated subtree.
+     *
+     * @param tree the tree being laid out
+     * @return the list of subtree roots
+     */
+    public List<Node> getInvalidSubtrees(RootedTree tree) {
+        List<Node> subtrees = new ArrayList<Node>();
+        for (Node node : invalidSubtrees) {
+            boolean nested = false;
+            Node parent = tree.getParent(node);
+            while (parent != null && !nested) {
+                nested = invalidSubtrees.contains(parent);
+                parent = tree.getParent(parent);
+            }
+            if (!nested) {
+                subtrees.add(node);
+            }
+        }
+        return subtrees;
+    }
+
+    /**
+     * Is the geometry in this cache an up to date layout of the given tree by
+     * the given layout (apart from any invalidated subtrees)?
+     */
+    public boolean isLayoutValid(TreeLayout layout, RootedTree tree) {
+        return layoutValid &&
+                this.layout == layout &&
+                this.layoutTree == tree;
+    }
 
-    protected Map<Node, Point2D> nodePoints = new HashMap<Node, Point2D>();
-    protected Map<Node, Shape> branchPaths = new HashMap<Node, Shape>();
-    protected Map<Node, Shape> nodeAreas = new HashMap<Node, Shape>();
+    /**
+     * As above but also checking the generation of the layout's settings.
+     */
+    public boolean isLayoutValid(TreeLayout layout, RootedTree tree, int layoutGeneration) {
+        return layoutValid &&
+                this.layout == layout &&
+                this.layoutTree == tree &&
+                this.layoutGeneration == layoutGeneration;
+    }
+
+    public void setLayoutValid(TreeLayout layout, RootedTree tree, int layoutGeneration) {
+        this.layout = layout;
+        this.layoutTree = tree;
+        this.layoutGeneration = layoutGeneration;
+        invalidSubtrees.clear();
+        layoutValid = true;
+    }
+
+    /**
+     * Remove all the geometry for the nodes in the subtree below node. The
+     * branch path and branch label path of the node itself are left as these
+     * belong to the parent.
+     */
+    public void removeSubtree(RootedTree tree, Node node) {
+        nodePoints.remove(node);
+        nodeAreas.remove(node);
+        collapsedShapes.remove(node);
+        if (hilightShapes.remove(node) != null) {
+            hilightNodes.remove(node);
+        }
+        tipLabelPaths.remove(node);
+        nodeLabelPaths.remove(node);
+        nodeShapePaths.remove(node);
+        calloutPaths.remove(node);
+        nodeLayoutStates.remove(node);
+
+        if (!tree.isExternal(node)) {
+            for (Node child : tree.getChildren(node)) {
+                branchPaths.remove(child);
+                branchLabelPaths.remove(child);
+                removeSubtree(tree, child);
+            }
+        }
+    }
+
+    public double[] getNodeLayoutState(Node node) {
+        return nodeLayoutStates.get(node);
+    }
+
+    public void setNodeLayoutState(Node node, double[] state) {
+        nodeLayoutStates.put(node, state);
+    }
+
+    /**
+     * @return the length of the root branch in this layout (this may be set by the
+     * layout as a proportion of the tree's height)
+     */
+    public double getRootLength() {
+        return rootLength;
+    }
+
+    public void setRootLength(double rootLength) {
+        this.rootLength = rootLength;
+    }
+
+    public double[] getLayoutState() {
+        return layoutState;
+    }
+
+    public void setLayoutState(double[] layoutState) {
+        this.layoutState = layoutState;
+    }
+
+    private final NodePointMap nodePointMap = new NodePointMap();
+
+    protected Map<Node, Point2D> nodePoints = nodePointMap;
+    protected Map<Node, Shape> branchPaths = new NodePathMap();
+    protected Map<Node, Shape> nodeAreas = new NodePathMap();
     protected Map<Node, Shape> collapsedShapes = new HashMap<Node, Shape>();
 	protected List<Node> hilightNodes = new ArrayList<Node>();
 	protected Map<Node, Shape> hilightShapes = new HashMap<Node, Shape>();
-    protected Map<Node, Line2D> tipLabelPaths = new HashMap<Node, Line2D>();
-    protected Map<Node, Line2D> branchLabelPaths = new HashMap<Node, Line2D>();
-    protected Map<Node, Line2D> nodeLabelPaths = new HashMap<Node, Line2D>();
-    protected Map<Node, Line2D> nodeShapePaths = new HashMap<Node, Line2D>();
-    protected Map<Node, Shape> calloutPaths = new HashMap<Node, Shape>();
+    protected Map<Node, Line2D> tipLabelPaths = new NodeLineMap();
+    protected Map<Node, Line2D> branchLabelPaths = new NodeLineMap();
+    protected Map<Node, Line2D> nodeLabelPaths = new NodeLineMap();
+    protected Map<Node, Line2D> nodeShapePaths = new NodeLineMap();
+    protected Map<Node, Shape> calloutPaths = new NodePathMap();
+
+    // Incremental layout - the layout, tree and layout generation that this geometry
+    // was constructed for, the subtrees invalidated since and the per-node state the
+    // layout needs to reconstruct a subtree in isolation.
+    private TreeLayout layout = null;
+    private RootedTree layoutTree = null;
+    private int layoutGeneration = -1;
+    private boolean layoutValid = false;
+    private final Set<Node> invalidSubtrees = new LinkedHashSet<Node>();
+    private final Map<Node, double[]> nodeLayoutStates = new HashMap<Node, double[]>();
+    private double[] layoutState = null;
+    private double rootLength = 0.0;
+    private int invalidationCount = 0;
+    private volatile boolean cancelled = false;
+
+    // Dense node indices into the arrays below. These are kept while the same tree
+    // is being laid out.
+    private final Map<Node, Integer> nodeIndices = new HashMap<Node, Integer>();
+    private Node[] indexedNodes = new Node[INITIAL_CAPACITY];
+    private int nodeCount = 0;
+    private RootedTree indexedTree = null;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int getNodeIndex(Object node) {
+        final Integer index = nodeIndices.get(node);
+        return (index == null ? -1 : index);
+    }
+
+    private int createNodeIndex(Node node) {
+        Integer index = nodeIndices.get(node);
+        if (index == null) {
+            if (nodeCount == indexedNodes.length) {
+                indexedNodes = Arrays.copyOf(indexedNodes, nodeCount * 2);
+            }
+            index = nodeCount;
+            indexedNodes[nodeCount] = node;
+            nodeIndices.put(node, index);
+            nodeCount++;
+        }
+        return index;
+    }
+
+    /**
+     * A map from nodes to values held in arrays by node index. The subclasses store
+     * the values and create views of them when asked.
+     */
+    private abstract class NodeValueMap<V> extends AbstractMap<Node, V> {
+
+        protected abstract void ensureCapacity(int capacity);
+
+        protected abstract V getValue(int index);
+
+        protected abstract void setValue(int index, V value);
+
+        protected void removeValue(int index) {
+        }
+
+        protected void clearValues() {
+        }
+
+        /**
+         * @return the memory used by the arrays holding the values
+         */
+        protected abstract long getValueByteCount();
+
+        long getByteCount() {
+            return HeapAccount.getArrayBytes(present.length, 1) + getValueByteCount();
+        }
+
+        protected boolean isPresent(int index) {
+            return index != -1 && index < present.length && present[index];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean containsKey(Object key) {
+            return isPresent(getNodeIndex(key));
+        }
+
+        public V get(Object key) {
+            final int index = getNodeIndex(key);
+            return (isPresent(index) ? getValue(index) : null);
+        }
+
+        public V put(Node node, V value) {
+            final int index = createNodeIndex(node);
+            V previous = null;
+            if (isPresent(index)) {
+                previous = getValue(index);
+                removeValue(index);
+            } else {
+                if (index >= present.length) {
+                    final int capacity = Math.max(index + 1, present.length * 2);
+                    present = Arrays.copyOf(present, capacity);
+                    ensureCapacity(capacity);
+                }
+                present[index] = true;
+                size++;
+            }
+            setValue(index, value);
+            return previous;
+        }
+
+        public V remove(Object key) {
+            final int index = getNodeIndex(key);
+            if (!isPresent(index)) {
+                return null;
+            }
+            final V previous = getValue(index);
+            removeIndex(index);
+            return previous;
+        }
+
+        private void removeIndex(int index) {
+            removeValue(index);
+            present[index] = false;
+            size--;
+        }
+
+        public void clear() {
+            Arrays.fill(present, false);
+            size = 0;
+            clearValues();
+        }
+
+        public Set<Node> keySet() {
+            return new AbstractSet<Node>() {
+                public Iterator<Node> iterator() {
+                    return new IndexIterator<Node>() {
+                        protected Node get(int index) {
+                            return indexedNodes[index];
+                        }
+                    };
+                }
+
+                public int size() {
+                    return size;
+                }
+
+                public boolean contains(Object o) {
+                    return containsKey(o);
+                }
+            };
+        }
+
+        public Set<Entry<Node, V>> entrySet() {
+            return new AbstractSet<Entry<Node, V>>() {
+                public Iterator<Entry<Node, V>> iterator() {
+                    return new IndexIterator<Entry<Node, V>>() {
+                        protected Entry<Node, V> get(int index) {
+                            return new SimpleImmutableEntry<Node, V>(indexedNodes[index], getValue(index));
+                        }
+                    };
+                }
+
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        /**
+         * Iterates over the indices that have values
+         */
+        private abstract class IndexIterator<T> implements Iterator<T> {
+            IndexIterator() {
+                advance();
+            }
+
+            protected abstract T get(int index);
+
+            private void advance() {
+                do {
+                    next++;
+                } while (next < present.length && !present[next]);
+            }
+
+            public boolean hasNext() {
+                return next < present.length;
+            }
+
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                advance();
+                return get(current);
+            }
+
+            public void remove() {
+                if (current == -1) {
+                    throw new IllegalStateException();
+                }
+                removeIndex(current);
+                current = -1;
+            }
+
+            private int next = -1;
+            private int current = -1;
+        }
+
+        private boolean[] present = new boolean[0];
+        private int size = 0;
+    }
+
+    /**
+     * Points as pairs of coordinates
+     */
+    private final class NodePointMap extends NodeValueMap<Point2D> {
+
+        double getX(Node node) {
+            final int index = getNodeIndex(node);
+            return (isPresent(index) ? coordinates[index * 2] : Double.NaN);
+        }
+
+        double getY(Node node) {
+            final int index = getNodeIndex(node);
+            return (isPresent(index) ? coordinates[(index * 2) + 1] : Double.NaN);
+        }
+
+        protected void ensureCapacity(int capacity) {
+            coordinates = Arrays.copyOf(coordinates, capacity * 2);
+        }
+
+        protected Point2D getValue(int index) {
+            return new Point2D.Double(coordinates[index * 2], coordinates[(index * 2) + 1]);
+        }
+
+        protected void setValue(int index, Point2D point) {
+            coordinates[index * 2] = point.getX();
+            coordinates[(index * 2) + 1] = point.getY();
+        }
+
+        protected long getValueByteCount() {
+            return HeapAccount.getArrayBytes(coordinates.length, 8);
+        }
+
+        private double[] coordinates = new double[0];
+    }
+
+    /**
+     * Lines (i.e., the label and node shape paths) as two pairs of coordinates
+     */
+    private final class NodeLineMap extends NodeValueMap<Line2D> {
+
+        protected void ensureCapacity(int capacity) {
+            coordinates = Arrays.copyOf(coordinates, capacity * 4);
+        }
+
+        protected Line2D getValue(int index) {
+            final int i = index * 4;
+            return new Line2D.Double(coordinates[i], coordinates[i + 1], coordinates[i + 2], coordinates[i + 3]);
+        }
+
+        protected void setValue(int index, Line2D line) {
+            final int i = index * 4;
+            coordinates[i] = line.getX1();
+            coordinates[i + 1] = line.getY1();
+            coordinates[i + 2] = line.getX2();
+            coordinates[i + 3] = line.getY2();
+        }
+
+        protected long getValueByteCount() {
+            return HeapAccount.getArrayBytes(coordinates.length, 8);
+        }
+
+        private double[] coordinates = new double[0];
+    }
+
+    /**
+     * Paths packed into a buffer of segment types and one of coordinates. The buffers
+     * are only ever appended to (or replaced) so the views of the paths handed out remain
+     * valid. Replaced paths are dropped when the buffers are compacted.
+     */
+    private final class NodePathMap extends NodeValueMap<Shape> {
+
+        protected void ensureCapacity(int capacity) {
+            typeOffsets = Arrays.copyOf(typeOffsets, capacity);
+            typeCounts = Arrays.copyOf(typeCounts, capacity);
+            coordinateOffsets = Arrays.copyOf(coordinateOffsets, capacity);
+            coordinateCounts = Arrays.copyOf(coordinateCounts, capacity);
+            windingRules = Arrays.copyOf(windingRules, capacity);
+        }
+
+        protected Shape getValue(int index) {
+            return new PackedPath(types, typeOffsets[index], typeCounts[index],
+                    coordinates, coordinateOffsets[index], coordinateCounts[index], windingRules[index]);
+        }
+
+        protected void setValue(int index, Shape shape) {
+            final int typeOffset = typeCount;
+            final int coordinateOffset = coordinateCount;
+
+            final PathIterator iterator = shape.getPathIterator(null);
+            while (!iterator.isDone()) {
+                final int type = iterator.currentSegment(segment);
+                final int count = PackedPath.getCoordinateCount(type);
+
+                if (typeCount == types.length) {
+                    types = Arrays.copyOf(types, Math.max(INITIAL_CAPACITY, typeCount * 2));
+                }
+                if (coordinateCount + count > coordinates.length) {
+                    coordinates = Arrays.copyOf(coordinates, Math.max(INITIAL_CAPACITY, coordinateCount * 2));
+                }
+
+                types[typeCount] = (byte)type;
+                typeCount++;
+                System.arraycopy(segment, 0, coordinates, coordinateCount, count);
+                coordinateCount += count;
+
+                iterator.next();
+            }
+
+            typeOffsets[index] = typeOffset;
+            typeCounts[index] = typeCount - typeOffset;
+            coordinateOffsets[index] = coordinateOffset;
+            coordinateCounts[index] = coordinateCount - coordinateOffset;
+            windingRules[index] = (byte)iterator.getWindingRule();
+        }
+
+        protected void removeValue(int index) {
+            unusedTypeCount += typeCounts[index];
+            if (unusedTypeCount > INITIAL_CAPACITY && unusedTypeCount > typeCount / 2) {
+                compact(index);
+            }
+        }
+
+        protected long getValueByteCount() {
+            return HeapAccount.getArrayBytes(types.length, 1) + HeapAccount.getArrayBytes(coordinates.length, 8) +
+                    (HeapAccount.getArrayBytes(typeOffsets.length, 4) * 4) + HeapAccount.getArrayBytes(windingRules.length, 1);
+        }
+
+        protected void clearValues() {
+            // new buffers so any views that are still about keep their paths
+            types = new byte[Math.max(INITIAL_CAPACITY, typeCount - unusedTypeCount)];
+            coordinates = new double[Math.max(INITIAL_CAPACITY, coordinateCount)];
+            typeCount = 0;
+            coordinateCount = 0;
+            unusedTypeCount = 0;
+        }
+
+        /**
+         * Copy the paths that are still in use into new buffers
+         * @param removed the index of a path being removed
+         */
+        private void compact(int removed) {
+            final byte[] newTypes = new byte[Math.max(INITIAL_CAPACITY, (typeCount - unusedTypeCount) * 2)];
+            final double[] newCoordinates = new double[Math.max(INITIAL_CAPACITY, coordinateCount)];
+            int newTypeCount = 0;
+            int newCoordinateCount = 0;
+
+            for (int index = 0; index < typeOffsets.length; index++) {
+                if (index != removed && isPresent(index)) {
+                    System.arraycopy(types, typeOffsets[index], newTypes, newTypeCount, typeCounts[index]);
+                    typeOffsets[index] = newTypeCount;
+                    newTypeCount += typeCounts[index];
+
+                    System.arraycopy(coordinates, coordinateOffsets[index], newCoordinates, newCoordinateCount, coordinateCounts[index]);
+                    coordinateOffsets[index] = newCoordinateCount;
+                    newCoordinateCount += coordinateCounts[index];
+                }
+            }
+
+            types = newTypes;
+            coordinates = newCoordinates;
+            typeCount = newTypeCount;
+            coordinateCount = newCoordinateCount;
+            unusedTypeCount = 0;
+        }
+
+        private byte[] types = new byte[INITIAL_CAPACITY];
+        private double[] coordinates = new double[INITIAL_CAPACITY];
+        private int typeCount = 0;
+        private int coordinateCount = 0;
+        private int unusedTypeCount = 0;
+
+        private int[] typeOffsets = new int[0];
+        private int[] typeCounts = new int[0];
+        private int[] coordinateOffsets = new int[0];
+        private int[] coordinateCounts = new int[0];
+        private byte[] windingRules = new byte[0];
+
+        private final double[] segment = new double[6];
+    }
 }